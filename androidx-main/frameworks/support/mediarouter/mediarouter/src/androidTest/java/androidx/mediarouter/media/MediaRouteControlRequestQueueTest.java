@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test {@link MediaRouteControlRequestQueue}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteControlRequestQueueTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Integer> mSentRequestIds = new ArrayList<>();
+    private final List<String> mResults = new ArrayList<>();
+
+    @Test
+    @SmallTest
+    public void sendControlRequest_beyondMaxInFlightRequests_queuesUntilResponse() {
+        MediaRouterDiagnosticsRecorder recorder =
+                new MediaRouterDiagnosticsRecorder(MediaRouterInternPool.getInstance());
+        getInstrumentation().runOnMainSync(() -> {
+            MediaRouteControlRequestQueue queue = new MediaRouteControlRequestQueue(
+                    mHandler,
+                    Runnable::run,
+                    TIMEOUT_MS,
+                    /* maxInFlightRequests= */ 2,
+                    recorder);
+            for (int requestId = 1; requestId <= 3; requestId++) {
+                assertTrue(queue.sendControlRequest(
+                        requestId, new RecordingCallback(requestId), this::recordSend));
+            }
+            assertEquals(Arrays.asList(1, 2), mSentRequestIds);
+            assertEquals(1, createSnapshot(recorder).getControlRequestQueueDepth());
+
+            assertTrue(queue.deliverResult(1, null));
+            assertEquals(Arrays.asList(1, 2, 3), mSentRequestIds);
+            MediaRouterDiagnostics diagnostics = createSnapshot(recorder);
+            assertEquals(0, diagnostics.getControlRequestQueueDepth());
+            assertEquals(1, diagnostics.getMaxControlRequestQueueDepth());
+            assertTrue(queue.deliverError(3, "error", null));
+            // Requests are only answered once.
+            assertFalse(queue.deliverResult(1, null));
+
+            queue.failAll();
+            assertEquals(Arrays.asList("1:result", "3:error", "2:null"), mResults);
+        });
+    }
+
+    @Test
+    @SmallTest
+    public void sendControlRequest_withoutCallbackWhileQueued_keepsRequestOrder() {
+        getInstrumentation().runOnMainSync(() -> {
+            MediaRouteControlRequestQueue queue = new MediaRouteControlRequestQueue(
+                    mHandler,
+                    Runnable::run,
+                    TIMEOUT_MS,
+                    /* maxInFlightRequests= */ 1,
+                    /* diagnosticsRecorder= */ null);
+            assertTrue(queue.sendControlRequest(1, /* callback= */ null, this::recordSend));
+            assertTrue(queue.sendControlRequest(2, new RecordingCallback(2), this::recordSend));
+            assertTrue(queue.sendControlRequest(3, new RecordingCallback(3), this::recordSend));
+            // Requests without callback are not sent ahead of the queued requests.
+            assertTrue(queue.sendControlRequest(4, /* callback= */ null, this::recordSend));
+            assertTrue(queue.sendControlRequest(5, new RecordingCallback(5), this::recordSend));
+            assertEquals(Arrays.asList(1, 2), mSentRequestIds);
+
+            assertTrue(queue.deliverResult(2, null));
+            assertEquals(Arrays.asList(1, 2, 3), mSentRequestIds);
+            assertTrue(queue.deliverResult(3, null));
+            assertEquals(Arrays.asList(1, 2, 3, 4, 5), mSentRequestIds);
+
+            queue.failAll();
+            assertEquals(Arrays.asList("2:result", "3:result", "5:null"), mResults);
+        });
+    }
+
+    @Test
+    @SmallTest
+    public void sendControlRequest_withoutResponse_failsAfterDeadline() throws Exception {
+        CountDownLatch errorLatch = new CountDownLatch(1);
+        MediaRouterDiagnosticsRecorder recorder =
+                new MediaRouterDiagnosticsRecorder(MediaRouterInternPool.getInstance());
+        MediaRouteControlRequestQueue[] queue = new MediaRouteControlRequestQueue[1];
+        getInstrumentation().runOnMainSync(() -> {
+            queue[0] = new MediaRouteControlRequestQueue(
+                    mHandler,
+                    Runnable::run,
+                    /* timeoutMillis= */ 50,
+                    /* maxInFlightRequests= */ 1,
+                    recorder);
+            queue[0].sendControlRequest(1, new RecordingCallback(1) {
+                @Override
+                public void onError(String error, Bundle data) {
+                    super.onError(error, data);
+                    errorLatch.countDown();
+                }
+            }, this::recordSend);
+        });
+
+        assertTrue(errorLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        getInstrumentation().runOnMainSync(() -> {
+            assertEquals(
+                    Arrays.asList("1:" + MediaRouteControlRequestQueue.ERROR_TIMEOUT), mResults);
+            // The late response is ignored.
+            assertFalse(queue[0].deliverResult(1, null));
+            assertEquals(1, createSnapshot(recorder).getControlRequestTimeoutCount());
+        });
+    }
+
+    private static MediaRouterDiagnostics createSnapshot(MediaRouterDiagnosticsRecorder recorder) {
+        return recorder.createSnapshot(
+                Collections.emptyMap(),
+                Collections.emptyMap(),
+                Collections.emptyList(),
+                Collections.emptyList(),
+                Collections.emptyList());
+    }
+
+    private boolean recordSend(int requestId) {
+        mSentRequestIds.add(requestId);
+        return true;
+    }
+
+    private class RecordingCallback extends MediaRouter.ControlRequestCallback {
+        private final int mRequestId;
+
+        RecordingCallback(int requestId) {
+            mRequestId = requestId;
+        }
+
+        @Override
+        public void onResult(Bundle data) {
+            mResults.add(mRequestId + ":result");
+        }
+
+        @Override
+        public void onError(String error, Bundle data) {
+            mResults.add(mRequestId + ":" + error);
+        }
+    }
+}
@@ -18,10 +18,14 @@ package androidx.mediarouter.media;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 import android.content.IntentFilter;
+import android.net.Uri;
 import android.os.Bundle;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -239,4 +243,89 @@ public class MediaRouteDescriptorTest {
         assertTrue(routeDescriptor.getControlFilters().isEmpty());
         assertTrue(routeDescriptor.getGroupMemberIds().isEmpty());
     }
+
+    @Test
+    @SmallTest
+    public void getContentFingerprint_withSameContent_returnsSameFingerprint() {
+        MediaRouteDescriptor routeDescriptor = createDescriptorWithVolume(/* volume= */ 5);
+        MediaRouteDescriptor sameDescriptor =
+                MediaRouteDescriptor.fromBundle(new Bundle(routeDescriptor.asBundle()));
+
+        assertNotSame(routeDescriptor.asBundle(), sameDescriptor.asBundle());
+        assertEquals(
+                routeDescriptor.getContentFingerprint(), sameDescriptor.getContentFingerprint());
+        assertNotEquals(
+                MediaRouteDescriptor.FINGERPRINT_NONE, routeDescriptor.getContentFingerprint());
+    }
+
+    @Test
+    @SmallTest
+    public void getContentFingerprint_withDifferentContent_returnsDifferentFingerprint() {
+        MediaRouteDescriptor routeDescriptor = createDescriptorWithVolume(/* volume= */ 5);
+        MediaRouteDescriptor changedDescriptor = createDescriptorWithVolume(/* volume= */ 6);
+        MediaRouteDescriptor renamedDescriptor =
+                new MediaRouteDescriptor.Builder(routeDescriptor).setName("Aa").build();
+        MediaRouteDescriptor otherRenamedDescriptor =
+                new MediaRouteDescriptor.Builder(routeDescriptor).setName("BB").build();
+
+        assertNotEquals(
+                routeDescriptor.getContentFingerprint(), changedDescriptor.getContentFingerprint());
+        // "Aa" and "BB" have the same String#hashCode().
+        assertNotEquals(
+                renamedDescriptor.getContentFingerprint(),
+                otherRenamedDescriptor.getContentFingerprint());
+    }
+
+    @Test
+    @SmallTest
+    public void getters_calledRepeatedly_returnCachedOrCopiedInstances() {
+        Set<String> allowedPackages = new HashSet<>();
+        allowedPackages.add(FAKE_PACKAGE_NAME);
+        MediaRouteDescriptor routeDescriptor =
+                new MediaRouteDescriptor.Builder(FAKE_MEDIA_ROUTE_ID_1, FAKE_MEDIA_ROUTE_NAME)
+                        .addGroupMemberId(FAKE_MEDIA_ROUTE_ID_2)
+                        .addControlFilter(new IntentFilter(FAKE_CONTROL_ACTION_1))
+                        .setIconUri(Uri.parse("content://androidx.mediarouter.test/icon"))
+                        .setVisibilityRestricted(allowedPackages)
+                        .build();
+
+        List<IntentFilter> controlFilters = routeDescriptor.getControlFiltersInternal();
+        assertSame(controlFilters, routeDescriptor.getControlFiltersInternal());
+        assertSame(routeDescriptor.getGroupMemberIds(), routeDescriptor.getGroupMemberIds());
+        assertSame(
+                routeDescriptor.getAllowedPackagesInternal(),
+                routeDescriptor.getAllowedPackagesInternal());
+        assertSame(
+                routeDescriptor.getDeduplicationIds(), routeDescriptor.getDeduplicationIds());
+        assertSame(routeDescriptor.getIconUri(), routeDescriptor.getIconUri());
+        assertThrows(
+                UnsupportedOperationException.class,
+                () -> controlFilters.add(new IntentFilter(FAKE_CONTROL_ACTION_2)));
+
+        // The public getters return copies that callers may modify.
+        List<IntentFilter> copiedControlFilters = routeDescriptor.getControlFilters();
+        assertNotSame(controlFilters, copiedControlFilters);
+        copiedControlFilters.add(new IntentFilter(FAKE_CONTROL_ACTION_2));
+        Set<String> copiedAllowedPackages = routeDescriptor.getAllowedPackages();
+        copiedAllowedPackages.clear();
+        assertEquals(allowedPackages, routeDescriptor.getAllowedPackages());
+
+        // Builders copy the values, so they can still modify them.
+        MediaRouteDescriptor copiedDescriptor =
+                new MediaRouteDescriptor.Builder(routeDescriptor)
+                        .addControlFilter(new IntentFilter(FAKE_CONTROL_ACTION_2))
+                        .build();
+        assertEquals(2, copiedDescriptor.getControlFilters().size());
+        assertEquals(1, routeDescriptor.getControlFilters().size());
+    }
+
+    private static MediaRouteDescriptor createDescriptorWithVolume(int volume) {
+        Bundle extras = new Bundle();
+        extras.putString(FAKE_CONTROL_ACTION_1, FAKE_PACKAGE_NAME);
+        return new MediaRouteDescriptor.Builder(FAKE_MEDIA_ROUTE_ID_1, FAKE_MEDIA_ROUTE_NAME)
+                .addControlFilter(new IntentFilter(FAKE_CONTROL_ACTION_1))
+                .setVolume(volume)
+                .setExtras(extras)
+                .build();
+    }
 }
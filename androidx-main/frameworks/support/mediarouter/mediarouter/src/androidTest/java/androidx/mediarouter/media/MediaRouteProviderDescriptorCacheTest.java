@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.IntentFilter;
+
+import androidx.core.util.AtomicFile;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test {@link MediaRouteProviderDescriptorCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteProviderDescriptorCacheTest {
+    private static final String PROVIDER_KEY = "com.example/.ProviderService";
+    private static final String EXPIRED_PROVIDER_KEY = "com.example/.ExpiredProviderService";
+    private static final long NOW = 1_700_000_000_000L;
+
+    private AtomicFile mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new AtomicFile(
+                new File(getApplicationContext().getCacheDir(), "MRDescriptorCacheTest"));
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    @SmallTest
+    public void writeAndRead_keepsRecentRoutesAndDropsExpiredOnes() {
+        IntentFilter filter = new IntentFilter();
+        filter.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        MediaRouteProviderDescriptor descriptor = new MediaRouteProviderDescriptor.Builder()
+                .addRoute(new MediaRouteDescriptor.Builder("route1", "Living room")
+                        .setDeviceType(MediaRouter.RouteInfo.DEVICE_TYPE_TV)
+                        .addControlFilter(filter)
+                        .build())
+                .addRoute(new MediaRouteDescriptor.Builder("route2", "Kitchen").build())
+                .setSupportsDynamicGroupRoute(true)
+                .build();
+        Map<String, MediaRouteProviderDescriptorCache.Entry> entries = new HashMap<>();
+        entries.put(PROVIDER_KEY, new MediaRouteProviderDescriptorCache.Entry(descriptor, NOW));
+        entries.put(EXPIRED_PROVIDER_KEY, new MediaRouteProviderDescriptorCache.Entry(
+                descriptor, NOW - MediaRouteProviderDescriptorCache.MAX_AGE_MILLIS - 1));
+
+        MediaRouteProviderDescriptorCache.write(mFile, entries);
+        Map<String, MediaRouteProviderDescriptorCache.Entry> readEntries =
+                MediaRouteProviderDescriptorCache.read(mFile, NOW);
+
+        assertEquals(1, readEntries.size());
+        MediaRouteProviderDescriptorCache.Entry entry = readEntries.get(PROVIDER_KEY);
+        assertEquals(NOW, entry.mSavedTimeMillis);
+        assertTrue(entry.mDescriptor.supportsDynamicGroupRoute());
+        List<MediaRouteDescriptor> routes = entry.mDescriptor.getRoutes();
+        assertEquals(2, routes.size());
+        assertEquals("route1", routes.get(0).getId());
+        assertEquals("Living room", routes.get(0).getName());
+        assertEquals(MediaRouter.RouteInfo.DEVICE_TYPE_TV, routes.get(0).getDeviceType());
+        assertTrue(routes.get(0).getControlFilters().get(0)
+                .hasCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK));
+        assertEquals("route2", routes.get(1).getId());
+    }
+
+    @Test
+    @SmallTest
+    public void writeAndRead_keepsControlFiltersWithDataTypes() throws Exception {
+        IntentFilter filter = new IntentFilter(MediaControlIntent.ACTION_PLAY, "video/*");
+        filter.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        filter.addDataScheme("https");
+        filter.setPriority(3);
+        MediaRouteProviderDescriptor descriptor = new MediaRouteProviderDescriptor.Builder()
+                .addRoute(new MediaRouteDescriptor.Builder("route1", "Living room").build())
+                .addRoute(new MediaRouteDescriptor.Builder("route2", "Kitchen")
+                        .addControlFilter(filter)
+                        .build())
+                .build();
+        Map<String, MediaRouteProviderDescriptorCache.Entry> entries = new HashMap<>();
+        entries.put(PROVIDER_KEY, new MediaRouteProviderDescriptorCache.Entry(descriptor, NOW));
+
+        MediaRouteProviderDescriptorCache.write(mFile, entries);
+        List<MediaRouteDescriptor> routes =
+                MediaRouteProviderDescriptorCache.read(mFile, NOW).get(PROVIDER_KEY)
+                        .mDescriptor.getRoutes();
+
+        assertEquals(2, routes.size());
+        assertTrue(routes.get(0).getControlFilters().isEmpty());
+        assertEquals(1, routes.get(1).getControlFilters().size());
+        IntentFilter readFilter = routes.get(1).getControlFilters().get(0);
+        assertTrue(readFilter.hasAction(MediaControlIntent.ACTION_PLAY));
+        assertTrue(readFilter.hasCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK));
+        assertTrue(readFilter.hasDataType("video/mp4"));
+        assertTrue(readFilter.hasDataScheme("https"));
+        assertEquals(3, readFilter.getPriority());
+    }
+
+    @Test
+    @SmallTest
+    public void read_withMissingOrMalformedFile_returnsNoEntries() throws Exception {
+        assertTrue(MediaRouteProviderDescriptorCache.read(mFile, NOW).isEmpty());
+
+        FileOutputStream stream = mFile.startWrite();
+        stream.write(new byte[] {0, 0, 0, 2, 0, 0, 0, 5, 42});
+        mFile.finishWrite(stream);
+        assertTrue(MediaRouteProviderDescriptorCache.read(mFile, NOW).isEmpty());
+
+        // A length larger than the file is not allocated.
+        stream = mFile.startWrite();
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(2);
+        output.writeInt(1);
+        output.writeUTF(PROVIDER_KEY);
+        output.writeLong(NOW);
+        output.writeBoolean(false);
+        output.writeInt(Integer.MAX_VALUE);
+        output.flush();
+        mFile.finishWrite(stream);
+        assertTrue(MediaRouteProviderDescriptorCache.read(mFile, NOW).isEmpty());
+    }
+}
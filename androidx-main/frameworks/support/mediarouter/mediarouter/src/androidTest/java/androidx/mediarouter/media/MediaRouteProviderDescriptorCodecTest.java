@@ -0,0 +1,199 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test {@link MediaRouteProviderDescriptorCodec}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteProviderDescriptorCodecTest {
+    private static final String TAG = "MRPDescriptorCodecTest";
+
+    private static final IntentFilter REMOTE_PLAYBACK_FILTER = new IntentFilter();
+    private static final IntentFilter LIVE_AUDIO_FILTER = new IntentFilter();
+    private static final IntentFilter VIDEO_FILTER = new IntentFilter();
+
+    static {
+        REMOTE_PLAYBACK_FILTER.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        REMOTE_PLAYBACK_FILTER.addAction(MediaControlIntent.ACTION_PLAY);
+        REMOTE_PLAYBACK_FILTER.addAction(MediaControlIntent.ACTION_SEEK);
+        REMOTE_PLAYBACK_FILTER.addDataScheme("http");
+        REMOTE_PLAYBACK_FILTER.addDataScheme("https");
+        LIVE_AUDIO_FILTER.addCategory(MediaControlIntent.CATEGORY_LIVE_AUDIO);
+        VIDEO_FILTER.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        VIDEO_FILTER.addAction(MediaControlIntent.ACTION_PLAY);
+        try {
+            VIDEO_FILTER.addDataType("video/*");
+        } catch (IntentFilter.MalformedMimeTypeException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void encodeAndDecode_preservesDescriptorContents() {
+        MediaRouteProviderDescriptor descriptor = createProviderDescriptor(/* routeCount= */ 3);
+
+        Bundle compactBundle = MediaRouteProviderDescriptorCodec.encode(descriptor.asBundle());
+        assertTrue(MediaRouteProviderDescriptorCodec.isCompact(compactBundle));
+        MediaRouteProviderDescriptor decodedDescriptor =
+                MediaRouteProviderDescriptor.fromBundle(
+                        MediaRouteProviderDescriptorCodec.decode(parcelAndUnparcel(compactBundle)));
+
+        assertTrue(decodedDescriptor.supportsDynamicGroupRoute());
+        List<MediaRouteDescriptor> routes = descriptor.getRoutes();
+        List<MediaRouteDescriptor> decodedRoutes = decodedDescriptor.getRoutes();
+        assertEquals(routes.size(), decodedRoutes.size());
+        for (int i = 0; i < routes.size(); i++) {
+            MediaRouteDescriptor route = routes.get(i);
+            MediaRouteDescriptor decodedRoute = decodedRoutes.get(i);
+            assertEquals(route.getContentFingerprint(), decodedRoute.getContentFingerprint());
+            assertEquals(route.getId(), decodedRoute.getId());
+            assertEquals(route.getVolume(), decodedRoute.getVolume());
+            assertEquals(route.getGroupMemberIds(), decodedRoute.getGroupMemberIds());
+            assertEquals("value" + i, decodedRoute.getExtras().getString("key"));
+            assertEquals(
+                    route.getControlFilters().size(), decodedRoute.getControlFilters().size());
+        }
+        // Identical control filters are shared by the decoded routes.
+        assertSame(
+                decodedRoutes.get(0).getControlFilters().get(0),
+                decodedRoutes.get(2).getControlFilters().get(0));
+    }
+
+    @Test
+    @SmallTest
+    public void decode_withMalformedOrLegacyBundle_fallsBack() {
+        Bundle legacyBundle = createProviderDescriptor(/* routeCount= */ 1).asBundle();
+        assertFalse(MediaRouteProviderDescriptorCodec.isCompact(legacyBundle));
+        assertSame(legacyBundle, MediaRouteProviderDescriptorCodec.decode(legacyBundle));
+
+        Bundle malformedBundle = new Bundle();
+        malformedBundle.putByteArray(
+                MediaRouteProviderProtocol.DATA_KEY_COMPACT_ROUTES, new byte[] {1, 5, 2});
+        assertNull(MediaRouteProviderDescriptorCodec.decode(malformedBundle));
+    }
+
+    // Compares the encoding size and the decoding time of the compact form with the bundle form.
+    @Test
+    @LargeTest
+    public void encode_withManyRoutes_isSmallerAndReportsDecodeTime() {
+        final int routeCount = 1000;
+        final int iterations = 20;
+        Bundle bundle = createProviderDescriptor(routeCount).asBundle();
+        Bundle compactBundle = MediaRouteProviderDescriptorCodec.encode(bundle);
+
+        byte[] bundleBytes = marshall(bundle);
+        byte[] compactBytes = marshall(compactBundle);
+        long bundleDecodeNanos = 0;
+        long compactDecodeNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            readControlFilters(unmarshall(bundleBytes));
+            bundleDecodeNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+
+            startNanos = SystemClock.elapsedRealtimeNanos();
+            readControlFilters(MediaRouteProviderDescriptorCodec.decode(unmarshall(compactBytes)));
+            compactDecodeNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+        }
+        Log.i(TAG, routeCount + " routes: bundle " + bundleBytes.length + " bytes, "
+                + bundleDecodeNanos / iterations / 1000 + " us to decode; compact "
+                + compactBytes.length + " bytes, "
+                + compactDecodeNanos / iterations / 1000 + " us to decode");
+
+        assertTrue(compactBytes.length < bundleBytes.length);
+    }
+
+    private static MediaRouteProviderDescriptor createProviderDescriptor(int routeCount) {
+        MediaRouteProviderDescriptor.Builder builder =
+                new MediaRouteProviderDescriptor.Builder().setSupportsDynamicGroupRoute(true);
+        for (int i = 0; i < routeCount; i++) {
+            Bundle extras = new Bundle();
+            extras.putString("key", "value" + i);
+            MediaRouteDescriptor.Builder routeBuilder =
+                    new MediaRouteDescriptor.Builder("route" + i, "Route " + i)
+                            .setDescription("Living room speaker")
+                            .setDeviceType(MediaRouter.RouteInfo.DEVICE_TYPE_REMOTE_SPEAKER)
+                            .setVolume(i % 20)
+                            .setVolumeMax(20)
+                            .setVolumeHandling(MediaRouter.RouteInfo.PLAYBACK_VOLUME_VARIABLE)
+                            .addControlFilter(REMOTE_PLAYBACK_FILTER)
+                            .addControlFilter(LIVE_AUDIO_FILTER)
+                            .setExtras(extras);
+            if (i % 2 == 0) {
+                routeBuilder.addGroupMemberId("route" + (i + 1));
+            } else {
+                routeBuilder.addControlFilter(VIDEO_FILTER);
+            }
+            builder.addRoute(routeBuilder.build());
+        }
+        return builder.build();
+    }
+
+    private static void readControlFilters(Bundle descriptorBundle) {
+        for (MediaRouteDescriptor route :
+                MediaRouteProviderDescriptor.fromBundle(descriptorBundle).getRoutes()) {
+            route.getControlFilters();
+        }
+    }
+
+    private static Bundle parcelAndUnparcel(Bundle bundle) {
+        return unmarshall(marshall(bundle));
+    }
+
+    private static byte[] marshall(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Bundle unmarshall(byte[] bytes) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return parcel.readBundle(MediaRouteProviderDescriptorCodecTest.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
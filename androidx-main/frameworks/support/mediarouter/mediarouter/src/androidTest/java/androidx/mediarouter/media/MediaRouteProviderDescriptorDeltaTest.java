@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test {@link MediaRouteProviderDescriptorDelta}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteProviderDescriptorDeltaTest {
+    private static final int ROUTE_COUNT = 10;
+
+    @Test
+    @SmallTest
+    public void update_withVolumeChange_sendsOnlyChangedRoute() {
+        MediaRouteProviderDescriptor descriptor = createDescriptor(/* changedVolumeIndex= */ -1);
+        MediaRouteProviderDescriptorDelta.Tracker tracker =
+                new MediaRouteProviderDescriptorDelta.Tracker();
+        tracker.reset(descriptor.asBundle());
+
+        // Republishing the same contents produces an empty delta.
+        Bundle emptyDelta = tracker.update(createDescriptor(-1).asBundle());
+        assertNotNull(emptyDelta);
+        assertTrue(emptyDelta.isEmpty());
+
+        MediaRouteProviderDescriptor changedDescriptor =
+                createDescriptor(/* changedVolumeIndex= */ 3);
+        Bundle delta = tracker.update(changedDescriptor.asBundle());
+        assertNotNull(delta);
+        assertFalse(delta.containsKey(MediaRouteProviderProtocol.DATA_KEY_REMOVED_ROUTE_IDS));
+        assertFalse(delta.containsKey(MediaRouteProviderProtocol.DATA_KEY_ROUTE_IDS));
+        MediaRouteProviderDescriptor updatedRoutes = MediaRouteProviderDescriptor.fromBundle(
+                MediaRouteProviderDescriptorCodec.decode(
+                        delta.getBundle(MediaRouteProviderProtocol.DATA_KEY_UPDATED_ROUTES)));
+        assertEquals(1, updatedRoutes.getRoutes().size());
+        assertEquals("route3", updatedRoutes.getRoutes().get(0).getId());
+
+        MediaRouteProviderDescriptor appliedDescriptor =
+                MediaRouteProviderDescriptorDelta.apply(descriptor, delta);
+        assertRoutesEqual(changedDescriptor, appliedDescriptor);
+        // Unchanged routes are reused.
+        assertSame(descriptor.getRoutes().get(0), appliedDescriptor.getRoutes().get(0));
+    }
+
+    @Test
+    @SmallTest
+    public void update_withRemovedAddedAndReorderedRoutes_appliesInOrder() {
+        MediaRouteProviderDescriptor descriptor = createDescriptor(-1);
+        MediaRouteProviderDescriptorDelta.Tracker tracker =
+                new MediaRouteProviderDescriptorDelta.Tracker();
+        tracker.reset(descriptor.asBundle());
+
+        List<MediaRouteDescriptor> routes = new ArrayList<>(descriptor.getRoutes());
+        routes.remove(5);
+        routes.add(0, createRoute("route10", /* volume= */ 1));
+        MediaRouteProviderDescriptor changedDescriptor =
+                new MediaRouteProviderDescriptor.Builder().addRoutes(routes).build();
+        Bundle delta = tracker.update(changedDescriptor.asBundle());
+
+        assertNotNull(delta);
+        assertTrue(delta.containsKey(MediaRouteProviderProtocol.DATA_KEY_REMOVED_ROUTE_IDS));
+        assertTrue(delta.containsKey(MediaRouteProviderProtocol.DATA_KEY_ROUTE_IDS));
+        assertRoutesEqual(
+                changedDescriptor, MediaRouteProviderDescriptorDelta.apply(descriptor, delta));
+    }
+
+    @Test
+    @SmallTest
+    public void update_withoutPreviousDescriptorOrMostRoutesChanged_requiresFullDescriptor() {
+        MediaRouteProviderDescriptorDelta.Tracker tracker =
+                new MediaRouteProviderDescriptorDelta.Tracker();
+        assertNull(tracker.update(createDescriptor(-1).asBundle()));
+
+        MediaRouteProviderDescriptor.Builder builder = new MediaRouteProviderDescriptor.Builder();
+        for (int i = 0; i < ROUTE_COUNT; i++) {
+            builder.addRoute(createRoute("route" + i, /* volume= */ 10));
+        }
+        assertNull(tracker.update(builder.build().asBundle()));
+    }
+
+    private static void assertRoutesEqual(
+            MediaRouteProviderDescriptor expected, MediaRouteProviderDescriptor actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getRoutes().size(), actual.getRoutes().size());
+        for (int i = 0; i < expected.getRoutes().size(); i++) {
+            MediaRouteDescriptor expectedRoute = expected.getRoutes().get(i);
+            MediaRouteDescriptor actualRoute = actual.getRoutes().get(i);
+            assertEquals(expectedRoute.getId(), actualRoute.getId());
+            assertEquals(
+                    expectedRoute.getContentFingerprint(), actualRoute.getContentFingerprint());
+        }
+    }
+
+    private static MediaRouteProviderDescriptor createDescriptor(int changedVolumeIndex) {
+        MediaRouteProviderDescriptor.Builder builder = new MediaRouteProviderDescriptor.Builder();
+        for (int i = 0; i < ROUTE_COUNT; i++) {
+            builder.addRoute(createRoute("route" + i, i == changedVolumeIndex ? 9 : 5));
+        }
+        return builder.build();
+    }
+
+    private static MediaRouteDescriptor createRoute(String id, int volume) {
+        return new MediaRouteDescriptor.Builder(id, "Route " + id)
+                .setVolume(volume)
+                .setVolumeMax(10)
+                .build();
+    }
+}
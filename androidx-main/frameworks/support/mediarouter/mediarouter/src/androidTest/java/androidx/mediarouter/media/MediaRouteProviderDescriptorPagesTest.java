@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test {@link MediaRouteProviderDescriptorPages}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteProviderDescriptorPagesTest {
+    private static final String DESCRIPTION =
+            "A speaker in the living room, next to the window, grouped with the kitchen speaker";
+
+    @Test
+    @SmallTest
+    public void split_withSmallDescriptor_returnsNull() {
+        Bundle descriptorBundle = createProviderDescriptor(/* routeCount= */ 3).asBundle();
+
+        assertNull(MediaRouteProviderDescriptorPages.split(
+                descriptorBundle, MediaRouteProviderDescriptorCodec.encode(descriptorBundle)));
+    }
+
+    @Test
+    @LargeTest
+    public void splitAndAssemble_withManyRoutes_preservesRoutesWithinMessageLimit() {
+        final int routeCount = 5000;
+        Bundle descriptorBundle = createProviderDescriptor(routeCount).asBundle();
+        List<Bundle> pages = MediaRouteProviderDescriptorPages.split(
+                descriptorBundle, MediaRouteProviderDescriptorCodec.encode(descriptorBundle));
+
+        assertNotNull(pages);
+        assertTrue(pages.size() > 1);
+        MediaRouteProviderDescriptorPages.Assembler assembler =
+                new MediaRouteProviderDescriptorPages.Assembler();
+        for (Bundle page : pages) {
+            assertTrue(MediaRouteProviderDescriptorPages.fitsInMessage(page));
+            assertFalse(assembler.isComplete());
+            assertTrue(assembler.addPage(/* sequenceNumber= */ 1, page));
+        }
+        assertTrue(assembler.isComplete());
+        MediaRouteProviderDescriptor descriptor =
+                MediaRouteProviderDescriptor.fromBundle(assembler.takeDescriptorBundle());
+
+        assertTrue(descriptor.supportsDynamicGroupRoute());
+        List<MediaRouteDescriptor> routes = descriptor.getRoutes();
+        assertEquals(routeCount, routes.size());
+        for (int i = 0; i < routeCount; i++) {
+            assertEquals("route" + i, routes.get(i).getId());
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void split_withLargeRoutesTogether_splitsPagesUntilTheyFit() {
+        final int routeCount = 1000;
+        MediaRouteProviderDescriptor.Builder builder = new MediaRouteProviderDescriptor.Builder();
+        for (int i = 0; i < routeCount; i++) {
+            Bundle extras = new Bundle();
+            // The first routes are much larger than the average.
+            extras.putByteArray("key", new byte[i < 10 ? 100 * 1024 : 16]);
+            builder.addRoute(new MediaRouteDescriptor.Builder("route" + i, "Route " + i)
+                    .setExtras(extras)
+                    .build());
+        }
+        Bundle descriptorBundle = builder.build().asBundle();
+        List<Bundle> pages = MediaRouteProviderDescriptorPages.split(
+                descriptorBundle, MediaRouteProviderDescriptorCodec.encode(descriptorBundle));
+
+        assertNotNull(pages);
+        MediaRouteProviderDescriptorPages.Assembler assembler =
+                new MediaRouteProviderDescriptorPages.Assembler();
+        for (int i = 0; i < pages.size(); i++) {
+            Bundle page = pages.get(i);
+            assertTrue(MediaRouteProviderDescriptorPages.fitsInMessage(page));
+            assertEquals(i, page.getInt(MediaRouteProviderProtocol.DATA_KEY_PAGE_INDEX));
+            assertEquals(pages.size(),
+                    page.getInt(MediaRouteProviderProtocol.DATA_KEY_PAGE_COUNT));
+            assertTrue(assembler.addPage(/* sequenceNumber= */ 1, page));
+        }
+        assertTrue(assembler.isComplete());
+        assertEquals(routeCount, MediaRouteProviderDescriptor.fromBundle(
+                assembler.takeDescriptorBundle()).getRoutes().size());
+    }
+
+    @Test
+    @SmallTest
+    public void isPagesFollowBundle() {
+        assertTrue(MediaRouteProviderDescriptorPages.isPagesFollowBundle(
+                MediaRouteProviderDescriptorPages.createPagesFollowBundle(/* pageCount= */ 3)));
+        assertFalse(MediaRouteProviderDescriptorPages.isPagesFollowBundle(null));
+        assertFalse(MediaRouteProviderDescriptorPages.isPagesFollowBundle(
+                createProviderDescriptor(/* routeCount= */ 3).asBundle()));
+    }
+
+    @Test
+    @SmallTest
+    public void addPage_withMissingPage_dropsDescriptor() {
+        Bundle descriptorBundle = createProviderDescriptor(/* routeCount= */ 3).asBundle();
+        Bundle firstPage = createPage(descriptorBundle, /* pageIndex= */ 0, /* pageCount= */ 3);
+        Bundle lastPage = createPage(new Bundle(), /* pageIndex= */ 2, /* pageCount= */ 3);
+        MediaRouteProviderDescriptorPages.Assembler assembler =
+                new MediaRouteProviderDescriptorPages.Assembler();
+
+        assertTrue(assembler.addPage(/* sequenceNumber= */ 4, firstPage));
+        assertFalse(assembler.addPage(/* sequenceNumber= */ 4, lastPage));
+        assertFalse(assembler.isComplete());
+        // The pages of a later descriptor are accepted.
+        assertTrue(assembler.addPage(/* sequenceNumber= */ 5, firstPage));
+        // Pages of different descriptors are not mixed.
+        assertFalse(assembler.addPage(/* sequenceNumber= */ 6,
+                createPage(new Bundle(), /* pageIndex= */ 1, /* pageCount= */ 3)));
+    }
+
+    private static Bundle createPage(Bundle descriptorBundle, int pageIndex, int pageCount) {
+        Bundle page = new Bundle();
+        page.putInt(MediaRouteProviderProtocol.DATA_KEY_PAGE_INDEX, pageIndex);
+        page.putInt(MediaRouteProviderProtocol.DATA_KEY_PAGE_COUNT, pageCount);
+        page.putBundle(MediaRouteProviderProtocol.DATA_KEY_PAGE_DESCRIPTOR,
+                MediaRouteProviderDescriptorCodec.encode(descriptorBundle));
+        return page;
+    }
+
+    private static MediaRouteProviderDescriptor createProviderDescriptor(int routeCount) {
+        MediaRouteProviderDescriptor.Builder builder =
+                new MediaRouteProviderDescriptor.Builder().setSupportsDynamicGroupRoute(true);
+        for (int i = 0; i < routeCount; i++) {
+            Bundle extras = new Bundle();
+            extras.putString("key", DESCRIPTION + i);
+            builder.addRoute(new MediaRouteDescriptor.Builder("route" + i, "Route " + i)
+                    .setDescription(DESCRIPTION)
+                    .setDeviceType(MediaRouter.RouteInfo.DEVICE_TYPE_REMOTE_SPEAKER)
+                    .setVolumeMax(20)
+                    .setVolumeHandling(MediaRouter.RouteInfo.PLAYBACK_VOLUME_VARIABLE)
+                    .setExtras(extras)
+                    .build());
+        }
+        return builder.build();
+    }
+}
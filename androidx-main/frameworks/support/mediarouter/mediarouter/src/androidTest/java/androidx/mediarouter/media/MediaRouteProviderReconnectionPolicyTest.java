@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouteProviderReconnectionPolicy.CONNECTION_LOSS_WINDOW_MILLIS;
+import static androidx.mediarouter.media.MediaRouteProviderReconnectionPolicy.INITIAL_BACKOFF_MILLIS;
+import static androidx.mediarouter.media.MediaRouteProviderReconnectionPolicy.QUARANTINE_CONNECTION_LOSS_COUNT;
+import static androidx.mediarouter.media.MediaRouteProviderReconnectionPolicy.QUARANTINE_MILLIS;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/** Test {@link MediaRouteProviderReconnectionPolicy}. */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteProviderReconnectionPolicyTest {
+    @Test
+    @SmallTest
+    public void onConnectionLost_backsOffExponentiallyThenQuarantines() {
+        MediaRouteProviderReconnectionPolicy policy =
+                new MediaRouteProviderReconnectionPolicy(new Random(0));
+        long now = 1000;
+        assertEquals(0, policy.getBindDelayMillis(now));
+
+        for (int i = 0; i < QUARANTINE_CONNECTION_LOSS_COUNT - 1; i++) {
+            long backoffMillis = INITIAL_BACKOFF_MILLIS << i;
+            long delayMillis = policy.onConnectionLost(now);
+            assertTrue(delayMillis >= backoffMillis / 2 && delayMillis <= backoffMillis);
+            assertEquals(delayMillis, policy.getBindDelayMillis(now));
+            assertFalse(policy.isQuarantined(now));
+            now += delayMillis;
+            assertEquals(0, policy.getBindDelayMillis(now));
+        }
+
+        assertEquals(QUARANTINE_MILLIS, policy.onConnectionLost(now));
+        assertTrue(policy.isQuarantined(now));
+
+        // The backoff starts over once the quarantine ends.
+        now += QUARANTINE_MILLIS;
+        assertFalse(policy.isQuarantined(now));
+        assertTrue(policy.onConnectionLost(now) <= INITIAL_BACKOFF_MILLIS);
+    }
+
+    @Test
+    @SmallTest
+    public void reset_whileQuarantined_allowsBindingAtOnce() {
+        MediaRouteProviderReconnectionPolicy policy =
+                new MediaRouteProviderReconnectionPolicy(new Random(0));
+        long now = 1000;
+        assertFalse(policy.hasConnectionLosses(now));
+        for (int i = 0; i < QUARANTINE_CONNECTION_LOSS_COUNT; i++) {
+            policy.onConnectionLost(now);
+        }
+        assertTrue(policy.isQuarantined(now));
+        assertTrue(policy.hasConnectionLosses(now));
+
+        policy.reset();
+
+        assertFalse(policy.isQuarantined(now));
+        assertFalse(policy.hasConnectionLosses(now));
+        assertEquals(0, policy.getBindDelayMillis(now));
+        // The backoff starts over.
+        assertTrue(policy.onConnectionLost(now) <= INITIAL_BACKOFF_MILLIS);
+    }
+
+    @Test
+    @SmallTest
+    public void onConnectionLost_outsideOfWindow_isForgotten() {
+        MediaRouteProviderReconnectionPolicy policy =
+                new MediaRouteProviderReconnectionPolicy(new Random(0));
+        long now = 1000;
+        for (int i = 0; i < QUARANTINE_CONNECTION_LOSS_COUNT * 2; i++) {
+            assertTrue(policy.onConnectionLost(now) <= INITIAL_BACKOFF_MILLIS);
+            assertFalse(policy.isQuarantined(now));
+            now += CONNECTION_LOSS_WINDOW_MILLIS;
+        }
+    }
+}
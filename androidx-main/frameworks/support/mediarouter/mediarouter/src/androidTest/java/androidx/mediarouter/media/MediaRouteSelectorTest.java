@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.IntentFilter;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test {@link MediaRouteSelector}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouteSelectorTest {
+    @Test
+    @SmallTest
+    public void contains_comparesControlCategories() {
+        MediaRouteSelector selector =
+                new MediaRouteSelector.Builder()
+                        .addControlCategory(MediaControlIntent.CATEGORY_LIVE_AUDIO)
+                        .addControlCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK)
+                        .build();
+        MediaRouteSelector subset =
+                new MediaRouteSelector.Builder()
+                        .addControlCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK)
+                        .build();
+
+        assertTrue(selector.contains(subset));
+        assertTrue(selector.contains(MediaRouteSelector.EMPTY));
+        assertFalse(subset.contains(selector));
+        assertFalse(MediaRouteSelector.EMPTY.contains(subset));
+        // Selectors created from a bundle are compared by contents as well.
+        assertTrue(subset.contains(MediaRouteSelector.fromBundle(new Bundle(subset.asBundle()))));
+    }
+
+    @Test
+    @SmallTest
+    public void matchesControlFilters_withManyCategories_matchesLikeControlFilters() {
+        List<String> categories = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            categories.add("androidx.mediarouter.media.test.CATEGORY_" + i);
+        }
+        MediaRouteSelector lastCategorySelector =
+                new MediaRouteSelector.Builder()
+                        .addControlCategory(categories.get(categories.size() - 1))
+                        .build();
+        MediaRouteSelector firstCategorySelector =
+                new MediaRouteSelector.Builder().addControlCategory(categories.get(0)).build();
+        IntentFilter filter = new IntentFilter();
+        filter.addCategory(categories.get(categories.size() - 1));
+        List<IntentFilter> filters = Collections.singletonList(filter);
+        long[] filterBits = MediaControlCategoryRegistry.getControlFilterCategoryBits(filters);
+
+        assertTrue(lastCategorySelector.matchesControlFilters(filters));
+        assertTrue(lastCategorySelector.matchesControlFilters(filterBits, filters));
+        assertFalse(firstCategorySelector.matchesControlFilters(filters));
+        assertFalse(firstCategorySelector.matchesControlFilters(filterBits, filters));
+        assertFalse(MediaRouteSelector.EMPTY.matchesControlFilters(filterBits, filters));
+        assertTrue(
+                new MediaRouteSelector.Builder()
+                        .addControlCategories(categories)
+                        .build()
+                        .contains(lastCategorySelector));
+        assertEquals(
+                MediaControlCategoryRegistry.getCategoryId(categories.get(0)),
+                MediaControlCategoryRegistry.getCategoryId(categories.get(0)));
+    }
+
+    @Test
+    @SmallTest
+    public void matchesControlFilters_withRegistryFull_matchesCategoriesByName() {
+        // Categories are registered process-wide, so fill the registry with unique categories.
+        for (int i = 0; i < MediaControlCategoryRegistry.MAX_CATEGORY_COUNT; i++) {
+            MediaControlCategoryRegistry.getCategoryId(
+                    "androidx.mediarouter.media.test.FILLER_CATEGORY_" + i);
+        }
+        String category1 = "androidx.mediarouter.media.test.UNREGISTERED_CATEGORY_1";
+        String category2 = "androidx.mediarouter.media.test.UNREGISTERED_CATEGORY_2";
+        assertEquals(
+                MediaControlCategoryRegistry.UNREGISTERED_CATEGORY_ID,
+                MediaControlCategoryRegistry.getCategoryId(category1));
+        MediaRouteSelector selector1 =
+                new MediaRouteSelector.Builder().addControlCategory(category1).build();
+        MediaRouteSelector selector2 =
+                new MediaRouteSelector.Builder().addControlCategory(category2).build();
+        IntentFilter filter = new IntentFilter();
+        filter.addCategory(category1);
+        List<IntentFilter> filters = Collections.singletonList(filter);
+        long[] filterBits = MediaControlCategoryRegistry.getControlFilterCategoryBits(filters);
+
+        assertTrue(selector1.matchesControlFilters(filterBits, filters));
+        assertFalse(selector2.matchesControlFilters(filterBits, filters));
+        assertTrue(selector1.matchesControlCategories(
+                filterBits, Collections.singletonList(category1)));
+        assertFalse(selector2.matchesControlCategories(
+                filterBits, Collections.singletonList(category1)));
+        assertTrue(selector1.contains(
+                new MediaRouteSelector.Builder().addControlCategory(category1).build()));
+        assertFalse(selector1.contains(selector2));
+        assertTrue(new MediaRouteSelector.Builder()
+                .addControlCategory(category1)
+                .addControlCategory(category2)
+                .build()
+                .contains(selector2));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test {@link MediaRouterDiscoveryCounts}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouterDiscoveryCountsTest {
+    private static final String CATEGORY_A = "androidx.mediarouter.media.test.CATEGORY_A";
+    private static final String CATEGORY_B = "androidx.mediarouter.media.test.CATEGORY_B";
+
+    @Test
+    @SmallTest
+    public void addAndRemove_maintainsSelectorByReferenceCount() {
+        MediaRouterDiscoveryCounts counts = new MediaRouterDiscoveryCounts();
+        MediaRouter.CallbackRecord recordA = createRecord(0, 0, CATEGORY_A);
+        MediaRouter.CallbackRecord recordAB = createRecord(0, 0, CATEGORY_A, CATEGORY_B);
+
+        counts.add(recordA);
+        counts.add(recordAB);
+        MediaRouteSelector selector = counts.getSelector();
+        assertEquals(2, counts.getCallbackCount());
+        assertTrue(selector.hasControlCategory(CATEGORY_A));
+        assertTrue(selector.hasControlCategory(CATEGORY_B));
+
+        // CATEGORY_A is still referenced by recordAB, so the selector is unchanged.
+        counts.remove(recordA);
+        assertSame(selector, counts.getSelector());
+
+        counts.remove(recordAB);
+        assertEquals(0, counts.getCallbackCount());
+        assertTrue(counts.getSelector().isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void addAndRemove_tracksDiscoveryFlagsAndLatestActiveScanTimestamp() {
+        MediaRouterDiscoveryCounts counts = new MediaRouterDiscoveryCounts();
+        MediaRouter.CallbackRecord requestDiscovery =
+                createRecord(MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY, 0, CATEGORY_A);
+        MediaRouter.CallbackRecord activeScan1 =
+                createRecord(MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN, 100, CATEGORY_A);
+        MediaRouter.CallbackRecord activeScan2 =
+                createRecord(MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN, 200, CATEGORY_A);
+
+        counts.add(requestDiscovery);
+        assertTrue(counts.isDiscoveryRequested(/* lowRam= */ false));
+        assertFalse(counts.isDiscoveryRequested(/* lowRam= */ true));
+        assertEquals(Long.MIN_VALUE, counts.getLatestActiveScanTimestamp());
+
+        counts.add(activeScan1);
+        counts.add(activeScan2);
+        assertTrue(counts.isDiscoveryRequested(/* lowRam= */ true));
+        assertEquals(200, counts.getLatestActiveScanTimestamp());
+
+        counts.remove(activeScan2);
+        assertEquals(100, counts.getLatestActiveScanTimestamp());
+    }
+
+    @Test
+    @SmallTest
+    public void addAndRemove_tracksBatchRouteChangesFlag() {
+        MediaRouterDiscoveryCounts counts = new MediaRouterDiscoveryCounts();
+        MediaRouter.CallbackRecord batchRecord =
+                createRecord(MediaRouter.CALLBACK_FLAG_BATCH_ROUTE_CHANGES, 0, CATEGORY_A);
+
+        counts.add(createRecord(0, 0, CATEGORY_A));
+        assertFalse(counts.isBatchRouteChangesRequested());
+        counts.add(batchRecord);
+        assertTrue(counts.isBatchRouteChangesRequested());
+        // The flag alone doesn't request discovery.
+        assertFalse(counts.isDiscoveryRequested(/* lowRam= */ false));
+
+        counts.remove(batchRecord);
+        assertFalse(counts.isBatchRouteChangesRequested());
+    }
+
+    @Test
+    @SmallTest
+    public void removeAll_discountsAllContributions() {
+        MediaRouterDiscoveryCounts routerCounts = new MediaRouterDiscoveryCounts();
+        routerCounts.add(createRecord(MediaRouter.CALLBACK_FLAG_FORCE_DISCOVERY, 0, CATEGORY_A));
+        routerCounts.add(createRecord(0, 0, CATEGORY_B));
+        MediaRouterDiscoveryCounts globalCounts = new MediaRouterDiscoveryCounts();
+        globalCounts.add(createRecord(0, 0, CATEGORY_B));
+
+        globalCounts.addAll(routerCounts);
+        assertEquals(3, globalCounts.getCallbackCount());
+        assertTrue(globalCounts.isDiscoveryRequested(/* lowRam= */ false));
+
+        globalCounts.removeAll(routerCounts);
+        assertEquals(1, globalCounts.getCallbackCount());
+        assertFalse(globalCounts.isDiscoveryRequested(/* lowRam= */ false));
+        assertFalse(globalCounts.getSelector().hasControlCategory(CATEGORY_A));
+        assertTrue(globalCounts.getSelector().hasControlCategory(CATEGORY_B));
+    }
+
+    private static MediaRouter.CallbackRecord createRecord(
+            int flags, long timestamp, String... categories) {
+        MediaRouter.CallbackRecord record =
+                new MediaRouter.CallbackRecord(/* router= */ null, new MediaRouter.Callback() {});
+        MediaRouteSelector.Builder builder = new MediaRouteSelector.Builder();
+        for (String category : categories) {
+            builder.addControlCategory(category);
+        }
+        record.mSelector = builder.build();
+        record.mFlags = flags;
+        record.mTimestamp = timestamp;
+        return record;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Test {@link MediaRouterInternPool}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouterInternPoolTest {
+    @Test
+    @SmallTest
+    public void internControlFilters_withParcelledCopies_returnsSharedInstance() {
+        MediaRouterInternPool pool = MediaRouterInternPool.getInstance();
+        MediaRouteDescriptor route1 = parcelAndUnparcel(createRoute("route1", "http"));
+        MediaRouteDescriptor route2 = parcelAndUnparcel(createRoute("route2", "http"));
+        assertNotSame(route1.getControlFilters().get(0), route2.getControlFilters().get(0));
+        long deduplicatedValueCount = pool.getDeduplicatedValueCount();
+
+        List<IntentFilter> filters1 = pool.internControlFilters(route1.getControlFilters());
+        List<IntentFilter> filters2 = pool.internControlFilters(route2.getControlFilters());
+
+        assertSame(filters1, filters2);
+        assertEquals(1, filters1.size());
+        assertEquals(
+                MediaControlIntent.CATEGORY_REMOTE_PLAYBACK, filters1.get(0).getCategory(0));
+        assertTrue(pool.getDeduplicatedValueCount() > deduplicatedValueCount);
+        assertThrows(UnsupportedOperationException.class, () -> filters1.add(new IntentFilter()));
+    }
+
+    @Test
+    @SmallTest
+    public void internControlFilters_withDifferentContents_returnsDifferentInstances() {
+        MediaRouterInternPool pool = MediaRouterInternPool.getInstance();
+        List<IntentFilter> httpFilters =
+                pool.internControlFilters(createRoute("route1", "http").getControlFilters());
+        List<IntentFilter> httpsFilters =
+                pool.internControlFilters(createRoute("route2", "https").getControlFilters());
+
+        assertNotSame(httpFilters, httpsFilters);
+        assertEquals("https", httpsFilters.get(0).getDataScheme(0));
+    }
+
+    @Test
+    @SmallTest
+    public void internComponentName_withEqualNames_returnsSharedInstance() {
+        MediaRouterInternPool pool = MediaRouterInternPool.getInstance();
+        ComponentName componentName =
+                pool.internComponentName(new ComponentName("com.example", "com.example.Provider"));
+
+        assertSame(
+                componentName,
+                pool.internComponentName(
+                        new ComponentName("com.example", "com.example.Provider")));
+    }
+
+    private static MediaRouteDescriptor createRoute(String id, String scheme) {
+        IntentFilter filter = new IntentFilter();
+        filter.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        filter.addAction(MediaControlIntent.ACTION_PLAY);
+        filter.addDataScheme(scheme);
+        return new MediaRouteDescriptor.Builder(id, "Route " + id)
+                .addControlFilter(filter)
+                .build();
+    }
+
+    private static MediaRouteDescriptor parcelAndUnparcel(MediaRouteDescriptor descriptor) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(descriptor.asBundle());
+            parcel.setDataPosition(0);
+            Bundle bundle = parcel.readBundle(MediaRouterInternPoolTest.class.getClassLoader());
+            return MediaRouteDescriptor.fromBundle(bundle);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -57,6 +57,11 @@ public class MediaRouterParamsTest {
         final boolean transferToLocalEnabled = true;
         final boolean transferReceiverEnabled = false;
         final boolean mediaTransferRestrictedToSelfProviders = true;
+        final boolean backgroundRouteProcessingEnabled = true;
+        final long minVolumeRequestIntervalMillis = 250;
+        final int maxConcurrentProviderStartups = 5;
+        final boolean routeCacheEnabled = true;
+        final boolean recentProviderPersistenceEnabled = true;
         final Bundle extras = new Bundle();
         extras.putString(TEST_KEY, TEST_VALUE);
 
@@ -68,10 +73,23 @@ public class MediaRouterParamsTest {
                         .setMediaTransferReceiverEnabled(transferReceiverEnabled)
                         .setMediaTransferRestrictedToSelfProviders(
                                 mediaTransferRestrictedToSelfProviders)
+                        .setBackgroundRouteProcessingEnabled(backgroundRouteProcessingEnabled)
+                        .setMinVolumeRequestIntervalMillis(minVolumeRequestIntervalMillis)
+                        .setMaxConcurrentProviderStartups(maxConcurrentProviderStartups)
+                        .setRouteCacheEnabled(routeCacheEnabled)
+                        .setRecentProviderPersistenceEnabled(recentProviderPersistenceEnabled)
                         .setExtras(extras)
                         .build();
 
         assertEquals(dialogType, params.getDialogType());
+        assertEquals(
+                backgroundRouteProcessingEnabled, params.isBackgroundRouteProcessingEnabled());
+        assertEquals(
+                minVolumeRequestIntervalMillis, params.getMinVolumeRequestIntervalMillis());
+        assertEquals(maxConcurrentProviderStartups, params.getMaxConcurrentProviderStartups());
+        assertEquals(routeCacheEnabled, params.isRouteCacheEnabled());
+        assertEquals(
+                recentProviderPersistenceEnabled, params.isRecentProviderPersistenceEnabled());
 
         if (isAndroidROrAbove) {
             assertEquals(isOutputSwitcherEnabled, params.isOutputSwitcherEnabled());
@@ -103,6 +121,19 @@ public class MediaRouterParamsTest {
         assertEquals(
                 params.isMediaTransferRestrictedToSelfProviders(),
                 copiedParams.isMediaTransferRestrictedToSelfProviders());
+        assertEquals(
+                params.isBackgroundRouteProcessingEnabled(),
+                copiedParams.isBackgroundRouteProcessingEnabled());
+        assertEquals(
+                params.getMinVolumeRequestIntervalMillis(),
+                copiedParams.getMinVolumeRequestIntervalMillis());
+        assertEquals(
+                params.getMaxConcurrentProviderStartups(),
+                copiedParams.getMaxConcurrentProviderStartups());
+        assertEquals(params.isRouteCacheEnabled(), copiedParams.isRouteCacheEnabled());
+        assertEquals(
+                params.isRecentProviderPersistenceEnabled(),
+                copiedParams.isRecentProviderPersistenceEnabled());
         assertBundleEquals(params.getExtras(), copiedParams.getExtras());
     }
 
@@ -24,14 +24,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 
+import androidx.annotation.NonNull;
+import androidx.core.util.AtomicFile;
 import androidx.mediarouter.testing.MediaRouterTestHelper;
 import androidx.test.annotation.UiThreadTest;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -44,6 +51,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -59,6 +72,10 @@ public class MediaRouterTest {
     private static final String TEST_KEY = "test_key";
     private static final String TEST_VALUE = "test_value";
 
+    private static final String CATEGORY_A = "androidx.mediarouter.media.test.CATEGORY_A";
+    private static final String CATEGORY_B = "androidx.mediarouter.media.test.CATEGORY_B";
+    private static final String CATEGORY_C = "androidx.mediarouter.media.test.CATEGORY_C";
+
     private final Object mWaitLock = new Object();
 
     private Context mContext;
@@ -86,7 +103,16 @@ public class MediaRouterTest {
     @After
     public void tearDown() {
         mSession.release();
-        getInstrumentation().runOnMainSync(() -> MediaRouterTestHelper.resetMediaRouter());
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouterParams params = mRouter.getRouterParams();
+                            if (params != null && params.isRouteCacheEnabled()) {
+                                // Disabling the route cache deletes its file.
+                                mRouter.setRouterParams(null);
+                            }
+                            MediaRouterTestHelper.resetMediaRouter();
+                        });
     }
 
     /**
@@ -258,6 +284,823 @@ public class MediaRouterTest {
         assertTrue(mPassiveScanCountDownLatch.await(1000 + TIME_OUT_MS, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    @SmallTest
+    public void setDescriptor_withReorderedAndRemovedRoutes_updatesRouteIndex() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    createProviderDescriptor("route1", "route2", "route3"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> mProvider.setDescriptor(createProviderDescriptor("route3", "route1")));
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.ProviderInfo providerInfo = findProviderInfo(mProvider);
+                            assertNotNull(providerInfo);
+                            List<String> descriptorIds = new ArrayList<>();
+                            for (MediaRouter.RouteInfo route : providerInfo.getRoutes()) {
+                                descriptorIds.add(route.getDescriptorId());
+                                assertEquals(
+                                        route,
+                                        MediaRouter.getGlobalRouter().getRoute(route.getId()));
+                            }
+                            assertEquals(Arrays.asList("route3", "route1"), descriptorIds);
+                            assertNull(providerInfo.findRouteByDescriptorId("route2"));
+                            for (MediaRouter.RouteInfo route : mRouter.getRoutes()) {
+                                assertFalse(
+                                        route.getProvider() == providerInfo
+                                                && route.getDescriptorId().equals("route2"));
+                            }
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_withUnchangedRoutes_skipsUnchangedRoutes() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    createProviderDescriptor("route1", "route2", "route3"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        final MediaRouterDiagnostics[] initialDiagnostics = new MediaRouterDiagnostics[1];
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            initialDiagnostics[0] = mRouter.getDiagnostics();
+                            mProvider.setDescriptor(
+                                    createProviderDescriptor("route1", "route2", "route4"));
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            GlobalMediaRouter globalRouter = MediaRouter.getGlobalRouter();
+                            // route4 was added and route3 was removed.
+                            assertEquals(2, globalRouter.getLastUpdateTouchedRouteCount());
+                            assertEquals(2, globalRouter.getLastUpdateSkippedRouteCount());
+                            MediaRouterDiagnostics diagnostics = mRouter.getDiagnostics();
+                            assertEquals(
+                                    2,
+                                    diagnostics.getTouchedRouteCount()
+                                            - initialDiagnostics[0].getTouchedRouteCount());
+                            assertEquals(
+                                    2,
+                                    diagnostics.getSkippedRouteCount()
+                                            - initialDiagnostics[0].getSkippedRouteCount());
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void addCallback_withBatchRouteChangesFlag_receivesCoalescedRouteChanges() {
+        RouteChangesCallback callback = new RouteChangesCallback();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    callback,
+                                    MediaRouter.CALLBACK_FLAG_BATCH_ROUTE_CHANGES
+                                            | MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    createProviderDescriptor("route1", "route2", "route3"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                mProvider.setDescriptor(
+                                        new MediaRouteProviderDescriptor.Builder()
+                                                .addRoute(createRouteDescriptor("route1", "new1"))
+                                                .addRoute(createRouteDescriptor("route2", "route2"))
+                                                .addRoute(createRouteDescriptor("route3", "new3"))
+                                                .build()));
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(0, callback.mRouteChangedCount);
+                            assertEquals(1, callback.mRoutesChangedBatches.size());
+                            List<String> changedRouteNames = new ArrayList<>();
+                            for (MediaRouter.RouteInfo route :
+                                    callback.mRoutesChangedBatches.get(0)) {
+                                changedRouteNames.add(route.getName());
+                            }
+                            assertEquals(Arrays.asList("new1", "new3"), changedRouteNames);
+                            mRouter.removeCallback(callback);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void addCallback_withSelector_receivesOnlyMatchingRouteEvents() {
+        MediaRouteSelector selectorA =
+                new MediaRouteSelector.Builder().addControlCategory(CATEGORY_A).build();
+        MediaRouteSelector selectorAB =
+                new MediaRouteSelector.Builder()
+                        .addControlCategory(CATEGORY_A)
+                        .addControlCategory(CATEGORY_B)
+                        .build();
+        MediaRouteSelector selectorC =
+                new MediaRouteSelector.Builder().addControlCategory(CATEGORY_C).build();
+        RouteChangesCallback callbackA = new RouteChangesCallback();
+        RouteChangesCallback callbackAB = new RouteChangesCallback();
+        RouteChangesCallback callbackC = new RouteChangesCallback();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addCallback(selectorA, callbackA);
+                            mRouter.addCallback(selectorAB, callbackAB);
+                            mRouter.addCallback(selectorC, callbackC);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route1", "route1", CATEGORY_A,
+                                                            CATEGORY_B))
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route2", "route2", CATEGORY_B))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                mProvider.setDescriptor(
+                                        new MediaRouteProviderDescriptor.Builder()
+                                                .addRoute(
+                                                        createRouteDescriptor(
+                                                                "route1", "new1", CATEGORY_A,
+                                                                CATEGORY_B))
+                                                .addRoute(
+                                                        createRouteDescriptor(
+                                                                "route2", "new2", CATEGORY_B))
+                                                .build()));
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            // route1 matches both selectors with two categories, but is reported
+                            // once to each callback.
+                            assertEquals(1, callbackA.mRouteChangedCount);
+                            assertEquals(2, callbackAB.mRouteChangedCount);
+                            assertEquals(0, callbackC.mRouteChangedCount);
+                            mRouter.removeCallback(callbackA);
+                            mRouter.removeCallback(callbackAB);
+                            mRouter.removeCallback(callbackC);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void addCallback_withDifferentSelectors_invokesCallbacksInRegistrationOrder() {
+        List<String> invokedCallbacks = new ArrayList<>();
+        OrderCallback callbackB = new OrderCallback("B", invokedCallbacks);
+        OrderCallback callbackUnfiltered = new OrderCallback("unfiltered", invokedCallbacks);
+        OrderCallback callbackA = new OrderCallback("A", invokedCallbacks);
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addCallback(
+                                    new MediaRouteSelector.Builder()
+                                            .addControlCategory(CATEGORY_B)
+                                            .build(),
+                                    callbackB);
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    callbackUnfiltered,
+                                    MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            mRouter.addCallback(
+                                    new MediaRouteSelector.Builder()
+                                            .addControlCategory(CATEGORY_A)
+                                            .build(),
+                                    callbackA);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route1", "route1", CATEGORY_A,
+                                                            CATEGORY_B))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(
+                                    Arrays.asList("B", "unfiltered", "A"), invokedCallbacks);
+                            mRouter.removeCallback(callbackB);
+                            mRouter.removeCallback(callbackUnfiltered);
+                            mRouter.removeCallback(callbackA);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void addOnRouteAvailabilityChangedListener_notifiesOnlyWhenAvailabilityFlips() {
+        MediaRouteSelector selectorA =
+                new MediaRouteSelector.Builder().addControlCategory(CATEGORY_A).build();
+        List<Boolean> availabilityChanges = new ArrayList<>();
+        MediaRouter.OnRouteAvailabilityChangedListener listener = availabilityChanges::add;
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addOnRouteAvailabilityChangedListener(
+                                    selectorA, MediaRouter.AVAILABILITY_FLAG_REQUIRE_MATCH,
+                                    listener);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route1", "route1", CATEGORY_A))
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route2", "route2", CATEGORY_B))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(Arrays.asList(true), availabilityChanges);
+                            assertTrue(
+                                    mRouter.isRouteAvailable(
+                                            selectorA,
+                                            MediaRouter.AVAILABILITY_FLAG_REQUIRE_MATCH));
+                            // Changing a route of another category doesn't flip availability.
+                            mProvider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route1", "route1", CATEGORY_A))
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route2", "new2", CATEGORY_B))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(Arrays.asList(true), availabilityChanges);
+                            mProvider.setDescriptor(createProviderDescriptor("route2"));
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(Arrays.asList(true, false), availabilityChanges);
+                            assertFalse(
+                                    mRouter.isRouteAvailable(
+                                            selectorA,
+                                            MediaRouter.AVAILABILITY_FLAG_REQUIRE_MATCH));
+                            mRouter.removeOnRouteAvailabilityChangedListener(listener);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_withBackgroundRouteProcessing_updatesRoutes() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.setRouterParams(
+                                    new MediaRouterParams.Builder()
+                                            .setBackgroundRouteProcessingEnabled(true)
+                                            .build());
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    createProviderDescriptor("route1", "route2", "route3"));
+                        });
+        // The descriptor is processed on a worker thread before being applied on the main thread.
+        new PollingCheck(TIME_OUT_MS) {
+            @Override
+            protected boolean check() {
+                MediaRouter.ProviderInfo[] providerInfo = new MediaRouter.ProviderInfo[1];
+                getInstrumentation()
+                        .runOnMainSync(() -> providerInfo[0] = findProviderInfo(mProvider));
+                return providerInfo[0] != null && providerInfo[0].getRoutes().size() == 3;
+            }
+        }.run();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            // Disabling background processing applies the descriptor at once.
+                            mProvider.setDescriptor(createProviderDescriptor("route4"));
+                            mRouter.setRouterParams(new MediaRouterParams.Builder().build());
+                            List<String> routeIds = new ArrayList<>();
+                            for (MediaRouter.RouteInfo route :
+                                    findProviderInfo(mProvider).getRoutes()) {
+                                routeIds.add(route.getDescriptorId());
+                            }
+                            assertEquals(Arrays.asList("route4"), routeIds);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void getRouteSnapshot_fromWorkerThread_reflectsRouteChanges() throws Exception {
+        long initialVersion = mRouter.getRouteSnapshotVersion();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor("route1", "route2"));
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        MediaRouter.RouteSnapshot[] snapshot = new MediaRouter.RouteSnapshot[1];
+        Thread thread = new Thread(() -> snapshot[0] = mRouter.getRouteSnapshot());
+        thread.start();
+        thread.join(TIME_OUT_MS);
+
+        assertTrue(snapshot[0].getVersion() > initialVersion);
+        assertEquals(mRouter.getRouteSnapshotVersion(), snapshot[0].getVersion());
+        assertNotNull(snapshot[0].getSelectedRouteId());
+        ComponentName componentName = mProvider.getMetadata().getComponentName();
+        assertTrue(snapshot[0].getProviderComponentNames().contains(componentName));
+        List<String> routeNames = new ArrayList<>();
+        for (MediaRouter.RouteSnapshot.RouteState route : snapshot[0].getRoutes()) {
+            if (route.getProviderComponentName().equals(componentName)) {
+                routeNames.add(route.getName());
+                assertEquals(route.getName(), route.getDescriptor().getName());
+            }
+        }
+        assertEquals(Arrays.asList("route1", "route2"), routeNames);
+
+        // The snapshot doesn't change with the routes.
+        int routeCount = snapshot[0].getRoutes().size();
+        String routeName = snapshot[0].getRoutes().get(routeCount - 1).getName();
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                mProvider.setDescriptor(
+                                        new MediaRouteProviderDescriptor.Builder()
+                                                .addRoute(createRouteDescriptor("route1", "new1"))
+                                                .build()));
+        getInstrumentation().waitForIdleSync();
+        assertEquals(routeCount, snapshot[0].getRoutes().size());
+        assertEquals(routeName, snapshot[0].getRoutes().get(routeCount - 1).getName());
+        assertTrue(mRouter.getRouteSnapshotVersion() > snapshot[0].getVersion());
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_withChurningRoutes_reclaimsUniqueIds() {
+        final int rounds = 50;
+        final int routesPerRound = 100;
+        final int[] initialSize = new int[1];
+        MediaRouteProviderImpl collidingProvider = new MediaRouteProviderImpl(mContext);
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            initialSize[0] = MediaRouter.getGlobalRouter().getUniqueIdMapSize();
+                            mRouter.addProvider(mProvider);
+                            mRouter.addProvider(collidingProvider);
+                        });
+        for (int round = 0; round < rounds; round++) {
+            String[] routeIds = new String[routesPerRound];
+            for (int i = 0; i < routesPerRound; i++) {
+                routeIds[i] = "route" + (round * routesPerRound + i);
+            }
+            MediaRouteProviderDescriptor descriptor = createProviderDescriptor(routeIds);
+            // Both providers have the same component name, so the routes of the second one get
+            // suffixed unique IDs.
+            getInstrumentation()
+                    .runOnMainSync(
+                            () -> {
+                                mProvider.setDescriptor(descriptor);
+                                collidingProvider.setDescriptor(descriptor);
+                            });
+            getInstrumentation().waitForIdleSync();
+        }
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            GlobalMediaRouter globalRouter = MediaRouter.getGlobalRouter();
+                            assertEquals(
+                                    initialSize[0] + 2 * routesPerRound,
+                                    globalRouter.getUniqueIdMapSize());
+                            MediaRouter.ProviderInfo providerInfo =
+                                    findProviderInfo(collidingProvider);
+                            assertNotNull(providerInfo);
+                            for (MediaRouter.RouteInfo route : providerInfo.getRoutes()) {
+                                assertTrue(route.getId().endsWith("_2"));
+                            }
+
+                            mRouter.removeProvider(collidingProvider);
+                            mRouter.removeProvider(mProvider);
+                            assertEquals(initialSize[0], globalRouter.getUniqueIdMapSize());
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void getDiagnostics_afterRouteUpdates_reportsEventsAndCallbackStats() {
+        RouteChangesCallback callback = new RouteChangesCallback();
+        final MediaRouterDiagnostics[] initialDiagnostics = new MediaRouterDiagnostics[1];
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            initialDiagnostics[0] = mRouter.getDiagnostics();
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    callback,
+                                    MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor("route1", "route2"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                mProvider.setDescriptor(
+                                        new MediaRouteProviderDescriptor.Builder()
+                                                .addRoute(createRouteDescriptor("route1", "new1"))
+                                                .build()));
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouterDiagnostics diagnostics = mRouter.getDiagnostics();
+                            MediaRouterDiagnostics initial = initialDiagnostics[0];
+                            assertEquals(
+                                    2,
+                                    diagnostics.getRouteAddedCount()
+                                            - initial.getRouteAddedCount());
+                            assertTrue(
+                                    diagnostics.getRouteChangedCount()
+                                            > initial.getRouteChangedCount());
+                            assertEquals(
+                                    1,
+                                    diagnostics.getRouteRemovedCount()
+                                            - initial.getRouteRemovedCount());
+                            assertEquals(
+                                    Integer.valueOf(2),
+                                    diagnostics
+                                            .getDescriptorUpdateCounts()
+                                            .get(
+                                                    mProvider
+                                                            .getMetadata()
+                                                            .getComponentName()
+                                                            .flattenToShortString()));
+                            assertEquals(0, diagnostics.getCallbackQueueDepth());
+
+                            long dispatchLatencyCount = 0;
+                            for (long count : diagnostics.getDispatchLatencyHistogram()) {
+                                dispatchLatencyCount += count;
+                            }
+                            assertEquals(
+                                    diagnostics.getDispatchedMessageCount(), dispatchLatencyCount);
+
+                            MediaRouterDiagnostics.CallbackStats callbackStats = null;
+                            for (MediaRouterDiagnostics.CallbackStats stats :
+                                    diagnostics.getCallbackStats()) {
+                                if (stats.getCallbackClassName()
+                                        .equals(RouteChangesCallback.class.getName())) {
+                                    callbackStats = stats;
+                                }
+                            }
+                            assertNotNull(callbackStats);
+                            assertTrue(callbackStats.getInvocationCount() > 0);
+                            assertTrue(diagnostics.toString().contains("routeAddedCount="));
+                            mRouter.removeCallback(callback);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void setSlowCallbackWatchdog_reportsCallbacksExceedingBudget() {
+        SlowCallback slowCallback = new SlowCallback();
+        List<String> slowMethodNames = new ArrayList<>();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.setSlowCallbackWatchdog(
+                                    /* budgetMillis= */ 5,
+                                    (callback, methodName, executionTimeMillis) -> {
+                                        if (callback == slowCallback) {
+                                            assertTrue(executionTimeMillis >= 5);
+                                            slowMethodNames.add(methodName);
+                                        }
+                                    });
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    slowCallback,
+                                    MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor("route1"));
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertEquals(Arrays.asList("onRouteAdded"), slowMethodNames);
+                            for (MediaRouterDiagnostics.CallbackStats stats :
+                                    mRouter.getDiagnostics().getCallbackStats()) {
+                                if (stats.getCallbackClassName()
+                                        .equals(SlowCallback.class.getName())) {
+                                    assertEquals(1, stats.getSlowInvocationCount());
+                                }
+                            }
+                            mRouter.removeCallback(slowCallback);
+                            mRouter.setSlowCallbackWatchdog(/* budgetMillis= */ 0, null);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void selectRoute_recordsRouteSelectionTrace() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor("route1"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        final String[] routeId = new String[1];
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route =
+                                    findProviderInfo(mProvider).findRouteByDescriptorId("route1");
+                            routeId[0] = route.getId();
+                            route.select();
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            List<MediaRouterDiagnostics.RouteSelectionTrace> traces =
+                                    mRouter.getDiagnostics().getRouteSelectionTraces();
+                            MediaRouterDiagnostics.RouteSelectionTrace trace =
+                                    traces.get(traces.size() - 1);
+                            assertEquals(routeId[0], trace.getRouteId());
+                            assertEquals(
+                                    mContext.getPackageName(), trace.getProviderPackageName());
+                            assertEquals(
+                                    0,
+                                    trace.getPhaseLatencyMicros(
+                                            MediaRouterDiagnostics.RouteSelectionTrace
+                                                    .PHASE_SELECT_REQUESTED));
+                            // The provider doesn't create route controllers.
+                            assertEquals(
+                                    -1,
+                                    trace.getPhaseLatencyMicros(
+                                            MediaRouterDiagnostics.RouteSelectionTrace
+                                                    .PHASE_CONTROLLER_CREATED));
+                            long routeSelectedLatency =
+                                    trace.getPhaseLatencyMicros(
+                                            MediaRouterDiagnostics.RouteSelectionTrace
+                                                    .PHASE_ROUTE_SELECTED);
+                            assertTrue(routeSelectedLatency >= 0);
+                            assertTrue(
+                                    trace.getPhaseLatencyMicros(
+                                                    MediaRouterDiagnostics.RouteSelectionTrace
+                                                            .PHASE_CALLBACKS_NOTIFIED)
+                                            >= routeSelectedLatency);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void selectRoute_twiceBeforeNotified_endsEachTraceWithItsNotification() {
+        List<Long> notifiedLatencies = new ArrayList<>();
+        MediaRouter.Callback callback =
+                new MediaRouter.Callback() {
+                    @Override
+                    public void onRouteSelected(
+                            @NonNull MediaRouter router,
+                            @NonNull MediaRouter.RouteInfo selectedRoute,
+                            int reason) {
+                        List<MediaRouterDiagnostics.RouteSelectionTrace> traces =
+                                router.getDiagnostics().getRouteSelectionTraces();
+                        notifiedLatencies.add(
+                                traces.get(traces.size() - 1)
+                                        .getPhaseLatencyMicros(
+                                                MediaRouterDiagnostics.RouteSelectionTrace
+                                                        .PHASE_CALLBACKS_NOTIFIED));
+                    }
+                };
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor("route1", "route2"));
+                        });
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    callback,
+                                    MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            MediaRouter.ProviderInfo providerInfo = findProviderInfo(mProvider);
+                            providerInfo.findRouteByDescriptorId("route1").select();
+                            providerInfo.findRouteByDescriptorId("route2").select();
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            // The notification of the first selection doesn't end the trace of
+                            // the second one, which is ended after its own notification.
+                            assertEquals(Arrays.asList(-1L, -1L), notifiedLatencies);
+                            List<MediaRouterDiagnostics.RouteSelectionTrace> traces =
+                                    mRouter.getDiagnostics().getRouteSelectionTraces();
+                            assertTrue(
+                                    traces.get(traces.size() - 1)
+                                                    .getPhaseLatencyMicros(
+                                                            MediaRouterDiagnostics
+                                                                    .RouteSelectionTrace
+                                                                    .PHASE_CALLBACKS_NOTIFIED)
+                                            >= 0);
+                            mRouter.removeCallback(callback);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void getControlFilters_modifiedByCaller_doesNotChangeSharedFilters() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route1", "route1", CATEGORY_A))
+                                            .addRoute(
+                                                    createRouteDescriptor(
+                                                            "route2", "route2", CATEGORY_A))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.ProviderInfo providerInfo = findProviderInfo(mProvider);
+                            MediaRouter.RouteInfo route1 =
+                                    providerInfo.findRouteByDescriptorId("route1");
+                            MediaRouter.RouteInfo route2 =
+                                    providerInfo.findRouteByDescriptorId("route2");
+                            List<IntentFilter> controlFilters = route1.getControlFilters();
+                            controlFilters.get(0).addCategory(CATEGORY_B);
+                            assertThrows(
+                                    UnsupportedOperationException.class, controlFilters::clear);
+
+                            assertSame(controlFilters, route1.getControlFilters());
+                            assertEquals(1, route1.getControlFilters().size());
+                            assertFalse(route1.supportsControlCategory(CATEGORY_B));
+                            assertFalse(route2.getControlFilters().get(0).hasCategory(CATEGORY_B));
+                            assertTrue(route2.supportsControlCategory(CATEGORY_A));
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_afterRoutesRestoredFromCache_reconcilesStaleRoutes()
+            throws Exception {
+        RegisteredMediaRouteProvider provider = createCachedRegisteredProvider();
+        StaleRoutesCallback callback = new StaleRoutesCallback();
+        restoreCachedRoutes(provider, callback);
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.ProviderInfo providerInfo = findProviderInfo(provider);
+                            assertTrue(
+                                    providerInfo.findRouteByDescriptorId("route1").isStale());
+                            callback.mRouteChangedCount = 0;
+                            // route1 is published unchanged and route2 is renamed.
+                            provider.setDescriptor(
+                                    new MediaRouteProviderDescriptor.Builder()
+                                            .addRoute(createRouteDescriptor(
+                                                    "route1", "Living room"))
+                                            .addRoute(createRouteDescriptor(
+                                                    "route2", "Kitchen speaker"))
+                                            .build());
+                        });
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.ProviderInfo providerInfo = findProviderInfo(provider);
+                            MediaRouter.RouteInfo route1 =
+                                    providerInfo.findRouteByDescriptorId("route1");
+                            MediaRouter.RouteInfo route2 =
+                                    providerInfo.findRouteByDescriptorId("route2");
+                            assertFalse(route1.isStale());
+                            assertFalse(route2.isStale());
+                            assertEquals("Kitchen speaker", route2.getName());
+                            // One change per route: the merge for route2, and the stale flag
+                            // being cleared for route1.
+                            assertEquals(2, callback.mRouteChangedCount);
+                            assertEquals(0, callback.mRouteRemovedCount);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void expireStaleRoutes_withoutPublishedRoutes_removesRestoredRoutes()
+            throws Exception {
+        RegisteredMediaRouteProvider provider = createCachedRegisteredProvider();
+        StaleRoutesCallback callback = new StaleRoutesCallback();
+        restoreCachedRoutes(provider, callback);
+
+        getInstrumentation()
+                .runOnMainSync(() -> MediaRouter.getGlobalRouter().expireStaleRoutes());
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            assertTrue(findProviderInfo(provider).getRoutes().isEmpty());
+                            assertEquals(2, callback.mRouteRemovedCount);
+                        });
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_withCollidingRouteRemovedAndAddedAgain_keepsUniqueId() {
+        MediaRouteProviderImpl collidingProvider = new MediaRouteProviderImpl(mContext);
+        MediaRouteProviderDescriptor descriptor = createProviderDescriptor("route1", "route2");
+        MediaRouteProviderDescriptor emptyDescriptor =
+                new MediaRouteProviderDescriptor.Builder().build();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addProvider(mProvider);
+                            mRouter.addProvider(collidingProvider);
+                            mProvider.setDescriptor(descriptor);
+                            collidingProvider.setDescriptor(descriptor);
+                        });
+        getInstrumentation().waitForIdleSync();
+        List<String> uniqueIds = new ArrayList<>();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            for (MediaRouter.RouteInfo route :
+                                    findProviderInfo(collidingProvider).getRoutes()) {
+                                uniqueIds.add(route.getId());
+                            }
+                        });
+        for (int i = 0; i < 3; i++) {
+            getInstrumentation()
+                    .runOnMainSync(() -> collidingProvider.setDescriptor(emptyDescriptor));
+            getInstrumentation().waitForIdleSync();
+            getInstrumentation()
+                    .runOnMainSync(() -> collidingProvider.setDescriptor(descriptor));
+            getInstrumentation().waitForIdleSync();
+        }
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            List<String> newUniqueIds = new ArrayList<>();
+                            for (MediaRouter.RouteInfo route :
+                                    findProviderInfo(collidingProvider).getRoutes()) {
+                                newUniqueIds.add(route.getId());
+                            }
+                            assertEquals(2, uniqueIds.size());
+                            assertTrue(uniqueIds.get(0).endsWith("_2"));
+                            assertEquals(uniqueIds, newUniqueIds);
+                            mRouter.removeProvider(collidingProvider);
+                            mRouter.removeProvider(mProvider);
+                        });
+    }
+
     @Test
     @UiThreadTest
     public void testReset() {
@@ -319,10 +1162,155 @@ public class MediaRouterTest {
         }
     }
 
+    /**
+     * Creates a registered provider that is never bound, and writes its routes "route1" and
+     * "route2" to the route cache.
+     */
+    private RegisteredMediaRouteProvider createCachedRegisteredProvider() {
+        ComponentName componentName =
+                new ComponentName(mContext, "androidx.mediarouter.media.CachedProviderService");
+        Map<String, MediaRouteProviderDescriptorCache.Entry> entries = new HashMap<>();
+        entries.put(
+                componentName.flattenToShortString(),
+                new MediaRouteProviderDescriptorCache.Entry(
+                        new MediaRouteProviderDescriptor.Builder()
+                                .addRoute(createRouteDescriptor("route1", "Living room"))
+                                .addRoute(createRouteDescriptor("route2", "Kitchen"))
+                                .build(),
+                        System.currentTimeMillis()));
+        MediaRouteProviderDescriptorCache.write(getRouteCacheFile(), entries);
+        return new RegisteredMediaRouteProvider(mContext, componentName);
+    }
+
+    /** Enables the route cache and waits until the cached routes of the provider are restored. */
+    private void restoreCachedRoutes(
+            RegisteredMediaRouteProvider provider, StaleRoutesCallback callback)
+            throws Exception {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mRouter.addCallback(
+                                    MediaRouteSelector.EMPTY,
+                                    callback,
+                                    MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS);
+                            mRouter.addProvider(provider);
+                            mRouter.setRouterParams(
+                                    new MediaRouterParams.Builder()
+                                            .setRouteCacheEnabled(true)
+                                            .build());
+                        });
+        assertTrue(callback.mRestoredLatch.await(TIME_OUT_MS, TimeUnit.MILLISECONDS));
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private AtomicFile getRouteCacheFile() {
+        return new AtomicFile(
+                new File(mContext.getCacheDir(), MediaRouteProviderDescriptorCache.FILE_NAME));
+    }
+
+    private MediaRouter.ProviderInfo findProviderInfo(MediaRouteProvider provider) {
+        for (MediaRouter.ProviderInfo providerInfo : mRouter.getProviders()) {
+            if (providerInfo.getProviderInstance() == provider) {
+                return providerInfo;
+            }
+        }
+        return null;
+    }
+
+    private static MediaRouteProviderDescriptor createProviderDescriptor(String... routeIds) {
+        MediaRouteProviderDescriptor.Builder builder = new MediaRouteProviderDescriptor.Builder();
+        for (String routeId : routeIds) {
+            builder.addRoute(createRouteDescriptor(routeId, routeId));
+        }
+        return builder.build();
+    }
+
+    private static MediaRouteDescriptor createRouteDescriptor(
+            String routeId, String name, String... controlCategories) {
+        MediaRouteDescriptor.Builder builder = new MediaRouteDescriptor.Builder(routeId, name);
+        for (String controlCategory : controlCategories) {
+            IntentFilter filter = new IntentFilter();
+            filter.addCategory(controlCategory);
+            builder.addControlFilter(filter);
+        }
+        return builder.build();
+    }
+
     private void resetActiveAndPassiveScanCountDownLatches() {
         mActiveScanCountDownLatch = new CountDownLatch(1);
         mPassiveScanCountDownLatch = new CountDownLatch(1);
     }
 
     private static class MediaRouterCallbackImpl extends MediaRouter.Callback {}
+
+    private static class StaleRoutesCallback extends MediaRouter.Callback {
+        final CountDownLatch mRestoredLatch = new CountDownLatch(2);
+        int mRouteChangedCount;
+        int mRouteRemovedCount;
+
+        @Override
+        public void onRouteAdded(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            if (route.isStale()) {
+                mRestoredLatch.countDown();
+            }
+        }
+
+        @Override
+        public void onRouteChanged(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            mRouteChangedCount++;
+        }
+
+        @Override
+        public void onRouteRemoved(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            mRouteRemovedCount++;
+        }
+    }
+
+    private static class RouteChangesCallback extends MediaRouter.Callback {
+        final List<List<MediaRouter.RouteInfo>> mRoutesChangedBatches = new ArrayList<>();
+        int mRouteChangedCount;
+
+        @Override
+        public void onRouteChanged(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            mRouteChangedCount++;
+        }
+
+        @Override
+        public void onRoutesChanged(
+                @NonNull MediaRouter router, @NonNull List<MediaRouter.RouteInfo> routes) {
+            mRoutesChangedBatches.add(new ArrayList<>(routes));
+        }
+    }
+
+    private static class OrderCallback extends MediaRouter.Callback {
+        private final String mName;
+        private final List<String> mInvokedCallbacks;
+
+        OrderCallback(String name, List<String> invokedCallbacks) {
+            mName = name;
+            mInvokedCallbacks = invokedCallbacks;
+        }
+
+        @Override
+        public void onRouteAdded(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            if (route.getDescriptorId().equals("route1")) {
+                mInvokedCallbacks.add(mName);
+            }
+        }
+    }
+
+    private static class SlowCallback extends MediaRouter.Callback {
+        @Override
+        public void onRouteAdded(
+                @NonNull MediaRouter router, @NonNull MediaRouter.RouteInfo route) {
+            if (route.getDescriptorId().equals("route1")) {
+                SystemClock.sleep(20);
+            }
+        }
+    }
 }
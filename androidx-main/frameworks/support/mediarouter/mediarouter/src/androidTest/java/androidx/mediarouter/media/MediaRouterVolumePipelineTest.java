@@ -0,0 +1,264 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.mediarouter.testing.MediaRouterTestHelper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test {@link MediaRouterVolumePipeline}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaRouterVolumePipelineTest {
+    private static final int INITIAL_VOLUME = 1;
+    private static final long LONG_INTERVAL_MILLIS = 10_000;
+
+    private MediaRouter mRouter;
+    private VolumeProvider mProvider;
+
+    @Before
+    public void setUp() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            Context context = getApplicationContext();
+                            mRouter = MediaRouter.getInstance(context);
+                            mProvider = new VolumeProvider(context);
+                            mRouter.addProvider(mProvider);
+                            mProvider.setDescriptor(createProviderDescriptor(INITIAL_VOLUME));
+                        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().runOnMainSync(() -> MediaRouterTestHelper.resetMediaRouter());
+    }
+
+    @Test
+    @SmallTest
+    public void requestSetVolume_byDefault_sendsEachVolumeAtOnce() {
+        selectRoute("route1");
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route = findRoute("route1");
+                            route.requestSetVolume(5);
+                            route.requestSetVolume(6);
+                            route.requestSetVolume(7);
+
+                            assertEquals(Arrays.asList(5, 6, 7), mProvider.mSentVolumes);
+                            // The route shows the volumes reported by the provider.
+                            assertEquals(INITIAL_VOLUME, route.getVolume());
+                            assertNull(route.mVolumeRequest);
+                        });
+    }
+
+    @Test
+    @LargeTest
+    public void requestSetVolume_withInterval_sendsLatestVolumeOncePerInterval() {
+        final long intervalMillis = 500;
+        setMinVolumeRequestIntervalMillis(intervalMillis);
+        selectRoute("route1");
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route = findRoute("route1");
+                            route.requestSetVolume(5);
+                            route.requestSetVolume(6);
+                            route.requestSetVolume(7);
+
+                            assertEquals(Collections.singletonList(5), mProvider.mSentVolumes);
+                            // The route shows the latest requested volume at once.
+                            assertEquals(7, route.getVolume());
+                        });
+        SystemClock.sleep(intervalMillis * 2);
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(() -> assertEquals(Arrays.asList(5, 7), mProvider.mSentVolumes));
+    }
+
+    @Test
+    @SmallTest
+    public void setDescriptor_withVolumeInFlight_ignoresStaleVolumes() {
+        setMinVolumeRequestIntervalMillis(LONG_INTERVAL_MILLIS);
+        selectRoute("route1");
+        getInstrumentation().runOnMainSync(() -> findRoute("route1").requestSetVolume(5));
+
+        // A volume reported before the provider applied the request is ignored.
+        setProviderVolume(3);
+        getInstrumentation().runOnMainSync(() -> assertEquals(5, findRoute("route1").getVolume()));
+
+        // Once the provider reports the sent volume, the volumes it reports are shown.
+        setProviderVolume(5);
+        setProviderVolume(8);
+        getInstrumentation().runOnMainSync(() -> assertEquals(8, findRoute("route1").getVolume()));
+    }
+
+    @Test
+    @LargeTest
+    public void requestSetVolume_withoutReportedVolume_showsReportedVolumeAfterEchoTimeout() {
+        setMinVolumeRequestIntervalMillis(LONG_INTERVAL_MILLIS);
+        selectRoute("route1");
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route = findRoute("route1");
+                            route.requestSetVolume(5);
+                            assertEquals(5, route.getVolume());
+                        });
+
+        SystemClock.sleep(MediaRouterVolumePipeline.ECHO_TIMEOUT_MILLIS * 2);
+        getInstrumentation().waitForIdleSync();
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> assertEquals(INITIAL_VOLUME, findRoute("route1").getVolume()));
+    }
+
+    @Test
+    @SmallTest
+    public void selectRoute_withPendingVolume_dropsPendingVolume() {
+        setMinVolumeRequestIntervalMillis(LONG_INTERVAL_MILLIS);
+        selectRoute("route1");
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route = findRoute("route1");
+                            route.requestSetVolume(5);
+                            route.requestSetVolume(6);
+                        });
+
+        selectRoute("route2");
+
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            MediaRouter.RouteInfo route = findRoute("route1");
+                            assertEquals(Collections.singletonList(5), mProvider.mSentVolumes);
+                            assertTrue(mProvider.mControllers.get(0).mReleased);
+                            assertNull(route.mVolumeRequest);
+                            assertEquals(INITIAL_VOLUME, route.getVolume());
+                        });
+    }
+
+    private void setMinVolumeRequestIntervalMillis(long intervalMillis) {
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                mRouter.setRouterParams(
+                                        new MediaRouterParams.Builder()
+                                                .setMinVolumeRequestIntervalMillis(intervalMillis)
+                                                .build()));
+    }
+
+    private void selectRoute(String descriptorId) {
+        getInstrumentation().runOnMainSync(() -> findRoute(descriptorId).select());
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private void setProviderVolume(int volume) {
+        getInstrumentation()
+                .runOnMainSync(() -> mProvider.setDescriptor(createProviderDescriptor(volume)));
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private MediaRouter.RouteInfo findRoute(String descriptorId) {
+        for (MediaRouter.ProviderInfo providerInfo : mRouter.getProviders()) {
+            if (providerInfo.getProviderInstance() == mProvider) {
+                return providerInfo.findRouteByDescriptorId(descriptorId);
+            }
+        }
+        return null;
+    }
+
+    private static MediaRouteProviderDescriptor createProviderDescriptor(int route1Volume) {
+        return new MediaRouteProviderDescriptor.Builder()
+                .addRoute(createRouteDescriptor("route1", route1Volume))
+                .addRoute(createRouteDescriptor("route2", INITIAL_VOLUME))
+                .build();
+    }
+
+    private static MediaRouteDescriptor createRouteDescriptor(String routeId, int volume) {
+        return new MediaRouteDescriptor.Builder(routeId, routeId)
+                .setVolumeHandling(MediaRouter.RouteInfo.PLAYBACK_VOLUME_VARIABLE)
+                .setVolumeMax(20)
+                .setVolume(volume)
+                .build();
+    }
+
+    private static final class VolumeProvider extends MediaRouteProvider {
+        final List<Integer> mSentVolumes = new ArrayList<>();
+        final List<VolumeController> mControllers = new ArrayList<>();
+
+        VolumeProvider(Context context) {
+            super(context);
+        }
+
+        @Override
+        public RouteController onCreateRouteController(@NonNull String routeId) {
+            VolumeController controller = new VolumeController(this);
+            mControllers.add(controller);
+            return controller;
+        }
+    }
+
+    private static final class VolumeController extends MediaRouteProvider.RouteController {
+        private final VolumeProvider mProvider;
+        boolean mReleased;
+
+        VolumeController(VolumeProvider provider) {
+            mProvider = provider;
+        }
+
+        @Override
+        public void onSetVolume(int volume) {
+            mProvider.mSentVolumes.add(volume);
+        }
+
+        @Override
+        public void onRelease() {
+            mReleased = true;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Test {@link RegisteredMediaRouteProviderStartupScheduler}. */
+@RunWith(AndroidJUnit4.class)
+public class RegisteredMediaRouteProviderStartupSchedulerTest {
+    private static final long LOAD_TIMEOUT_MILLIS = 5000;
+
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+    private SharedPreferences mPreferences;
+
+    @Before
+    public void setUp() {
+        mPreferences = mContext.getSharedPreferences(
+                RegisteredMediaRouteProviderStartupScheduler.PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        mPreferences.edit().clear().commit();
+    }
+
+    @After
+    public void tearDown() {
+        mPreferences.edit().clear().commit();
+    }
+
+    @Test
+    @SmallTest
+    public void onBindRequested_startsOwnThenRecentlyUsedProvidersFirst() {
+        getInstrumentation().runOnMainSync(() -> {
+            RegisteredMediaRouteProviderStartupScheduler scheduler =
+                    new RegisteredMediaRouteProviderStartupScheduler(
+                            mContext, new Handler(Looper.getMainLooper()));
+            RegisteredMediaRouteProvider otherProvider =
+                    createProvider(new ComponentName("com.example.other", "OtherService"));
+            RegisteredMediaRouteProvider recentProvider =
+                    createProvider(new ComponentName("com.example.recent", "RecentService"));
+            RegisteredMediaRouteProvider ownProvider =
+                    createProvider(new ComponentName(mContext, "OwnService"));
+            scheduler.onRouteControllerCreated(recentProvider);
+
+            scheduler.onBindRequested(otherProvider);
+            scheduler.onBindRequested(recentProvider);
+            scheduler.onBindRequested(ownProvider);
+
+            // The providers are started asynchronously.
+            assertEquals(
+                    Arrays.asList(ownProvider, recentProvider, otherProvider),
+                    scheduler.getPendingProvidersForTesting());
+
+            scheduler.removeProvider(recentProvider);
+            assertEquals(
+                    Arrays.asList(ownProvider, otherProvider),
+                    scheduler.getPendingProvidersForTesting());
+            assertTrue(scheduler.getTimeToFirstRouteMillis().isEmpty());
+            // The recently used providers are not saved by default.
+            assertFalse(mPreferences.contains(
+                    RegisteredMediaRouteProviderStartupScheduler.KEY_RECENT_PROVIDERS));
+        });
+    }
+
+    @Test
+    @LargeTest
+    public void setRecentProviderPersistenceEnabled_loadsSavedProvidersAndDeletesThemOnDisable() {
+        ComponentName savedComponentName = new ComponentName("com.example.saved", "SavedService");
+        mPreferences.edit()
+                .putString(RegisteredMediaRouteProviderStartupScheduler.KEY_RECENT_PROVIDERS,
+                        savedComponentName.flattenToShortString())
+                .commit();
+        RegisteredMediaRouteProviderStartupScheduler[] scheduler =
+                new RegisteredMediaRouteProviderStartupScheduler[1];
+        getInstrumentation().runOnMainSync(() -> {
+            scheduler[0] = new RegisteredMediaRouteProviderStartupScheduler(
+                    mContext, new Handler(Looper.getMainLooper()));
+            scheduler[0].setRecentProviderPersistenceEnabled(true);
+        });
+        waitForRecentProvidersLoaded(scheduler[0]);
+
+        getInstrumentation().runOnMainSync(() -> {
+            RegisteredMediaRouteProvider otherProvider =
+                    createProvider(new ComponentName("com.example.other", "OtherService"));
+            RegisteredMediaRouteProvider savedProvider = createProvider(savedComponentName);
+            scheduler[0].onBindRequested(otherProvider);
+            scheduler[0].onBindRequested(savedProvider);
+            assertEquals(
+                    Arrays.asList(savedProvider, otherProvider),
+                    scheduler[0].getPendingProvidersForTesting());
+
+            scheduler[0].setRecentProviderPersistenceEnabled(false);
+            assertNull(mPreferences.getString(
+                    RegisteredMediaRouteProviderStartupScheduler.KEY_RECENT_PROVIDERS, null));
+        });
+    }
+
+    private static void waitForRecentProvidersLoaded(
+            RegisteredMediaRouteProviderStartupScheduler scheduler) {
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MILLIS;
+        AtomicBoolean loaded = new AtomicBoolean();
+        while (SystemClock.uptimeMillis() < deadline) {
+            getInstrumentation().runOnMainSync(
+                    () -> loaded.set(scheduler.isRecentProvidersLoadedForTesting()));
+            if (loaded.get()) {
+                return;
+            }
+            SystemClock.sleep(10);
+        }
+        throw new AssertionError("The recent providers were not loaded");
+    }
+
+    private RegisteredMediaRouteProvider createProvider(ComponentName componentName) {
+        return new RegisteredMediaRouteProvider(mContext, componentName);
+    }
+}
@@ -18,12 +18,16 @@ package androidx.mediarouter.media;
 
 import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ServiceInfo;
 import android.os.Build;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
@@ -36,6 +40,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /** Test {@link RegisteredMediaRouteProviderWatcher}. */
@@ -43,6 +50,8 @@ import java.util.List;
 public class RegisteredMediaRouteProviderWatcherTest {
     private Context mContext;
     private RegisteredMediaRouteProviderWatcher mProviderWatcher;
+    private final List<MediaRouteProvider> mAddedProviders = new ArrayList<>();
+    private final List<MediaRouteProvider> mRemovedProviders = new ArrayList<>();
 
     @Before
     public void setUp() {
@@ -50,10 +59,14 @@ public class RegisteredMediaRouteProviderWatcherTest {
         RegisteredMediaRouteProviderWatcher.Callback callback =
                 new RegisteredMediaRouteProviderWatcher.Callback() {
                     @Override
-                    public void addProvider(@NonNull MediaRouteProvider provider) {}
+                    public void addProvider(@NonNull MediaRouteProvider provider) {
+                        mAddedProviders.add(provider);
+                    }
 
                     @Override
-                    public void removeProvider(@NonNull MediaRouteProvider provider) {}
+                    public void removeProvider(@NonNull MediaRouteProvider provider) {
+                        mRemovedProviders.add(provider);
+                    }
 
                     @Override
                     public void releaseProviderController(
@@ -89,6 +102,84 @@ public class RegisteredMediaRouteProviderWatcherTest {
         assertTrue(isSelfProvidersContained(serviceInfos));
     }
 
+    @SmallTest
+    @Test
+    public void getAdvertisedControlCategories_withMetaData_limitsRelevantDiscoveryRequests() {
+        ServiceInfo serviceInfo = new ServiceInfo();
+        assertNull(RegisteredMediaRouteProviderWatcher.getAdvertisedControlCategories(serviceInfo));
+
+        serviceInfo.metaData = new Bundle();
+        serviceInfo.metaData.putString(
+                MediaRouteProviderService.SERVICE_META_DATA_CONTROL_CATEGORIES,
+                MediaControlIntent.CATEGORY_REMOTE_PLAYBACK
+                        + ", "
+                        + MediaControlIntent.CATEGORY_LIVE_VIDEO
+                        + ",");
+        List<String> categories =
+                RegisteredMediaRouteProviderWatcher.getAdvertisedControlCategories(serviceInfo);
+        assertEquals(
+                Arrays.asList(
+                        MediaControlIntent.CATEGORY_REMOTE_PLAYBACK,
+                        MediaControlIntent.CATEGORY_LIVE_VIDEO),
+                categories);
+
+        MediaRouteDiscoveryRequest remotePlaybackRequest =
+                createDiscoveryRequest(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
+        MediaRouteDiscoveryRequest liveAudioRequest =
+                createDiscoveryRequest(MediaControlIntent.CATEGORY_LIVE_AUDIO);
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            RegisteredMediaRouteProvider provider =
+                                    new RegisteredMediaRouteProvider(
+                                            mContext,
+                                            new ComponentName(mContext, "TestProviderService"));
+                            assertTrue(provider.isDiscoveryRequestRelevant(liveAudioRequest));
+
+                            provider.setAdvertisedControlCategories(categories);
+                            assertTrue(provider.isDiscoveryRequestRelevant(remotePlaybackRequest));
+                            assertFalse(provider.isDiscoveryRequestRelevant(liveAudioRequest));
+                        });
+    }
+
+    @SmallTest
+    @Test
+    public void scanPackages_withPackageNames_onlyUpdatesProvidersOfThosePackages() {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mProviderWatcher.start();
+                            mProviderWatcher.scanPackages(
+                                    Collections.singletonList("com.example.missing"));
+                            assertTrue(mAddedProviders.isEmpty());
+
+                            mProviderWatcher.scanPackages(
+                                    Collections.singletonList(mContext.getPackageName()));
+                            assertFalse(mAddedProviders.isEmpty());
+                            for (MediaRouteProvider provider : mAddedProviders) {
+                                assertEquals(
+                                        mContext.getPackageName(),
+                                        provider.getMetadata().getPackageName());
+                            }
+
+                            // Scanning the package again keeps its providers.
+                            int addedProviderCount = mAddedProviders.size();
+                            mProviderWatcher.scanPackages(
+                                    Collections.singletonList(mContext.getPackageName()));
+                            mProviderWatcher.scanPackages(
+                                    Collections.singletonList("com.example.missing"));
+                            assertEquals(addedProviderCount, mAddedProviders.size());
+                            assertTrue(mRemovedProviders.isEmpty());
+                            mProviderWatcher.stop();
+                        });
+    }
+
+    private static MediaRouteDiscoveryRequest createDiscoveryRequest(String category) {
+        return new MediaRouteDiscoveryRequest(
+                new MediaRouteSelector.Builder().addControlCategory(category).build(),
+                /* activeScan= */ false);
+    }
+
     private boolean isSelfProvidersContained(List<ServiceInfo> serviceInfos) {
         for (ServiceInfo serviceInfo : serviceInfos) {
             if (TextUtils.equals(serviceInfo.packageName, mContext.getPackageName())) {
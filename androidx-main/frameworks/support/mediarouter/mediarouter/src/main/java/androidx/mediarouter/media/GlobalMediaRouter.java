@@ -18,9 +18,6 @@ package androidx.mediarouter.media;
 
 import static androidx.mediarouter.media.MediaRouter.AVAILABILITY_FLAG_IGNORE_DEFAULT_ROUTE;
 import static androidx.mediarouter.media.MediaRouter.AVAILABILITY_FLAG_REQUIRE_MATCH;
-import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_FORCE_DISCOVERY;
-import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
-import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
 import static androidx.mediarouter.media.MediaRouter.GroupRouteInfo.ADD_ROUTE_FAILED_REASON_ALREADY_IN_GROUP;
 import static androidx.mediarouter.media.MediaRouter.GroupRouteInfo.ADD_ROUTE_FAILED_REASON_NOT_AVAILABLE_ROUTE_CONNECTION;
 import static androidx.mediarouter.media.MediaRouter.GroupRouteInfo.ADD_ROUTE_FAILED_REASON_NOT_GROUPABLE;
@@ -46,12 +43,12 @@ import android.app.ActivityManager;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.support.v4.media.session.MediaSessionCompat;
-import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.Display;
@@ -63,12 +60,14 @@ import androidx.annotation.VisibleForTesting;
 import androidx.core.app.ActivityManagerCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.hardware.display.DisplayManagerCompat;
+import androidx.core.os.TraceCompat;
 import androidx.core.util.Pair;
 import androidx.core.util.Preconditions;
 import androidx.media.VolumeProviderCompat;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -76,10 +75,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Global state for the media router.
@@ -93,6 +95,9 @@ import java.util.Set;
 
     static final String TAG = MediaRouter.TAG;
     static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+    // The time after which the routes restored from the route cache are removed, if their
+    // provider didn't publish its routes.
+    private static final long STALE_ROUTE_TIMEOUT_MILLIS = 10000;
 
     final CallbackHandler mCallbackHandler = new CallbackHandler();
     // A map from unique route ID to RouteController for the member routes in the currently
@@ -107,15 +112,39 @@ import java.util.Set;
     MediaRouter.PrepareTransferNotifier mTransferNotifier;
 
     private final Context mApplicationContext;
-    private final ArrayList<WeakReference<MediaRouter>> mRouters = new ArrayList<>();
+    private final ArrayList<RouterReference> mRouters = new ArrayList<>();
     private final ArrayList<MediaRouter.RouteInfo> mRoutes = new ArrayList<>();
+    // Indexes mRoutes by unique route ID. If several routes share a unique ID, the first one added
+    // is indexed and the others are kept in mShadowedRoutes until it is removed.
+    private final Map<String, MediaRouter.RouteInfo> mUniqueIdToRouteMap = new HashMap<>();
+    private final List<MediaRouter.RouteInfo> mShadowedRoutes = new ArrayList<>();
     private final Map<String, RouteConnection> mRouteIdToRouteConnectionMap = new HashMap<>();
+    // Maps (provider component name, route descriptor ID) pairs to the unique IDs assigned to
+    // them. Entries are removed when their routes are removed.
     private final Map<Pair<String, String>, String> mUniqueIdMap = new HashMap<>();
+    // The next suffix to try for each unique ID that collided with an added route's unique ID.
+    // All the suffixes below it are assigned, so that the lowest free suffix is assigned. Entries
+    // are lowered when a route with a suffixed unique ID is removed, and removed when the route
+    // with the colliding unique ID is removed.
+    private final Map<String, Integer> mUniqueIdCollisionCounts = new HashMap<>();
     private final ArrayList<MediaRouter.ProviderInfo> mProviders = new ArrayList<>();
+    private final Map<MediaRouteProvider, MediaRouter.ProviderInfo> mProviderInstanceToInfoMap =
+            new HashMap<>();
     private final ArrayList<RemoteControlClientRecord> mRemoteControlClients = new ArrayList<>();
     private final RemoteControlClientCompat.PlaybackInfo mPlaybackInfo =
             new RemoteControlClientCompat.PlaybackInfo();
     private final ProviderCallback mProviderCallback = new ProviderCallback();
+    private final MediaRouterAvailabilityCache mAvailabilityCache =
+            new MediaRouterAvailabilityCache(this);
+    // The contributions of the callbacks of all routers to the discovery request.
+    private final MediaRouterDiscoveryCounts mDiscoveryCounts = new MediaRouterDiscoveryCounts();
+    private final MediaRouterDiagnosticsRecorder mDiagnosticsRecorder =
+            new MediaRouterDiagnosticsRecorder(MediaRouterInternPool.getInstance());
+    private final MediaRouterSelectionTracer mSelectionTracer = new MediaRouterSelectionTracer();
+    private final MediaRouterVolumePipeline mVolumePipeline = new MediaRouterVolumePipeline(this);
+    // The slow callback watchdog is disabled if the budget is zero.
+    private long mSlowCallbackBudgetNanos;
+    private MediaRouter.OnSlowCallbackListener mOnSlowCallbackListener;
     private final boolean mLowRam;
     private final boolean mTransferReceiverDeclared;
 
@@ -124,6 +153,17 @@ import java.util.Set;
     private PlatformMediaRouter1RouteProvider mPlatformMediaRouter1RouteProvider;
     private DisplayManagerCompat mDisplayManager;
     private MediaRouterActiveScanThrottlingHelper mActiveScanThrottlingHelper;
+    // Prepares provider descriptors on a worker thread, if enabled by the router params.
+    private MediaRouterRouteProcessor mRouteProcessor;
+    // Restores the routes of the registered providers at startup, if enabled by the router params.
+    private MediaRouteProviderDescriptorCache mRouteCache;
+    private final Runnable mExpireStaleRoutesRunnable = this::expireStaleRoutes;
+    // The route snapshot is only written on the main thread, and read from any thread. Changes
+    // increase the version at once, and the snapshot is published after the current message.
+    private volatile MediaRouter.RouteSnapshot mRouteSnapshot;
+    private volatile long mRouteSnapshotVersion;
+    private boolean mRouteSnapshotPublishScheduled;
+    private final Runnable mPublishRouteSnapshotRunnable = this::publishRouteSnapshot;
     private MediaRouterParams mRouterParams;
     private MediaRouter.RouteInfo mDefaultRoute;
     private MediaRouter.RouteInfo mBluetoothRoute;
@@ -133,6 +173,10 @@ import java.util.Set;
     private MediaRouteDiscoveryRequest mDiscoveryRequest;
     private MediaRouteDiscoveryRequest mDiscoveryRequestForMr2Provider;
     private int mCallbackCount;
+    // The number of routes that were added, compared field by field or removed, and the number of
+    // routes skipped because their descriptor content was unchanged, in the last provider update.
+    private int mLastUpdateTouchedRouteCount;
+    private int mLastUpdateSkippedRouteCount;
     private MediaSessionRecord mMediaSession;
     private MediaSessionCompat mCompatSession;
 
@@ -166,6 +210,7 @@ import java.util.Set;
         mPlatformMediaRouter1RouteProvider =
                 PlatformMediaRouter1RouteProvider.obtain(mApplicationContext, this);
         start();
+        publishRouteSnapshot();
     }
 
     private void start() {
@@ -181,6 +226,7 @@ import java.util.Set;
         // provider services.
         mRegisteredProviderWatcher =
                 new RegisteredMediaRouteProviderWatcher(mApplicationContext, this);
+        mRegisteredProviderWatcher.setDiagnosticsRecorder(mDiagnosticsRecorder);
         mRegisteredProviderWatcher.start();
     }
 
@@ -201,6 +247,17 @@ import java.util.Set;
             removeProvider(providerInfo.mProviderInstance);
         }
         mCallbackHandler.removeCallbacksAndMessages(null);
+        mDiagnosticsRecorder.onMessagesRemoved();
+        mRouteSnapshotPublishScheduled = false;
+        mAvailabilityCache.reset();
+        if (mRouteProcessor != null) {
+            mRouteProcessor.release();
+            mRouteProcessor = null;
+        }
+        if (mRouteCache != null) {
+            mRouteCache.release(/* deleteFile= */ false);
+            mRouteCache = null;
+        }
     }
 
     /* package */ MediaRouter getRouter(Context context) {
@@ -208,16 +265,41 @@ import java.util.Set;
         for (int i = mRouters.size(); --i >= 0; ) {
             router = mRouters.get(i).get();
             if (router == null) {
-                mRouters.remove(i);
+                removeRouterReference(i);
             } else if (router.mContext == context) {
                 return router;
             }
         }
         router = new MediaRouter(context);
-        mRouters.add(new WeakReference<>(router));
+        mRouters.add(new RouterReference(router));
         return router;
     }
 
+    /**
+     * Removes the reference to a router that has been garbage collected, and stops counting the
+     * contribution of its callbacks to the discovery request.
+     */
+    private void removeRouterReference(int index) {
+        mDiscoveryCounts.removeAll(mRouters.remove(index).mDiscoveryCounts);
+    }
+
+    /** Counts the contribution of a callback to the discovery request. */
+    /* package */ void addCallbackRecordToDiscovery(
+            MediaRouter router, MediaRouter.CallbackRecord record) {
+        router.mDiscoveryCounts.add(record);
+        mDiscoveryCounts.add(record);
+    }
+
+    /**
+     * Stops counting the contribution of a callback to the discovery request. Must be called
+     * before the callback's selector, flags or timestamp are changed.
+     */
+    /* package */ void removeCallbackRecordFromDiscovery(
+            MediaRouter router, MediaRouter.CallbackRecord record) {
+        router.mDiscoveryCounts.remove(record);
+        mDiscoveryCounts.remove(record);
+    }
+
     /* package */ ContentResolver getContentResolver() {
         return mApplicationContext.getContentResolver();
     }
@@ -252,19 +334,27 @@ import java.util.Set;
     /* package */ void requestSetVolume(MediaRouter.RouteInfo route, int volume) {
         MediaRouteProvider.RouteController controller = getRouteController(route);
         if (controller != null) {
-            controller.onSetVolume(volume);
+            mVolumePipeline.requestSetVolume(route, controller, volume);
         }
     }
 
     /* package */ void requestUpdateVolume(MediaRouter.RouteInfo route, int delta) {
         MediaRouteProvider.RouteController controller = getRouteController(route);
         if (controller != null) {
+            mVolumePipeline.onUpdateVolume(route);
             controller.onUpdateVolume(delta);
         }
     }
 
+    /** Notifies the callbacks of a volume shown before the provider reports it. */
+    /* package */ void notifyRouteVolumeChangedLocally(MediaRouter.RouteInfo route) {
+        mCallbackHandler.post(CallbackHandler.MSG_ROUTE_CHANGED, route);
+        mCallbackHandler.post(CallbackHandler.MSG_ROUTE_VOLUME_CHANGED, route);
+    }
+
     @Nullable
-    private MediaRouteProvider.RouteController getRouteController(MediaRouter.RouteInfo route) {
+    /* package */ MediaRouteProvider.RouteController getRouteController(
+            MediaRouter.RouteInfo route) {
         if (route == mSelectedRoute && mSelectedRouteController != null) {
             return mSelectedRouteController;
         }
@@ -289,12 +379,42 @@ import java.util.Set;
     }
 
     /* package */ MediaRouter.RouteInfo getRoute(String uniqueId) {
-        for (MediaRouter.RouteInfo info : mRoutes) {
-            if (info.mUniqueId.equals(uniqueId)) {
-                return info;
-            }
+        return mUniqueIdToRouteMap.get(uniqueId);
+    }
+
+    /* package */ MediaRouter.RouteSnapshot getRouteSnapshot() {
+        if (Looper.myLooper() == Looper.getMainLooper() && mRouteSnapshotPublishScheduled) {
+            // Don't make main thread callers observe a stale snapshot.
+            publishRouteSnapshot();
         }
-        return null;
+        return mRouteSnapshot;
+    }
+
+    /* package */ long getRouteSnapshotVersion() {
+        return mRouteSnapshotVersion;
+    }
+
+    /**
+     * Increases the route snapshot version, and schedules publishing a new snapshot after the
+     * current message so that several changes are published at once.
+     */
+    /* package */ void invalidateRouteSnapshot() {
+        // Only the main thread writes the version, so the increment is not racy.
+        mRouteSnapshotVersion++;
+        if (!mRouteSnapshotPublishScheduled) {
+            mRouteSnapshotPublishScheduled = true;
+            mCallbackHandler.post(mPublishRouteSnapshotRunnable);
+        }
+    }
+
+    private void publishRouteSnapshot() {
+        if (mRouteSnapshotPublishScheduled) {
+            mRouteSnapshotPublishScheduled = false;
+            mCallbackHandler.removeCallbacks(mPublishRouteSnapshotRunnable);
+        }
+        mRouteSnapshot =
+                new MediaRouter.RouteSnapshot(
+                        mRouteSnapshotVersion, mRoutes, mProviders, mSelectedRoute);
     }
 
     /* package */ List<MediaRouter.RouteInfo> getRoutes() {
@@ -311,6 +431,28 @@ import java.util.Set;
     /* package */ void setRouterParams(@Nullable MediaRouterParams params) {
         MediaRouterParams oldParams = mRouterParams;
         mRouterParams = params;
+        mVolumePipeline.setMinSendIntervalMillis(
+                params != null
+                        ? params.getMinVolumeRequestIntervalMillis()
+                        : MediaRouterVolumePipeline.DEFAULT_MIN_SEND_INTERVAL_MILLIS);
+        mRegisteredProviderWatcher.setMaxConcurrentProviderStartups(
+                params != null
+                        ? params.getMaxConcurrentProviderStartups()
+                        : RegisteredMediaRouteProviderStartupScheduler
+                                .DEFAULT_MAX_CONCURRENT_STARTUPS);
+        mRegisteredProviderWatcher.setRecentProviderPersistenceEnabled(
+                params != null && params.isRecentProviderPersistenceEnabled());
+        boolean routeCacheEnabled = params != null && params.isRouteCacheEnabled();
+        if (routeCacheEnabled && mRouteCache == null) {
+            mRouteCache = new MediaRouteProviderDescriptorCache(
+                    new File(
+                            mApplicationContext.getCacheDir(),
+                            MediaRouteProviderDescriptorCache.FILE_NAME));
+            mRouteCache.load(this::restoreCachedRoutes);
+        } else if (!routeCacheEnabled && mRouteCache != null) {
+            mRouteCache.release(/* deleteFile= */ true);
+            mRouteCache = null;
+        }
 
         if (isMediaTransferEnabled()) {
             if (mMr2Provider == null) {
@@ -343,6 +485,22 @@ import java.util.Set;
                 mRegisteredProviderWatcher.rescan();
             }
         }
+        if (mRouteProcessor != null && !isBackgroundRouteProcessingEnabled()) {
+            // Drop the pending results and apply the latest descriptors synchronously instead.
+            mRouteProcessor.release();
+            mRouteProcessor = null;
+            for (MediaRouter.ProviderInfo provider : new ArrayList<>(mProviders)) {
+                MediaRouteProviderDescriptor descriptor =
+                        provider.mProviderInstance.getDescriptor();
+                if (provider.mStale && descriptor == null) {
+                    // Keep the restored routes until the provider publishes its routes.
+                    continue;
+                }
+                updatePublishedProviderContents(provider, descriptor, /* validated= */ false);
+            }
+        }
+        // Whether MR2 routes are counted as available depends on the router params.
+        mAvailabilityCache.invalidate();
         mCallbackHandler.post(CallbackHandler.MSG_ROUTER_PARAMS_CHANGED, params);
     }
 
@@ -592,7 +750,7 @@ import java.util.Set;
             @NonNull MediaRouter.RouteInfo route,
             @MediaRouter.UnselectReason int unselectReason,
             boolean syncMediaRoute1Provider) {
-        if (!mRoutes.contains(route)) {
+        if (!isRouteAdded(route)) {
             Log.w(TAG, "Ignoring attempt to select removed route: " + route);
             return;
         }
@@ -600,12 +758,15 @@ import java.util.Set;
             Log.w(TAG, "Ignoring attempt to select disabled route: " + route);
             return;
         }
+        mSelectionTracer.begin(route);
 
         // Check whether the route comes from MediaRouter2. The SDK check is required to avoid a
         // lint error but is not needed.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
                 && route.getProviderInstance() == mMr2Provider
                 && mSelectedRoute != route) {
+            mSelectionTracer.mark(
+                    MediaRouterDiagnostics.RouteSelectionTrace.PHASE_TRANSFER_REQUESTED);
             mMr2Provider.transferTo(route.getDescriptorId());
         } else {
             selectRouteInternal(route, unselectReason, syncMediaRoute1Provider);
@@ -613,7 +774,7 @@ import java.util.Set;
     }
 
     /* package */ void connectRoute(@NonNull MediaRouter.RouteInfo route) {
-        if (!mRoutes.contains(route)) {
+        if (!isRouteAdded(route)) {
             Log.w(TAG, "connectRoute: Failed for removed route: " + route);
             notifyRouteConnectionFailed(route, MediaRouter.REASON_ROUTE_NOT_AVAILABLE);
             return;
@@ -684,79 +845,71 @@ import java.util.Set;
             return true;
         }
 
+        // Check whether any existing routes match the selector.
+        return mAvailabilityCache.hasMatchingRoute(selector, flags);
+    }
+
+    /* package */ void addOnRouteAvailabilityChangedListener(
+            MediaRouteSelector selector,
+            int flags,
+            MediaRouter.OnRouteAvailabilityChangedListener listener) {
+        mAvailabilityCache.addListener(selector, flags, listener);
+    }
+
+    /* package */ void removeOnRouteAvailabilityChangedListener(
+            MediaRouter.OnRouteAvailabilityChangedListener listener) {
+        mAvailabilityCache.removeListener(listener);
+    }
+
+    /**
+     * Returns whether the given route makes a route available for {@link #isRouteAvailable} with
+     * the given selector and flags.
+     */
+    /* package */ boolean isRouteCountedAsAvailable(
+            MediaRouter.RouteInfo route, MediaRouteSelector selector, int flags) {
+        if ((flags & AVAILABILITY_FLAG_IGNORE_DEFAULT_ROUTE) != 0 && route.isDefaultOrBluetooth()) {
+            return false;
+        }
+        // When using the output switcher, we only care about MR2 routes and system routes.
         boolean useOutputSwitcher =
                 mRouterParams != null
                         && mRouterParams.isOutputSwitcherEnabled()
                         && isMediaTransferEnabled();
-        // Check whether any existing routes match the selector.
-        final int routeCount = mRoutes.size();
-        for (int i = 0; i < routeCount; i++) {
-            MediaRouter.RouteInfo route = mRoutes.get(i);
-            if ((flags & AVAILABILITY_FLAG_IGNORE_DEFAULT_ROUTE) != 0
-                    && route.isDefaultOrBluetooth()) {
-                continue;
-            }
-            // When using the output switcher, we only care about MR2 routes and system routes.
-            if (useOutputSwitcher
-                    && !route.isDefaultOrBluetooth()
-                    && route.getProviderInstance() != mMr2Provider) {
-                continue;
-            }
-            if (route.matchesSelector(selector)) {
-                return true;
-            }
+        if (useOutputSwitcher
+                && !route.isDefaultOrBluetooth()
+                && route.getProviderInstance() != mMr2Provider) {
+            return false;
         }
-
-        // It doesn't look like we can find a matching route right now.
-        return false;
+        return route.matchesSelector(selector);
     }
 
     /* package */ void updateDiscoveryRequest() {
-        // Combine all of the callback selectors and active scan flags.
-        boolean discover = false;
-        MediaRouteSelector.Builder builder = new MediaRouteSelector.Builder();
-        mActiveScanThrottlingHelper.reset();
-
-        int callbackCount = 0;
+        // The callback selectors and active scan flags are combined incrementally as callbacks
+        // are added and removed. Drop the contributions of garbage collected routers.
         for (int i = mRouters.size(); --i >= 0; ) {
-            MediaRouter router = mRouters.get(i).get();
-            if (router == null) {
-                mRouters.remove(i);
-            } else {
-                final int count = router.mCallbackRecords.size();
-                callbackCount += count;
-                for (int j = 0; j < count; j++) {
-                    MediaRouter.CallbackRecord callback = router.mCallbackRecords.get(j);
-                    builder.addSelector(callback.mSelector);
-                    boolean callbackRequestingActiveScan =
-                            (callback.mFlags & CALLBACK_FLAG_PERFORM_ACTIVE_SCAN) != 0;
-                    mActiveScanThrottlingHelper.requestActiveScan(
-                            callbackRequestingActiveScan, callback.mTimestamp);
-                    if (callbackRequestingActiveScan) {
-                        discover = true; // perform active scan implies request discovery
-                    }
-                    if ((callback.mFlags & CALLBACK_FLAG_REQUEST_DISCOVERY) != 0) {
-                        if (!mLowRam) {
-                            discover = true;
-                        }
-                    }
-                    if ((callback.mFlags & CALLBACK_FLAG_FORCE_DISCOVERY) != 0) {
-                        discover = true;
-                    }
-                }
+            if (mRouters.get(i).get() == null) {
+                removeRouterReference(i);
             }
         }
 
+        // Only the latest active scan request matters: if it has expired, all of them have.
+        mActiveScanThrottlingHelper.reset();
+        long activeScanTimestamp = mDiscoveryCounts.getLatestActiveScanTimestamp();
+        mActiveScanThrottlingHelper.requestActiveScan(
+                activeScanTimestamp != Long.MIN_VALUE, activeScanTimestamp);
         boolean activeScan =
                 mActiveScanThrottlingHelper
                         .finalizeActiveScanAndScheduleSuppressActiveScanRunnable();
 
-        mCallbackCount = callbackCount;
-        MediaRouteSelector selector = discover ? builder.build() : MediaRouteSelector.EMPTY;
+        // Perform active scan implies request discovery.
+        boolean discover = mDiscoveryCounts.isDiscoveryRequested(mLowRam);
+        mCallbackCount = mDiscoveryCounts.getCallbackCount();
+        MediaRouteSelector callbackSelector = mDiscoveryCounts.getSelector();
+        MediaRouteSelector selector = discover ? callbackSelector : MediaRouteSelector.EMPTY;
 
         // MediaRoute2Provider should keep registering discovery preference
         // even when the callback flag is zero.
-        updateMr2ProviderDiscoveryRequest(builder.build(), activeScan);
+        updateMr2ProviderDiscoveryRequest(callbackSelector, activeScan);
 
         // Create a new discovery request.
         if (mDiscoveryRequest != null
@@ -774,6 +927,7 @@ import java.util.Set;
             // Discovery is needed.
             mDiscoveryRequest = new MediaRouteDiscoveryRequest(selector, activeScan);
         }
+        mDiagnosticsRecorder.onDiscoveryRequestChanged();
         if (DEBUG) {
             Log.d(TAG, "Updated discovery request: " + mDiscoveryRequest);
         }
@@ -865,12 +1019,14 @@ import java.util.Set;
             MediaRouter.ProviderInfo provider =
                     new MediaRouter.ProviderInfo(providerInstance, treatRouteDescriptorIdsAsUnique);
             mProviders.add(provider);
+            mProviderInstanceToInfoMap.put(providerInstance, provider);
             if (DEBUG) {
                 Log.d(TAG, "Provider added: " + provider);
             }
             mCallbackHandler.post(CallbackHandler.MSG_PROVIDER_ADDED, provider);
             // 2. Create the provider's contents.
             updateProviderContents(provider, providerInstance.getDescriptor());
+            restoreCachedRoutes(provider);
             // 3. Register the provider callback.
             providerInstance.setCallback(mProviderCallback);
             // 4. Set the discovery request.
@@ -894,6 +1050,10 @@ import java.util.Set;
             }
             mCallbackHandler.post(CallbackHandler.MSG_PROVIDER_REMOVED, provider);
             mProviders.remove(provider);
+            mProviderInstanceToInfoMap.remove(providerInstance);
+            if (mRouteProcessor != null) {
+                mRouteProcessor.cancel(providerInstance);
+            }
         }
     }
 
@@ -914,33 +1074,206 @@ import java.util.Set;
     /* package */ void updateProviderDescriptor(
             MediaRouteProvider providerInstance, MediaRouteProviderDescriptor descriptor) {
         MediaRouter.ProviderInfo provider = findProviderInfo(providerInstance);
+        if (provider == null) {
+            return;
+        }
+        provider.mDescriptorUpdateCount++;
+        if (mRouteCache != null
+                && descriptor != null
+                && providerInstance instanceof RegisteredMediaRouteProvider) {
+            mRouteCache.put(getRouteCacheKey(provider), descriptor);
+        }
+        // The routes of the platform and MR2 providers back the default and selected routes, so
+        // they are always updated synchronously.
+        if (isBackgroundRouteProcessingEnabled()
+                && providerInstance != mPlatformMediaRouter1RouteProvider
+                && providerInstance != mMr2Provider) {
+            if (mRouteProcessor == null) {
+                mRouteProcessor = new MediaRouterRouteProcessor(this::onProviderDescriptorProcessed);
+            }
+            mRouteProcessor.submit(providerInstance, descriptor);
+            return;
+        }
+        if (mRouteProcessor != null) {
+            mRouteProcessor.cancel(providerInstance);
+        }
+        // Update the provider's contents.
+        updatePublishedProviderContents(provider, descriptor, /* validated= */ false);
+    }
+
+    private void onProviderDescriptorProcessed(
+            @NonNull MediaRouterRouteProcessor.ProcessedDescriptor processedDescriptor) {
+        MediaRouter.ProviderInfo provider = findProviderInfo(processedDescriptor.mProvider);
         if (provider != null) {
-            // Update the provider's contents.
-            updateProviderContents(provider, descriptor);
+            updatePublishedProviderContents(
+                    provider, processedDescriptor.mDescriptor, processedDescriptor.mValid);
+        }
+    }
+
+    private void restoreCachedRoutes() {
+        for (MediaRouter.ProviderInfo provider : new ArrayList<>(mProviders)) {
+            restoreCachedRoutes(provider);
+        }
+    }
+
+    /**
+     * Shows the cached routes of a registered provider as stale routes until the provider
+     * publishes its routes, if the route cache is enabled and the provider has no descriptor.
+     */
+    private void restoreCachedRoutes(@NonNull MediaRouter.ProviderInfo provider) {
+        if (mRouteCache == null
+                || !mRouteCache.isLoaded()
+                || !(provider.mProviderInstance instanceof RegisteredMediaRouteProvider)
+                || provider.mProviderInstance.getDescriptor() != null) {
+            return;
+        }
+        MediaRouteProviderDescriptor descriptor = mRouteCache.get(getRouteCacheKey(provider));
+        if (descriptor == null) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Restoring " + descriptor.getRoutes().size() + " cached routes of "
+                    + provider);
         }
+        provider.mStale = true;
+        updateProviderContents(provider, descriptor);
+        mCallbackHandler.removeCallbacks(mExpireStaleRoutesRunnable);
+        mCallbackHandler.postDelayed(mExpireStaleRoutesRunnable, STALE_ROUTE_TIMEOUT_MILLIS);
+    }
+
+    // Removes the restored routes of the providers that didn't publish their routes in time.
+    @VisibleForTesting
+    /* package */ void expireStaleRoutes() {
+        for (MediaRouter.ProviderInfo provider : new ArrayList<>(mProviders)) {
+            if (provider.mStale) {
+                updatePublishedProviderContents(
+                        provider,
+                        provider.mProviderInstance.getDescriptor(),
+                        /* validated= */ false);
+            }
+        }
+    }
+
+    @NonNull
+    private static String getRouteCacheKey(@NonNull MediaRouter.ProviderInfo provider) {
+        return provider.getComponentName().flattenToShortString();
+    }
+
+    private boolean isBackgroundRouteProcessingEnabled() {
+        return mRouterParams != null && mRouterParams.isBackgroundRouteProcessingEnabled();
     }
 
     private MediaRouter.ProviderInfo findProviderInfo(MediaRouteProvider providerInstance) {
-        for (MediaRouter.ProviderInfo providerInfo : mProviders) {
-            if (providerInfo.mProviderInstance == providerInstance) {
-                return providerInfo;
+        return mProviderInstanceToInfoMap.get(providerInstance);
+    }
+
+    /**
+     * Returns whether the given route is currently published by a provider, as opposed to a route
+     * that has been removed or a group route that is not part of any provider's descriptor.
+     */
+    private boolean isRouteAdded(@NonNull MediaRouter.RouteInfo route) {
+        MediaRouter.ProviderInfo provider = findProviderInfo(route.getProviderInstance());
+        return provider != null && provider.findRouteByDescriptorId(route.mDescriptorId) == route;
+    }
+
+    private void addRouteToIndex(@NonNull MediaRouter.RouteInfo route) {
+        mRoutes.add(route);
+        if (mUniqueIdToRouteMap.containsKey(route.mUniqueId)) {
+            mShadowedRoutes.add(route);
+        } else {
+            mUniqueIdToRouteMap.put(route.mUniqueId, route);
+        }
+    }
+
+    private void removeRoutesFromIndex(@NonNull List<MediaRouter.RouteInfo> routes) {
+        if (routes.isEmpty()) {
+            return;
+        }
+        mRoutes.removeAll(new HashSet<>(routes));
+        for (MediaRouter.RouteInfo route : routes) {
+            if (mUniqueIdToRouteMap.get(route.mUniqueId) != route) {
+                mShadowedRoutes.remove(route);
+                continue;
+            }
+            mUniqueIdToRouteMap.remove(route.mUniqueId);
+            for (int i = 0; i < mShadowedRoutes.size(); i++) {
+                MediaRouter.RouteInfo shadowedRoute = mShadowedRoutes.get(i);
+                if (shadowedRoute.mUniqueId.equals(route.mUniqueId)) {
+                    mShadowedRoutes.remove(i);
+                    mUniqueIdToRouteMap.put(shadowedRoute.mUniqueId, shadowedRoute);
+                    break;
+                }
             }
         }
-        return null;
+        for (MediaRouter.RouteInfo route : routes) {
+            releaseRouteUniqueId(route);
+        }
+    }
+
+    /**
+     * Updates the routes of a provider from the descriptor it published, which replaces the stale
+     * routes restored from the route cache, if any. The routes stay stale until the descriptor
+     * has been merged.
+     */
+    private void updatePublishedProviderContents(
+            MediaRouter.ProviderInfo provider,
+            MediaRouteProviderDescriptor providerDescriptor,
+            boolean validated) {
+        if (!provider.mStale) {
+            updateProviderContents(
+                    provider, providerDescriptor, validated, /* unchangedRoutes= */ null);
+            return;
+        }
+        List<MediaRouter.RouteInfo> unchangedRoutes = new ArrayList<>();
+        updateProviderContents(provider, providerDescriptor, validated, unchangedRoutes);
+        provider.mStale = false;
+        // The merge notified clients about the routes that changed. Notify them about the
+        // restored routes that were published unchanged, which are no longer stale.
+        for (MediaRouter.RouteInfo route : unchangedRoutes) {
+            mCallbackHandler.post(CallbackHandler.MSG_ROUTE_CHANGED, route);
+        }
     }
 
     private void updateProviderContents(
             MediaRouter.ProviderInfo provider, MediaRouteProviderDescriptor providerDescriptor) {
+        updateProviderContents(
+                provider, providerDescriptor, /* validated= */ false, /* unchangedRoutes= */ null);
+    }
+
+    /**
+     * Updates the routes of a provider from its descriptor.
+     *
+     * @param validated Whether the descriptor is known to be valid, because it was already
+     *     validated by the {@link MediaRouterRouteProcessor}.
+     * @param unchangedRoutes If not null, receives the existing routes that are kept without a
+     *     general change, for which clients are not notified.
+     */
+    private void updateProviderContents(
+            MediaRouter.ProviderInfo provider,
+            MediaRouteProviderDescriptor providerDescriptor,
+            boolean validated,
+            @Nullable List<MediaRouter.RouteInfo> unchangedRoutes) {
         if (!provider.updateDescriptor(providerDescriptor)) {
             // Nothing to update.
+            if (unchangedRoutes != null) {
+                unchangedRoutes.addAll(provider.mRoutes);
+            }
             return;
         }
-        // Update all existing routes and reorder them to match
-        // the order of their descriptors.
-        int targetIndex = 0;
+        // Rebuild the provider's route list in the order of the descriptors, reusing existing
+        // routes through the descriptor id index so that each descriptor is merged in O(1).
+        // Routes that remain in previousRouteMap afterwards have no matching descriptor.
+        List<MediaRouter.RouteInfo> previousRoutes = new ArrayList<>(provider.mRoutes);
+        Map<String, MediaRouter.RouteInfo> previousRouteMap =
+                new HashMap<>(provider.mDescriptorIdToRouteMap);
+        provider.clearRoutes();
+        int touchedRouteCount = 0;
+        int skippedRouteCount = 0;
         boolean selectedRouteDescriptorChanged = false;
+        boolean descriptorValid =
+                providerDescriptor != null && (validated || providerDescriptor.isValid());
         if (providerDescriptor != null
-                && (providerDescriptor.isValid()
+                && (descriptorValid
                         || providerDescriptor
                                 == mPlatformMediaRouter1RouteProvider.getDescriptor())) {
             final List<MediaRouteDescriptor> routeDescriptors = providerDescriptor.getRoutes();
@@ -951,24 +1284,30 @@ import java.util.Set;
                     new ArrayList<>();
             for (MediaRouteDescriptor routeDescriptor : routeDescriptors) {
                 // PlatformMediaRouter1RouteProvider may have invalid routes
-                if (routeDescriptor == null || !routeDescriptor.isValid()) {
+                if (routeDescriptor == null
+                        || (!descriptorValid && !routeDescriptor.isValid())) {
                     Log.w(TAG, "Ignoring invalid route descriptor: " + routeDescriptor);
                     continue;
                 }
                 final String id = routeDescriptor.getId();
-                final int sourceIndex = provider.findRouteIndexByDescriptorId(id);
+                if (provider.findRouteByDescriptorId(id) != null) {
+                    Log.w(TAG, "Ignoring route descriptor with duplicate id: " + routeDescriptor);
+                    continue;
+                }
+                MediaRouter.RouteInfo route = previousRouteMap.remove(id);
 
-                if (sourceIndex < 0) {
+                if (route == null) {
+                    touchedRouteCount++;
                     // 1. Add the route to the list.
                     String uniqueId = assignRouteUniqueId(provider, id);
-                    MediaRouter.RouteInfo route =
+                    route =
                             new MediaRouter.RouteInfo(
                                     provider, id, uniqueId, routeDescriptor.isSystemRoute());
 
-                    provider.mRoutes.add(targetIndex++, route);
-                    mRoutes.add(route);
+                    provider.addRoute(route);
+                    addRouteToIndex(route);
                     // 2. Create the route's contents.
-                    if (!routeDescriptor.getGroupMemberIds().isEmpty()) {
+                    if (routeDescriptor.hasGroupMemberIds()) {
                         addedGroups.add(new Pair<>(route, routeDescriptor));
                     } else {
                         route.maybeUpdateDescriptor(routeDescriptor);
@@ -976,23 +1315,33 @@ import java.util.Set;
                         if (DEBUG) {
                             Log.d(TAG, "Route added: " + route);
                         }
+                        mAvailabilityCache.onRouteAdded(route);
                         mCallbackHandler.post(CallbackHandler.MSG_ROUTE_ADDED, route);
                     }
-                } else if (sourceIndex < targetIndex) {
-                    Log.w(TAG, "Ignoring route descriptor with duplicate id: " + routeDescriptor);
                 } else {
-                    MediaRouter.RouteInfo route = provider.mRoutes.get(sourceIndex);
-                    // 1. Reorder the route within the list.
-                    Collections.swap(provider.mRoutes, sourceIndex, targetIndex++);
+                    // 1. Move the route to its new position within the list.
+                    provider.addRoute(route);
                     // 2. Update the route's contents.
-                    if (!routeDescriptor.getGroupMemberIds().isEmpty()) {
+                    if (route.maybeAdoptUnchangedDescriptor(routeDescriptor)) {
+                        // Skip the field-by-field comparison for unchanged routes.
+                        skippedRouteCount++;
+                        if (unchangedRoutes != null) {
+                            unchangedRoutes.add(route);
+                        }
+                        continue;
+                    }
+                    touchedRouteCount++;
+                    if (routeDescriptor.hasGroupMemberIds()) {
                         updatedGroups.add(new Pair<>(route, routeDescriptor));
                     } else {
                         // 3. Notify clients about changes.
-                        if (updateRouteDescriptorAndNotify(route, routeDescriptor) != 0) {
-                            if (route == mSelectedRoute) {
-                                selectedRouteDescriptorChanged = true;
-                            }
+                        int changes = updateRouteDescriptorAndNotify(route, routeDescriptor);
+                        if (changes != 0 && route == mSelectedRoute) {
+                            selectedRouteDescriptorChanged = true;
+                        }
+                        if ((changes & MediaRouter.RouteInfo.CHANGE_GENERAL) == 0
+                                && unchangedRoutes != null) {
+                            unchangedRoutes.add(route);
                         }
                     }
                 }
@@ -1004,14 +1353,18 @@ import java.util.Set;
                 if (DEBUG) {
                     Log.d(TAG, "Route added: " + route);
                 }
+                mAvailabilityCache.onRouteAdded(route);
                 mCallbackHandler.post(CallbackHandler.MSG_ROUTE_ADDED, route);
             }
             for (Pair<MediaRouter.RouteInfo, MediaRouteDescriptor> pair : updatedGroups) {
                 MediaRouter.RouteInfo route = pair.first;
-                if (updateRouteDescriptorAndNotify(route, pair.second) != 0) {
-                    if (route == mSelectedRoute) {
-                        selectedRouteDescriptorChanged = true;
-                    }
+                int changes = updateRouteDescriptorAndNotify(route, pair.second);
+                if (changes != 0 && route == mSelectedRoute) {
+                    selectedRouteDescriptorChanged = true;
+                }
+                if ((changes & MediaRouter.RouteInfo.CHANGE_GENERAL) == 0
+                        && unchangedRoutes != null) {
+                    unchangedRoutes.add(route);
                 }
             }
         } else {
@@ -1024,13 +1377,24 @@ import java.util.Set;
         }
 
         // Dispose all remaining routes that do not have matching descriptors.
-        for (int i = provider.mRoutes.size() - 1; i >= targetIndex; i--) {
-            // 1. Delete the route's contents.
-            MediaRouter.RouteInfo route = provider.mRoutes.get(i);
-            route.maybeUpdateDescriptor(null);
-            // 2. Remove the route from the list.
-            mRoutes.remove(route);
+        List<MediaRouter.RouteInfo> removedRoutes = new ArrayList<>(previousRouteMap.size());
+        for (int i = previousRoutes.size() - 1; i >= 0; i--) {
+            MediaRouter.RouteInfo route = previousRoutes.get(i);
+            if (previousRouteMap.get(route.mDescriptorId) == route) {
+                // 1. Delete the route's contents.
+                route.maybeUpdateDescriptor(null);
+                removedRoutes.add(route);
+            }
         }
+        // 2. Remove the routes from the list.
+        removeRoutesFromIndex(removedRoutes);
+        for (MediaRouter.RouteInfo route : removedRoutes) {
+            mAvailabilityCache.onRouteRemoved(route);
+        }
+        touchedRouteCount += removedRoutes.size();
+        mLastUpdateTouchedRouteCount = touchedRouteCount;
+        mLastUpdateSkippedRouteCount = skippedRouteCount;
+        mDiagnosticsRecorder.onProviderRoutesUpdated(touchedRouteCount, skippedRouteCount);
 
         // Update the selected route if needed.
         updateSelectedRouteIfNeeded(selectedRouteDescriptorChanged);
@@ -1040,8 +1404,7 @@ import java.util.Set;
         // that the framework media router observes the new route
         // selection before the removal since removing the currently
         // selected route may have side-effects.
-        for (int i = provider.mRoutes.size() - 1; i >= targetIndex; i--) {
-            MediaRouter.RouteInfo route = provider.mRoutes.remove(i);
+        for (MediaRouter.RouteInfo route : removedRoutes) {
             if (DEBUG) {
                 Log.d(TAG, "Route removed: " + route);
             }
@@ -1050,7 +1413,14 @@ import java.util.Set;
 
         // Notify provider changed.
         if (DEBUG) {
-            Log.d(TAG, "Provider changed: " + provider);
+            Log.d(
+                    TAG,
+                    "Provider changed: "
+                            + provider
+                            + ", touchedRoutes="
+                            + touchedRouteCount
+                            + ", skippedRoutes="
+                            + skippedRouteCount);
         }
         mCallbackHandler.post(CallbackHandler.MSG_PROVIDER_CHANGED, provider);
     }
@@ -1063,6 +1433,9 @@ import java.util.Set;
                 if (DEBUG) {
                     Log.d(TAG, "Route changed: " + route);
                 }
+                if (isRouteAdded(route)) {
+                    mAvailabilityCache.onRouteChanged(route);
+                }
                 mCallbackHandler.post(CallbackHandler.MSG_ROUTE_CHANGED, route);
             }
             if ((changes & MediaRouter.RouteInfo.CHANGE_VOLUME) != 0) {
@@ -1087,12 +1460,15 @@ import java.util.Set;
         // Although route descriptor ids are unique within a provider, it's
         // possible for there to be two providers with the same package name.
         // Therefore we must dedupe the composite id.
-        String componentName = provider.getComponentName().flattenToShortString();
+        // The component name is kept by the unique id map for each route, so it is shared.
+        String componentName =
+                MediaRouterInternPool.getInstance()
+                        .internString(provider.getComponentName().flattenToShortString());
         String uniqueId =
                 provider.mTreatRouteDescriptorIdsAsUnique
                         ? routeDescriptorId
                         : (componentName + ":" + routeDescriptorId);
-        if (provider.mTreatRouteDescriptorIdsAsUnique || findRouteByUniqueId(uniqueId) < 0) {
+        if (provider.mTreatRouteDescriptorIdsAsUnique || !mUniqueIdToRouteMap.containsKey(uniqueId)) {
             mUniqueIdMap.put(new Pair<>(componentName, routeDescriptorId), uniqueId);
             return uniqueId;
         }
@@ -1103,25 +1479,74 @@ import java.util.Set;
                         + " isn't unique in "
                         + componentName
                         + " or we're trying to assign a unique ID for an already added route");
-        int i = 2;
-        while (true) {
-            String newUniqueId = String.format(Locale.US, "%s_%d", uniqueId, i);
-            if (findRouteByUniqueId(newUniqueId) < 0) {
-                mUniqueIdMap.put(new Pair<>(componentName, routeDescriptorId), newUniqueId);
-                return newUniqueId;
-            }
+        // Resume from the last suffix assigned for this unique ID, so that repeated collisions
+        // don't probe all the previously assigned suffixes.
+        Integer nextSuffix = mUniqueIdCollisionCounts.get(uniqueId);
+        int i = nextSuffix != null ? nextSuffix : 2;
+        String newUniqueId = uniqueId + "_" + i;
+        while (mUniqueIdToRouteMap.containsKey(newUniqueId)) {
             i++;
+            newUniqueId = uniqueId + "_" + i;
         }
+        mUniqueIdCollisionCounts.put(uniqueId, i + 1);
+        mUniqueIdMap.put(new Pair<>(componentName, routeDescriptorId), newUniqueId);
+        return newUniqueId;
     }
 
-    private int findRouteByUniqueId(String uniqueId) {
-        final int count = mRoutes.size();
-        for (int i = 0; i < count; i++) {
-            if (mRoutes.get(i).mUniqueId.equals(uniqueId)) {
-                return i;
-            }
+    /**
+     * Releases the unique ID assigned to a route that was removed, unless it was reassigned to
+     * another route in the meantime.
+     */
+    private void releaseRouteUniqueId(@NonNull MediaRouter.RouteInfo route) {
+        MediaRouter.RouteInfo indexedRoute = mUniqueIdToRouteMap.get(route.mUniqueId);
+        String componentName = route.getProvider().getComponentName().flattenToShortString();
+        if (indexedRoute == null) {
+            // No added route has this unique ID anymore, so new routes won't collide with it.
+            mUniqueIdCollisionCounts.remove(route.mUniqueId);
+            if (!route.getProvider().mTreatRouteDescriptorIdsAsUnique) {
+                releaseUniqueIdSuffix(componentName + ":" + route.mDescriptorId, route.mUniqueId);
+            }
+        }
+        if (indexedRoute != null
+                && indexedRoute.mDescriptorId.equals(route.mDescriptorId)
+                && indexedRoute
+                        .getProvider()
+                        .getComponentName()
+                        .flattenToShortString()
+                        .equals(componentName)) {
+            // A provider with the same component name still publishes this route.
+            return;
+        }
+        Pair<String, String> key = new Pair<>(componentName, route.mDescriptorId);
+        if (route.mUniqueId.equals(mUniqueIdMap.get(key))) {
+            mUniqueIdMap.remove(key);
+        }
+    }
+
+    /**
+     * Lets the suffix of a removed route's unique ID be assigned again, so that a route that is
+     * removed and added again gets the same unique ID.
+     */
+    private void releaseUniqueIdSuffix(@NonNull String uniqueId, @NonNull String suffixedUniqueId) {
+        Integer nextSuffix = mUniqueIdCollisionCounts.get(uniqueId);
+        if (nextSuffix == null || !suffixedUniqueId.startsWith(uniqueId + "_")) {
+            return;
+        }
+        int suffix;
+        try {
+            suffix = Integer.parseInt(suffixedUniqueId.substring(uniqueId.length() + 1));
+        } catch (NumberFormatException ex) {
+            return;
+        }
+        if (suffix >= 2 && suffix < nextSuffix) {
+            mUniqueIdCollisionCounts.put(uniqueId, suffix);
         }
-        return -1;
+    }
+
+    /** Returns the number of route descriptor IDs that currently have an assigned unique ID. */
+    @VisibleForTesting
+    /* package */ int getUniqueIdMapSize() {
+        return mUniqueIdMap.size();
     }
 
     /* package */ String getUniqueId(MediaRouter.ProviderInfo provider, String routeDescriptorId) {
@@ -1130,6 +1555,8 @@ import java.util.Set;
     }
 
     /* package */ void updateSelectedRouteIfNeeded(boolean selectedRouteDescriptorChanged) {
+        MediaRouter.RouteInfo oldDefaultRoute = mDefaultRoute;
+
         // Update default route.
         if (mDefaultRoute != null && !mDefaultRoute.isSelectable()) {
             Log.i(
@@ -1167,6 +1594,15 @@ import java.util.Set;
                 }
             }
         }
+        // Routes are counted differently for availability when they are the default route.
+        if (oldDefaultRoute != mDefaultRoute) {
+            if (oldDefaultRoute != null && isRouteAdded(oldDefaultRoute)) {
+                mAvailabilityCache.onRouteChanged(oldDefaultRoute);
+            }
+            if (mDefaultRoute != null) {
+                mAvailabilityCache.onRouteChanged(mDefaultRoute);
+            }
+        }
 
         // Update selected route.
         if (mSelectedRoute == null || !mSelectedRoute.isEnabled()) {
@@ -1223,8 +1659,12 @@ import java.util.Set;
             @MediaRouter.UnselectReason int unselectReason,
             boolean syncMediaRoute1Provider) {
         if (mSelectedRoute == route) {
+            mSelectionTracer.cancel();
             return;
         }
+        // Selections that are not requested through selectRoute(), such as the selection of the
+        // default route, are traced from here.
+        mSelectionTracer.beginIfIdle(route);
 
         // TODO: b/294968421 - Remove the following logging.
         // We don't call isDefaultRoute or getDefaultRoute as those rely on the global media router
@@ -1279,21 +1719,29 @@ import java.util.Set;
 
         // TODO: determine how to enable dynamic grouping on pre-R devices.
         if (isMediaTransferEnabled() && route.getProvider().supportsDynamicGroup()) {
-            MediaRouteProvider.DynamicGroupRouteController dynamicGroupRouteController =
-                    route.getProviderInstance()
-                            .onCreateDynamicGroupRouteController(
-                                    route.mDescriptorId,
-                                    new MediaRouteProvider.RouteControllerOptions.Builder()
-                                            .setClientPackageName(
-                                                    mApplicationContext.getPackageName())
-                                            .build());
+            MediaRouteProvider.DynamicGroupRouteController dynamicGroupRouteController;
+            TraceCompat.beginSection("MediaRouter.createRouteController");
+            try {
+                dynamicGroupRouteController =
+                        route.getProviderInstance()
+                                .onCreateDynamicGroupRouteController(
+                                        route.mDescriptorId,
+                                        new MediaRouteProvider.RouteControllerOptions.Builder()
+                                                .setClientPackageName(
+                                                        mApplicationContext.getPackageName())
+                                                .build());
+            } finally {
+                TraceCompat.endSection();
+            }
             // Select route asynchronously.
             if (dynamicGroupRouteController != null) {
+                mSelectionTracer.mark(
+                        MediaRouterDiagnostics.RouteSelectionTrace.PHASE_CONTROLLER_CREATED);
                 dynamicGroupRouteController.setOnDynamicRoutesChangedListener(
                         ContextCompat.getMainExecutor(mApplicationContext), mDynamicRoutesListener);
                 mRequestedRoute = route;
                 mRequestedRouteController = dynamicGroupRouteController;
-                mRequestedRouteController.onSelect();
+                selectRouteController(mRequestedRouteController);
                 return;
             } else {
                 Log.w(
@@ -1304,15 +1752,24 @@ import java.util.Set;
             }
         }
 
-        MediaRouteProvider.RouteController routeController =
-                route.getProviderInstance()
-                        .onCreateRouteController(
-                                route.mDescriptorId,
-                                new MediaRouteProvider.RouteControllerOptions.Builder()
-                                        .setClientPackageName(mApplicationContext.getPackageName())
-                                        .build());
+        MediaRouteProvider.RouteController routeController;
+        TraceCompat.beginSection("MediaRouter.createRouteController");
+        try {
+            routeController =
+                    route.getProviderInstance()
+                            .onCreateRouteController(
+                                    route.mDescriptorId,
+                                    new MediaRouteProvider.RouteControllerOptions.Builder()
+                                            .setClientPackageName(
+                                                    mApplicationContext.getPackageName())
+                                            .build());
+        } finally {
+            TraceCompat.endSection();
+        }
         if (routeController != null) {
-            routeController.onSelect();
+            mSelectionTracer.mark(
+                    MediaRouterDiagnostics.RouteSelectionTrace.PHASE_CONTROLLER_CREATED);
+            selectRouteController(routeController);
         }
 
         if (DEBUG) {
@@ -1340,6 +1797,17 @@ import java.util.Set;
         }
     }
 
+    private void selectRouteController(
+            @NonNull MediaRouteProvider.RouteController routeController) {
+        TraceCompat.beginSection("MediaRouter.selectRouteController");
+        try {
+            routeController.onSelect();
+        } finally {
+            TraceCompat.endSection();
+        }
+        mSelectionTracer.mark(MediaRouterDiagnostics.RouteSelectionTrace.PHASE_CONTROLLER_SELECTED);
+    }
+
     /* package */ void maybeUpdateMemberRouteControllers() {
         if (!mSelectedRoute.isGroup()) {
             return;
@@ -1583,6 +2051,55 @@ import java.util.Set;
         }
     }
 
+    /* package */ void setSlowCallbackWatchdog(
+            long budgetMillis, @Nullable MediaRouter.OnSlowCallbackListener listener) {
+        mSlowCallbackBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        mOnSlowCallbackListener = budgetMillis > 0 ? listener : null;
+    }
+
+    /* package */ MediaRouterDiagnostics getDiagnostics() {
+        Map<String, Integer> descriptorUpdateCounts = new LinkedHashMap<>();
+        for (MediaRouter.ProviderInfo provider : mProviders) {
+            String componentName = provider.getComponentName().flattenToShortString();
+            Integer count = descriptorUpdateCounts.get(componentName);
+            descriptorUpdateCounts.put(
+                    componentName,
+                    (count != null ? count : 0) + provider.mDescriptorUpdateCount);
+        }
+        List<MediaRouter.CallbackRecord> callbackRecords = new ArrayList<>();
+        for (int i = mRouters.size(); --i >= 0; ) {
+            MediaRouter router = mRouters.get(i).get();
+            if (router == null) {
+                removeRouterReference(i);
+            } else {
+                Collections.addAll(
+                        callbackRecords, router.mCallbackDispatchTable.getAllRecords());
+            }
+        }
+        return mDiagnosticsRecorder.createSnapshot(
+                descriptorUpdateCounts,
+                mRegisteredProviderWatcher.getProviderTimeToFirstRouteMillis(),
+                mRegisteredProviderWatcher.getQuarantinedProviders(),
+                callbackRecords,
+                mSelectionTracer.getTraces());
+    }
+
+    /**
+     * Returns the number of routes that were added, compared field by field or removed by the last
+     * provider descriptor update.
+     */
+    /* package */ int getLastUpdateTouchedRouteCount() {
+        return mLastUpdateTouchedRouteCount;
+    }
+
+    /**
+     * Returns the number of routes whose descriptors were skipped by the last provider descriptor
+     * update because their content was unchanged.
+     */
+    /* package */ int getLastUpdateSkippedRouteCount() {
+        return mLastUpdateSkippedRouteCount;
+    }
+
     @VisibleForTesting
     /* package */ MediaRoute2Provider getMediaRoute2ProviderForTesting() {
         return mMr2Provider;
@@ -1603,16 +2120,11 @@ import java.util.Set;
         @Override
         public void onSelectRoute(
                 @NonNull String routeDescriptorId, @MediaRouter.UnselectReason int reason) {
-            MediaRouter.RouteInfo routeToSelect = null;
-            for (MediaRouter.RouteInfo routeInfo : getRoutes()) {
-                if (routeInfo.getProviderInstance() != mMr2Provider) {
-                    continue;
-                }
-                if (TextUtils.equals(routeDescriptorId, routeInfo.getDescriptorId())) {
-                    routeToSelect = routeInfo;
-                    break;
-                }
-            }
+            MediaRouter.ProviderInfo mr2ProviderInfo = findProviderInfo(mMr2Provider);
+            MediaRouter.RouteInfo routeToSelect =
+                    mr2ProviderInfo != null
+                            ? mr2ProviderInfo.findRouteByDescriptorId(routeDescriptorId)
+                            : null;
 
             if (routeToSelect == null) {
                 Log.w(
@@ -1621,6 +2133,10 @@ import java.util.Set;
                                 + routeDescriptorId);
                 return;
             }
+            // Transfers may also be started by the system, such as from the output switcher.
+            mSelectionTracer.beginIfIdle(routeToSelect);
+            mSelectionTracer.mark(
+                    MediaRouterDiagnostics.RouteSelectionTrace.PHASE_TRANSFER_STARTED);
 
             // TODO: b/294968421 - Consider passing a false syncMediaRoute1Provider. This could help
             // with the prevention of setBluetoothA2dpOn(false) bugs, but it could also leave the
@@ -1970,9 +2486,12 @@ import java.util.Set;
 
     @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
     /* package */ final class CallbackHandler extends Handler {
-        private final ArrayList<MediaRouter.CallbackRecord> mTempCallbackRecords =
+        private final ArrayList<MediaRouterCallbackDispatchTable> mTempDispatchTables =
                 new ArrayList<>();
         private final List<MediaRouter.RouteInfo> mDynamicGroupRoutes = new ArrayList<>();
+        // Routes changed since the last MSG_ROUTES_CHANGED, in the order they first changed.
+        private final Set<MediaRouter.RouteInfo> mPendingChangedRoutes = new LinkedHashSet<>();
+        private int mDispatchGeneration;
 
         private static final int MSG_TYPE_MASK = 0xff00;
         private static final int MSG_TYPE_ROUTE = 0x0100;
@@ -1989,6 +2508,8 @@ import java.util.Set;
         public static final int MSG_ROUTE_ANOTHER_SELECTED = MSG_TYPE_ROUTE | 8;
         public static final int MSG_ROUTE_CONNECTED = MSG_TYPE_ROUTE | 9;
         public static final int MSG_ROUTE_DISCONNECTED = MSG_TYPE_ROUTE | 10;
+        // Flushes mPendingChangedRoutes to callbacks added with CALLBACK_FLAG_BATCH_ROUTE_CHANGES.
+        private static final int MSG_ROUTES_CHANGED = MSG_TYPE_ROUTE | 11;
 
         public static final int MSG_PROVIDER_ADDED = MSG_TYPE_PROVIDER | 1;
         public static final int MSG_PROVIDER_REMOVED = MSG_TYPE_PROVIDER | 2;
@@ -2001,10 +2522,13 @@ import java.util.Set;
                 @NonNull MediaRouter.RouteInfo targetRoute,
                 int reason,
                 boolean syncMediaRoute1Provider) {
+            invalidateRouteSnapshot();
+            mSelectionTracer.mark(MediaRouterDiagnostics.RouteSelectionTrace.PHASE_ROUTE_SELECTED);
             RouteSelectedMessageParams params =
                     new RouteSelectedMessageParams(fromRoute, targetRoute, syncMediaRoute1Provider);
             Message message = obtainMessage(MSG_ROUTE_SELECTED, params);
             message.arg1 = reason;
+            message.arg2 = mSelectionTracer.getActiveCookie();
             message.sendToTarget();
         }
 
@@ -2013,17 +2537,21 @@ import java.util.Set;
                 @NonNull MediaRouter.RouteInfo targetRoute,
                 int reason,
                 boolean syncMediaRoute1Provider) {
+            invalidateRouteSnapshot();
+            mSelectionTracer.mark(MediaRouterDiagnostics.RouteSelectionTrace.PHASE_ROUTE_SELECTED);
             RouteSelectedMessageParams params =
                     new RouteSelectedMessageParams(
                             requestedRoute, targetRoute, syncMediaRoute1Provider);
             Message message = obtainMessage(MSG_ROUTE_ANOTHER_SELECTED, params);
             message.arg1 = reason;
+            message.arg2 = mSelectionTracer.getActiveCookie();
             message.sendToTarget();
         }
 
         /* package */ void postRouteConnectedMessage(
                 @NonNull MediaRouter.RouteInfo requestedRoute,
                 @NonNull MediaRouter.RouteInfo connectedRoute) {
+            invalidateRouteSnapshot();
             RouteConnectionMessageParams params =
                     new RouteConnectionMessageParams(requestedRoute, connectedRoute);
             Message message = obtainMessage(MSG_ROUTE_CONNECTED, params);
@@ -2034,6 +2562,7 @@ import java.util.Set;
                 @NonNull MediaRouter.RouteInfo requestedRoute,
                 @Nullable MediaRouter.RouteInfo disconnectedRoute,
                 @MediaRouter.DisconnectReason int reason) {
+            invalidateRouteSnapshot();
             RouteConnectionMessageParams params =
                     new RouteConnectionMessageParams(requestedRoute, disconnectedRoute);
             Message message = obtainMessage(MSG_ROUTE_DISCONNECTED, params);
@@ -2042,21 +2571,64 @@ import java.util.Set;
         }
 
         /* package */ void post(int msg, Object obj) {
+            invalidateRouteSnapshot();
             obtainMessage(msg, obj).sendToTarget();
         }
 
         /* package */ void post(int msg, Object obj, int arg) {
+            invalidateRouteSnapshot();
             Message message = obtainMessage(msg, obj);
             message.arg1 = arg;
             message.sendToTarget();
         }
 
+        @Override
+        public boolean sendMessageAtTime(@NonNull Message msg, long uptimeMillis) {
+            // Posted runnables, such as the route snapshot publishing, are run without reaching
+            // handleMessage and may be removed, so only the messages handled below are counted.
+            boolean handled = msg.getCallback() == null;
+            boolean queued = super.sendMessageAtTime(msg, uptimeMillis);
+            if (queued && handled) {
+                mDiagnosticsRecorder.onMessageQueued();
+            }
+            return queued;
+        }
+
         @Override
         public void handleMessage(Message msg) {
             final int what = msg.what;
-            final Object obj = msg.obj;
+            Object obj = msg.obj;
             final int arg = msg.arg1;
 
+            mDiagnosticsRecorder.onMessageHandled(msg.getWhen());
+            if (what == MSG_ROUTE_ADDED) {
+                mDiagnosticsRecorder.onRouteAdded();
+            } else if (what == MSG_ROUTE_CHANGED) {
+                mDiagnosticsRecorder.onRouteChanged();
+            } else if (what == MSG_ROUTE_REMOVED) {
+                mDiagnosticsRecorder.onRouteRemoved();
+            }
+
+            if (what == MSG_ROUTE_CHANGED) {
+                // Changes are only collected while a callback receives them in batches.
+                if (mDiscoveryCounts.isBatchRouteChangesRequested()) {
+                    // The first change of a batch schedules the flush, so that all changes
+                    // posted before it are delivered together.
+                    if (mPendingChangedRoutes.isEmpty()) {
+                        sendEmptyMessage(MSG_ROUTES_CHANGED);
+                    }
+                    mPendingChangedRoutes.add((MediaRouter.RouteInfo) obj);
+                }
+            } else if (what == MSG_ROUTE_REMOVED) {
+                mPendingChangedRoutes.remove(obj);
+            } else if (what == MSG_ROUTES_CHANGED) {
+                if (mPendingChangedRoutes.isEmpty()) {
+                    return;
+                }
+                obj = new ArrayList<>(mPendingChangedRoutes);
+                mPendingChangedRoutes.clear();
+            }
+
             if (what == MSG_ROUTE_CHANGED
                     && getSelectedRoute().getId().equals(((MediaRouter.RouteInfo) obj).getId())) {
                 updateSelectedRouteIfNeeded(true);
@@ -2066,26 +2638,97 @@ import java.util.Set;
             syncWithPlatformMediaRouter1RouteProvider(what, obj);
 
             // Invoke all registered callbacks.
-            // Build a list of callbacks before invoking them in case callbacks
-            // are added or removed during dispatch.
+            // Collect the callback dispatch tables before invoking them in case routers are
+            // created during dispatch. The tables are immutable, so callbacks may be added or
+            // removed during dispatch.
             try {
                 for (int i = mRouters.size(); --i >= 0; ) {
                     MediaRouter router = mRouters.get(i).get();
                     if (router == null) {
-                        mRouters.remove(i);
+                        removeRouterReference(i);
                     } else {
-                        mTempCallbackRecords.addAll(router.mCallbackRecords);
+                        mTempDispatchTables.add(router.mCallbackDispatchTable);
                     }
                 }
 
-                for (MediaRouter.CallbackRecord tempCallbackRecord : mTempCallbackRecords) {
-                    invokeCallback(tempCallbackRecord, what, obj, arg);
+                for (MediaRouterCallbackDispatchTable dispatchTable : mTempDispatchTables) {
+                    dispatchMessage(dispatchTable, what, obj, arg);
                 }
             } finally {
-                mTempCallbackRecords.clear();
+                mTempDispatchTables.clear();
+            }
+            if (what == MSG_ROUTE_SELECTED || what == MSG_ROUTE_ANOTHER_SELECTED) {
+                mSelectionTracer.end(msg.arg2);
             }
         }
 
+        private void dispatchMessage(
+                MediaRouterCallbackDispatchTable dispatchTable, int what, Object obj, int arg) {
+            // The selected route may be reported to callbacks regardless of their selector
+            // (see CallbackRecord#filterRouteEvent), and a batch of changes has many routes.
+            if ((what & MSG_TYPE_MASK) != MSG_TYPE_ROUTE
+                    || what == MSG_ROUTE_SELECTED
+                    || what == MSG_ROUTES_CHANGED) {
+                for (MediaRouter.CallbackRecord record : dispatchTable.getAllRecords()) {
+                    invokeAndRecordCallback(record, what, obj, arg, /* routeMatched= */ false);
+                }
+                return;
+            }
+
+            MediaRouter.RouteInfo route = getEventRoute(what, obj);
+            if (route == null) {
+                return;
+            }
+            final int generation = ++mDispatchGeneration;
+            int matchedRecordCount = 0;
+            for (MediaRouter.CallbackRecord record : dispatchTable.getUnfilteredRecords()) {
+                record.mDispatchGeneration = generation;
+                matchedRecordCount++;
+            }
+            // A route matches a selector if any of its control filters has any of the selector's
+            // categories, so only the callbacks registered under the route's categories match.
+            for (IntentFilter filter : route.getControlFiltersInternal()) {
+                if (filter == null) {
+                    continue;
+                }
+                final int categoryCount = filter.countCategories();
+                for (int i = 0; i < categoryCount; i++) {
+                    MediaRouter.CallbackRecord[] records =
+                            dispatchTable.getRecordsForCategory(filter.getCategory(i));
+                    if (records == null) {
+                        continue;
+                    }
+                    for (MediaRouter.CallbackRecord record : records) {
+                        if (record.mDispatchGeneration != generation) {
+                            record.mDispatchGeneration = generation;
+                            matchedRecordCount++;
+                        }
+                    }
+                }
+            }
+            // Invoke the matched callbacks in the order they were added, regardless of the
+            // category they matched.
+            for (MediaRouter.CallbackRecord record : dispatchTable.getAllRecords()) {
+                if (matchedRecordCount == 0) {
+                    break;
+                }
+                if (record.mDispatchGeneration == generation) {
+                    matchedRecordCount--;
+                    invokeAndRecordCallback(record, what, obj, arg, /* routeMatched= */ true);
+                }
+            }
+        }
+
+        @Nullable
+        private MediaRouter.RouteInfo getEventRoute(int what, Object obj) {
+            if (what == MSG_ROUTE_ANOTHER_SELECTED || what == MSG_ROUTE_SELECTED) {
+                return ((RouteSelectedMessageParams) obj).mTargetRoute;
+            } else if (what == MSG_ROUTE_CONNECTED || what == MSG_ROUTE_DISCONNECTED) {
+                return ((RouteConnectionMessageParams) obj).mRequestedRoute;
+            }
+            return (MediaRouter.RouteInfo) obj;
+        }
+
         // Using Pair<RouteInfo, RouteInfo>
         @SuppressWarnings({"unchecked"})
         private void syncWithPlatformMediaRouter1RouteProvider(int what, Object obj) {
@@ -2129,31 +2772,113 @@ import java.util.Set;
             }
         }
 
-        private void invokeCallback(
-                MediaRouter.CallbackRecord record, int what, Object obj, int arg) {
+        private void invokeAndRecordCallback(
+                MediaRouter.CallbackRecord record,
+                int what,
+                Object obj,
+                int arg,
+                boolean routeMatched) {
+            final long startNanos = System.nanoTime();
+            if (!invokeCallback(record, what, obj, arg, routeMatched)) {
+                return;
+            }
+            final long executionTimeNanos = System.nanoTime() - startNanos;
+            mDiagnosticsRecorder.onCallbackInvoked(record, executionTimeNanos);
+            if (mSlowCallbackBudgetNanos > 0 && executionTimeNanos > mSlowCallbackBudgetNanos) {
+                onSlowCallback(record, what, executionTimeNanos);
+            }
+        }
+
+        private void onSlowCallback(
+                MediaRouter.CallbackRecord record, int what, long executionTimeNanos) {
+            record.mSlowInvocationCount++;
+            String methodName = getCallbackMethodName(what);
+            long executionTimeMillis = TimeUnit.NANOSECONDS.toMillis(executionTimeNanos);
+            Log.w(
+                    TAG,
+                    "Slow callback: "
+                            + record.mCallback.getClass().getName()
+                            + "."
+                            + methodName
+                            + " took "
+                            + executionTimeMillis
+                            + " ms, budget is "
+                            + TimeUnit.NANOSECONDS.toMillis(mSlowCallbackBudgetNanos)
+                            + " ms");
+            MediaRouter.OnSlowCallbackListener listener = mOnSlowCallbackListener;
+            if (listener != null) {
+                listener.onSlowCallback(record.mCallback, methodName, executionTimeMillis);
+            }
+        }
+
+        private String getCallbackMethodName(int what) {
+            switch (what) {
+                case MSG_ROUTE_ADDED:
+                    return "onRouteAdded";
+                case MSG_ROUTE_REMOVED:
+                    return "onRouteRemoved";
+                case MSG_ROUTE_CHANGED:
+                    return "onRouteChanged";
+                case MSG_ROUTES_CHANGED:
+                    return "onRoutesChanged";
+                case MSG_ROUTE_VOLUME_CHANGED:
+                    return "onRouteVolumeChanged";
+                case MSG_ROUTE_PRESENTATION_DISPLAY_CHANGED:
+                    return "onRoutePresentationDisplayChanged";
+                case MSG_ROUTE_SELECTED:
+                case MSG_ROUTE_ANOTHER_SELECTED:
+                    return "onRouteSelected";
+                case MSG_ROUTE_UNSELECTED:
+                    return "onRouteUnselected";
+                case MSG_ROUTE_CONNECTED:
+                    return "onRouteConnected";
+                case MSG_ROUTE_DISCONNECTED:
+                    return "onRouteDisconnected";
+                case MSG_PROVIDER_ADDED:
+                    return "onProviderAdded";
+                case MSG_PROVIDER_REMOVED:
+                    return "onProviderRemoved";
+                case MSG_PROVIDER_CHANGED:
+                    return "onProviderChanged";
+                case MSG_ROUTER_PARAMS_CHANGED:
+                    return "onRouterParamsChanged";
+                default:
+                    return "unknown(" + what + ")";
+            }
+        }
+
+        /** Returns whether a method of the record's callback was invoked. */
+        @SuppressWarnings("unchecked")
+        private boolean invokeCallback(
+                MediaRouter.CallbackRecord record,
+                int what,
+                Object obj,
+                int arg,
+                boolean routeMatched) {
             final MediaRouter router = record.mRouter;
             final MediaRouter.Callback callback = record.mCallback;
+            final boolean batchRouteChanges =
+                    (record.mFlags & MediaRouter.CALLBACK_FLAG_BATCH_ROUTE_CHANGES) != 0;
             switch (what & MSG_TYPE_MASK) {
                 case MSG_TYPE_ROUTE:
-                    MediaRouter.RouteInfo route = null;
+                    if (what == MSG_ROUTES_CHANGED) {
+                        return batchRouteChanges
+                                && invokeRoutesChangedCallback(
+                                        record, (List<MediaRouter.RouteInfo>) obj);
+                    }
+                    MediaRouter.RouteInfo route = getEventRoute(what, obj);
                     MediaRouter.RouteInfo optionalRoute = null;
                     if (what == MSG_ROUTE_ANOTHER_SELECTED || what == MSG_ROUTE_SELECTED) {
-                        RouteSelectedMessageParams selectedMessageParams =
-                                (RouteSelectedMessageParams) obj;
-                        route = selectedMessageParams.mTargetRoute;
-                        optionalRoute = selectedMessageParams.mFromOrRequestedRoute;
+                        optionalRoute = ((RouteSelectedMessageParams) obj).mFromOrRequestedRoute;
                     } else if (what == MSG_ROUTE_CONNECTED || what == MSG_ROUTE_DISCONNECTED) {
-                        RouteConnectionMessageParams connectionMessageParams =
-                                (RouteConnectionMessageParams) obj;
-                        route = connectionMessageParams.mRequestedRoute;
-                        optionalRoute = connectionMessageParams.mTargetRoute;
-                    } else {
-                        route = (MediaRouter.RouteInfo) obj;
+                        optionalRoute = ((RouteConnectionMessageParams) obj).mTargetRoute;
                     }
 
                     if (route == null
-                            || !record.filterRouteEvent(route, what, optionalRoute, arg)) {
-                        break;
+                            || (!routeMatched
+                                    && !record.filterRouteEvent(
+                                            route, what, optionalRoute, arg))) {
+                        return false;
                     }
                     switch (what) {
                         case MSG_ROUTE_ADDED:
@@ -2163,6 +2888,9 @@ import java.util.Set;
                             callback.onRouteRemoved(router, route);
                             break;
                         case MSG_ROUTE_CHANGED:
+                            if (batchRouteChanges) {
+                                return false;
+                            }
                             callback.onRouteChanged(router, route);
                             break;
                         case MSG_ROUTE_VOLUME_CHANGED:
@@ -2211,6 +2939,35 @@ import java.util.Set;
                     }
                     break;
             }
+            return true;
+        }
+
+        private boolean invokeRoutesChangedCallback(
+                MediaRouter.CallbackRecord record, List<MediaRouter.RouteInfo> changedRoutes) {
+            List<MediaRouter.RouteInfo> routes = new ArrayList<>(changedRoutes.size());
+            for (MediaRouter.RouteInfo route : changedRoutes) {
+                if (record.filterRouteEvent(route, MSG_ROUTE_CHANGED, null, 0)) {
+                    routes.add(route);
+                }
+            }
+            if (routes.isEmpty()) {
+                return false;
+            }
+            record.mCallback.onRoutesChanged(record.mRouter, Collections.unmodifiableList(routes));
+            return true;
+        }
+    }
+
+    /**
+     * Weak reference to a {@link MediaRouter} that keeps the contribution of the router's callbacks
+     * to the discovery request, so that it can be discounted once the router is garbage collected.
+     */
+    private static final class RouterReference extends WeakReference<MediaRouter> {
+        final MediaRouterDiscoveryCounts mDiscoveryCounts;
+
+        RouterReference(MediaRouter router) {
+            super(router);
+            mDiscoveryCounts = router.mDiscoveryCounts;
         }
     }
 
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.content.IntentFilter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns small process-wide ids to {@link MediaControlIntent media control categories}, so that
+ * sets of categories can be represented as bit sets and compared a word at a time. Thread safe.
+ *
+ * <p>Bit sets are arrays of words in which bit {@code id % 64} of word {@code id / 64} is set if
+ * the category with that id is in the set. Bit sets must not be modified once created.
+ *
+ * <p>Categories are never unregistered, so at most {@link #MAX_CATEGORY_COUNT} categories are
+ * assigned ids, and the categories seen after that share {@link #UNREGISTERED_CATEGORY_ID}. Bit
+ * sets in which it is set can't be compared by ids alone, and callers compare the categories by
+ * name instead.
+ */
+final class MediaControlCategoryRegistry {
+    /** The largest number of ids assigned to categories, including the unregistered id. */
+    static final int MAX_CATEGORY_COUNT = 1024;
+    /** The id shared by the categories seen once all the ids are assigned. */
+    static final int UNREGISTERED_CATEGORY_ID = 0;
+
+    private static final long[] EMPTY_BITS = new long[0];
+
+    private static final Map<String, Integer> sCategoryIds = new HashMap<>();
+
+    private MediaControlCategoryRegistry() {
+    }
+
+    /**
+     * Returns the id of the given category, and assigns one if it has none yet. Returns
+     * {@link #UNREGISTERED_CATEGORY_ID} if all the ids are assigned.
+     */
+    static int getCategoryId(@Nullable String category) {
+        synchronized (sCategoryIds) {
+            Integer id = sCategoryIds.get(category);
+            if (id == null) {
+                if (sCategoryIds.size() + 1 >= MAX_CATEGORY_COUNT) {
+                    return UNREGISTERED_CATEGORY_ID;
+                }
+                id = sCategoryIds.size() + 1;
+                sCategoryIds.put(category, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns true if the given bit set has categories that were not assigned ids, which must be
+     * compared by name.
+     */
+    static boolean hasUnregisteredCategories(@NonNull long[] bits) {
+        return bits.length > 0 && (bits[0] & (1L << UNREGISTERED_CATEGORY_ID)) != 0;
+    }
+
+    /** Returns the bit set of the given categories. */
+    @NonNull
+    static long[] getCategoryBits(@NonNull List<String> categories) {
+        long[] bits = EMPTY_BITS;
+        for (int i = 0; i < categories.size(); i++) {
+            bits = setBit(bits, getCategoryId(categories.get(i)));
+        }
+        return bits;
+    }
+
+    /** Returns the bit set of the categories of all the given control filters. */
+    @NonNull
+    static long[] getControlFilterCategoryBits(@Nullable List<IntentFilter> filters) {
+        long[] bits = EMPTY_BITS;
+        if (filters == null) {
+            return bits;
+        }
+        for (IntentFilter filter : filters) {
+            if (filter == null) {
+                continue;
+            }
+            for (int i = 0; i < filter.countCategories(); i++) {
+                bits = setBit(bits, getCategoryId(filter.getCategory(i)));
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns true if the given bit sets have at least one category with an id in common. The
+     * categories without ids are ignored.
+     */
+    static boolean intersects(@NonNull long[] bits1, @NonNull long[] bits2) {
+        int wordCount = Math.min(bits1.length, bits2.length);
+        for (int i = 0; i < wordCount; i++) {
+            if ((bits1[i] & bits2[i] & getRegisteredMask(i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the first bit set has all the categories with ids of the second bit set.
+     * The categories without ids are ignored.
+     */
+    static boolean containsAll(@NonNull long[] bits1, @NonNull long[] bits2) {
+        for (int i = 0; i < bits2.length; i++) {
+            long word1 = i < bits1.length ? bits1[i] : 0;
+            if ((bits2[i] & ~word1 & getRegisteredMask(i)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the mask of the bits of the given word that stand for categories with ids.
+    private static long getRegisteredMask(int wordIndex) {
+        return wordIndex == UNREGISTERED_CATEGORY_ID >>> 6
+                ? ~(1L << UNREGISTERED_CATEGORY_ID) : -1L;
+    }
+
+    @NonNull
+    private static long[] setBit(@NonNull long[] bits, int id) {
+        int wordIndex = id >>> 6;
+        if (wordIndex >= bits.length) {
+            bits = Arrays.copyOf(bits, wordIndex + 1);
+        }
+        bits[wordIndex] |= 1L << id;
+        return bits;
+    }
+}
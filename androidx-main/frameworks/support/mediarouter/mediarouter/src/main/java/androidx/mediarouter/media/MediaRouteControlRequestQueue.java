@@ -0,0 +1,279 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.mediarouter.media.MediaRouter.ControlRequestCallback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps track of the requests sent to a route provider service that expect a response, and of
+ * their callbacks. Must only be used on the thread of the given handler.
+ *
+ * <p>Each request has a deadline, after which its callback receives a {@link #ERROR_TIMEOUT}
+ * error and the late response is ignored, so that a hung provider doesn't leak callbacks. At most
+ * a given number of control requests are in flight at once. The others are queued, and sent in
+ * order as responses arrive. Their deadlines include the time spent in the queue.
+ *
+ * <p>The callbacks are invoked on the executor given to the queue. Route provider connections use
+ * the main thread, on which {@link ControlRequestCallback} results have always been delivered.
+ */
+final class MediaRouteControlRequestQueue {
+    private static final String TAG = "MRControlRequestQueue";
+
+    /** The default time after which a request without response fails. */
+    static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+    /** The default number of control requests that can be in flight at once. */
+    static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 8;
+    /** The error of the requests whose deadline elapsed. */
+    static final String ERROR_TIMEOUT = "Control request timed out";
+
+    /** Sends a request to the provider service. */
+    interface RequestSender {
+        /**
+         * Sends the request with the given id.
+         *
+         * @return Whether the request was sent.
+         */
+        boolean send(int requestId);
+    }
+
+    private final Handler mHandler;
+    private final Executor mCallbackExecutor;
+    @Nullable
+    private final MediaRouterDiagnosticsRecorder mDiagnosticsRecorder;
+    private final long mTimeoutMillis;
+    private final int mMaxInFlightRequests;
+    private final SparseArray<Request> mInFlightRequests = new SparseArray<>();
+    private final ArrayDeque<Request> mQueuedRequests = new ArrayDeque<>();
+    // The number of requests in mInFlightRequests that count against the in-flight limit.
+    private int mLimitedInFlightRequestCount;
+
+    /**
+     * Creates a queue.
+     *
+     * @param handler The handler on whose thread the queue is used and the deadlines elapse.
+     * @param callbackExecutor The executor on which the callbacks are invoked.
+     * @param timeoutMillis The time after which a request without response fails.
+     * @param maxInFlightRequests The number of control requests that can be in flight at once.
+     * @param diagnosticsRecorder The recorder that timeouts and queued requests are reported to,
+     *     on the thread of the handler, or null.
+     */
+    MediaRouteControlRequestQueue(
+            @NonNull Handler handler,
+            @NonNull Executor callbackExecutor,
+            long timeoutMillis,
+            int maxInFlightRequests,
+            @Nullable MediaRouterDiagnosticsRecorder diagnosticsRecorder) {
+        mHandler = handler;
+        mCallbackExecutor = callbackExecutor;
+        mDiagnosticsRecorder = diagnosticsRecorder;
+        mTimeoutMillis = timeoutMillis;
+        mMaxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * Sends a control request if fewer than the maximum number of control requests are in flight,
+     * or queues it otherwise. Requests without callback don't count against the limit, and are
+     * not kept track of once sent, since nobody waits for their response. They are still queued
+     * behind the queued requests, so that the provider receives the requests in order.
+     *
+     * @return False if the request could not be sent, in which case the callback is not invoked.
+     */
+    public boolean sendControlRequest(
+            int requestId,
+            @Nullable ControlRequestCallback callback,
+            @NonNull RequestSender sender) {
+        if (callback == null && mQueuedRequests.isEmpty()) {
+            return sender.send(requestId);
+        }
+        Request request = new Request(requestId, callback, sender);
+        if (callback == null || mLimitedInFlightRequestCount >= mMaxInFlightRequests) {
+            mQueuedRequests.add(request);
+            if (callback != null) {
+                scheduleTimeout(request);
+            }
+            updateQueueDepth(/* delta= */ 1);
+            return true;
+        }
+        if (!sender.send(requestId)) {
+            return false;
+        }
+        scheduleTimeout(request);
+        addInFlightRequest(request);
+        return true;
+    }
+
+    /**
+     * Keeps track of a request that was sent, such as the creation of a route controller, until
+     * its response arrives or its deadline elapses. The request doesn't count against the maximum
+     * number of control requests in flight.
+     */
+    public void trackRequest(int requestId, @NonNull ControlRequestCallback callback) {
+        Request request = new Request(requestId, callback, /* sender= */ null);
+        scheduleTimeout(request);
+        addInFlightRequest(request);
+    }
+
+    /**
+     * Notifies the callback of the given request of its result.
+     *
+     * @return Whether the request was waiting for a response.
+     */
+    public boolean deliverResult(int requestId, @Nullable Bundle data) {
+        Request request = takeInFlightRequest(requestId);
+        if (request == null) {
+            return false;
+        }
+        ControlRequestCallback callback = request.mCallback;
+        mCallbackExecutor.execute(() -> callback.onResult(data));
+        return true;
+    }
+
+    /**
+     * Notifies the callback of the given request of its failure.
+     *
+     * @return Whether the request was waiting for a response.
+     */
+    public boolean deliverError(int requestId, @Nullable String error, @Nullable Bundle data) {
+        Request request = takeInFlightRequest(requestId);
+        if (request == null) {
+            return false;
+        }
+        notifyError(request, error, data);
+        return true;
+    }
+
+    /** Fails all the requests in flight and queued, such as when the provider service died. */
+    public void failAll() {
+        List<Request> requests = new ArrayList<>(mInFlightRequests.size() + mQueuedRequests.size());
+        for (int i = 0; i < mInFlightRequests.size(); i++) {
+            requests.add(mInFlightRequests.valueAt(i));
+        }
+        requests.addAll(mQueuedRequests);
+        updateQueueDepth(-mQueuedRequests.size());
+        mInFlightRequests.clear();
+        mQueuedRequests.clear();
+        mLimitedInFlightRequestCount = 0;
+        for (Request request : requests) {
+            mHandler.removeCallbacks(request.mTimeoutRunnable);
+            if (request.mCallback != null) {
+                notifyError(request, /* error= */ null, /* data= */ null);
+            }
+        }
+    }
+
+    private void addInFlightRequest(@NonNull Request request) {
+        mInFlightRequests.put(request.mRequestId, request);
+        if (request.mSender != null) {
+            mLimitedInFlightRequestCount++;
+        }
+    }
+
+    @Nullable
+    private Request takeInFlightRequest(int requestId) {
+        Request request = mInFlightRequests.get(requestId);
+        if (request == null) {
+            return null;
+        }
+        mInFlightRequests.remove(requestId);
+        mHandler.removeCallbacks(request.mTimeoutRunnable);
+        if (request.mSender != null) {
+            mLimitedInFlightRequestCount--;
+            sendQueuedRequests();
+        }
+        return request;
+    }
+
+    private void sendQueuedRequests() {
+        while (!mQueuedRequests.isEmpty()
+                && (mLimitedInFlightRequestCount < mMaxInFlightRequests
+                        || mQueuedRequests.peek().mCallback == null)) {
+            Request request = mQueuedRequests.poll();
+            updateQueueDepth(/* delta= */ -1);
+            if (request.mCallback == null) {
+                request.mSender.send(request.mRequestId);
+            } else if (request.mSender.send(request.mRequestId)) {
+                addInFlightRequest(request);
+            } else {
+                mHandler.removeCallbacks(request.mTimeoutRunnable);
+                notifyError(request, /* error= */ null, /* data= */ null);
+            }
+        }
+    }
+
+    private void scheduleTimeout(@NonNull Request request) {
+        mHandler.postDelayed(request.mTimeoutRunnable, mTimeoutMillis);
+    }
+
+    void onTimeout(@NonNull Request request) {
+        if (mInFlightRequests.get(request.mRequestId) == request) {
+            takeInFlightRequest(request.mRequestId);
+        } else if (mQueuedRequests.remove(request)) {
+            updateQueueDepth(/* delta= */ -1);
+            // Requests without callback queued behind it may be sent now.
+            sendQueuedRequests();
+        } else {
+            return;
+        }
+        Log.w(TAG, "Request " + request.mRequestId + " timed out after " + mTimeoutMillis + " ms");
+        if (mDiagnosticsRecorder != null) {
+            mDiagnosticsRecorder.onControlRequestTimedOut();
+        }
+        notifyError(request, ERROR_TIMEOUT, /* data= */ null);
+    }
+
+    private void notifyError(
+            @NonNull Request request, @Nullable String error, @Nullable Bundle data) {
+        ControlRequestCallback callback = request.mCallback;
+        mCallbackExecutor.execute(() -> callback.onError(error, data));
+    }
+
+    private void updateQueueDepth(int delta) {
+        if (mDiagnosticsRecorder != null && delta != 0) {
+            mDiagnosticsRecorder.onControlRequestQueueDepthChanged(delta);
+        }
+    }
+
+    private final class Request {
+        final int mRequestId;
+        // Null for the queued requests whose response nobody waits for.
+        @Nullable final ControlRequestCallback mCallback;
+        // Null for the requests that don't count against the in-flight limit.
+        @Nullable final RequestSender mSender;
+        final Runnable mTimeoutRunnable = () -> onTimeout(this);
+
+        Request(
+                int requestId,
+                @Nullable ControlRequestCallback callback,
+                @Nullable RequestSender sender) {
+            mRequestId = requestId;
+            mCallback = callback;
+            mSender = sender;
+        }
+    }
+}
@@ -74,8 +74,30 @@ public final class MediaRouteDescriptor {
     static final String KEY_IS_VISIBILITY_PUBLIC = "isVisibilityPublic";
     static final String KEY_ALLOWED_PACKAGES = "allowedPackages";
 
+    /**
+     * Returned by {@link #getContentFingerprint()} when the descriptor holds values whose contents
+     * cannot be fingerprinted.
+     */
+    static final long FINGERPRINT_NONE = 0;
+
     final Bundle mBundle;
 
+    // Lazily computed by getContentFingerprint(). The descriptor is immutable, so it never needs
+    // to be recomputed. Descriptors are read by the route processor thread and the main thread,
+    // so the cached values are published through volatile fields: the flags are written after
+    // the values they guard. Threads racing to compute a value compute the same one.
+    private long mContentFingerprint;
+    private volatile boolean mContentFingerprintComputed;
+
+    // Lazily parsed from the bundle on first access, and cached for the same reason, so that
+    // repeated reads on the hot paths of the media router don't allocate. Null until parsed.
+    private volatile List<String> mGroupMemberIds;
+    private volatile List<IntentFilter> mControlFilters;
+    private volatile Set<String> mDeduplicationIds;
+    private volatile Set<String> mAllowedPackages;
+    private Uri mIconUri;
+    private volatile boolean mIconUriParsed;
+
     MediaRouteDescriptor(Bundle bundle) {
         mBundle = bundle;
     }
@@ -99,14 +121,26 @@ public final class MediaRouteDescriptor {
      * A route descriptor that has one or more group member route ids
      * represents a route group. A member route may belong to another group.
      * </p>
+     * <p>
+     * The returned list is unmodifiable.
+     * </p>
      */
     @RestrictTo(LIBRARY)
     @NonNull
     public List<String> getGroupMemberIds() {
-        if (!mBundle.containsKey(KEY_GROUP_MEMBER_IDS)) {
-            return new ArrayList<>();
+        List<String> groupMemberIds = mGroupMemberIds;
+        if (groupMemberIds == null) {
+            groupMemberIds = toUnmodifiableList(mBundle.getStringArrayList(KEY_GROUP_MEMBER_IDS));
+            mGroupMemberIds = groupMemberIds;
         }
-        return new ArrayList<>(mBundle.getStringArrayList(KEY_GROUP_MEMBER_IDS));
+        return groupMemberIds;
+    }
+
+    /**
+     * Returns whether the route has group member ids.
+     */
+    boolean hasGroupMemberIds() {
+        return !getGroupMemberIds().isEmpty();
     }
 
     /**
@@ -141,8 +175,12 @@ public final class MediaRouteDescriptor {
      */
     @Nullable
     public Uri getIconUri() {
-        String iconUri = mBundle.getString(KEY_ICON_URI);
-        return iconUri == null ? null : Uri.parse(iconUri);
+        if (!mIconUriParsed) {
+            String iconUri = mBundle.getString(KEY_ICON_URI);
+            mIconUri = iconUri == null ? null : Uri.parse(iconUri);
+            mIconUriParsed = true;
+        }
+        return mIconUri;
     }
 
     /**
@@ -242,10 +280,22 @@ public final class MediaRouteDescriptor {
      */
     @NonNull
     public List<IntentFilter> getControlFilters() {
-        if (!mBundle.containsKey(KEY_CONTROL_FILTERS)) {
-            return new ArrayList<>();
+        return new ArrayList<>(getControlFiltersInternal());
+    }
+
+    /**
+     * Gets the route's control filters without copying them, for the hot paths of the media
+     * router. The returned list is unmodifiable.
+     */
+    @NonNull
+    List<IntentFilter> getControlFiltersInternal() {
+        List<IntentFilter> controlFilters = mControlFilters;
+        if (controlFilters == null) {
+            controlFilters =
+                    toUnmodifiableList(mBundle.getParcelableArrayList(KEY_CONTROL_FILTERS));
+            mControlFilters = controlFilters;
         }
-        return new ArrayList<>(mBundle.getParcelableArrayList(KEY_CONTROL_FILTERS));
+        return controlFilters;
     }
 
     /**
@@ -310,10 +360,13 @@ public final class MediaRouteDescriptor {
      */
     @NonNull
     public Set<String> getDeduplicationIds() {
-        ArrayList<String> deduplicationIds = mBundle.getStringArrayList(KEY_DEDUPLICATION_IDS);
-        return deduplicationIds != null
-                ? Collections.unmodifiableSet(new HashSet<>(deduplicationIds))
-                : Collections.emptySet();
+        Set<String> deduplicationIds = mDeduplicationIds;
+        if (deduplicationIds == null) {
+            deduplicationIds =
+                    toUnmodifiableSet(mBundle.getStringArrayList(KEY_DEDUPLICATION_IDS));
+            mDeduplicationIds = deduplicationIds;
+        }
+        return deduplicationIds;
     }
 
     /**
@@ -365,10 +418,20 @@ public final class MediaRouteDescriptor {
      */
     @NonNull
     public Set<String> getAllowedPackages() {
-        if (!mBundle.containsKey(KEY_ALLOWED_PACKAGES)) {
-            return new HashSet<>();
+        return new HashSet<>(getAllowedPackagesInternal());
+    }
+
+    /**
+     * Gets the set of allowed packages without copying it. The returned set is unmodifiable.
+     */
+    @NonNull
+    Set<String> getAllowedPackagesInternal() {
+        Set<String> allowedPackages = mAllowedPackages;
+        if (allowedPackages == null) {
+            allowedPackages = toUnmodifiableSet(mBundle.getStringArrayList(KEY_ALLOWED_PACKAGES));
+            mAllowedPackages = allowedPackages;
         }
-        return new HashSet<>(mBundle.getStringArrayList(KEY_ALLOWED_PACKAGES));
+        return allowedPackages;
     }
 
     /**
@@ -377,12 +440,44 @@ public final class MediaRouteDescriptor {
     public boolean isValid() {
         if (TextUtils.isEmpty(getId())
                 || TextUtils.isEmpty(getName())
-                || getControlFilters().contains(null)) {
+                || getControlFiltersInternal().contains(null)) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns a 64-bit fingerprint of the contents of this descriptor.
+     *
+     * <p>Two descriptors with the same contents have the same fingerprint, even if they were
+     * unparcelled separately, and descriptors with different contents have different fingerprints
+     * with very high probability. This lets the media router skip descriptors that a provider
+     * republished without changes.
+     *
+     * @return The fingerprint, or {@link #FINGERPRINT_NONE} if the descriptor contains values that
+     *     cannot be fingerprinted, in which case it must be compared field by field.
+     */
+    long getContentFingerprint() {
+        if (!mContentFingerprintComputed) {
+            mContentFingerprint = new ContentFingerprinter().fingerprint(mBundle);
+            mContentFingerprintComputed = true;
+        }
+        return mContentFingerprint;
+    }
+
+    // Copies the values, so that the cached collections don't change if the bundle is modified.
+    private static <T> List<T> toUnmodifiableList(@Nullable List<T> values) {
+        return values == null || values.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    private static <T> Set<T> toUnmodifiableSet(@Nullable List<T> values) {
+        return values == null || values.isEmpty()
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(values));
+    }
+
     @NonNull
     @Override
     public String toString() {
@@ -395,7 +490,7 @@ public final class MediaRouteDescriptor {
                 + ", isEnabled=" + isEnabled()
                 + ", isSystemRoute=" + isSystemRoute()
                 + ", connectionState=" + getConnectionState()
-                + ", controlFilters=" + Arrays.toString(getControlFilters().toArray())
+                + ", controlFilters=" + Arrays.toString(getControlFiltersInternal().toArray())
                 + ", playbackType=" + getPlaybackType()
                 + ", playbackStream=" + getPlaybackStream()
                 + ", deviceType=" + getDeviceType()
@@ -408,7 +503,7 @@ public final class MediaRouteDescriptor {
                 + ", minClientVersion=" + getMinClientVersion()
                 + ", maxClientVersion=" + getMaxClientVersion()
                 + ", isVisibilityPublic=" + isVisibilityPublic()
-                + ", allowedPackages=" + Arrays.toString(getAllowedPackages().toArray())
+                + ", allowedPackages=" + Arrays.toString(getAllowedPackagesInternal().toArray())
                 + " }";
     }
 
@@ -433,6 +528,111 @@ public final class MediaRouteDescriptor {
         return bundle != null ? new MediaRouteDescriptor(bundle) : null;
     }
 
+    /**
+     * Computes 64-bit content fingerprints of descriptor bundles.
+     *
+     * <p>Bundle entries are combined in an order-insensitive way since the order of keys in a
+     * bundle depends on how it was built or unparcelled. Only the actions, categories, data schemes
+     * and data types of control filters are taken into account.
+     */
+    private static final class ContentFingerprinter {
+        private boolean mHasUnsupportedValue;
+
+        long fingerprint(@NonNull Bundle bundle) {
+            long fingerprint = fingerprintBundle(bundle);
+            if (mHasUnsupportedValue) {
+                return FINGERPRINT_NONE;
+            }
+            return fingerprint == FINGERPRINT_NONE ? 1 : fingerprint;
+        }
+
+        @SuppressWarnings("deprecation")
+        private long fingerprintBundle(@NonNull Bundle bundle) {
+            long sum = 0;
+            for (String key : bundle.keySet()) {
+                sum += mix(fingerprintString(key) * 31 + fingerprintValue(bundle.get(key)));
+            }
+            return mix(sum + bundle.size());
+        }
+
+        private long fingerprintValue(@Nullable Object value) {
+            if (value == null) {
+                return 0;
+            } else if (value instanceof String) {
+                return fingerprintString((String) value);
+            } else if (value instanceof Integer) {
+                return (Integer) value;
+            } else if (value instanceof Long) {
+                return (Long) value;
+            } else if (value instanceof Boolean) {
+                return (Boolean) value ? 1231 : 1237;
+            } else if (value instanceof Float || value instanceof Double) {
+                return Double.doubleToLongBits(((Number) value).doubleValue());
+            } else if (value instanceof Bundle) {
+                return fingerprintBundle((Bundle) value);
+            } else if (value instanceof IntentFilter) {
+                return fingerprintIntentFilter((IntentFilter) value);
+            } else if (value instanceof IntentSender) {
+                // IntentSenders are equal if and only if they share the same target.
+                return value.hashCode();
+            } else if (value instanceof List) {
+                long result = 1;
+                for (Object element : (List<?>) value) {
+                    result = 31 * result + fingerprintValue(element);
+                }
+                return result;
+            } else if (value instanceof String[]) {
+                long result = 1;
+                for (String element : (String[]) value) {
+                    result = 31 * result + fingerprintValue(element);
+                }
+                return result;
+            }
+            mHasUnsupportedValue = true;
+            return 0;
+        }
+
+        private long fingerprintIntentFilter(@NonNull IntentFilter filter) {
+            long result = 1;
+            for (int i = 0; i < filter.countActions(); i++) {
+                result = 31 * result + fingerprintString(filter.getAction(i));
+            }
+            result = 31 * result + filter.countCategories();
+            for (int i = 0; i < filter.countCategories(); i++) {
+                result = 31 * result + fingerprintString(filter.getCategory(i));
+            }
+            result = 31 * result + filter.countDataSchemes();
+            for (int i = 0; i < filter.countDataSchemes(); i++) {
+                result = 31 * result + fingerprintString(filter.getDataScheme(i));
+            }
+            result = 31 * result + filter.countDataTypes();
+            for (int i = 0; i < filter.countDataTypes(); i++) {
+                result = 31 * result + fingerprintString(filter.getDataType(i));
+            }
+            return result;
+        }
+
+        // 64-bit FNV-1a, since String#hashCode() collides too easily for this purpose.
+        private static long fingerprintString(@Nullable String value) {
+            if (value == null) {
+                return 0;
+            }
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        // The finalizer of SplitMix64, which spreads every input bit over the whole result.
+        private static long mix(long value) {
+            value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+            value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+            return value ^ (value >>> 31);
+        }
+    }
+
     /**
      * Builder for {@link MediaRouteDescriptor media route descriptors}.
      */
@@ -466,7 +666,7 @@ public final class MediaRouteDescriptor {
 
             mBundle = new Bundle(descriptor.mBundle);
 
-            mGroupMemberIds = descriptor.getGroupMemberIds();
+            mGroupMemberIds = new ArrayList<>(descriptor.getGroupMemberIds());
             mControlFilters = descriptor.getControlFilters();
             mAllowedPackages = descriptor.getAllowedPackages();
         }
@@ -377,7 +377,8 @@ public abstract class MediaRouteProvider {
             if (componentName == null) {
                 throw new IllegalArgumentException("componentName must not be null");
             }
-            mComponentName = componentName;
+            mComponentName =
+                    MediaRouterInternPool.getInstance().internComponentName(componentName);
         }
 
         /**
@@ -33,7 +33,7 @@ import java.util.List;
  * </p>
  */
 public final class MediaRouteProviderDescriptor {
-    private static final String KEY_ROUTES = "routes";
+    static final String KEY_ROUTES = "routes";
     private static final String KEY_SUPPORTS_DYNAMIC_GROUP_ROUTE = "supportsDynamicGroupRoute";
 
     @SuppressWarnings("WeakerAccess") /* synthetic access */
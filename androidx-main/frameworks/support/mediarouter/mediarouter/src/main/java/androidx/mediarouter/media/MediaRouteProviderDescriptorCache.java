@@ -0,0 +1,366 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_COMPACT_ROUTES;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_COMPACT_ROUTE_BUNDLES;
+
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.Xml;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.util.AtomicFile;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last descriptors published by route providers in a file, so that their routes can be
+ * shown as soon as the media router starts, before the providers publish them again. Must only be
+ * used on the main thread.
+ *
+ * <p>The file is read and written on a worker thread. Each descriptor is stored with the time it
+ * was published, and is dropped once older than the maximum age. The routes are stored in the
+ * compact form of {@link MediaRouteProviderDescriptorCodec}, which only keeps their strings,
+ * numbers, booleans and control filters: their extras and settings intents are not stored. The
+ * control filters that the compact form leaves out, such as those with data types, are stored
+ * separately in the XML form of {@link IntentFilter}.
+ */
+final class MediaRouteProviderDescriptorCache {
+    private static final String TAG = "MRDescriptorCache";
+    private static final String THREAD_NAME = "MediaRouteProviderDescriptorCache";
+
+    /** The name of the cache file, in the cache directory of the application. */
+    static final String FILE_NAME = "androidx.mediarouter.media.RouteCache";
+    /** The age after which cached descriptors are dropped. */
+    static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int FILE_FORMAT_VERSION = 2;
+    private static final String FILTER_TAG = "filter";
+    // Descriptors published in a burst are written at once.
+    private static final long WRITE_DELAY_MILLIS = 2000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicFile mFile;
+    private final HandlerThread mThread;
+    private final Handler mWorkerHandler;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final Runnable mWriteRunnable = this::write;
+    private boolean mLoaded;
+    private boolean mWriteScheduled;
+    private boolean mReleased;
+
+    MediaRouteProviderDescriptorCache(@NonNull File file) {
+        mFile = new AtomicFile(file);
+        mThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorkerHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Reads the file on the worker thread, then runs the given callback on the main thread,
+     * unless the cache was released meanwhile.
+     */
+    public void load(@NonNull Runnable onLoaded) {
+        long now = System.currentTimeMillis();
+        mWorkerHandler.post(() -> {
+            Map<String, Entry> entries = read(mFile, now);
+            mMainHandler.post(() -> {
+                if (mReleased) {
+                    return;
+                }
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    // The descriptors published during the load are more recent.
+                    if (!mEntries.containsKey(entry.getKey())) {
+                        mEntries.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                mLoaded = true;
+                onLoaded.run();
+            });
+        });
+    }
+
+    /** Returns true once the file was read. */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the cached descriptor of the provider with the given key, or null if there is none
+     * or it is older than the maximum age.
+     */
+    @Nullable
+    public MediaRouteProviderDescriptor get(@NonNull String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.mSavedTimeMillis > MAX_AGE_MILLIS) {
+            return null;
+        }
+        return entry.mDescriptor;
+    }
+
+    /**
+     * Caches the descriptor published by the provider with the given key, and writes the file
+     * shortly after. Descriptors without routes remove the cached descriptor of the provider.
+     */
+    public void put(@NonNull String key, @NonNull MediaRouteProviderDescriptor descriptor) {
+        if (descriptor.getRoutes().isEmpty()) {
+            if (mEntries.remove(key) == null) {
+                return;
+            }
+        } else {
+            mEntries.put(key, new Entry(descriptor, System.currentTimeMillis()));
+        }
+        mMainHandler.removeCallbacks(mWriteRunnable);
+        mMainHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MILLIS);
+        mWriteScheduled = true;
+    }
+
+    /**
+     * Stops the worker thread once the pending writes complete, and deletes the file if
+     * requested, such as when the cache is disabled.
+     */
+    public void release(boolean deleteFile) {
+        mReleased = true;
+        if (mWriteScheduled) {
+            mMainHandler.removeCallbacks(mWriteRunnable);
+            if (!deleteFile) {
+                write();
+            }
+        }
+        if (deleteFile) {
+            mWorkerHandler.post(mFile::delete);
+        }
+        mThread.quitSafely();
+    }
+
+    private void write() {
+        mWriteScheduled = false;
+        Map<String, Entry> entries = new HashMap<>(mEntries);
+        mWorkerHandler.post(() -> write(mFile, entries));
+    }
+
+    @VisibleForTesting
+    static void write(@NonNull AtomicFile file, @NonNull Map<String, Entry> entries) {
+        FileOutputStream fileStream;
+        try {
+            fileStream = file.startWrite();
+        } catch (IOException ex) {
+            Log.w(TAG, "Failed to write the route cache.", ex);
+            return;
+        }
+        try {
+            DataOutputStream output =
+                    new DataOutputStream(new BufferedOutputStream(fileStream));
+            output.writeInt(FILE_FORMAT_VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                MediaRouteProviderDescriptor descriptor = entry.getValue().mDescriptor;
+                Bundle compactBundle =
+                        MediaRouteProviderDescriptorCodec.encode(descriptor.asBundle());
+                byte[] routes = compactBundle.getByteArray(DATA_KEY_COMPACT_ROUTES);
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue().mSavedTimeMillis);
+                output.writeBoolean(descriptor.supportsDynamicGroupRoute());
+                output.writeInt(routes.length);
+                output.write(routes);
+                writeControlFilters(output,
+                        compactBundle.getParcelableArrayList(DATA_KEY_COMPACT_ROUTE_BUNDLES));
+            }
+            output.flush();
+            file.finishWrite(fileStream);
+        } catch (IOException | RuntimeException ex) {
+            Log.w(TAG, "Failed to write the route cache.", ex);
+            file.failWrite(fileStream);
+        }
+    }
+
+    /** Reads the entries of the given file that are not older than the maximum age. */
+    @VisibleForTesting
+    @NonNull
+    static Map<String, Entry> read(@NonNull AtomicFile file, long now) {
+        Map<String, Entry> entries = new HashMap<>();
+        // The file is small, and reading it at once bounds the lengths read from it.
+        try (DataInputStream input =
+                new DataInputStream(new ByteArrayInputStream(file.readFully()))) {
+            if (input.readInt() != FILE_FORMAT_VERSION) {
+                return entries;
+            }
+            int entryCount = readCount(input);
+            for (int i = 0; i < entryCount; i++) {
+                String key = input.readUTF();
+                long savedTimeMillis = input.readLong();
+                boolean supportsDynamicGroupRoute = input.readBoolean();
+                byte[] routes = new byte[readCount(input)];
+                input.readFully(routes);
+                ArrayList<Bundle> remainingBundles = readControlFilters(input);
+                if (now - savedTimeMillis > MAX_AGE_MILLIS) {
+                    continue;
+                }
+                Bundle compactBundle = new Bundle();
+                compactBundle.putByteArray(DATA_KEY_COMPACT_ROUTES, routes);
+                compactBundle.putParcelableArrayList(
+                        DATA_KEY_COMPACT_ROUTE_BUNDLES, remainingBundles);
+                Bundle descriptorBundle = MediaRouteProviderDescriptorCodec.decode(compactBundle);
+                if (descriptorBundle == null) {
+                    continue;
+                }
+                MediaRouteProviderDescriptor descriptor =
+                        new MediaRouteProviderDescriptor.Builder()
+                                .addRoutes(MediaRouteProviderDescriptor
+                                        .fromBundle(descriptorBundle).getRoutes())
+                                .setSupportsDynamicGroupRoute(supportsDynamicGroupRoute)
+                                .build();
+                entries.put(key, new Entry(descriptor, savedTimeMillis));
+            }
+        } catch (FileNotFoundException ex) {
+            // Nothing was cached yet.
+        } catch (IOException | XmlPullParserException | RuntimeException ex) {
+            Log.w(TAG, "Ignoring malformed route cache.", ex);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    // Writes the control filter lists left out of the compact form, by route.
+    @SuppressWarnings("deprecation")
+    private static void writeControlFilters(@NonNull DataOutputStream output,
+            @Nullable List<Bundle> remainingBundles) throws IOException {
+        int routeCount = remainingBundles != null ? remainingBundles.size() : 0;
+        output.writeInt(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            Bundle remainingBundle = remainingBundles.get(i);
+            List<IntentFilter> filters = remainingBundle != null
+                    ? remainingBundle.getParcelableArrayList(
+                            MediaRouteDescriptor.KEY_CONTROL_FILTERS)
+                    : null;
+            int filterCount = filters != null ? filters.size() : 0;
+            output.writeInt(filterCount);
+            for (int j = 0; j < filterCount; j++) {
+                IntentFilter filter = filters.get(j);
+                byte[] xml = toXml(filter).getBytes(StandardCharsets.UTF_8);
+                output.writeInt(filter.getPriority());
+                output.writeInt(xml.length);
+                output.write(xml);
+            }
+        }
+    }
+
+    // Reads the control filter lists written by writeControlFilters, in the form of the bundles
+    // decoded by MediaRouteProviderDescriptorCodec.
+    @NonNull
+    private static ArrayList<Bundle> readControlFilters(@NonNull DataInputStream input)
+            throws IOException, XmlPullParserException {
+        int routeCount = readCount(input);
+        ArrayList<Bundle> remainingBundles = new ArrayList<>(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            int filterCount = readCount(input);
+            if (filterCount == 0) {
+                remainingBundles.add(null);
+                continue;
+            }
+            ArrayList<IntentFilter> filters = new ArrayList<>(filterCount);
+            for (int j = 0; j < filterCount; j++) {
+                int priority = input.readInt();
+                byte[] xml = new byte[readCount(input)];
+                input.readFully(xml);
+                IntentFilter filter = fromXml(new String(xml, StandardCharsets.UTF_8));
+                filter.setPriority(priority);
+                filters.add(filter);
+            }
+            Bundle remainingBundle = new Bundle();
+            remainingBundle.putParcelableArrayList(
+                    MediaRouteDescriptor.KEY_CONTROL_FILTERS, filters);
+            remainingBundles.add(remainingBundle);
+        }
+        return remainingBundles;
+    }
+
+    // Reads a count or length, which can't exceed the number of remaining bytes, so that a
+    // malformed file can't make the reader allocate more than its size.
+    private static int readCount(@NonNull DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > input.available()) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    @NonNull
+    private static String toXml(@NonNull IntentFilter filter) throws IOException {
+        StringWriter writer = new StringWriter();
+        XmlSerializer serializer = Xml.newSerializer();
+        serializer.setOutput(writer);
+        serializer.startTag(null, FILTER_TAG);
+        filter.writeToXml(serializer);
+        serializer.endTag(null, FILTER_TAG);
+        serializer.endDocument();
+        return writer.toString();
+    }
+
+    @NonNull
+    private static IntentFilter fromXml(@NonNull String xml)
+            throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(new StringReader(xml));
+        int eventType = parser.next();
+        while (eventType != XmlPullParser.START_TAG) {
+            if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Missing filter");
+            }
+            eventType = parser.next();
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.readFromXml(parser);
+        return filter;
+    }
+
+    @VisibleForTesting
+    static final class Entry {
+        final MediaRouteProviderDescriptor mDescriptor;
+        final long mSavedTimeMillis;
+
+        Entry(@NonNull MediaRouteProviderDescriptor descriptor, long savedTimeMillis) {
+            mDescriptor = descriptor;
+            mSavedTimeMillis = savedTimeMillis;
+        }
+    }
+}
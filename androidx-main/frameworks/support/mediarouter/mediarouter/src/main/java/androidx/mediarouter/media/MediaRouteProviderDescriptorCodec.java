@@ -0,0 +1,529 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_COMPACT_ROUTES;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_COMPACT_ROUTE_BUNDLES;
+
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the routes of provider descriptor bundles in the compact form sent to clients of
+ * {@link MediaRouteProviderProtocol#CLIENT_VERSION_5} or later, and decodes them.
+ *
+ * <p>Instead of a nested bundle per route, the routes are encoded in a byte array holding a table
+ * of the strings used by all routes, including the bundle keys, a dictionary of the distinct
+ * control filters shared by the routes, and then the entries of each route, which refer to the
+ * tables by index. Strings, integers, longs, booleans, string lists and control filter lists are
+ * encoded this way. Other values, such as extras and settings intents, and control filters with
+ * data types, authorities or paths, are sent in a bundle per route alongside the byte array.
+ *
+ * <p>The provider descriptor bundle keeps all of its other entries, so that it can evolve
+ * independently of this encoding.
+ */
+final class MediaRouteProviderDescriptorCodec {
+    private static final String TAG = "MRPDescriptorCodec";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_FALSE = 4;
+    private static final int TYPE_TRUE = 5;
+    private static final int TYPE_STRING_LIST = 6;
+    private static final int TYPE_CONTROL_FILTER_LIST = 7;
+
+    private MediaRouteProviderDescriptorCodec() {
+    }
+
+    /**
+     * Returns whether the given descriptor bundle holds its routes in the compact form.
+     */
+    static boolean isCompact(@Nullable Bundle descriptorBundle) {
+        return descriptorBundle != null && descriptorBundle.containsKey(DATA_KEY_COMPACT_ROUTES);
+    }
+
+    /**
+     * Encodes the routes of the given descriptor bundle in the compact form.
+     *
+     * @param descriptorBundle A bundle created by {@link MediaRouteProviderDescriptor#asBundle()},
+     *     or null.
+     * @return A new bundle holding the compact routes, or null if the given bundle was null.
+     */
+    @Nullable
+    static Bundle encode(@Nullable Bundle descriptorBundle) {
+        if (descriptorBundle == null) {
+            return null;
+        }
+        ArrayList<Bundle> routeBundles =
+                descriptorBundle.getParcelableArrayList(MediaRouteProviderDescriptor.KEY_ROUTES);
+        if (routeBundles == null) {
+            routeBundles = new ArrayList<>();
+        }
+        Bundle compactBundle = new Bundle(descriptorBundle);
+        compactBundle.remove(MediaRouteProviderDescriptor.KEY_ROUTES);
+        Encoder encoder = new Encoder();
+        compactBundle.putByteArray(
+                DATA_KEY_COMPACT_ROUTES,
+                encoder.encode(routeBundles));
+        if (encoder.mHasRemainingBundles) {
+            compactBundle.putParcelableArrayList(
+                    DATA_KEY_COMPACT_ROUTE_BUNDLES, encoder.mRemainingBundles);
+        }
+        return compactBundle;
+    }
+
+    /**
+     * Decodes a descriptor bundle encoded by {@link #encode}. Bundles that are not in the compact
+     * form are returned as is.
+     *
+     * @return A bundle that can be read by {@link MediaRouteProviderDescriptor#fromBundle}, or null
+     *     if the given bundle was null or malformed.
+     */
+    @Nullable
+    static Bundle decode(@Nullable Bundle descriptorBundle) {
+        if (!isCompact(descriptorBundle)) {
+            return descriptorBundle;
+        }
+        ArrayList<Bundle> remainingBundles =
+                descriptorBundle.getParcelableArrayList(DATA_KEY_COMPACT_ROUTE_BUNDLES);
+        ArrayList<Bundle> routeBundles;
+        try {
+            routeBundles =
+                    new Decoder(descriptorBundle.getByteArray(DATA_KEY_COMPACT_ROUTES))
+                            .decode(remainingBundles);
+        } catch (RuntimeException ex) {
+            Log.w(TAG, "Ignoring malformed compact descriptor.", ex);
+            return null;
+        }
+        Bundle bundle = new Bundle(descriptorBundle);
+        bundle.remove(DATA_KEY_COMPACT_ROUTES);
+        bundle.remove(DATA_KEY_COMPACT_ROUTE_BUNDLES);
+        if (!routeBundles.isEmpty()) {
+            bundle.putParcelableArrayList(MediaRouteProviderDescriptor.KEY_ROUTES, routeBundles);
+        }
+        return bundle;
+    }
+
+    private static final class Encoder {
+        private final Map<String, Integer> mStringIndices = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+        // Control filters are deduplicated by instance first, as providers usually share them
+        // between routes, and then by contents.
+        private final Map<IntentFilter, Integer> mFilterIndicesByInstance =
+                new IdentityHashMap<>();
+        private final Map<String, Integer> mFilterIndicesByContents = new HashMap<>();
+        // The filters are written when they are added, so that their strings are in the table.
+        private final Output mFilterTable = new Output();
+        private int mFilterCount;
+        private final Output mBody = new Output();
+        final ArrayList<Bundle> mRemainingBundles = new ArrayList<>();
+        boolean mHasRemainingBundles;
+
+        byte[] encode(@NonNull List<Bundle> routeBundles) {
+            mBody.writeVarInt(routeBundles.size());
+            for (int i = 0; i < routeBundles.size(); i++) {
+                Bundle remainingBundle = encodeRoute(routeBundles.get(i));
+                mRemainingBundles.add(remainingBundle);
+                mHasRemainingBundles |= remainingBundle != null;
+            }
+
+            Output output = new Output();
+            output.writeVarInt(FORMAT_VERSION);
+            output.writeVarInt(mStrings.size());
+            for (int i = 0; i < mStrings.size(); i++) {
+                output.writeString(mStrings.get(i));
+            }
+            output.writeVarInt(mFilterCount);
+            output.append(mFilterTable);
+            output.append(mBody);
+            return output.toByteArray();
+        }
+
+        // Returns the entries that could not be encoded, if any.
+        @SuppressWarnings("deprecation")
+        @Nullable
+        private Bundle encodeRoute(@Nullable Bundle routeBundle) {
+            if (routeBundle == null) {
+                mBody.writeVarInt(0);
+                return null;
+            }
+            List<String> keys = new ArrayList<>(routeBundle.size());
+            List<Object> values = new ArrayList<>(routeBundle.size());
+            for (String key : routeBundle.keySet()) {
+                Object value = routeBundle.get(key);
+                if (isEncodable(value)) {
+                    keys.add(key);
+                    values.add(value);
+                }
+            }
+            mBody.writeVarInt(keys.size() + 1);
+            for (int i = 0; i < keys.size(); i++) {
+                mBody.writeVarInt(getStringIndex(keys.get(i)));
+                writeValue(values.get(i));
+            }
+            if (keys.size() == routeBundle.size()) {
+                return null;
+            }
+            Bundle remainingBundle = new Bundle(routeBundle);
+            for (int i = 0; i < keys.size(); i++) {
+                remainingBundle.remove(keys.get(i));
+            }
+            return remainingBundle;
+        }
+
+        private void writeValue(@NonNull Object value) {
+            if (value instanceof String) {
+                mBody.writeVarInt(TYPE_STRING);
+                mBody.writeVarInt(getStringIndex((String) value));
+            } else if (value instanceof Integer) {
+                mBody.writeVarInt(TYPE_INT);
+                mBody.writeVarLong(zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                mBody.writeVarInt(TYPE_LONG);
+                mBody.writeVarLong(zigZag((Long) value));
+            } else if (value instanceof Boolean) {
+                mBody.writeVarInt((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else {
+                List<?> list = (List<?>) value;
+                if (!list.isEmpty() && list.get(0) instanceof IntentFilter) {
+                    mBody.writeVarInt(TYPE_CONTROL_FILTER_LIST);
+                    mBody.writeVarInt(list.size());
+                    for (Object filter : list) {
+                        mBody.writeVarInt(getFilterIndex((IntentFilter) filter));
+                    }
+                } else {
+                    mBody.writeVarInt(TYPE_STRING_LIST);
+                    mBody.writeVarInt(list.size());
+                    for (Object element : list) {
+                        // 0 stands for null elements.
+                        mBody.writeVarInt(
+                                element == null ? 0 : getStringIndex((String) element) + 1);
+                    }
+                }
+            }
+        }
+
+        private int getStringIndex(@NonNull String value) {
+            Integer index = mStringIndices.get(value);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(value);
+                mStringIndices.put(value, index);
+            }
+            return index;
+        }
+
+        private int getFilterIndex(@NonNull IntentFilter filter) {
+            Integer index = mFilterIndicesByInstance.get(filter);
+            if (index != null) {
+                return index;
+            }
+            String contents = getFilterContents(filter);
+            index = mFilterIndicesByContents.get(contents);
+            if (index == null) {
+                index = mFilterCount++;
+                writeFilter(mFilterTable, filter);
+                mFilterIndicesByContents.put(contents, index);
+            }
+            mFilterIndicesByInstance.put(filter, index);
+            return index;
+        }
+
+        private void writeFilter(@NonNull Output output, @NonNull IntentFilter filter) {
+            output.writeVarLong(zigZag(filter.getPriority()));
+            output.writeVarInt(filter.countActions());
+            for (int i = 0; i < filter.countActions(); i++) {
+                output.writeVarInt(getStringIndex(filter.getAction(i)));
+            }
+            output.writeVarInt(filter.countCategories());
+            for (int i = 0; i < filter.countCategories(); i++) {
+                output.writeVarInt(getStringIndex(filter.getCategory(i)));
+            }
+            output.writeVarInt(filter.countDataSchemes());
+            for (int i = 0; i < filter.countDataSchemes(); i++) {
+                output.writeVarInt(getStringIndex(filter.getDataScheme(i)));
+            }
+        }
+
+        private static String getFilterContents(@NonNull IntentFilter filter) {
+            StringBuilder builder = new StringBuilder().append(filter.getPriority());
+            for (int i = 0; i < filter.countActions(); i++) {
+                builder.append("\0a").append(filter.getAction(i));
+            }
+            for (int i = 0; i < filter.countCategories(); i++) {
+                builder.append("\0c").append(filter.getCategory(i));
+            }
+            for (int i = 0; i < filter.countDataSchemes(); i++) {
+                builder.append("\0s").append(filter.getDataScheme(i));
+            }
+            return builder.toString();
+        }
+
+        private static boolean isEncodable(@Nullable Object value) {
+            if (value instanceof String
+                    || value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Boolean) {
+                return true;
+            }
+            if (!(value instanceof ArrayList)) {
+                return false;
+            }
+            List<?> list = (List<?>) value;
+            if (list.isEmpty()) {
+                return true;
+            }
+            if (list.get(0) instanceof IntentFilter) {
+                for (Object element : list) {
+                    if (!(element instanceof IntentFilter)
+                            || !isEncodableFilter((IntentFilter) element)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            for (Object element : list) {
+                if (element != null && !(element instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Only the priority, actions, categories and data schemes of control filters are encoded.
+        private static boolean isEncodableFilter(@NonNull IntentFilter filter) {
+            return filter.countDataTypes() == 0
+                    && filter.countDataAuthorities() == 0
+                    && filter.countDataPaths() == 0
+                    && filter.countDataSchemeSpecificParts() == 0;
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] mData;
+        private int mPosition;
+        private String[] mStrings;
+        private IntentFilter[] mFilters;
+
+        Decoder(@Nullable byte[] data) {
+            if (data == null) {
+                throw new IllegalArgumentException("data must not be null");
+            }
+            mData = data;
+        }
+
+        @NonNull
+        ArrayList<Bundle> decode(@Nullable List<Bundle> remainingBundles) {
+            int formatVersion = readVarInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown format version " + formatVersion);
+            }
+            mStrings = new String[readCount()];
+            for (int i = 0; i < mStrings.length; i++) {
+                mStrings[i] = readString();
+            }
+            mFilters = new IntentFilter[readCount()];
+            for (int i = 0; i < mFilters.length; i++) {
+                // Filters are shared with the descriptors decoded before.
+                mFilters[i] =
+                        MediaRouterInternPool.getInstance().internControlFilter(readFilter());
+            }
+            int routeCount = readCount();
+            ArrayList<Bundle> routeBundles = new ArrayList<>(routeCount);
+            for (int i = 0; i < routeCount; i++) {
+                Bundle routeBundle = readRoute();
+                if (routeBundle != null && remainingBundles != null
+                        && i < remainingBundles.size() && remainingBundles.get(i) != null) {
+                    routeBundle.putAll(remainingBundles.get(i));
+                }
+                routeBundles.add(routeBundle);
+            }
+            return routeBundles;
+        }
+
+        @Nullable
+        private Bundle readRoute() {
+            int entryCount = readCount() - 1;
+            if (entryCount < 0) {
+                return null;
+            }
+            Bundle routeBundle = new Bundle();
+            for (int i = 0; i < entryCount; i++) {
+                String key = readStringReference();
+                int type = readVarInt();
+                switch (type) {
+                    case TYPE_STRING:
+                        routeBundle.putString(key, readStringReference());
+                        break;
+                    case TYPE_INT:
+                        routeBundle.putInt(key, (int) unZigZag(readVarLong()));
+                        break;
+                    case TYPE_LONG:
+                        routeBundle.putLong(key, unZigZag(readVarLong()));
+                        break;
+                    case TYPE_FALSE:
+                    case TYPE_TRUE:
+                        routeBundle.putBoolean(key, type == TYPE_TRUE);
+                        break;
+                    case TYPE_STRING_LIST: {
+                        int count = readCount();
+                        ArrayList<String> strings = new ArrayList<>(count);
+                        for (int j = 0; j < count; j++) {
+                            int index = readVarInt();
+                            strings.add(index == 0 ? null : getString(index - 1));
+                        }
+                        routeBundle.putStringArrayList(key, strings);
+                        break;
+                    }
+                    case TYPE_CONTROL_FILTER_LIST: {
+                        int count = readCount();
+                        ArrayList<IntentFilter> filters = new ArrayList<>(count);
+                        for (int j = 0; j < count; j++) {
+                            int index = readVarInt();
+                            if (index >= mFilters.length) {
+                                throw new IllegalArgumentException("Invalid filter " + index);
+                            }
+                            filters.add(mFilters[index]);
+                        }
+                        routeBundle.putParcelableArrayList(key, filters);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unknown type " + type);
+                }
+            }
+            return routeBundle;
+        }
+
+        @NonNull
+        private IntentFilter readFilter() {
+            IntentFilter filter = new IntentFilter();
+            filter.setPriority((int) unZigZag(readVarLong()));
+            int actionCount = readCount();
+            for (int i = 0; i < actionCount; i++) {
+                filter.addAction(readStringReference());
+            }
+            int categoryCount = readCount();
+            for (int i = 0; i < categoryCount; i++) {
+                filter.addCategory(readStringReference());
+            }
+            int schemeCount = readCount();
+            for (int i = 0; i < schemeCount; i++) {
+                filter.addDataScheme(readStringReference());
+            }
+            return filter;
+        }
+
+        @NonNull
+        private String readStringReference() {
+            return getString(readVarInt());
+        }
+
+        @NonNull
+        private String getString(int index) {
+            if (index >= mStrings.length) {
+                throw new IllegalArgumentException("Invalid string " + index);
+            }
+            return mStrings[index];
+        }
+
+        @NonNull
+        private String readString() {
+            int length = readCount();
+            String value = new String(mData, mPosition, length, StandardCharsets.UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        // Reads a count, which can't exceed the number of remaining bytes, so that malformed data
+        // doesn't cause large allocations.
+        private int readCount() {
+            int count = readVarInt();
+            if (count > mData.length - mPosition) {
+                throw new IllegalArgumentException("Invalid count " + count);
+            }
+            return count;
+        }
+
+        private int readVarInt() {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid value " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = mData[mPosition++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed variable length integer");
+        }
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(@NonNull String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void append(@NonNull Output output) {
+            write(output.buf, 0, output.count);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_REMOVED_ROUTE_IDS;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_ROUTE_IDS;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_UPDATED_ROUTES;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.ObjectsCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes and applies the route provider descriptor deltas sent with
+ * {@link MediaRouteProviderProtocol#SERVICE_MSG_DESCRIPTOR_DELTA}.
+ *
+ * <p>A delta holds the ids of the removed routes, the added and changed routes in the compact form
+ * of {@link MediaRouteProviderDescriptorCodec}, and the ids of all routes in order if the order
+ * can't be derived from the previous descriptor. Changed routes keep their position and added
+ * routes are appended.
+ */
+final class MediaRouteProviderDescriptorDelta {
+    private static final String TAG = "MRPDescriptorDelta";
+
+    private MediaRouteProviderDescriptorDelta() {
+    }
+
+    /**
+     * Applies a delta to the descriptor it was computed against.
+     *
+     * @return The updated descriptor, or null if the delta was malformed.
+     */
+    @Nullable
+    static MediaRouteProviderDescriptor apply(
+            @NonNull MediaRouteProviderDescriptor descriptor, @Nullable Bundle deltaBundle) {
+        if (deltaBundle == null) {
+            return null;
+        }
+        Map<String, MediaRouteDescriptor> routes = new LinkedHashMap<>();
+        for (MediaRouteDescriptor route : descriptor.getRoutes()) {
+            if (route == null) {
+                return null;
+            }
+            routes.put(route.getId(), route);
+        }
+        List<String> removedRouteIds = deltaBundle.getStringArrayList(DATA_KEY_REMOVED_ROUTE_IDS);
+        if (removedRouteIds != null) {
+            for (String routeId : removedRouteIds) {
+                routes.remove(routeId);
+            }
+        }
+        Bundle updatedRoutesBundle = deltaBundle.getBundle(DATA_KEY_UPDATED_ROUTES);
+        if (updatedRoutesBundle != null) {
+            MediaRouteProviderDescriptor updatedRoutes = MediaRouteProviderDescriptor.fromBundle(
+                    MediaRouteProviderDescriptorCodec.decode(updatedRoutesBundle));
+            if (updatedRoutes == null) {
+                return null;
+            }
+            for (MediaRouteDescriptor route : updatedRoutes.getRoutes()) {
+                if (route == null || route.getId() == null) {
+                    Log.w(TAG, "Ignoring delta with an invalid route.");
+                    return null;
+                }
+                routes.put(route.getId(), route);
+            }
+        }
+        List<MediaRouteDescriptor> orderedRoutes;
+        List<String> routeIds = deltaBundle.getStringArrayList(DATA_KEY_ROUTE_IDS);
+        if (routeIds != null) {
+            if (routeIds.size() != routes.size()) {
+                Log.w(TAG, "Ignoring delta with inconsistent route ids.");
+                return null;
+            }
+            orderedRoutes = new ArrayList<>(routeIds.size());
+            for (String routeId : routeIds) {
+                MediaRouteDescriptor route = routes.get(routeId);
+                if (route == null) {
+                    Log.w(TAG, "Ignoring delta with inconsistent route ids.");
+                    return null;
+                }
+                orderedRoutes.add(route);
+            }
+        } else {
+            orderedRoutes = new ArrayList<>(routes.values());
+        }
+        return new MediaRouteProviderDescriptor.Builder(descriptor)
+                .setRoutes(orderedRoutes)
+                .build();
+    }
+
+    /**
+     * Keeps track of the descriptors sent to a client, to compute deltas against them.
+     */
+    static final class Tracker {
+        @Nullable
+        private Bundle mDescriptorBundle;
+        // Whether all routes of the descriptor sent last could be identified.
+        private boolean mHasIdentifiableRoutes;
+        // The routes of the descriptor sent last, in order and by id. Unchanged routes are kept
+        // across updates, so that their content fingerprints are only computed once.
+        private List<MediaRouteDescriptor> mRoutes = new ArrayList<>();
+        private Map<String, MediaRouteDescriptor> mRoutesById = new HashMap<>();
+
+        /**
+         * Remembers the given descriptor bundle as sent in full.
+         */
+        void reset(@Nullable Bundle descriptorBundle) {
+            update(descriptorBundle);
+        }
+
+        /**
+         * Computes the delta from the descriptor sent last to the given one, and remembers the
+         * given descriptor as sent.
+         *
+         * @return The delta bundle, which is empty if nothing changed, or null if the descriptor
+         *     must be sent in full.
+         */
+        @Nullable
+        Bundle update(@Nullable Bundle descriptorBundle) {
+            Bundle previousDescriptorBundle = mDescriptorBundle;
+            boolean previousHasIdentifiableRoutes = mHasIdentifiableRoutes;
+            List<MediaRouteDescriptor> previousRoutes = mRoutes;
+            Map<String, MediaRouteDescriptor> previousRoutesById = mRoutesById;
+            mDescriptorBundle = descriptorBundle;
+            mRoutes = new ArrayList<>();
+            mRoutesById = new HashMap<>();
+            mHasIdentifiableRoutes = false;
+
+            MediaRouteProviderDescriptor descriptor =
+                    MediaRouteProviderDescriptor.fromBundle(descriptorBundle);
+            if (descriptor == null) {
+                return null;
+            }
+            ArrayList<Bundle> updatedRouteBundles = new ArrayList<>();
+            for (MediaRouteDescriptor route : descriptor.getRoutes()) {
+                if (route == null || route.getId() == null
+                        || mRoutesById.containsKey(route.getId())) {
+                    // Deltas can't describe routes that can't be identified.
+                    return null;
+                }
+                MediaRouteDescriptor previousRoute = previousRoutesById.get(route.getId());
+                if (previousRoute != null && isSameRoute(previousRoute, route)) {
+                    route = previousRoute;
+                } else {
+                    updatedRouteBundles.add(route.asBundle());
+                }
+                mRoutes.add(route);
+                mRoutesById.put(route.getId(), route);
+            }
+            mHasIdentifiableRoutes = true;
+            if (previousDescriptorBundle == null
+                    || !previousHasIdentifiableRoutes
+                    || !haveSameEntriesExceptRoutes(previousDescriptorBundle, descriptorBundle)) {
+                return null;
+            }
+
+            ArrayList<String> removedRouteIds = new ArrayList<>();
+            List<String> expectedRouteIds = new ArrayList<>(mRoutes.size());
+            for (MediaRouteDescriptor previousRoute : previousRoutes) {
+                if (mRoutesById.containsKey(previousRoute.getId())) {
+                    expectedRouteIds.add(previousRoute.getId());
+                } else {
+                    removedRouteIds.add(previousRoute.getId());
+                }
+            }
+            // Sending the descriptor in full is cheaper when most routes changed.
+            if (2 * (updatedRouteBundles.size() + removedRouteIds.size()) > mRoutes.size()) {
+                return null;
+            }
+
+            ArrayList<String> routeIds = new ArrayList<>(mRoutes.size());
+            for (MediaRouteDescriptor route : mRoutes) {
+                routeIds.add(route.getId());
+                if (!previousRoutesById.containsKey(route.getId())) {
+                    expectedRouteIds.add(route.getId());
+                }
+            }
+
+            Bundle deltaBundle = new Bundle();
+            if (!removedRouteIds.isEmpty()) {
+                deltaBundle.putStringArrayList(DATA_KEY_REMOVED_ROUTE_IDS, removedRouteIds);
+            }
+            if (!updatedRouteBundles.isEmpty()) {
+                Bundle updatedRoutesBundle = new Bundle();
+                updatedRoutesBundle.putParcelableArrayList(
+                        MediaRouteProviderDescriptor.KEY_ROUTES, updatedRouteBundles);
+                deltaBundle.putBundle(DATA_KEY_UPDATED_ROUTES,
+                        MediaRouteProviderDescriptorCodec.encode(updatedRoutesBundle));
+            }
+            if (!routeIds.equals(expectedRouteIds)) {
+                deltaBundle.putStringArrayList(DATA_KEY_ROUTE_IDS, routeIds);
+            }
+            return deltaBundle;
+        }
+
+        private static boolean isSameRoute(
+                @NonNull MediaRouteDescriptor previousRoute, @NonNull MediaRouteDescriptor route) {
+            if (previousRoute.asBundle() == route.asBundle()) {
+                return true;
+            }
+            long fingerprint = route.getContentFingerprint();
+            return fingerprint != MediaRouteDescriptor.FINGERPRINT_NONE
+                    && fingerprint == previousRoute.getContentFingerprint();
+        }
+
+        @SuppressWarnings("deprecation")
+        private static boolean haveSameEntriesExceptRoutes(
+                @NonNull Bundle previousBundle, @NonNull Bundle bundle) {
+            for (String key : bundle.keySet()) {
+                if (!MediaRouteProviderDescriptor.KEY_ROUTES.equals(key)
+                        && !ObjectsCompat.equals(previousBundle.get(key), bundle.get(key))) {
+                    return false;
+                }
+            }
+            for (String key : previousBundle.keySet()) {
+                if (!MediaRouteProviderDescriptor.KEY_ROUTES.equals(key)
+                        && !bundle.containsKey(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_PAGE_COUNT;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_PAGE_DESCRIPTOR;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_PAGE_INDEX;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits route provider descriptors that are too large for one message into the pages sent with
+ * {@link MediaRouteProviderProtocol#SERVICE_MSG_DESCRIPTOR_PAGE}, and reassembles them.
+ *
+ * <p>Binder transactions fail above about 1 MB, a buffer shared by all the transactions in
+ * flight of the process, so descriptors are split well below this limit. Each page holds a
+ * consecutive range of the routes, encoded by {@link MediaRouteProviderDescriptorCodec}.
+ */
+final class MediaRouteProviderDescriptorPages {
+    /** The largest descriptor or delta sent in one message, once parceled, in bytes. */
+    static final int MAX_MESSAGE_BYTES = 256 * 1024;
+    /** The number of pages sent ahead of the pages acknowledged by the client. */
+    static final int MAX_PAGES_IN_FLIGHT = 2;
+
+    private MediaRouteProviderDescriptorPages() {
+    }
+
+    /** Returns true if the given bundle is small enough to be sent in one message. */
+    static boolean fitsInMessage(@Nullable Bundle bundle) {
+        return bundle == null || getParceledSize(bundle) <= MAX_MESSAGE_BYTES;
+    }
+
+    /**
+     * Creates the descriptor bundle sent on registration in place of a descriptor that follows in
+     * pages.
+     */
+    @NonNull
+    static Bundle createPagesFollowBundle(int pageCount) {
+        Bundle bundle = new Bundle();
+        bundle.putInt(DATA_KEY_PAGE_COUNT, pageCount);
+        return bundle;
+    }
+
+    /** Returns true if the given bundle was created by {@link #createPagesFollowBundle}. */
+    static boolean isPagesFollowBundle(@Nullable Bundle bundle) {
+        return bundle != null && bundle.containsKey(DATA_KEY_PAGE_COUNT);
+    }
+
+    /**
+     * Splits a descriptor into pages, if its compact form is too large for one message.
+     *
+     * @param descriptorBundle A bundle created by {@link MediaRouteProviderDescriptor#asBundle()}.
+     * @param compactBundle The bundle encoded from it by {@link MediaRouteProviderDescriptorCodec}.
+     * @return The page bundles, or null if the compact bundle fits in one message.
+     */
+    @Nullable
+    static List<Bundle> split(@NonNull Bundle descriptorBundle, @NonNull Bundle compactBundle) {
+        int parceledSize = getParceledSize(compactBundle);
+        if (parceledSize <= MAX_MESSAGE_BYTES) {
+            return null;
+        }
+        ArrayList<Bundle> routeBundles =
+                descriptorBundle.getParcelableArrayList(MediaRouteProviderDescriptor.KEY_ROUTES);
+        if (routeBundles == null) {
+            routeBundles = new ArrayList<>();
+        }
+        int routeCount = routeBundles.size();
+        // Leave room for routes larger than the average.
+        int rangeCount = Math.max(1, Math.min(routeCount, parceledSize / MAX_MESSAGE_BYTES + 1));
+        List<Bundle> pages = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            addPages(descriptorBundle, routeBundles.subList(
+                    routeCount * i / rangeCount, routeCount * (i + 1) / rangeCount), pages);
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            pages.get(i).putInt(DATA_KEY_PAGE_INDEX, i);
+            pages.get(i).putInt(DATA_KEY_PAGE_COUNT, pages.size());
+        }
+        return pages;
+    }
+
+    // Adds the pages holding the given routes, halving the range until each page fits in one
+    // message. The first page also holds the other entries of the descriptor.
+    private static void addPages(@NonNull Bundle descriptorBundle,
+            @NonNull List<Bundle> routeBundles, @NonNull List<Bundle> pages) {
+        Bundle pageDescriptorBundle = pages.isEmpty() ? new Bundle(descriptorBundle) : new Bundle();
+        pageDescriptorBundle.putParcelableArrayList(
+                MediaRouteProviderDescriptor.KEY_ROUTES, new ArrayList<>(routeBundles));
+        Bundle page = new Bundle();
+        // The index and count are set once all the pages are known, and take the same space.
+        page.putInt(DATA_KEY_PAGE_INDEX, 0);
+        page.putInt(DATA_KEY_PAGE_COUNT, 0);
+        page.putBundle(
+                DATA_KEY_PAGE_DESCRIPTOR,
+                MediaRouteProviderDescriptorCodec.encode(pageDescriptorBundle));
+        if (routeBundles.size() > 1 && !fitsInMessage(page)) {
+            int middle = routeBundles.size() / 2;
+            addPages(descriptorBundle, routeBundles.subList(0, middle), pages);
+            addPages(descriptorBundle, routeBundles.subList(middle, routeBundles.size()), pages);
+            return;
+        }
+        pages.add(page);
+    }
+
+    private static int getParceledSize(@NonNull Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /** Reassembles the pages of descriptors, received in order. */
+    static final class Assembler {
+        private final ArrayList<Bundle> mRouteBundles = new ArrayList<>();
+        @Nullable
+        private Bundle mDescriptorBundle;
+        private int mSequenceNumber;
+        private int mNextPageIndex;
+        private int mPageCount;
+
+        /**
+         * Adds a page of the descriptor with the given sequence number.
+         *
+         * @return False if the page is malformed or doesn't follow the pages added before, in
+         *     which case the pages of the descriptor are dropped.
+         */
+        boolean addPage(int sequenceNumber, @Nullable Bundle pageBundle) {
+            int pageIndex = pageBundle != null ? pageBundle.getInt(DATA_KEY_PAGE_INDEX, -1) : -1;
+            if (pageIndex == 0) {
+                reset();
+                mSequenceNumber = sequenceNumber;
+                mPageCount = pageBundle.getInt(DATA_KEY_PAGE_COUNT);
+            } else if (pageIndex != mNextPageIndex
+                    || sequenceNumber != mSequenceNumber
+                    || mDescriptorBundle == null) {
+                reset();
+                return false;
+            }
+            Bundle pageDescriptorBundle = MediaRouteProviderDescriptorCodec.decode(
+                    pageBundle.getBundle(DATA_KEY_PAGE_DESCRIPTOR));
+            if (pageDescriptorBundle == null || mPageCount <= pageIndex) {
+                reset();
+                return false;
+            }
+            if (pageIndex == 0) {
+                mDescriptorBundle = pageDescriptorBundle;
+            }
+            ArrayList<Bundle> routeBundles = pageDescriptorBundle.getParcelableArrayList(
+                    MediaRouteProviderDescriptor.KEY_ROUTES);
+            if (routeBundles != null) {
+                mRouteBundles.addAll(routeBundles);
+            }
+            mNextPageIndex = pageIndex + 1;
+            return true;
+        }
+
+        /** Returns true if all the pages of the descriptor were added. */
+        boolean isComplete() {
+            return mDescriptorBundle != null && mNextPageIndex == mPageCount;
+        }
+
+        /** Returns the reassembled descriptor bundle once complete, and drops the pages. */
+        @NonNull
+        Bundle takeDescriptorBundle() {
+            Bundle descriptorBundle = mDescriptorBundle;
+            descriptorBundle.putParcelableArrayList(
+                    MediaRouteProviderDescriptor.KEY_ROUTES, new ArrayList<>(mRouteBundles));
+            reset();
+            return descriptorBundle;
+        }
+
+        /** Drops the pages added so far. */
+        void reset() {
+            mRouteBundles.clear();
+            mDescriptorBundle = null;
+            mNextPageIndex = 0;
+            mPageCount = 0;
+        }
+    }
+}
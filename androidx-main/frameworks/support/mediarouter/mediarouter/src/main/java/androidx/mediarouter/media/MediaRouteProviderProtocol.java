@@ -156,6 +156,23 @@ abstract class MediaRouteProviderProtocol {
      */
     public static final int CLIENT_MSG_UPDATE_MEMBER_ROUTES = 14;
 
+    /** (client v5)
+     * Request the full route provider descriptor, after a gap in the sequence of descriptor
+     * deltas. The service replies with SERVICE_MSG_DESCRIPTOR_CHANGED.
+     * - replyTo : client messenger
+     * - arg1    : request id
+     */
+    public static final int CLIENT_MSG_REQUEST_DESCRIPTOR = 15;
+
+    /** (client v6)
+     * Acknowledges a SERVICE_MSG_DESCRIPTOR_PAGE message, so that the service can send the next
+     * page. (no reply)
+     * - replyTo : client messenger
+     * - arg1    : reserved (0)
+     * - arg2    : descriptor sequence number of the page
+     */
+    public static final int CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED = 16;
+
     public static final String CLIENT_DATA_ROUTE_ID = "routeId";
     public static final String CLIENT_DATA_ROUTE_LIBRARY_GROUP = "routeGroupId";
     public static final String CLIENT_DATA_VOLUME = "volume";
@@ -191,6 +208,10 @@ abstract class MediaRouteProviderProtocol {
      * - arg1    : request id
      * - arg2    : server version
      * - obj     : route provider descriptor bundle, or null
+     *       (client v5) the routes are in the compact form, see DATA_KEY_COMPACT_ROUTES
+     *       (client v6) if the descriptor is too large for one message, a bundle holding only
+     *       DATA_KEY_PAGE_COUNT, and the descriptor follows in SERVICE_MSG_DESCRIPTOR_PAGE
+     *       messages
      */
     public static final int SERVICE_MSG_REGISTERED = 2;
 
@@ -212,7 +233,11 @@ abstract class MediaRouteProviderProtocol {
     /** (service v1)
      * Route provider descriptor changed.  (unsolicited event)
      * - arg1    : reserved (0)
+     * - arg2    : (client v5) descriptor sequence number
      * - obj     : route provider descriptor bundle, or null
+     *       (client v5) the routes are in the compact form, see DATA_KEY_COMPACT_ROUTES
+     *       (client v6) descriptors too large for one message are sent in
+     *       SERVICE_MSG_DESCRIPTOR_PAGE messages instead
      */
     public static final int SERVICE_MSG_DESCRIPTOR_CHANGED = 5;
 
@@ -243,8 +268,64 @@ abstract class MediaRouteProviderProtocol {
      */
     public static final int SERVICE_MSG_CONTROLLER_RELEASED = 8;
 
+    /** (service v4) / (client v5)
+     * Route provider descriptor changed, relative to the descriptor with the previous sequence
+     * number. (unsolicited event)
+     * The descriptor sent with SERVICE_MSG_REGISTERED has the sequence number 0. Clients that
+     * detect a gap in the sequence send CLIENT_MSG_REQUEST_DESCRIPTOR.
+     * - arg1    : reserved (0)
+     * - arg2    : descriptor sequence number
+     * - obj     : bundle
+     *       - DATA_KEY_REMOVED_ROUTE_IDS: (string list) ids of the removed routes, if any
+     *       - DATA_KEY_UPDATED_ROUTES: (bundle) added and changed routes in the compact form,
+     *         if any
+     *       - DATA_KEY_ROUTE_IDS: (string list) ids of all routes in order, if changed routes
+     *         didn't keep their position or added routes were not appended
+     */
+    public static final int SERVICE_MSG_DESCRIPTOR_DELTA = 9;
+
+    /** (service v5) / (client v6)
+     * Page of a route provider descriptor too large to be sent in one message. (unsolicited
+     * event) The pages of a descriptor are sent in order and hold consecutive ranges of its
+     * routes. Clients acknowledge each page with CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED, and the
+     * service only sends a few pages ahead of the acknowledged ones. The descriptor replaces the
+     * previous one once all of its pages are received. Clients that miss a page, or stop
+     * receiving pages before the last one, send CLIENT_MSG_REQUEST_DESCRIPTOR.
+     * - arg1    : reserved (0)
+     * - arg2    : descriptor sequence number
+     * - obj     : bundle
+     *       - DATA_KEY_PAGE_INDEX: (int) index of the page
+     *       - DATA_KEY_PAGE_COUNT: (int) number of pages of the descriptor
+     *       - DATA_KEY_PAGE_DESCRIPTOR: (bundle) route provider descriptor bundle in the compact
+     *         form, holding the routes of the page. The first page also holds the other entries
+     *         of the descriptor.
+     */
+    public static final int SERVICE_MSG_DESCRIPTOR_PAGE = 10;
+
     public static final String SERVICE_DATA_ERROR = "error";
 
+    /**
+     * (service v4) / (client v5)
+     * Key of the routes of a route provider descriptor bundle, encoded by
+     * {@link MediaRouteProviderDescriptorCodec} in a byte array, which replaces the list of route
+     * bundles.
+     */
+    public static final String DATA_KEY_COMPACT_ROUTES = "compactRoutes";
+
+    /**
+     * (service v4) / (client v5)
+     * Key of the list of bundles holding the route entries that are not in the compact routes,
+     * with one bundle or null per route.
+     */
+    public static final String DATA_KEY_COMPACT_ROUTE_BUNDLES = "compactRouteBundles";
+
+    public static final String DATA_KEY_REMOVED_ROUTE_IDS = "removedRouteIds";
+    public static final String DATA_KEY_UPDATED_ROUTES = "updatedRoutes";
+    public static final String DATA_KEY_ROUTE_IDS = "routeIds";
+    public static final String DATA_KEY_PAGE_INDEX = "pageIndex";
+    public static final String DATA_KEY_PAGE_COUNT = "pageCount";
+    public static final String DATA_KEY_PAGE_DESCRIPTOR = "pageDescriptor";
+
     /*
      * Recognized client version numbers.  (Reserved for future use.)
      * DO NOT RENUMBER THESE!
@@ -271,10 +352,21 @@ abstract class MediaRouteProviderProtocol {
      */
     public static final int CLIENT_VERSION_4 = 4;
 
+    /**
+     * The client version that accepts route provider descriptors with compact routes, and
+     * descriptor deltas.
+     */
+    public static final int CLIENT_VERSION_5 = 5;
+
+    /**
+     * The client version that accepts route provider descriptors sent in pages.
+     */
+    public static final int CLIENT_VERSION_6 = 6;
+
     /**
      * The current client version.
      */
-    public static final int CLIENT_VERSION_CURRENT = CLIENT_VERSION_4;
+    public static final int CLIENT_VERSION_CURRENT = CLIENT_VERSION_6;
 
     /*
      * Recognized server version numbers.  (Reserved for future use.)
@@ -297,10 +389,22 @@ abstract class MediaRouteProviderProtocol {
      */
     public static final int SERVICE_VERSION_3 = 3;
 
+    /**
+     * The service version that sends route provider descriptors with compact routes, and
+     * descriptor deltas, to clients of {@link #CLIENT_VERSION_5} or later.
+     */
+    public static final int SERVICE_VERSION_4 = 4;
+
+    /**
+     * The service version that sends route provider descriptors too large for one message in
+     * pages, to clients of {@link #CLIENT_VERSION_6} or later.
+     */
+    public static final int SERVICE_VERSION_5 = 5;
+
     /**
      * The current service version.
      */
-    public static final int SERVICE_VERSION_CURRENT = SERVICE_VERSION_3;
+    public static final int SERVICE_VERSION_CURRENT = SERVICE_VERSION_5;
 
     static final int CLIENT_VERSION_START = CLIENT_VERSION_1;
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Decides when to bind again to a route provider service after the connection to it was lost,
+ * such as when the service crashed. Must only be used on one thread.
+ *
+ * <p>Rebinding is delayed by an exponential backoff with jitter, based on the number of
+ * connection losses in a recent window, so that a crash-looping service doesn't keep the media
+ * router busy binding to it and resetting its routes. A service that loses its connection too
+ * many times within the window is quarantined: it isn't bound again until the quarantine ends.
+ *
+ * <p>Times are {@link android.os.SystemClock#uptimeMillis() uptimes}, in milliseconds.
+ */
+final class MediaRouteProviderReconnectionPolicy {
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 60000;
+    /** The window in which connection losses are counted. */
+    static final long CONNECTION_LOSS_WINDOW_MILLIS = 5 * 60 * 1000;
+    /** The number of connection losses within the window that quarantine the service. */
+    static final int QUARANTINE_CONNECTION_LOSS_COUNT = 5;
+    static final long QUARANTINE_MILLIS = 10 * 60 * 1000;
+
+    private final Random mRandom;
+    private final ArrayDeque<Long> mConnectionLossTimes = new ArrayDeque<>();
+    private long mNextBindTime;
+    private long mQuarantineEndTime;
+
+    MediaRouteProviderReconnectionPolicy(@NonNull Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Records a connection loss.
+     *
+     * @return The time to wait before binding again.
+     */
+    public long onConnectionLost(long now) {
+        while (!mConnectionLossTimes.isEmpty()
+                && now - mConnectionLossTimes.peekFirst() >= CONNECTION_LOSS_WINDOW_MILLIS) {
+            mConnectionLossTimes.pollFirst();
+        }
+        mConnectionLossTimes.addLast(now);
+
+        long delayMillis;
+        if (mConnectionLossTimes.size() >= QUARANTINE_CONNECTION_LOSS_COUNT) {
+            // Start over with the initial backoff once the quarantine ends.
+            mConnectionLossTimes.clear();
+            mQuarantineEndTime = now + QUARANTINE_MILLIS;
+            delayMillis = QUARANTINE_MILLIS;
+        } else {
+            int exponent = Math.min(mConnectionLossTimes.size() - 1, 30);
+            long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << exponent);
+            // Spread the rebinds of providers that lost their connection at the same time.
+            delayMillis = backoffMillis / 2 + (long) (mRandom.nextDouble() * (backoffMillis / 2));
+        }
+        mNextBindTime = now + delayMillis;
+        return delayMillis;
+    }
+
+    /** Returns the time to wait before binding, or 0 if the service can be bound now. */
+    public long getBindDelayMillis(long now) {
+        return Math.max(0, mNextBindTime - now);
+    }
+
+    /** Returns true if the service lost its connection too many times to be bound for now. */
+    public boolean isQuarantined(long now) {
+        return now < mQuarantineEndTime;
+    }
+
+    /** Returns true if connection losses are taken into account by the policy. */
+    public boolean hasConnectionLosses(long now) {
+        return !mConnectionLossTimes.isEmpty() || isQuarantined(now);
+    }
+
+    /**
+     * Forgets the connection losses, so that the service can be bound at once, such as when it
+     * was updated and may no longer crash.
+     */
+    public void reset() {
+        mConnectionLossTimes.clear();
+        mNextBindTime = 0;
+        mQuarantineEndTime = 0;
+    }
+}
@@ -29,6 +29,8 @@ import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_C
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REGISTER;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_RELEASE_ROUTE_CONTROLLER;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REMOVE_MEMBER_ROUTE;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REQUEST_DESCRIPTOR;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_ROUTE_CONTROL_REQUEST;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_SELECT_ROUTE;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_SET_DISCOVERY_REQUEST;
@@ -39,6 +41,8 @@ import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_U
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_UPDATE_ROUTE_VOLUME;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_VERSION_1;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_VERSION_4;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_VERSION_5;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_VERSION_6;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_DYNAMIC_ROUTE_DESCRIPTORS;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_GROUPABLE_SECION_TITLE;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.DATA_KEY_GROUP_ROUTE_DESCRIPTOR;
@@ -48,6 +52,8 @@ import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_CONTROL_REQUEST_FAILED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_CONTROL_REQUEST_SUCCEEDED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_CHANGED;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_DELTA;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_PAGE;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DYNAMIC_ROUTE_CREATED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DYNAMIC_ROUTE_DESCRIPTORS_CHANGED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_GENERIC_FAILURE;
@@ -89,6 +95,7 @@ import androidx.mediarouter.media.MediaRouteProvider.RouteController;
 import androidx.mediarouter.media.MediaRouteProvider.RouteControllerOptions;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -122,6 +129,15 @@ import java.util.concurrent.Executor;
  *       &lt;/intent-filter>
  *   &lt;/service>
  * </pre>
+ * <p>
+ * Optionally, declare the {@link MediaControlIntent media control categories} your routes
+ * support with {@link #SERVICE_META_DATA_CONTROL_CATEGORIES}, so that media routers only bind to
+ * your service while discovering routes for one of these categories:
+ * </p>
+ * <pre>
+ *       &lt;meta-data android:name="androidx.mediarouter.media.CONTROL_CATEGORIES"
+ *               android:value="android.media.intent.category.REMOTE_PLAYBACK" />
+ * </pre>
  */
 public abstract class MediaRouteProviderService extends Service {
     static final String TAG = "MediaRouteProviderSrv"; // max. 23 chars
@@ -141,6 +157,14 @@ public abstract class MediaRouteProviderService extends Service {
      */
     public static final String SERVICE_INTERFACE = MediaRouteProviderProtocol.SERVICE_INTERFACE;
 
+    /**
+     * The name of the optional service meta-data listing the media control categories supported
+     * by the routes of the service, separated by commas. When present, media routers don't bind
+     * to the service to discover routes unless their selector has one of these categories.
+     */
+    public static final String SERVICE_META_DATA_CONTROL_CATEGORIES =
+            "androidx.mediarouter.media.CONTROL_CATEGORIES";
+
     /*
      * Private messages used internally.  (Yes, you can renumber these.)
      */
@@ -190,6 +214,8 @@ public abstract class MediaRouteProviderService extends Service {
                 int controllerId, Intent intent);
         boolean onSetDiscoveryRequest(Messenger messenger, int requestId,
                 MediaRouteDiscoveryRequest request);
+        boolean onRequestDescriptor(Messenger messenger, int requestId);
+        boolean onDescriptorPageReceived(Messenger messenger, int sequenceNumber);
         MediaRouteProvider.Callback getProviderCallback();
         void addClientInfoListener(Executor listenerExecutor, Consumer<List<ClientInfo>> listener);
         void removeClientInfoListener(Consumer<List<ClientInfo>> listener);
@@ -321,6 +347,17 @@ public abstract class MediaRouteProviderService extends Service {
         return builder.build().asBundle();
     }
 
+    /**
+     * Encodes the routes of a descriptor bundle in the compact form for clients that support it.
+     */
+    static Bundle encodeDescriptorBundleForClientVersion(Bundle descriptorBundle,
+            int clientVersion) {
+        if (clientVersion < CLIENT_VERSION_5) {
+            return descriptorBundle;
+        }
+        return MediaRouteProviderDescriptorCodec.encode(descriptorBundle);
+    }
+
 
     static void sendGenericFailure(Messenger messenger, int requestId) {
         if (requestId != 0) {
@@ -583,7 +620,14 @@ public abstract class MediaRouteProviderService extends Service {
                                     messenger, requestId,
                                     request != null && request.isValid() ? request : null);
                         }
+                        break;
                     }
+
+                    case CLIENT_MSG_REQUEST_DESCRIPTOR:
+                        return service.mImpl.onRequestDescriptor(messenger, requestId);
+
+                    case CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED:
+                        return service.mImpl.onDescriptorPageReceived(messenger, arg);
                 }
             }
             return false;
@@ -652,8 +696,8 @@ public abstract class MediaRouteProviderService extends Service {
                                     mService.getMediaRouteProvider().getDescriptor();
                             sendMessage(messenger, SERVICE_MSG_REGISTERED,
                                     requestId, SERVICE_VERSION_CURRENT,
-                                    createDescriptorBundleForClientVersion(descriptor,
-                                            client.mVersion), null);
+                                    client.createRegisteredDescriptorBundle(descriptor), null);
+                            client.sendPendingDescriptorPages();
                         }
                         return true;
                     }
@@ -998,12 +1042,36 @@ public abstract class MediaRouteProviderService extends Service {
             return false;
         }
 
+        @Override
+        public boolean onRequestDescriptor(Messenger messenger, int requestId) {
+            ClientRecord client = getClient(messenger);
+            if (client != null) {
+                client.sendDescriptorChanged(
+                        mService.getMediaRouteProvider().getDescriptor(), /* full= */ true);
+                if (DEBUG) {
+                    Log.d(TAG, client + ": Sent full descriptor on request");
+                }
+                sendGenericSuccess(messenger, requestId);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onDescriptorPageReceived(Messenger messenger, int sequenceNumber) {
+            ClientRecord client = getClient(messenger);
+            if (client != null) {
+                client.onDescriptorPageReceived(sequenceNumber);
+                return true;
+            }
+            return false;
+        }
+
         void sendDescriptorChanged(MediaRouteProviderDescriptor descriptor) {
             final int count = mClients.size();
             for (int i = 0; i < count; i++) {
                 ClientRecord client = mClients.get(i);
-                sendMessage(client.mMessenger, SERVICE_MSG_DESCRIPTOR_CHANGED, 0, 0,
-                        client.createDescriptorBundle(descriptor), null);
+                client.sendDescriptorChanged(descriptor, /* full= */ false);
                 if (DEBUG) {
                     Log.d(TAG, client + ": Sent descriptor change event, descriptor=" + descriptor);
                 }
@@ -1088,6 +1156,18 @@ public abstract class MediaRouteProviderService extends Service {
             public MediaRouteDiscoveryRequest mDiscoveryRequest;
             public long mDiscoveryRequestTimestamp;
 
+            // The descriptor sent last and its sequence number, to send descriptor deltas to
+            // clients that support them.
+            private final MediaRouteProviderDescriptorDelta.Tracker mDescriptorTracker =
+                    new MediaRouteProviderDescriptorDelta.Tracker();
+            private int mDescriptorSequenceNumber;
+            // The pages of the descriptor too large to be sent when this client registered.
+            private List<Bundle> mPendingDescriptorPages;
+            // The pages of the descriptor being sent, which are sent as the client acknowledges
+            // the previous ones, so that they don't fill the binder buffer of either process.
+            private final ArrayDeque<Bundle> mQueuedDescriptorPages = new ArrayDeque<>();
+            private int mDescriptorPagesInFlight;
+
             final SparseArray<RouteController> mControllers = new SparseArray<>();
 
             final OnDynamicRoutesChangedListener mDynamicRoutesChangedListener =
@@ -1211,6 +1291,119 @@ public abstract class MediaRouteProviderService extends Service {
                 return createDescriptorBundleForClientVersion(descriptor, mVersion);
             }
 
+            /**
+             * Creates the bundle of the given provider descriptor sent when this client registers.
+             * If the descriptor is too large for one message, returns a bundle telling the client
+             * that it follows in pages, which must be sent with
+             * {@link #sendPendingDescriptorPages()}.
+             */
+            Bundle createRegisteredDescriptorBundle(MediaRouteProviderDescriptor descriptor) {
+                Bundle descriptorBundle =
+                        createDescriptorBundleForClientVersion(descriptor, mVersion);
+                if (mVersion >= CLIENT_VERSION_5) {
+                    mDescriptorSequenceNumber = 0;
+                    mDescriptorTracker.reset(descriptorBundle);
+                }
+                Bundle encodedBundle =
+                        encodeDescriptorBundleForClientVersion(descriptorBundle, mVersion);
+                if (mVersion >= CLIENT_VERSION_6 && descriptorBundle != null) {
+                    mPendingDescriptorPages = MediaRouteProviderDescriptorPages.split(
+                            descriptorBundle, encodedBundle);
+                    if (mPendingDescriptorPages != null) {
+                        return MediaRouteProviderDescriptorPages.createPagesFollowBundle(
+                                mPendingDescriptorPages.size());
+                    }
+                }
+                return encodedBundle;
+            }
+
+            /**
+             * Sends the pages of the descriptor held back by
+             * {@link #createRegisteredDescriptorBundle}, if any.
+             */
+            void sendPendingDescriptorPages() {
+                if (mPendingDescriptorPages != null) {
+                    sendDescriptorPages(mPendingDescriptorPages);
+                    mPendingDescriptorPages = null;
+                }
+            }
+
+            /**
+             * Sends the given provider descriptor to this client. Clients that support descriptor
+             * deltas are only sent the routes that changed since the descriptor sent last, unless
+             * the full descriptor is requested. Clients that support descriptor pages are sent the
+             * descriptors too large for one message in pages.
+             */
+            void sendDescriptorChanged(MediaRouteProviderDescriptor descriptor, boolean full) {
+                Bundle descriptorBundle = createDescriptorBundle(descriptor);
+                if (mVersion < CLIENT_VERSION_5) {
+                    sendMessage(mMessenger, SERVICE_MSG_DESCRIPTOR_CHANGED, 0, 0,
+                            descriptorBundle, null);
+                    return;
+                }
+                Bundle deltaBundle = mDescriptorTracker.update(descriptorBundle);
+                if (!full && deltaBundle != null && deltaBundle.isEmpty()) {
+                    // Nothing changed for this client.
+                    return;
+                }
+                mDescriptorSequenceNumber++;
+                // The pages of a previous descriptor that remain to be sent are superseded.
+                mQueuedDescriptorPages.clear();
+                mDescriptorPagesInFlight = 0;
+                if (mVersion >= CLIENT_VERSION_6
+                        && !MediaRouteProviderDescriptorPages.fitsInMessage(deltaBundle)) {
+                    full = true;
+                }
+                if (!full && deltaBundle != null) {
+                    sendMessage(mMessenger, SERVICE_MSG_DESCRIPTOR_DELTA, 0,
+                            mDescriptorSequenceNumber, deltaBundle, null);
+                    return;
+                }
+                Bundle encodedBundle =
+                        encodeDescriptorBundleForClientVersion(descriptorBundle, mVersion);
+                List<Bundle> pages = null;
+                if (mVersion >= CLIENT_VERSION_6 && descriptorBundle != null) {
+                    pages = MediaRouteProviderDescriptorPages.split(
+                            descriptorBundle, encodedBundle);
+                }
+                if (pages != null) {
+                    sendDescriptorPages(pages);
+                } else {
+                    sendMessage(mMessenger, SERVICE_MSG_DESCRIPTOR_CHANGED, 0,
+                            mDescriptorSequenceNumber, encodedBundle, null);
+                }
+            }
+
+            /**
+             * Called when the client received a page of the descriptor with the given sequence
+             * number, to send the next one.
+             */
+            void onDescriptorPageReceived(int sequenceNumber) {
+                if (sequenceNumber != mDescriptorSequenceNumber || mDescriptorPagesInFlight == 0) {
+                    // A page of a superseded descriptor.
+                    return;
+                }
+                mDescriptorPagesInFlight--;
+                sendQueuedDescriptorPages();
+            }
+
+            private void sendDescriptorPages(List<Bundle> pages) {
+                mQueuedDescriptorPages.clear();
+                mQueuedDescriptorPages.addAll(pages);
+                mDescriptorPagesInFlight = 0;
+                sendQueuedDescriptorPages();
+            }
+
+            private void sendQueuedDescriptorPages() {
+                while (mDescriptorPagesInFlight
+                        < MediaRouteProviderDescriptorPages.MAX_PAGES_IN_FLIGHT
+                        && !mQueuedDescriptorPages.isEmpty()) {
+                    sendMessage(mMessenger, SERVICE_MSG_DESCRIPTOR_PAGE, 0,
+                            mDescriptorSequenceNumber, mQueuedDescriptorPages.poll(), null);
+                    mDescriptorPagesInFlight++;
+                }
+            }
+
             // Runs on a binder thread.
             @Override
             public void binderDied() {
@@ -1552,8 +1745,7 @@ public abstract class MediaRouteProviderService extends Service {
                 MediaRouteProviderDescriptor providerDescriptor =
                         getService().getMediaRouteProvider().getDescriptor();
                 if (providerDescriptor != null) {
-                    sendMessage(mMessenger, SERVICE_MSG_DESCRIPTOR_CHANGED, 0, 0,
-                            createDescriptorBundle(providerDescriptor), null);
+                    sendDescriptorChanged(providerDescriptor, /* full= */ false);
                 }
             }
 
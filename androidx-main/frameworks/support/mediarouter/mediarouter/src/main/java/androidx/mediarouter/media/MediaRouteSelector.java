@@ -49,6 +49,9 @@ public final class MediaRouteSelector {
 
     private final Bundle mBundle;
     List<String> mControlCategories;
+    // The bit set of the control categories, see MediaControlCategoryRegistry. Selectors are
+    // shared across threads, so it is published through a volatile field.
+    private volatile long[] mControlCategoryBits;
 
     /**
      * An empty media route selector that will not match any routes.
@@ -80,6 +83,17 @@ public final class MediaRouteSelector {
         }
     }
 
+    @NonNull
+    long[] getControlCategoryBits() {
+        long[] controlCategoryBits = mControlCategoryBits;
+        if (controlCategoryBits == null) {
+            ensureControlCategories();
+            controlCategoryBits = MediaControlCategoryRegistry.getCategoryBits(mControlCategories);
+            mControlCategoryBits = controlCategoryBits;
+        }
+        return controlCategoryBits;
+    }
+
     /**
      * Returns true if the selector contains the specified category.
      *
@@ -127,6 +141,50 @@ public final class MediaRouteSelector {
         return false;
     }
 
+    /**
+     * Returns true if the selector matches at least one of the given control filters, like
+     * {@link #matchesControlFilters(List)}, comparing their bit set first.
+     *
+     * @param filterCategoryBits The bit set of the categories of the filters.
+     * @see MediaControlCategoryRegistry#getControlFilterCategoryBits
+     */
+    boolean matchesControlFilters(
+            @NonNull long[] filterCategoryBits, @Nullable List<IntentFilter> filters) {
+        long[] categoryBits = getControlCategoryBits();
+        if (MediaControlCategoryRegistry.intersects(categoryBits, filterCategoryBits)) {
+            return true;
+        }
+        return mustMatchByName(categoryBits, filterCategoryBits) && matchesControlFilters(filters);
+    }
+
+    /**
+     * Returns true if the selector has at least one of the given categories, comparing their
+     * bit set first.
+     *
+     * @param otherCategoryBits The bit set of the given categories.
+     */
+    boolean matchesControlCategories(
+            @NonNull long[] otherCategoryBits, @NonNull List<String> categories) {
+        long[] categoryBits = getControlCategoryBits();
+        if (MediaControlCategoryRegistry.intersects(categoryBits, otherCategoryBits)) {
+            return true;
+        }
+        if (mustMatchByName(categoryBits, otherCategoryBits)) {
+            for (int i = 0; i < categories.size(); i++) {
+                if (hasControlCategory(categories.get(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Categories without ids may only match when both sides have some, and are compared by name.
+    private static boolean mustMatchByName(@NonNull long[] bits1, @NonNull long[] bits2) {
+        return MediaControlCategoryRegistry.hasUnregisteredCategories(bits1)
+                && MediaControlCategoryRegistry.hasUnregisteredCategories(bits2);
+    }
+
     /**
      * Returns true if this selector contains all of the capabilities described
      * by the specified selector.
@@ -139,6 +197,14 @@ public final class MediaRouteSelector {
         if (selector == null) {
             return false;
         }
+        long[] otherCategoryBits = selector.getControlCategoryBits();
+        long[] categoryBits = getControlCategoryBits();
+        if (!MediaControlCategoryRegistry.containsAll(categoryBits, otherCategoryBits)) {
+            return false;
+        }
+        if (!MediaControlCategoryRegistry.hasUnregisteredCategories(otherCategoryBits)) {
+            return true;
+        }
         ensureControlCategories();
         selector.ensureControlCategories();
         return mControlCategories.containsAll(selector.mControlCategories);
@@ -57,6 +57,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -201,6 +202,11 @@ public final class MediaRouter {
     // Context-bound state of the media router.
     final Context mContext;
     final ArrayList<CallbackRecord> mCallbackRecords = new ArrayList<>();
+    // Snapshot of mCallbackRecords used for dispatching events, rebuilt when callbacks change.
+    MediaRouterCallbackDispatchTable mCallbackDispatchTable =
+            MediaRouterCallbackDispatchTable.EMPTY;
+    // The contribution of mCallbackRecords to the discovery request.
+    final MediaRouterDiscoveryCounts mDiscoveryCounts = new MediaRouterDiscoveryCounts();
 
     @IntDef(
             flag = true,
@@ -208,7 +214,8 @@ public final class MediaRouter {
                 CALLBACK_FLAG_PERFORM_ACTIVE_SCAN,
                 CALLBACK_FLAG_REQUEST_DISCOVERY,
                 CALLBACK_FLAG_UNFILTERED_EVENTS,
-                CALLBACK_FLAG_FORCE_DISCOVERY
+                CALLBACK_FLAG_FORCE_DISCOVERY,
+                CALLBACK_FLAG_BATCH_ROUTE_CHANGES
             })
     @Retention(RetentionPolicy.SOURCE)
     private @interface CallbackFlags {}
@@ -286,6 +293,21 @@ public final class MediaRouter {
      */
     public static final int CALLBACK_FLAG_FORCE_DISCOVERY = 1 << 3;
 
+    /**
+     * Flag for {@link #addCallback}: Deliver route changes in batches.
+     * <p>
+     * When this flag is specified, {@link Callback#onRouteChanged} is not called for the
+     * callback. Instead, the routes that changed are collected until the pending media router
+     * events have been dispatched, and delivered at once to {@link Callback#onRoutesChanged}.
+     * Several changes to the same route are coalesced into a single entry. This avoids
+     * rebuilding a route list once per route when a provider updates many routes at once.
+     * </p><p>
+     * Other events, such as {@link Callback#onRouteVolumeChanged} or
+     * {@link Callback#onRouteAdded}, are still delivered individually.
+     * </p>
+     */
+    public static final int CALLBACK_FLAG_BATCH_ROUTE_CHANGES = 1 << 4;
+
     /**
      * Flag for {@link #isRouteAvailable}: Ignore the default route.
      * <p>
@@ -400,6 +422,44 @@ public final class MediaRouter {
         return getGlobalRouter().getRoutes();
     }
 
+    /**
+     * Gets a snapshot of the diagnostics counters of the media router, such as the number of route
+     * events and the time spent dispatching them to callbacks.
+     *
+     * <p>Must be called on the main thread.
+     */
+    @MainThread
+    @NonNull
+    public MediaRouterDiagnostics getDiagnostics() {
+        checkCallingThread();
+        return getGlobalRouter().getDiagnostics();
+    }
+
+    /**
+     * Gets an immutable snapshot of the routes, the providers and the selected route currently
+     * known to this media router.
+     *
+     * <p>This method may be called on any thread. Off the main thread, the snapshot is published
+     * shortly after changes, so it may lag behind the media router. Compare its {@link
+     * RouteSnapshot#getVersion() version} with {@link #getRouteSnapshotVersion()} to detect
+     * whether it is stale.
+     */
+    @NonNull
+    public RouteSnapshot getRouteSnapshot() {
+        return getGlobalRouter().getRouteSnapshot();
+    }
+
+    /**
+     * Gets the version of the routes, the providers and the selected route currently known to
+     * this media router. The version increases whenever they change.
+     *
+     * <p>This method may be called on any thread. It is cheaper than {@link #getRouteSnapshot()},
+     * and lets callers holding a snapshot detect whether it is stale.
+     */
+    public long getRouteSnapshotVersion() {
+        return getGlobalRouter().getRouteSnapshotVersion();
+    }
+
     /**
      * Gets information about the {@link MediaRouter.ProviderInfo route providers}
      * currently known to this media router.
@@ -653,6 +713,55 @@ public final class MediaRouter {
         return getGlobalRouter().isRouteAvailable(selector, flags);
     }
 
+    /**
+     * Adds a listener that is notified when the result of {@link #isRouteAvailable} changes for
+     * the specified selector and flags.
+     *
+     * <p>The listener is only called when the availability actually changes, not for every
+     * change of a route. If the listener was already added, its selector and flags are replaced.
+     * The listener must be removed with {@link #removeOnRouteAvailabilityChangedListener} when it
+     * is no longer needed.
+     *
+     * <p>Must be called on the main thread.
+     *
+     * @param selector The selector to match.
+     * @param flags Flags to control the determination of whether a route may be available, as
+     *     for {@link #isRouteAvailable}.
+     * @param listener The listener to add.
+     * @see #isRouteAvailable
+     */
+    @MainThread
+    public void addOnRouteAvailabilityChangedListener(
+            @NonNull MediaRouteSelector selector,
+            int flags,
+            @NonNull OnRouteAvailabilityChangedListener listener) {
+        if (selector == null) {
+            throw new IllegalArgumentException("selector must not be null");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        checkCallingThread();
+        getGlobalRouter().addOnRouteAvailabilityChangedListener(selector, flags, listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addOnRouteAvailabilityChangedListener}.
+     *
+     * <p>Must be called on the main thread.
+     *
+     * @param listener The listener to remove.
+     */
+    @MainThread
+    public void removeOnRouteAvailabilityChangedListener(
+            @NonNull OnRouteAvailabilityChangedListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        checkCallingThread();
+        getGlobalRouter().removeOnRouteAvailabilityChangedListener(listener);
+    }
+
     /**
      * Registers a callback to discover routes that match the selector and to receive events when
      * they change.
@@ -796,18 +905,24 @@ public final class MediaRouter {
                     + ", callback=" + callback + ", flags=" + Integer.toHexString(flags));
         }
 
+        GlobalMediaRouter globalRouter = getGlobalRouter();
         CallbackRecord record;
         int index = findCallbackRecord(callback);
+        boolean dispatchTableUpdateNeeded = false;
         if (index < 0) {
             record = new CallbackRecord(this, callback);
             mCallbackRecords.add(record);
+            dispatchTableUpdateNeeded = true;
         } else {
             record = mCallbackRecords.get(index);
+            // Discount the record before changing it, and count it again afterwards.
+            globalRouter.removeCallbackRecordFromDiscovery(this, record);
         }
         boolean updateNeeded = false;
         if (flags != record.mFlags) {
             record.mFlags = flags;
             updateNeeded = true;
+            dispatchTableUpdateNeeded = true;
         }
         long currentTime = SystemClock.elapsedRealtime();
         if ((flags & CALLBACK_FLAG_PERFORM_ACTIVE_SCAN) != 0) {
@@ -823,9 +938,14 @@ public final class MediaRouter {
                     .addSelector(selector)
                     .build();
             updateNeeded = true;
+            dispatchTableUpdateNeeded = true;
+        }
+        globalRouter.addCallbackRecordToDiscovery(this, record);
+        if (dispatchTableUpdateNeeded) {
+            mCallbackDispatchTable = MediaRouterCallbackDispatchTable.create(mCallbackRecords);
         }
         if (updateNeeded) {
-            getGlobalRouter().updateDiscoveryRequest();
+            globalRouter.updateDiscoveryRequest();
         }
     }
 
@@ -851,8 +971,11 @@ public final class MediaRouter {
 
         int index = findCallbackRecord(callback);
         if (index >= 0) {
-            mCallbackRecords.remove(index);
-            getGlobalRouter().updateDiscoveryRequest();
+            CallbackRecord record = mCallbackRecords.remove(index);
+            mCallbackDispatchTable = MediaRouterCallbackDispatchTable.create(mCallbackRecords);
+            GlobalMediaRouter globalRouter = getGlobalRouter();
+            globalRouter.removeCallbackRecordFromDiscovery(this, record);
+            globalRouter.updateDiscoveryRequest();
         }
     }
 
@@ -877,6 +1000,33 @@ public final class MediaRouter {
         getGlobalRouter().mOnPrepareTransferListener = listener;
     }
 
+    /**
+     * Enables or disables the slow callback watchdog.
+     *
+     * <p>When enabled, each invocation of a {@link Callback} method is timed against the given
+     * budget. Invocations exceeding it are logged with the class name of the callback and the
+     * invoked method, counted in the {@link MediaRouterDiagnostics.CallbackStats callback stats}
+     * of {@link #getDiagnostics()}, and reported to the listener, if any. This helps finding the
+     * callbacks that delay the dispatch of route events to the other callbacks.
+     *
+     * <p>The watchdog applies to the callbacks of all media routers of the application. Must be
+     * called on the main thread.
+     *
+     * @param budgetMillis The maximum time a callback method may take, in milliseconds, or zero to
+     *     disable the watchdog.
+     * @param listener The listener notified of slow callback invocations, or null to only log
+     *     them.
+     */
+    @MainThread
+    public void setSlowCallbackWatchdog(
+            long budgetMillis, @Nullable OnSlowCallbackListener listener) {
+        checkCallingThread();
+        if (budgetMillis < 0) {
+            throw new IllegalArgumentException("budgetMillis must not be negative");
+        }
+        getGlobalRouter().setSlowCallbackWatchdog(budgetMillis, listener);
+    }
+
     /**
      * Registers a media route provider within this application process.
      * <p>
@@ -1150,7 +1300,13 @@ public final class MediaRouter {
         private final boolean mIsSystemRoute;
         private @ConnectionState int mConnectionState;
         private boolean mCanDisconnect;
-        private final ArrayList<IntentFilter> mControlFilters = new ArrayList<>();
+        // Shared by the routes with the same control filters, see MediaRouterInternPool.
+        private List<IntentFilter> mControlFilters = Collections.emptyList();
+        // The copies of mControlFilters handed out to callers, built on first use.
+        @Nullable
+        private List<IntentFilter> mPublicControlFilters;
+        // The bit set of the categories of mControlFilters, see MediaControlCategoryRegistry.
+        private long[] mControlCategoryBits = new long[0];
         private int mPlaybackType;
         private int mPlaybackStream;
         private @DeviceType int mDeviceType;
@@ -1162,6 +1318,8 @@ public final class MediaRouter {
         private Bundle mExtras;
         private IntentSender mSettingsIntent;
         MediaRouteDescriptor mDescriptor;
+        // The volume requests being coalesced for the route, if any.
+        MediaRouterVolumePipeline.Request mVolumeRequest;
 
         @RestrictTo(LIBRARY)
         @NonNull
@@ -1637,6 +1795,21 @@ public final class MediaRouter {
             return getGlobalRouter().getSelectedRoute() == this;
         }
 
+        /**
+         * Returns true if this route was restored from the route cache when the media router
+         * started, and its route provider has not published its routes yet. Stale routes may no
+         * longer be available.
+         *
+         * <p>Must be called on the main thread.
+         *
+         * @see MediaRouterParams.Builder#setRouteCacheEnabled(boolean)
+         */
+        @MainThread
+        public boolean isStale() {
+            checkCallingThread();
+            return mProvider.mStale;
+        }
+
         /**
          * Returns true if this route is the default route.
          *
@@ -1682,14 +1855,34 @@ public final class MediaRouter {
          * describe the capabilities of this route and the media control actions that
          * it supports.
          *
-         * @return A list of intent filters that specifies the media control intents that
-         * this route supports.
+         * @return An unmodifiable list of intent filters that specifies the media control
+         * intents that this route supports.
          * @see MediaControlIntent
          * @see #supportsControlCategory
          * @see #supportsControlRequest
          */
         @NonNull
         public List<IntentFilter> getControlFilters() {
+            // The filters are shared with other routes, so callers get copies of them. The
+            // copies are made once per change of the filters rather than on every call.
+            List<IntentFilter> controlFilters = mPublicControlFilters;
+            if (controlFilters == null) {
+                controlFilters = new ArrayList<>(mControlFilters.size());
+                for (IntentFilter filter : mControlFilters) {
+                    controlFilters.add(filter != null ? new IntentFilter(filter) : null);
+                }
+                controlFilters = Collections.unmodifiableList(controlFilters);
+                mPublicControlFilters = controlFilters;
+            }
+            return controlFilters;
+        }
+
+        /**
+         * Gets the control filters without copying them. The returned list and filters are
+         * shared with other routes and must not be modified.
+         */
+        @NonNull
+        List<IntentFilter> getControlFiltersInternal() {
             return mControlFilters;
         }
 
@@ -1709,7 +1902,7 @@ public final class MediaRouter {
                 throw new IllegalArgumentException("selector must not be null");
             }
             checkCallingThread();
-            return selector.matchesControlFilters(mControlFilters);
+            return selector.matchesControlFilters(mControlCategoryBits, mControlFilters);
         }
 
         /**
@@ -2202,14 +2395,52 @@ public final class MediaRouter {
             return sb.toString();
         }
 
+        /**
+         * Shows the given volume before the provider reports it.
+         *
+         * @return Whether the volume changed.
+         */
+        boolean setVolumeLocally(int volume) {
+            if (mVolume == volume) {
+                return false;
+            }
+            mVolume = volume;
+            return true;
+        }
+
         int maybeUpdateDescriptor(MediaRouteDescriptor descriptor) {
             int changes = 0;
-            if (mDescriptor != descriptor) {
+            if (mDescriptor != descriptor && !maybeAdoptUnchangedDescriptor(descriptor)) {
                 changes = updateDescriptor(descriptor);
             }
             return changes;
         }
 
+        /**
+         * Takes the given descriptor without comparing it field by field if its content
+         * fingerprint matches the one of the current descriptor.
+         *
+         * <p>Descriptors of groups are never taken this way since their member routes need to be
+         * resolved again against the current routes.
+         *
+         * @return Whether the descriptor was taken, in which case the route has not changed.
+         */
+        boolean maybeAdoptUnchangedDescriptor(@Nullable MediaRouteDescriptor descriptor) {
+            if (mDescriptor == null
+                    || descriptor == null
+                    || descriptor.hasGroupMemberIds()
+                    || !mSelectedRoutesInGroup.isEmpty()) {
+                return false;
+            }
+            long fingerprint = descriptor.getContentFingerprint();
+            if (fingerprint == MediaRouteDescriptor.FINGERPRINT_NONE
+                    || fingerprint != mDescriptor.getContentFingerprint()) {
+                return false;
+            }
+            mDescriptor = descriptor;
+            return true;
+        }
+
         private boolean isSameControlFilters(List<IntentFilter> filters1,
                 List<IntentFilter> filters2) {
             if (filters1 == filters2) {
@@ -2284,9 +2515,14 @@ public final class MediaRouter {
                     changes |= CHANGE_GENERAL;
                 }
                 // Use custom method to compare two control filters to confirm it is changed.
-                if (!isSameControlFilters(mControlFilters, descriptor.getControlFilters())) {
-                    mControlFilters.clear();
-                    mControlFilters.addAll(descriptor.getControlFilters());
+                List<IntentFilter> controlFilters = descriptor.getControlFiltersInternal();
+                if (!isSameControlFilters(mControlFilters, controlFilters)) {
+                    mControlFilters = MediaRouterInternPool.getInstance()
+                            .internControlFilters(controlFilters);
+                    mPublicControlFilters = null;
+                    mControlCategoryBits =
+                            MediaControlCategoryRegistry.getControlFilterCategoryBits(
+                                    mControlFilters);
                     changes |= CHANGE_GENERAL;
                 }
                 if (mPlaybackType != descriptor.getPlaybackType()) {
@@ -2305,8 +2541,11 @@ public final class MediaRouter {
                     mVolumeHandling = descriptor.getVolumeHandling();
                     changes |= CHANGE_GENERAL | CHANGE_VOLUME;
                 }
-                if (mVolume != descriptor.getVolume()) {
-                    mVolume = descriptor.getVolume();
+                // Volumes reported while volume requests are in flight may be stale.
+                int volume = MediaRouterVolumePipeline.filterReportedVolume(
+                        this, descriptor.getVolume());
+                if (mVolume != volume) {
+                    mVolume = volume;
                     changes |= CHANGE_GENERAL | CHANGE_VOLUME;
                 }
                 if (mVolumeMax != descriptor.getVolumeMax()) {
@@ -2683,7 +2922,13 @@ public final class MediaRouter {
         // Package private fields to avoid use of a synthetic accessor.
         final MediaRouteProvider mProviderInstance;
         final List<RouteInfo> mRoutes = new ArrayList<>();
+        // Indexes mRoutes by route descriptor id. Must be kept in sync with mRoutes.
+        final Map<String, RouteInfo> mDescriptorIdToRouteMap = new HashMap<>();
         final boolean mTreatRouteDescriptorIdsAsUnique;
+        // The number of descriptors published by the provider, reported by MediaRouterDiagnostics.
+        int mDescriptorUpdateCount;
+        // Whether the routes were restored from the route cache and not published by the provider.
+        boolean mStale;
 
         private final ProviderMetadata mMetadata;
         private MediaRouteProviderDescriptor mDescriptor;
@@ -2742,23 +2987,18 @@ public final class MediaRouter {
             return false;
         }
 
-        int findRouteIndexByDescriptorId(String id) {
-            final int count = mRoutes.size();
-            for (int i = 0; i < count; i++) {
-                if (mRoutes.get(i).mDescriptorId.equals(id)) {
-                    return i;
-                }
-            }
-            return -1;
+        void addRoute(RouteInfo route) {
+            mRoutes.add(route);
+            mDescriptorIdToRouteMap.put(route.mDescriptorId, route);
+        }
+
+        void clearRoutes() {
+            mRoutes.clear();
+            mDescriptorIdToRouteMap.clear();
         }
 
         RouteInfo findRouteByDescriptorId(String id) {
-            for (RouteInfo route : mRoutes) {
-                if (route.mDescriptorId.equals(id)) {
-                    return route;
-                }
-            }
-            return null;
+            return mDescriptorIdToRouteMap.get(id);
         }
 
         boolean supportsDynamicGroup() {
@@ -2772,6 +3012,155 @@ public final class MediaRouter {
         }
     }
 
+    /**
+     * An immutable snapshot of the routes, the providers and the selected route known to the
+     * media router.
+     *
+     * <p>Unlike {@link MediaRouter#getRoutes()}, a snapshot may be obtained and read from any
+     * thread. Instead of the {@link RouteInfo} and {@link ProviderInfo} objects of the media
+     * router, which change on the main thread, it holds {@link RouteState immutable copies} of the
+     * state of the routes, and the component names of the providers.
+     *
+     * @see MediaRouter#getRouteSnapshot()
+     */
+    public static final class RouteSnapshot {
+        private final long mVersion;
+        private final List<RouteState> mRoutes;
+        private final List<ComponentName> mProviderComponentNames;
+        @Nullable
+        private final String mSelectedRouteId;
+
+        @MainThread
+        RouteSnapshot(
+                long version,
+                @NonNull List<RouteInfo> routes,
+                @NonNull List<ProviderInfo> providers,
+                @Nullable RouteInfo selectedRoute) {
+            mVersion = version;
+            List<RouteState> routeStates = new ArrayList<>(routes.size());
+            for (int i = 0; i < routes.size(); i++) {
+                routeStates.add(new RouteState(routes.get(i)));
+            }
+            mRoutes = Collections.unmodifiableList(routeStates);
+            List<ComponentName> providerComponentNames = new ArrayList<>(providers.size());
+            for (int i = 0; i < providers.size(); i++) {
+                providerComponentNames.add(providers.get(i).getComponentName());
+            }
+            mProviderComponentNames = Collections.unmodifiableList(providerComponentNames);
+            mSelectedRouteId = selectedRoute != null ? selectedRoute.getId() : null;
+        }
+
+        /**
+         * Gets the version of the snapshot. The version increases whenever routes or providers are
+         * added, changed or removed, or the selected route changes.
+         *
+         * @see MediaRouter#getRouteSnapshotVersion()
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+
+        /** Gets the state of the routes known to the media router. */
+        @NonNull
+        public List<RouteState> getRoutes() {
+            return mRoutes;
+        }
+
+        /** Gets the component names of the route providers known to the media router. */
+        @NonNull
+        public List<ComponentName> getProviderComponentNames() {
+            return mProviderComponentNames;
+        }
+
+        /**
+         * Gets the {@link RouteInfo#getId() unique id} of the selected route, or null if no route
+         * has been selected yet.
+         */
+        @Nullable
+        public String getSelectedRouteId() {
+            return mSelectedRouteId;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "MediaRouter.RouteSnapshot{ version=" + mVersion
+                    + ", routes=" + mRoutes.size()
+                    + ", providers=" + mProviderComponentNames.size()
+                    + ", selectedRouteId=" + mSelectedRouteId + " }";
+        }
+
+        /** The immutable state of a route at the time a {@link RouteSnapshot} was taken. */
+        public static final class RouteState {
+            private final String mId;
+            private final String mName;
+            @Nullable
+            private final String mDescription;
+            private final @RouteInfo.ConnectionState int mConnectionState;
+            private final ComponentName mProviderComponentName;
+            @Nullable
+            private final MediaRouteDescriptor mDescriptor;
+
+            @MainThread
+            RouteState(@NonNull RouteInfo route) {
+                mId = route.getId();
+                mName = route.getName();
+                mDescription = route.getDescription();
+                mConnectionState = route.getConnectionState();
+                mProviderComponentName = route.getProvider().getComponentName();
+                mDescriptor = route.mDescriptor;
+            }
+
+            /** Gets the {@link RouteInfo#getId() unique id} of the route. */
+            @NonNull
+            public String getId() {
+                return mId;
+            }
+
+            /** Gets the user-visible name of the route. */
+            @NonNull
+            public String getName() {
+                return mName;
+            }
+
+            /** Gets the user-visible description of the route, or null if none. */
+            @Nullable
+            public String getDescription() {
+                return mDescription;
+            }
+
+            /**
+             * Gets the connection state of the route.
+             *
+             * @see RouteInfo#getConnectionState()
+             */
+            @RouteInfo.ConnectionState
+            public int getConnectionState() {
+                return mConnectionState;
+            }
+
+            /** Gets the component name of the provider of the route. */
+            @NonNull
+            public ComponentName getProviderComponentName() {
+                return mProviderComponentName;
+            }
+
+            /** Gets the descriptor the route was last updated from, or null if it has none. */
+            @Nullable
+            public MediaRouteDescriptor getDescriptor() {
+                return mDescriptor;
+            }
+
+            @NonNull
+            @Override
+            public String toString() {
+                return "MediaRouter.RouteSnapshot.RouteState{ id=" + mId
+                        + ", name=" + mName
+                        + ", connectionState=" + mConnectionState + " }";
+            }
+        }
+    }
+
     /**
      * Interface for receiving events about media routing changes.
      * All methods of this interface will be called from the application's main thread.
@@ -2938,6 +3327,19 @@ public final class MediaRouter {
          */
         public void onRouteChanged(@NonNull MediaRouter router, @NonNull RouteInfo route) {}
 
+        /**
+         * Called with the routes that changed since the last call, instead of {@link
+         * #onRouteChanged}, when the callback was added with {@link
+         * MediaRouter#CALLBACK_FLAG_BATCH_ROUTE_CHANGES}.
+         *
+         * <p>Each route appears at most once, in the order in which it first changed. Routes that
+         * were removed before the batch was delivered are omitted.
+         *
+         * @param router The media router reporting the event.
+         * @param routes The routes that were changed, never empty.
+         */
+        public void onRoutesChanged(@NonNull MediaRouter router, @NonNull List<RouteInfo> routes) {}
+
         /**
          * Called when a media route's volume changes.
          *
@@ -2991,6 +3393,41 @@ public final class MediaRouter {
                 @NonNull MediaRouter router, @Nullable MediaRouterParams params) {}
     }
 
+    /**
+     * Listener for receiving events when the availability of routes matching a selector changes.
+     *
+     * @see #addOnRouteAvailabilityChangedListener
+     */
+    public interface OnRouteAvailabilityChangedListener {
+        /**
+         * Called on the main thread when the result of {@link #isRouteAvailable} changes for the
+         * selector and flags the listener was added with.
+         *
+         * @param available The new result of {@link #isRouteAvailable}.
+         */
+        @MainThread
+        void onRouteAvailabilityChanged(boolean available);
+    }
+
+    /**
+     * Listener for receiving invocations of {@link Callback} methods that exceeded the budget of
+     * the slow callback watchdog.
+     *
+     * @see #setSlowCallbackWatchdog
+     */
+    public interface OnSlowCallbackListener {
+        /**
+         * Called on the main thread after a callback method exceeded the budget.
+         *
+         * @param callback The callback whose method was slow.
+         * @param methodName The name of the callback method, such as {@code "onRouteChanged"}.
+         * @param executionTimeMillis The time spent in the callback method, in milliseconds.
+         */
+        @MainThread
+        void onSlowCallback(
+                @NonNull Callback callback, @NonNull String methodName, long executionTimeMillis);
+    }
+
     /**
      * Listener for receiving events when the selected route is about to be changed.
      *
@@ -3054,6 +3491,14 @@ public final class MediaRouter {
         public MediaRouteSelector mSelector;
         public int mFlags;
         public long mTimestamp;
+        // Used by the callback handler to mark the callbacks matching an event, so that they are
+        // invoked once and in the order they were added.
+        int mDispatchGeneration;
+        // Execution time statistics reported by MediaRouterDiagnostics.
+        long mInvocationCount;
+        long mTotalExecutionTimeNanos;
+        long mMaxExecutionTimeNanos;
+        long mSlowInvocationCount;
 
         public CallbackRecord(MediaRouter router, Callback callback) {
             mRouter = router;
@@ -3188,6 +3633,7 @@ public final class MediaRouter {
                 router.mSelectedRouteController.onUnselect(mReason);
                 router.mSelectedRouteController.onRelease();
             }
+            MediaRouterVolumePipeline.cancelRequest(mFromRoute);
             // Release member route controllers
             if (!router.mRouteControllerMap.isEmpty()) {
                 for (RouteController controller : router.mRouteControllerMap.values()) {
@@ -133,7 +133,7 @@ class MediaRouter2Utils {
                 .setVolumeHandling(descriptor.getVolumeHandling())
                 .setVolume(descriptor.getVolume())
                 .setVolumeMax(descriptor.getVolumeMax())
-                .addFeatures(toFeatures(descriptor.getControlFilters()))
+                .addFeatures(toFeatures(descriptor.getControlFiltersInternal()))
                 .setIconUri(descriptor.getIconUri())
                 //TODO: set client package name
                 //.setClientPackageName(clientMap.get(device.getDeviceId()))
@@ -162,14 +162,14 @@ class MediaRouter2Utils {
         Bundle extras = new Bundle();
         extras.putBundle(KEY_EXTRAS, descriptor.getExtras());
         extras.putParcelableArrayList(KEY_CONTROL_FILTERS,
-                new ArrayList<>(descriptor.getControlFilters()));
+                new ArrayList<>(descriptor.getControlFiltersInternal()));
         extras.putInt(KEY_DEVICE_TYPE, descriptor.getDeviceType());
         extras.putInt(KEY_PLAYBACK_TYPE, descriptor.getPlaybackType());
         extras.putString(KEY_ORIGINAL_ROUTE_ID, descriptor.getId());
         builder.setExtras(extras);
 
         // This is a workaround for preventing IllegalArgumentException in MediaRoute2Info.
-        if (descriptor.getControlFilters().isEmpty()) {
+        if (descriptor.getControlFiltersInternal().isEmpty()) {
             builder.addFeature(FEATURE_EMPTY);
         }
 
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.core.util.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the routes that match each (selector, flags) pair queried through {@link
+ * GlobalMediaRouter#isRouteAvailable}, and keeps them up to date as routes are added, changed or
+ * removed, so that repeated availability checks don't iterate all routes.
+ *
+ * <p>Also notifies {@link MediaRouter.OnRouteAvailabilityChangedListener listeners} when the
+ * availability for their selector and flags changes.
+ */
+class MediaRouterAvailabilityCache {
+    // Entries without listeners are evicted, least recently used first, beyond this count.
+    private static final int MAX_UNOBSERVED_ENTRIES = 16;
+
+    private final GlobalMediaRouter mGlobalRouter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNotifyListenersRunnable = this::notifyListeners;
+    // In access order, so that the least recently queried entries are evicted first.
+    private final LinkedHashMap<Pair<MediaRouteSelector, Integer>, Entry> mEntries =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+    private final Map<MediaRouter.OnRouteAvailabilityChangedListener, ListenerRecord> mListeners =
+            new HashMap<>();
+    private int mUnobservedEntryCount;
+    private boolean mNotifyListenersScheduled;
+
+    MediaRouterAvailabilityCache(@NonNull GlobalMediaRouter globalRouter) {
+        mGlobalRouter = globalRouter;
+    }
+
+    /** Returns whether any route currently matches the given selector and flags. */
+    public boolean hasMatchingRoute(@NonNull MediaRouteSelector selector, int flags) {
+        return !getOrCreateEntry(selector, flags).mMatchingRoutes.isEmpty();
+    }
+
+    /**
+     * Adds a listener that is notified when the availability for the given selector and flags
+     * changes. If the listener was already added, its selector and flags are replaced.
+     */
+    public void addListener(
+            @NonNull MediaRouteSelector selector,
+            int flags,
+            @NonNull MediaRouter.OnRouteAvailabilityChangedListener listener) {
+        removeListener(listener);
+        Entry entry = getOrCreateEntry(selector, flags);
+        if (entry.mListenerCount++ == 0) {
+            mUnobservedEntryCount--;
+        }
+        mListeners.put(
+                listener,
+                new ListenerRecord(entry, mGlobalRouter.isRouteAvailable(selector, flags)));
+    }
+
+    /** Removes a listener added with {@link #addListener}. */
+    public void removeListener(@NonNull MediaRouter.OnRouteAvailabilityChangedListener listener) {
+        ListenerRecord record = mListeners.remove(listener);
+        if (record == null) {
+            return;
+        }
+        if (--record.mEntry.mListenerCount == 0) {
+            mUnobservedEntryCount++;
+            trimUnobservedEntries();
+        }
+    }
+
+    /** Called after a route was added and its descriptor was set. */
+    public void onRouteAdded(@NonNull MediaRouter.RouteInfo route) {
+        onRouteChanged(route);
+    }
+
+    /**
+     * Called after the descriptor of a route changed, or after a change of the route affecting
+     * whether it is the default route.
+     */
+    public void onRouteChanged(@NonNull MediaRouter.RouteInfo route) {
+        for (Entry entry : mEntries.values()) {
+            boolean wasAvailable = !entry.mMatchingRoutes.isEmpty();
+            if (mGlobalRouter.isRouteCountedAsAvailable(route, entry.mSelector, entry.mFlags)) {
+                entry.mMatchingRoutes.add(route);
+            } else {
+                entry.mMatchingRoutes.remove(route);
+            }
+            maybeScheduleNotifyListeners(entry, wasAvailable);
+        }
+    }
+
+    /** Called after a route was removed. */
+    public void onRouteRemoved(@NonNull MediaRouter.RouteInfo route) {
+        for (Entry entry : mEntries.values()) {
+            boolean wasAvailable = !entry.mMatchingRoutes.isEmpty();
+            entry.mMatchingRoutes.remove(route);
+            maybeScheduleNotifyListeners(entry, wasAvailable);
+        }
+    }
+
+    /**
+     * Recomputes all entries. Called when a change of the router affects which routes are
+     * counted, such as a change of the router params.
+     */
+    public void invalidate() {
+        for (Entry entry : mEntries.values()) {
+            boolean wasAvailable = !entry.mMatchingRoutes.isEmpty();
+            computeMatchingRoutes(entry);
+            maybeScheduleNotifyListeners(entry, wasAvailable);
+        }
+        // Availability may also depend on state that is not tracked per route.
+        if (!mListeners.isEmpty()) {
+            scheduleNotifyListeners();
+        }
+    }
+
+    /** Removes all entries and listeners. */
+    public void reset() {
+        mEntries.clear();
+        mListeners.clear();
+        mUnobservedEntryCount = 0;
+        mNotifyListenersScheduled = false;
+        mHandler.removeCallbacks(mNotifyListenersRunnable);
+    }
+
+    private Entry getOrCreateEntry(MediaRouteSelector selector, int flags) {
+        Pair<MediaRouteSelector, Integer> key = new Pair<>(selector, flags);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(selector, flags);
+            computeMatchingRoutes(entry);
+            mEntries.put(key, entry);
+            mUnobservedEntryCount++;
+            trimUnobservedEntries();
+        }
+        return entry;
+    }
+
+    private void computeMatchingRoutes(Entry entry) {
+        entry.mMatchingRoutes.clear();
+        for (MediaRouter.RouteInfo route : mGlobalRouter.getRoutes()) {
+            if (mGlobalRouter.isRouteCountedAsAvailable(route, entry.mSelector, entry.mFlags)) {
+                entry.mMatchingRoutes.add(route);
+            }
+        }
+    }
+
+    private void trimUnobservedEntries() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mUnobservedEntryCount > MAX_UNOBSERVED_ENTRIES && iterator.hasNext()) {
+            if (iterator.next().mListenerCount == 0) {
+                iterator.remove();
+                mUnobservedEntryCount--;
+            }
+        }
+    }
+
+    private void maybeScheduleNotifyListeners(Entry entry, boolean wasAvailable) {
+        if (entry.mListenerCount > 0 && wasAvailable == entry.mMatchingRoutes.isEmpty()) {
+            scheduleNotifyListeners();
+        }
+    }
+
+    private void scheduleNotifyListeners() {
+        // Notify listeners after the current update, so that they observe a consistent state and
+        // so that several flips within the same update are coalesced.
+        if (!mNotifyListenersScheduled) {
+            mNotifyListenersScheduled = true;
+            mHandler.post(mNotifyListenersRunnable);
+        }
+    }
+
+    private void notifyListeners() {
+        mNotifyListenersScheduled = false;
+        List<Map.Entry<MediaRouter.OnRouteAvailabilityChangedListener, ListenerRecord>> listeners =
+                new ArrayList<>(mListeners.entrySet());
+        for (Map.Entry<MediaRouter.OnRouteAvailabilityChangedListener, ListenerRecord> listener :
+                listeners) {
+            ListenerRecord record = listener.getValue();
+            if (mListeners.get(listener.getKey()) != record) {
+                // Removed or replaced by a previously notified listener.
+                continue;
+            }
+            boolean available =
+                    mGlobalRouter.isRouteAvailable(record.mEntry.mSelector, record.mEntry.mFlags);
+            if (available != record.mLastReportedAvailable) {
+                record.mLastReportedAvailable = available;
+                listener.getKey().onRouteAvailabilityChanged(available);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final MediaRouteSelector mSelector;
+        final int mFlags;
+        final Set<MediaRouter.RouteInfo> mMatchingRoutes = new HashSet<>();
+        int mListenerCount;
+
+        Entry(MediaRouteSelector selector, int flags) {
+            mSelector = selector;
+            mFlags = flags;
+        }
+    }
+
+    private static final class ListenerRecord {
+        final Entry mEntry;
+        boolean mLastReportedAvailable;
+
+        ListenerRecord(Entry entry, boolean available) {
+            mEntry = entry;
+            mLastReportedAvailable = available;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the callbacks of a {@link MediaRouter}, indexed by the control categories
+ * of their selectors.
+ *
+ * <p>A route matches a selector if any of the route's control filters has any of the selector's
+ * categories, so the callbacks that may receive an event of a route are the ones registered under
+ * the categories of the route's control filters, plus the ones that requested unfiltered events.
+ * The table is rebuilt whenever a callback is added, updated or removed, so that it can be read
+ * during dispatch without copying.
+ */
+final class MediaRouterCallbackDispatchTable {
+    private static final MediaRouter.CallbackRecord[] EMPTY_RECORDS =
+            new MediaRouter.CallbackRecord[0];
+
+    static final MediaRouterCallbackDispatchTable EMPTY =
+            new MediaRouterCallbackDispatchTable(
+                    EMPTY_RECORDS,
+                    EMPTY_RECORDS,
+                    Collections.<String, MediaRouter.CallbackRecord[]>emptyMap());
+
+    private final MediaRouter.CallbackRecord[] mAllRecords;
+    private final MediaRouter.CallbackRecord[] mUnfilteredRecords;
+    private final Map<String, MediaRouter.CallbackRecord[]> mRecordsByCategory;
+
+    private MediaRouterCallbackDispatchTable(
+            MediaRouter.CallbackRecord[] allRecords,
+            MediaRouter.CallbackRecord[] unfilteredRecords,
+            Map<String, MediaRouter.CallbackRecord[]> recordsByCategory) {
+        mAllRecords = allRecords;
+        mUnfilteredRecords = unfilteredRecords;
+        mRecordsByCategory = recordsByCategory;
+    }
+
+    /** Creates a table from the given callback records, keeping their order. */
+    @NonNull
+    static MediaRouterCallbackDispatchTable create(
+            @NonNull List<MediaRouter.CallbackRecord> records) {
+        if (records.isEmpty()) {
+            return EMPTY;
+        }
+        List<MediaRouter.CallbackRecord> unfilteredRecords = new ArrayList<>();
+        Map<String, List<MediaRouter.CallbackRecord>> recordsByCategory = new HashMap<>();
+        for (MediaRouter.CallbackRecord record : records) {
+            if ((record.mFlags & MediaRouter.CALLBACK_FLAG_UNFILTERED_EVENTS) != 0) {
+                unfilteredRecords.add(record);
+                continue;
+            }
+            for (String category : record.mSelector.getControlCategories()) {
+                List<MediaRouter.CallbackRecord> categoryRecords = recordsByCategory.get(category);
+                if (categoryRecords == null) {
+                    categoryRecords = new ArrayList<>();
+                    recordsByCategory.put(category, categoryRecords);
+                }
+                categoryRecords.add(record);
+            }
+        }
+
+        Map<String, MediaRouter.CallbackRecord[]> recordArraysByCategory =
+                new HashMap<>(recordsByCategory.size());
+        for (Map.Entry<String, List<MediaRouter.CallbackRecord>> entry :
+                recordsByCategory.entrySet()) {
+            recordArraysByCategory.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return new MediaRouterCallbackDispatchTable(
+                toArray(records), toArray(unfilteredRecords), recordArraysByCategory);
+    }
+
+    /** Returns all callback records, in the order they were added. */
+    @NonNull
+    MediaRouter.CallbackRecord[] getAllRecords() {
+        return mAllRecords;
+    }
+
+    /** Returns the callback records that receive events of all routes. */
+    @NonNull
+    MediaRouter.CallbackRecord[] getUnfilteredRecords() {
+        return mUnfilteredRecords;
+    }
+
+    /**
+     * Returns the callback records whose selector has the given control category, or null if
+     * there are none.
+     */
+    @Nullable
+    MediaRouter.CallbackRecord[] getRecordsForCategory(@NonNull String category) {
+        return mRecordsByCategory.get(category);
+    }
+
+    private static MediaRouter.CallbackRecord[] toArray(List<MediaRouter.CallbackRecord> records) {
+        return records.isEmpty()
+                ? EMPTY_RECORDS
+                : records.toArray(new MediaRouter.CallbackRecord[records.size()]);
+    }
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.annotation.RestrictTo.Scope.LIBRARY;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the diagnostics counters of the media router, obtained with {@link
+ * MediaRouter#getDiagnostics()}.
+ *
+ * <p>The counters are accumulated since the media router was created. They are meant to help
+ * investigating slow route discovery or unresponsive route UIs, and can be written to a bug report
+ * with {@link #dump(PrintWriter)}.
+ *
+ * <p>Histograms are reported as arrays of counts with one more element than their bucket bounds.
+ * The count at index {@code i} is the number of values that are less than the bound at index
+ * {@code i} and not less than the bound at index {@code i - 1}. The last count is the number of
+ * values that are not less than the last bound.
+ */
+public final class MediaRouterDiagnostics {
+    private final Map<String, Integer> mDescriptorUpdateCounts;
+    private final Map<String, Long> mProviderTimeToFirstRouteMillis;
+    private final long mRouteAddedCount;
+    private final long mRouteChangedCount;
+    private final long mRouteRemovedCount;
+    private final long mTouchedRouteCount;
+    private final long mSkippedRouteCount;
+    private final long mDiscoveryRequestChangeCount;
+    private final long mDispatchedMessageCount;
+    private final int mCallbackQueueDepth;
+    private final int mMaxCallbackQueueDepth;
+    private final long[] mDispatchLatencyBucketBoundsMillis;
+    private final long[] mDispatchLatencyHistogram;
+    private final long[] mCallbackExecutionTimeBucketBoundsMicros;
+    private final long[] mCallbackExecutionTimeHistogram;
+    private final List<CallbackStats> mCallbackStats;
+    private final List<RouteSelectionTrace> mRouteSelectionTraces;
+    private final int mInternedValueCount;
+    private final long mDeduplicatedValueCount;
+    private final long mControlRequestTimeoutCount;
+    private final int mControlRequestQueueDepth;
+    private final int mMaxControlRequestQueueDepth;
+    private final long mProviderConnectionLossCount;
+    private final long mProviderQuarantineCount;
+    private final List<String> mQuarantinedProviders;
+
+    private MediaRouterDiagnostics(@NonNull Builder builder) {
+        mDescriptorUpdateCounts =
+                Collections.unmodifiableMap(new LinkedHashMap<>(builder.mDescriptorUpdateCounts));
+        mProviderTimeToFirstRouteMillis = Collections.unmodifiableMap(
+                new LinkedHashMap<>(builder.mProviderTimeToFirstRouteMillis));
+        mRouteAddedCount = builder.mRouteAddedCount;
+        mRouteChangedCount = builder.mRouteChangedCount;
+        mRouteRemovedCount = builder.mRouteRemovedCount;
+        mTouchedRouteCount = builder.mTouchedRouteCount;
+        mSkippedRouteCount = builder.mSkippedRouteCount;
+        mDiscoveryRequestChangeCount = builder.mDiscoveryRequestChangeCount;
+        mDispatchedMessageCount = builder.mDispatchedMessageCount;
+        mCallbackQueueDepth = builder.mCallbackQueueDepth;
+        mMaxCallbackQueueDepth = builder.mMaxCallbackQueueDepth;
+        mDispatchLatencyBucketBoundsMillis = builder.mDispatchLatencyBucketBoundsMillis.clone();
+        mDispatchLatencyHistogram = builder.mDispatchLatencyHistogram.clone();
+        mCallbackExecutionTimeBucketBoundsMicros =
+                builder.mCallbackExecutionTimeBucketBoundsMicros.clone();
+        mCallbackExecutionTimeHistogram = builder.mCallbackExecutionTimeHistogram.clone();
+        mCallbackStats = Collections.unmodifiableList(new ArrayList<>(builder.mCallbackStats));
+        mRouteSelectionTraces =
+                Collections.unmodifiableList(new ArrayList<>(builder.mRouteSelectionTraces));
+        mInternedValueCount = builder.mInternedValueCount;
+        mDeduplicatedValueCount = builder.mDeduplicatedValueCount;
+        mControlRequestTimeoutCount = builder.mControlRequestTimeoutCount;
+        mControlRequestQueueDepth = builder.mControlRequestQueueDepth;
+        mMaxControlRequestQueueDepth = builder.mMaxControlRequestQueueDepth;
+        mProviderConnectionLossCount = builder.mProviderConnectionLossCount;
+        mProviderQuarantineCount = builder.mProviderQuarantineCount;
+        mQuarantinedProviders =
+                Collections.unmodifiableList(new ArrayList<>(builder.mQuarantinedProviders));
+    }
+
+    /**
+     * Gets the number of descriptors published by each route provider currently known to the
+     * media router, keyed by the flattened component name of the provider.
+     */
+    @NonNull
+    public Map<String, Integer> getDescriptorUpdateCounts() {
+        return mDescriptorUpdateCounts;
+    }
+
+    /**
+     * Gets the time registered route provider services took to publish their first route since
+     * the media router first needed to bind to them, in milliseconds, keyed by the flattened
+     * component name of the provider. This includes the time spent waiting for other providers
+     * to start.
+     */
+    @NonNull
+    public Map<String, Long> getProviderTimeToFirstRouteMillis() {
+        return mProviderTimeToFirstRouteMillis;
+    }
+
+    /** Gets the number of route added events. */
+    public long getRouteAddedCount() {
+        return mRouteAddedCount;
+    }
+
+    /** Gets the number of route changed events. */
+    public long getRouteChangedCount() {
+        return mRouteChangedCount;
+    }
+
+    /** Gets the number of route removed events. */
+    public long getRouteRemovedCount() {
+        return mRouteRemovedCount;
+    }
+
+    /**
+     * Gets the number of routes that were added, compared field by field or removed when route
+     * providers published their descriptors.
+     */
+    public long getTouchedRouteCount() {
+        return mTouchedRouteCount;
+    }
+
+    /**
+     * Gets the number of routes whose comparison was skipped when route providers published their
+     * descriptors, because the content of their descriptor was unchanged.
+     */
+    public long getSkippedRouteCount() {
+        return mSkippedRouteCount;
+    }
+
+    /** Gets the number of times the discovery request sent to the route providers changed. */
+    public long getDiscoveryRequestChangeCount() {
+        return mDiscoveryRequestChangeCount;
+    }
+
+    /** Gets the number of events dispatched to the callbacks. */
+    public long getDispatchedMessageCount() {
+        return mDispatchedMessageCount;
+    }
+
+    /** Gets the number of events waiting to be dispatched to the callbacks. */
+    public int getCallbackQueueDepth() {
+        return mCallbackQueueDepth;
+    }
+
+    /** Gets the largest number of events that have been waiting to be dispatched at once. */
+    public int getMaxCallbackQueueDepth() {
+        return mMaxCallbackQueueDepth;
+    }
+
+    /** Gets the bucket bounds of {@link #getDispatchLatencyHistogram()}, in milliseconds. */
+    @NonNull
+    public long[] getDispatchLatencyBucketBoundsMillis() {
+        return mDispatchLatencyBucketBoundsMillis.clone();
+    }
+
+    /**
+     * Gets the histogram of the time between an event being posted and its dispatch to the
+     * callbacks starting.
+     *
+     * @see #getDispatchLatencyBucketBoundsMillis()
+     */
+    @NonNull
+    public long[] getDispatchLatencyHistogram() {
+        return mDispatchLatencyHistogram.clone();
+    }
+
+    /**
+     * Gets the bucket bounds of {@link #getCallbackExecutionTimeHistogram()}, in microseconds.
+     */
+    @NonNull
+    public long[] getCallbackExecutionTimeBucketBoundsMicros() {
+        return mCallbackExecutionTimeBucketBoundsMicros.clone();
+    }
+
+    /**
+     * Gets the histogram of the time spent in single invocations of callback methods.
+     *
+     * @see #getCallbackExecutionTimeBucketBoundsMicros()
+     */
+    @NonNull
+    public long[] getCallbackExecutionTimeHistogram() {
+        return mCallbackExecutionTimeHistogram.clone();
+    }
+
+    /** Gets the execution time statistics of each callback currently added to the media router. */
+    @NonNull
+    public List<CallbackStats> getCallbackStats() {
+        return mCallbackStats;
+    }
+
+    /** Gets the traces of the latest route selections, from the oldest to the latest. */
+    @NonNull
+    public List<RouteSelectionTrace> getRouteSelectionTraces() {
+        return mRouteSelectionTraces;
+    }
+
+    /**
+     * Gets the number of values, such as route control filters, that are currently shared by the
+     * routes that have the same values.
+     */
+    public int getInternedValueCount() {
+        return mInternedValueCount;
+    }
+
+    /**
+     * Gets the number of values, such as route control filters, that were replaced by a shared
+     * instance instead of being kept as a copy. Grows with the memory saved by sharing values.
+     */
+    public long getDeduplicatedValueCount() {
+        return mDeduplicatedValueCount;
+    }
+
+    /**
+     * Gets the number of control requests sent to route provider services that failed because
+     * the service didn't respond in time.
+     */
+    public long getControlRequestTimeoutCount() {
+        return mControlRequestTimeoutCount;
+    }
+
+    /**
+     * Gets the number of control requests waiting to be sent to route provider services, because
+     * too many other requests are waiting for a response.
+     */
+    public int getControlRequestQueueDepth() {
+        return mControlRequestQueueDepth;
+    }
+
+    /** Gets the largest number of control requests that have been waiting to be sent at once. */
+    public int getMaxControlRequestQueueDepth() {
+        return mMaxControlRequestQueueDepth;
+    }
+
+    /**
+     * Gets the number of times the connection to a route provider service was lost, such as
+     * when the service crashed.
+     */
+    public long getProviderConnectionLossCount() {
+        return mProviderConnectionLossCount;
+    }
+
+    /**
+     * Gets the number of times a route provider service was quarantined because it lost its
+     * connection too many times within a short period.
+     */
+    public long getProviderQuarantineCount() {
+        return mProviderQuarantineCount;
+    }
+
+    /**
+     * Gets the flattened component names of the route provider services that are currently
+     * quarantined. The media router doesn't bind to them until their quarantine ends.
+     */
+    @NonNull
+    public List<String> getQuarantinedProviders() {
+        return mQuarantinedProviders;
+    }
+
+    /** Writes the diagnostics in a human readable form, such as for a bug report. */
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("MediaRouterDiagnostics");
+        writer.println("  routeAddedCount=" + mRouteAddedCount
+                + ", routeChangedCount=" + mRouteChangedCount
+                + ", routeRemovedCount=" + mRouteRemovedCount);
+        writer.println("  touchedRouteCount=" + mTouchedRouteCount
+                + ", skippedRouteCount=" + mSkippedRouteCount);
+        writer.println("  discoveryRequestChangeCount=" + mDiscoveryRequestChangeCount);
+        writer.println("  internedValueCount=" + mInternedValueCount
+                + ", deduplicatedValueCount=" + mDeduplicatedValueCount);
+        writer.println("  controlRequestTimeoutCount=" + mControlRequestTimeoutCount
+                + ", controlRequestQueueDepth=" + mControlRequestQueueDepth
+                + ", maxControlRequestQueueDepth=" + mMaxControlRequestQueueDepth);
+        writer.println("  providerConnectionLossCount=" + mProviderConnectionLossCount
+                + ", providerQuarantineCount=" + mProviderQuarantineCount
+                + ", quarantinedProviders=" + mQuarantinedProviders);
+        writer.println("  dispatchedMessageCount=" + mDispatchedMessageCount
+                + ", callbackQueueDepth=" + mCallbackQueueDepth
+                + ", maxCallbackQueueDepth=" + mMaxCallbackQueueDepth);
+        writer.println("  descriptorUpdateCounts:");
+        for (Map.Entry<String, Integer> entry : mDescriptorUpdateCounts.entrySet()) {
+            writer.println("    " + entry.getKey() + "=" + entry.getValue());
+        }
+        writer.println("  providerTimeToFirstRouteMillis:");
+        for (Map.Entry<String, Long> entry : mProviderTimeToFirstRouteMillis.entrySet()) {
+            writer.println("    " + entry.getKey() + "=" + entry.getValue() + "ms");
+        }
+        writer.println("  dispatchLatencyHistogram:");
+        dumpHistogram(writer, mDispatchLatencyBucketBoundsMillis, mDispatchLatencyHistogram, "ms");
+        writer.println("  callbackExecutionTimeHistogram:");
+        dumpHistogram(
+                writer,
+                mCallbackExecutionTimeBucketBoundsMicros,
+                mCallbackExecutionTimeHistogram,
+                "us");
+        writer.println("  callbackStats:");
+        for (CallbackStats stats : mCallbackStats) {
+            writer.println("    " + stats);
+        }
+        writer.println("  routeSelectionTraces:");
+        for (RouteSelectionTrace trace : mRouteSelectionTraces) {
+            writer.println("    " + trace);
+        }
+        writer.flush();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static void dumpHistogram(
+            PrintWriter writer, long[] bounds, long[] counts, String unit) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            String range =
+                    i < bounds.length
+                            ? "<" + bounds[i] + unit
+                            : ">=" + bounds[bounds.length - 1] + unit;
+            writer.println("    " + range + ": " + counts[i]);
+        }
+    }
+
+    /**
+     * Builds {@link MediaRouterDiagnostics} snapshots. The values that are not set are zero or
+     * empty.
+     */
+    static final class Builder {
+        Map<String, Integer> mDescriptorUpdateCounts = Collections.emptyMap();
+        Map<String, Long> mProviderTimeToFirstRouteMillis = Collections.emptyMap();
+        long mRouteAddedCount;
+        long mRouteChangedCount;
+        long mRouteRemovedCount;
+        long mTouchedRouteCount;
+        long mSkippedRouteCount;
+        long mDiscoveryRequestChangeCount;
+        long mDispatchedMessageCount;
+        int mCallbackQueueDepth;
+        int mMaxCallbackQueueDepth;
+        long[] mDispatchLatencyBucketBoundsMillis = new long[0];
+        long[] mDispatchLatencyHistogram = new long[1];
+        long[] mCallbackExecutionTimeBucketBoundsMicros = new long[0];
+        long[] mCallbackExecutionTimeHistogram = new long[1];
+        List<CallbackStats> mCallbackStats = Collections.emptyList();
+        List<RouteSelectionTrace> mRouteSelectionTraces = Collections.emptyList();
+        int mInternedValueCount;
+        long mDeduplicatedValueCount;
+        long mControlRequestTimeoutCount;
+        int mControlRequestQueueDepth;
+        int mMaxControlRequestQueueDepth;
+        long mProviderConnectionLossCount;
+        long mProviderQuarantineCount;
+        List<String> mQuarantinedProviders = Collections.emptyList();
+
+        @NonNull
+        Builder setDescriptorUpdateCounts(@NonNull Map<String, Integer> descriptorUpdateCounts) {
+            mDescriptorUpdateCounts = descriptorUpdateCounts;
+            return this;
+        }
+
+        @NonNull
+        Builder setProviderTimeToFirstRouteMillis(
+                @NonNull Map<String, Long> providerTimeToFirstRouteMillis) {
+            mProviderTimeToFirstRouteMillis = providerTimeToFirstRouteMillis;
+            return this;
+        }
+
+        @NonNull
+        Builder setRouteEventCounts(long addedCount, long changedCount, long removedCount) {
+            mRouteAddedCount = addedCount;
+            mRouteChangedCount = changedCount;
+            mRouteRemovedCount = removedCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setTouchedRouteCount(long touchedRouteCount) {
+            mTouchedRouteCount = touchedRouteCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setSkippedRouteCount(long skippedRouteCount) {
+            mSkippedRouteCount = skippedRouteCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setDiscoveryRequestChangeCount(long discoveryRequestChangeCount) {
+            mDiscoveryRequestChangeCount = discoveryRequestChangeCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setDispatchedMessageCount(long dispatchedMessageCount) {
+            mDispatchedMessageCount = dispatchedMessageCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setCallbackQueueDepth(int queueDepth, int maxQueueDepth) {
+            mCallbackQueueDepth = queueDepth;
+            mMaxCallbackQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        /** Sets the dispatch latency histogram, which the snapshot copies. */
+        @NonNull
+        Builder setDispatchLatencyHistogram(
+                @NonNull long[] bucketBoundsMillis, @NonNull long[] histogram) {
+            mDispatchLatencyBucketBoundsMillis = bucketBoundsMillis;
+            mDispatchLatencyHistogram = histogram;
+            return this;
+        }
+
+        /** Sets the callback execution time histogram, which the snapshot copies. */
+        @NonNull
+        Builder setCallbackExecutionTimeHistogram(
+                @NonNull long[] bucketBoundsMicros, @NonNull long[] histogram) {
+            mCallbackExecutionTimeBucketBoundsMicros = bucketBoundsMicros;
+            mCallbackExecutionTimeHistogram = histogram;
+            return this;
+        }
+
+        @NonNull
+        Builder setCallbackStats(@NonNull List<CallbackStats> callbackStats) {
+            mCallbackStats = callbackStats;
+            return this;
+        }
+
+        @NonNull
+        Builder setRouteSelectionTraces(@NonNull List<RouteSelectionTrace> routeSelectionTraces) {
+            mRouteSelectionTraces = routeSelectionTraces;
+            return this;
+        }
+
+        @NonNull
+        Builder setInternedValueCount(int internedValueCount) {
+            mInternedValueCount = internedValueCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setDeduplicatedValueCount(long deduplicatedValueCount) {
+            mDeduplicatedValueCount = deduplicatedValueCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setControlRequestTimeoutCount(long controlRequestTimeoutCount) {
+            mControlRequestTimeoutCount = controlRequestTimeoutCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setControlRequestQueueDepth(int queueDepth, int maxQueueDepth) {
+            mControlRequestQueueDepth = queueDepth;
+            mMaxControlRequestQueueDepth = maxQueueDepth;
+            return this;
+        }
+
+        @NonNull
+        Builder setProviderConnectionLossCount(long providerConnectionLossCount) {
+            mProviderConnectionLossCount = providerConnectionLossCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setProviderQuarantineCount(long providerQuarantineCount) {
+            mProviderQuarantineCount = providerQuarantineCount;
+            return this;
+        }
+
+        @NonNull
+        Builder setQuarantinedProviders(@NonNull List<String> quarantinedProviders) {
+            mQuarantinedProviders = quarantinedProviders;
+            return this;
+        }
+
+        @NonNull
+        MediaRouterDiagnostics build() {
+            return new MediaRouterDiagnostics(this);
+        }
+    }
+
+    /** Execution time statistics of a {@link MediaRouter.Callback}. */
+    public static final class CallbackStats {
+        private final String mCallbackClassName;
+        private final long mInvocationCount;
+        private final long mTotalExecutionTimeMicros;
+        private final long mMaxExecutionTimeMicros;
+        private final long mSlowInvocationCount;
+
+        CallbackStats(
+                @NonNull String callbackClassName,
+                long invocationCount,
+                long totalExecutionTimeMicros,
+                long maxExecutionTimeMicros,
+                long slowInvocationCount) {
+            mCallbackClassName = callbackClassName;
+            mInvocationCount = invocationCount;
+            mTotalExecutionTimeMicros = totalExecutionTimeMicros;
+            mMaxExecutionTimeMicros = maxExecutionTimeMicros;
+            mSlowInvocationCount = slowInvocationCount;
+        }
+
+        /** Gets the class name of the callback. */
+        @NonNull
+        public String getCallbackClassName() {
+            return mCallbackClassName;
+        }
+
+        /** Gets the number of times a method of the callback was invoked. */
+        public long getInvocationCount() {
+            return mInvocationCount;
+        }
+
+        /** Gets the total time spent in the methods of the callback, in microseconds. */
+        public long getTotalExecutionTimeMicros() {
+            return mTotalExecutionTimeMicros;
+        }
+
+        /** Gets the longest time spent in a single method invocation, in microseconds. */
+        public long getMaxExecutionTimeMicros() {
+            return mMaxExecutionTimeMicros;
+        }
+
+        /**
+         * Gets the number of method invocations that exceeded the budget of the slow callback
+         * watchdog.
+         *
+         * @see MediaRouter#setSlowCallbackWatchdog
+         */
+        public long getSlowInvocationCount() {
+            return mSlowInvocationCount;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return mCallbackClassName + "{ invocationCount=" + mInvocationCount
+                    + ", totalExecutionTimeMicros=" + mTotalExecutionTimeMicros
+                    + ", maxExecutionTimeMicros=" + mMaxExecutionTimeMicros
+                    + ", slowInvocationCount=" + mSlowInvocationCount + " }";
+        }
+    }
+
+    /**
+     * The latencies of the phases of a route selection, relative to the selection request.
+     *
+     * <p>Depending on the route provider, a selection goes through some of the following phases,
+     * in order:
+     *
+     * <ul>
+     *   <li>{@link #PHASE_SELECT_REQUESTED}: The selection is requested, such as with {@link
+     *       MediaRouter.RouteInfo#select()}.
+     *   <li>{@link #PHASE_TRANSFER_REQUESTED}: The transfer to a system media route is requested.
+     *   <li>{@link #PHASE_TRANSFER_STARTED}: The system reported that the transfer started.
+     *   <li>{@link #PHASE_CONTROLLER_CREATED}: The route provider created the route controller.
+     *   <li>{@link #PHASE_CONTROLLER_SELECTED}: The route controller was selected.
+     *   <li>{@link #PHASE_ROUTE_SELECTED}: The media router selected the route.
+     *   <li>{@link #PHASE_CALLBACKS_NOTIFIED}: The callbacks were notified of the selection.
+     * </ul>
+     */
+    public static final class RouteSelectionTrace {
+        /** The phase at which the selection is requested. */
+        public static final int PHASE_SELECT_REQUESTED = 0;
+
+        /** The phase at which the transfer to a system media route is requested. */
+        public static final int PHASE_TRANSFER_REQUESTED = 1;
+
+        /** The phase at which the system reported that the transfer started. */
+        public static final int PHASE_TRANSFER_STARTED = 2;
+
+        /** The phase at which the route provider created the route controller. */
+        public static final int PHASE_CONTROLLER_CREATED = 3;
+
+        /** The phase at which the route controller was selected. */
+        public static final int PHASE_CONTROLLER_SELECTED = 4;
+
+        /** The phase at which the media router selected the route. */
+        public static final int PHASE_ROUTE_SELECTED = 5;
+
+        /** The phase at which the callbacks were notified of the selection. */
+        public static final int PHASE_CALLBACKS_NOTIFIED = 6;
+
+        static final int PHASE_COUNT = 7;
+
+        private static final String[] PHASE_NAMES = {
+            "selectRequested",
+            "transferRequested",
+            "transferStarted",
+            "controllerCreated",
+            "controllerSelected",
+            "routeSelected",
+            "callbacksNotified"
+        };
+
+        /** */
+        @RestrictTo(LIBRARY)
+        @IntDef({
+            PHASE_SELECT_REQUESTED,
+            PHASE_TRANSFER_REQUESTED,
+            PHASE_TRANSFER_STARTED,
+            PHASE_CONTROLLER_CREATED,
+            PHASE_CONTROLLER_SELECTED,
+            PHASE_ROUTE_SELECTED,
+            PHASE_CALLBACKS_NOTIFIED
+        })
+        @Retention(RetentionPolicy.SOURCE)
+        public @interface Phase {}
+
+        private final String mRouteId;
+        private final String mProviderPackageName;
+        private final long[] mPhaseLatenciesMicros;
+
+        RouteSelectionTrace(
+                @NonNull String routeId,
+                @NonNull String providerPackageName,
+                @NonNull long[] phaseLatenciesMicros) {
+            mRouteId = routeId;
+            mProviderPackageName = providerPackageName;
+            mPhaseLatenciesMicros = phaseLatenciesMicros;
+        }
+
+        /** Gets the {@link MediaRouter.RouteInfo#getId() ID} of the route that was selected. */
+        @NonNull
+        public String getRouteId() {
+            return mRouteId;
+        }
+
+        /** Gets the package name of the provider of the route that was selected. */
+        @NonNull
+        public String getProviderPackageName() {
+            return mProviderPackageName;
+        }
+
+        /**
+         * Gets the time between the selection request and the given phase, in microseconds, or
+         * -1 if the selection didn't go through the phase.
+         */
+        public long getPhaseLatencyMicros(@Phase int phase) {
+            return mPhaseLatenciesMicros[phase];
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append(mRouteId)
+                    .append(" (")
+                    .append(mProviderPackageName)
+                    .append(") {");
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (mPhaseLatenciesMicros[phase] >= 0) {
+                    builder.append(' ')
+                            .append(PHASE_NAMES[phase])
+                            .append('=')
+                            .append(mPhaseLatenciesMicros[phase])
+                            .append("us");
+                }
+            }
+            return builder.append(" }").toString();
+        }
+    }
+}
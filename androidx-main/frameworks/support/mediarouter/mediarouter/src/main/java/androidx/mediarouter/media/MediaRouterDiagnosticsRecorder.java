@@ -0,0 +1,234 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the counters reported by {@link MediaRouterDiagnostics}. Must only be used on the main
+ * thread.
+ *
+ * <p>Recording doesn't allocate, so that it can stay enabled in production. Per-provider and
+ * per-callback counters are kept in {@link MediaRouter.ProviderInfo} and {@link
+ * MediaRouter.CallbackRecord}, and only collected when a snapshot is created. The registered
+ * provider services and their control request queues report their events to the recorder of the
+ * global media router.
+ */
+final class MediaRouterDiagnosticsRecorder {
+    private static final long[] DISPATCH_LATENCY_BUCKET_BOUNDS_MILLIS =
+            {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    private static final long[] CALLBACK_EXECUTION_TIME_BUCKET_BOUNDS_MICROS =
+            {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+
+    private final long[] mDispatchLatencyHistogram =
+            new long[DISPATCH_LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+    private final long[] mCallbackExecutionTimeHistogram =
+            new long[CALLBACK_EXECUTION_TIME_BUCKET_BOUNDS_MICROS.length + 1];
+    private long mRouteAddedCount;
+    private long mRouteChangedCount;
+    private long mRouteRemovedCount;
+    private long mTouchedRouteCount;
+    private long mSkippedRouteCount;
+    private long mDiscoveryRequestChangeCount;
+    private long mDispatchedMessageCount;
+    private int mQueueDepth;
+    private int mMaxQueueDepth;
+    private long mControlRequestTimeoutCount;
+    private int mControlRequestQueueDepth;
+    private int mMaxControlRequestQueueDepth;
+    private long mProviderConnectionLossCount;
+    private long mProviderQuarantineCount;
+    // Shared by all the media routers of the process, so its counters are read when a snapshot
+    // is created.
+    private final MediaRouterInternPool mInternPool;
+
+    MediaRouterDiagnosticsRecorder(@NonNull MediaRouterInternPool internPool) {
+        mInternPool = internPool;
+    }
+
+    /** Called when a message is posted to the callback handler. */
+    public void onMessageQueued() {
+        mQueueDepth++;
+        if (mQueueDepth > mMaxQueueDepth) {
+            mMaxQueueDepth = mQueueDepth;
+        }
+    }
+
+    /**
+     * Called when the callback handler starts handling a message.
+     *
+     * @param postUptimeMillis The {@link SystemClock#uptimeMillis()} at which the message was
+     *     posted.
+     */
+    public void onMessageHandled(long postUptimeMillis) {
+        mQueueDepth = Math.max(0, mQueueDepth - 1);
+        mDispatchedMessageCount++;
+        addToHistogram(
+                mDispatchLatencyHistogram,
+                DISPATCH_LATENCY_BUCKET_BOUNDS_MILLIS,
+                SystemClock.uptimeMillis() - postUptimeMillis);
+    }
+
+    /** Called when all pending messages of the callback handler are removed. */
+    public void onMessagesRemoved() {
+        mQueueDepth = 0;
+    }
+
+    /** Called when a route added event is dispatched. */
+    public void onRouteAdded() {
+        mRouteAddedCount++;
+    }
+
+    /** Called when a route changed event is dispatched. */
+    public void onRouteChanged() {
+        mRouteChangedCount++;
+    }
+
+    /** Called when a route removed event is dispatched. */
+    public void onRouteRemoved() {
+        mRouteRemovedCount++;
+    }
+
+    /**
+     * Called when the routes of a provider were updated from its descriptor.
+     *
+     * @param touchedRouteCount The number of routes added, compared field by field or removed.
+     * @param skippedRouteCount The number of routes skipped because their descriptor content was
+     *     unchanged.
+     */
+    public void onProviderRoutesUpdated(int touchedRouteCount, int skippedRouteCount) {
+        mTouchedRouteCount += touchedRouteCount;
+        mSkippedRouteCount += skippedRouteCount;
+    }
+
+    /** Called when the discovery request sent to the route providers changes. */
+    public void onDiscoveryRequestChanged() {
+        mDiscoveryRequestChangeCount++;
+    }
+
+    /**
+     * Called when control requests are queued by, or leave, the queue of a route provider
+     * service connection.
+     *
+     * @param delta The change of the number of queued control requests.
+     */
+    public void onControlRequestQueueDepthChanged(int delta) {
+        mControlRequestQueueDepth = Math.max(0, mControlRequestQueueDepth + delta);
+        if (mControlRequestQueueDepth > mMaxControlRequestQueueDepth) {
+            mMaxControlRequestQueueDepth = mControlRequestQueueDepth;
+        }
+    }
+
+    /** Called when a control request fails because the service didn't respond in time. */
+    public void onControlRequestTimedOut() {
+        mControlRequestTimeoutCount++;
+    }
+
+    /**
+     * Called when the connection to a route provider service was lost.
+     *
+     * @param quarantined Whether the service was quarantined because of this loss.
+     */
+    public void onProviderConnectionLost(boolean quarantined) {
+        mProviderConnectionLossCount++;
+        if (quarantined) {
+            mProviderQuarantineCount++;
+        }
+    }
+
+    /** Called after a method of the callback of the given record was invoked. */
+    public void onCallbackInvoked(
+            @NonNull MediaRouter.CallbackRecord record, long executionTimeNanos) {
+        record.mInvocationCount++;
+        record.mTotalExecutionTimeNanos += executionTimeNanos;
+        if (executionTimeNanos > record.mMaxExecutionTimeNanos) {
+            record.mMaxExecutionTimeNanos = executionTimeNanos;
+        }
+        addToHistogram(
+                mCallbackExecutionTimeHistogram,
+                CALLBACK_EXECUTION_TIME_BUCKET_BOUNDS_MICROS,
+                executionTimeNanos / 1000);
+    }
+
+    /**
+     * Creates a snapshot of the counters.
+     *
+     * @param descriptorUpdateCounts The number of descriptors published by each provider.
+     * @param providerTimeToFirstRouteMillis The time each provider took to publish its first route.
+     * @param quarantinedProviders The providers quarantined after losing their connection.
+     * @param callbackRecords The callback records whose statistics are reported.
+     * @param routeSelectionTraces The traces of the latest route selections.
+     */
+    @NonNull
+    public MediaRouterDiagnostics createSnapshot(
+            @NonNull Map<String, Integer> descriptorUpdateCounts,
+            @NonNull Map<String, Long> providerTimeToFirstRouteMillis,
+            @NonNull List<String> quarantinedProviders,
+            @NonNull List<MediaRouter.CallbackRecord> callbackRecords,
+            @NonNull List<MediaRouterDiagnostics.RouteSelectionTrace> routeSelectionTraces) {
+        List<MediaRouterDiagnostics.CallbackStats> callbackStats =
+                new ArrayList<>(callbackRecords.size());
+        for (MediaRouter.CallbackRecord record : callbackRecords) {
+            callbackStats.add(
+                    new MediaRouterDiagnostics.CallbackStats(
+                            record.mCallback.getClass().getName(),
+                            record.mInvocationCount,
+                            record.mTotalExecutionTimeNanos / 1000,
+                            record.mMaxExecutionTimeNanos / 1000,
+                            record.mSlowInvocationCount));
+        }
+        return new MediaRouterDiagnostics.Builder()
+                .setDescriptorUpdateCounts(descriptorUpdateCounts)
+                .setProviderTimeToFirstRouteMillis(providerTimeToFirstRouteMillis)
+                .setRouteEventCounts(mRouteAddedCount, mRouteChangedCount, mRouteRemovedCount)
+                .setTouchedRouteCount(mTouchedRouteCount)
+                .setSkippedRouteCount(mSkippedRouteCount)
+                .setDiscoveryRequestChangeCount(mDiscoveryRequestChangeCount)
+                .setDispatchedMessageCount(mDispatchedMessageCount)
+                .setCallbackQueueDepth(mQueueDepth, mMaxQueueDepth)
+                .setDispatchLatencyHistogram(
+                        DISPATCH_LATENCY_BUCKET_BOUNDS_MILLIS, mDispatchLatencyHistogram)
+                .setCallbackExecutionTimeHistogram(
+                        CALLBACK_EXECUTION_TIME_BUCKET_BOUNDS_MICROS,
+                        mCallbackExecutionTimeHistogram)
+                .setCallbackStats(callbackStats)
+                .setRouteSelectionTraces(routeSelectionTraces)
+                .setInternedValueCount(mInternPool.getInternedValueCount())
+                .setDeduplicatedValueCount(mInternPool.getDeduplicatedValueCount())
+                .setControlRequestTimeoutCount(mControlRequestTimeoutCount)
+                .setControlRequestQueueDepth(
+                        mControlRequestQueueDepth, mMaxControlRequestQueueDepth)
+                .setProviderConnectionLossCount(mProviderConnectionLossCount)
+                .setProviderQuarantineCount(mProviderQuarantineCount)
+                .setQuarantinedProviders(quarantinedProviders)
+                .build();
+    }
+
+    private static void addToHistogram(long[] histogram, long[] bounds, long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value >= bounds[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+}
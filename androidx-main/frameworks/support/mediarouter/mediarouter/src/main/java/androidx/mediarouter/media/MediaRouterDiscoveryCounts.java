@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_BATCH_ROUTE_CHANGES;
+import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_FORCE_DISCOVERY;
+import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+import static androidx.mediarouter.media.MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reference counts what a set of {@link MediaRouter.CallbackRecord callback records} contributes
+ * to the discovery request, so that the combined request can be maintained incrementally as
+ * callbacks are added and removed.
+ *
+ * <p>The callback records requesting batched route changes are counted as well, so that route
+ * changes are only collected into batches while some callback receives them.
+ *
+ * <p>A callback record must be removed with the same selector, flags and timestamp it was added
+ * with.
+ */
+class MediaRouterDiscoveryCounts {
+    // In insertion order, so that the selector lists the categories in the order they were added.
+    private final Map<String, Integer> mCategoryCounts = new LinkedHashMap<>();
+    // Timestamps of the callbacks requesting active scan, with the number of callbacks for each.
+    private final TreeMap<Long, Integer> mActiveScanTimestampCounts = new TreeMap<>();
+    private int mCallbackCount;
+    private int mActiveScanCount;
+    private int mRequestDiscoveryCount;
+    private int mForceDiscoveryCount;
+    private int mBatchRouteChangesCount;
+    // The selector with all counted categories, or null if it needs to be rebuilt.
+    private MediaRouteSelector mSelector = MediaRouteSelector.EMPTY;
+
+    /** Counts the contribution of the given callback record. */
+    public void add(@NonNull MediaRouter.CallbackRecord record) {
+        mCallbackCount++;
+        for (String category : record.mSelector.getControlCategories()) {
+            addCategory(category, 1);
+        }
+        addFlags(record.mFlags, record.mTimestamp, 1);
+    }
+
+    /** Stops counting the contribution of the given callback record. */
+    public void remove(@NonNull MediaRouter.CallbackRecord record) {
+        mCallbackCount = Math.max(0, mCallbackCount - 1);
+        for (String category : record.mSelector.getControlCategories()) {
+            removeCategory(category, 1);
+        }
+        addFlags(record.mFlags, record.mTimestamp, -1);
+    }
+
+    /** Counts all the contributions counted by the given counts. */
+    public void addAll(@NonNull MediaRouterDiscoveryCounts counts) {
+        mCallbackCount += counts.mCallbackCount;
+        for (Map.Entry<String, Integer> entry : counts.mCategoryCounts.entrySet()) {
+            addCategory(entry.getKey(), entry.getValue());
+        }
+        addFlagCounts(counts, 1);
+    }
+
+    /** Stops counting all the contributions counted by the given counts. */
+    public void removeAll(@NonNull MediaRouterDiscoveryCounts counts) {
+        mCallbackCount = Math.max(0, mCallbackCount - counts.mCallbackCount);
+        for (Map.Entry<String, Integer> entry : counts.mCategoryCounts.entrySet()) {
+            removeCategory(entry.getKey(), entry.getValue());
+        }
+        addFlagCounts(counts, -1);
+    }
+
+    /** Returns the number of counted callback records. */
+    public int getCallbackCount() {
+        return mCallbackCount;
+    }
+
+    /**
+     * Returns a selector with the control categories of all counted callback records. The same
+     * instance is returned until the set of categories changes.
+     */
+    @NonNull
+    public MediaRouteSelector getSelector() {
+        if (mSelector == null) {
+            mSelector =
+                    new MediaRouteSelector.Builder()
+                            .addControlCategories(mCategoryCounts.keySet())
+                            .build();
+        }
+        return mSelector;
+    }
+
+    /**
+     * Returns whether any counted callback record requests discovery.
+     *
+     * @param lowRam Whether {@link MediaRouter#CALLBACK_FLAG_REQUEST_DISCOVERY} should be ignored
+     *     because the device is a low-RAM device.
+     */
+    public boolean isDiscoveryRequested(boolean lowRam) {
+        return mActiveScanCount > 0
+                || mForceDiscoveryCount > 0
+                || (mRequestDiscoveryCount > 0 && !lowRam);
+    }
+
+    /** Returns whether any counted callback record requests batched route changes. */
+    public boolean isBatchRouteChangesRequested() {
+        return mBatchRouteChangesCount > 0;
+    }
+
+    /**
+     * Returns the latest timestamp of the counted callback records requesting active scan, or
+     * {@link Long#MIN_VALUE} if none requests active scan.
+     */
+    public long getLatestActiveScanTimestamp() {
+        return mActiveScanTimestampCounts.isEmpty()
+                ? Long.MIN_VALUE
+                : mActiveScanTimestampCounts.lastKey();
+    }
+
+    private void addCategory(String category, int count) {
+        Integer oldCount = mCategoryCounts.get(category);
+        if (oldCount == null) {
+            mCategoryCounts.put(category, count);
+            mSelector = null;
+        } else {
+            mCategoryCounts.put(category, oldCount + count);
+        }
+    }
+
+    private void removeCategory(String category, int count) {
+        Integer oldCount = mCategoryCounts.get(category);
+        if (oldCount == null) {
+            return;
+        }
+        if (oldCount > count) {
+            mCategoryCounts.put(category, oldCount - count);
+        } else {
+            mCategoryCounts.remove(category);
+            mSelector = null;
+        }
+    }
+
+    private void addFlags(int flags, long timestamp, int delta) {
+        if ((flags & CALLBACK_FLAG_PERFORM_ACTIVE_SCAN) != 0) {
+            mActiveScanCount = Math.max(0, mActiveScanCount + delta);
+            addActiveScanTimestamp(timestamp, delta);
+        }
+        if ((flags & CALLBACK_FLAG_REQUEST_DISCOVERY) != 0) {
+            mRequestDiscoveryCount = Math.max(0, mRequestDiscoveryCount + delta);
+        }
+        if ((flags & CALLBACK_FLAG_FORCE_DISCOVERY) != 0) {
+            mForceDiscoveryCount = Math.max(0, mForceDiscoveryCount + delta);
+        }
+        if ((flags & CALLBACK_FLAG_BATCH_ROUTE_CHANGES) != 0) {
+            mBatchRouteChangesCount = Math.max(0, mBatchRouteChangesCount + delta);
+        }
+    }
+
+    private void addFlagCounts(MediaRouterDiscoveryCounts counts, int sign) {
+        mActiveScanCount = Math.max(0, mActiveScanCount + sign * counts.mActiveScanCount);
+        mRequestDiscoveryCount =
+                Math.max(0, mRequestDiscoveryCount + sign * counts.mRequestDiscoveryCount);
+        mForceDiscoveryCount =
+                Math.max(0, mForceDiscoveryCount + sign * counts.mForceDiscoveryCount);
+        mBatchRouteChangesCount =
+                Math.max(0, mBatchRouteChangesCount + sign * counts.mBatchRouteChangesCount);
+        for (Map.Entry<Long, Integer> entry : counts.mActiveScanTimestampCounts.entrySet()) {
+            addActiveScanTimestamp(entry.getKey(), sign * entry.getValue());
+        }
+    }
+
+    private void addActiveScanTimestamp(long timestamp, int delta) {
+        Integer oldCount = mActiveScanTimestampCounts.get(timestamp);
+        int newCount = (oldCount == null ? 0 : oldCount) + delta;
+        if (newCount > 0) {
+            mActiveScanTimestampCounts.put(timestamp, newCount);
+        } else {
+            mActiveScanTimestampCounts.remove(timestamp);
+        }
+    }
+}
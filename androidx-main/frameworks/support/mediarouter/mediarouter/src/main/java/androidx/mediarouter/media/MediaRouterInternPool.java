@@ -0,0 +1,259 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.content.ComponentName;
+import android.content.IntentFilter;
+import android.os.PatternMatcher;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Deduplicates the values that most routes share, such as the control filters of the routes of a
+ * provider, into shared instances. Thread safe.
+ *
+ * <p>Control filters are compared by contents, and their shared instances must not be modified.
+ * The strings of the shared control filters are interned, so that filters with different contents
+ * still share their categories and actions. Shared instances are weakly referenced, so that they
+ * are released once no route uses them anymore.
+ */
+final class MediaRouterInternPool {
+    private static final MediaRouterInternPool sInstance = new MediaRouterInternPool();
+
+    private final ContentPool<IntentFilter> mControlFilters = new ContentPool<>();
+    private final ContentPool<List<IntentFilter>> mControlFilterLists = new ContentPool<>();
+    private final Map<ComponentName, WeakReference<ComponentName>> mComponentNames =
+            new WeakHashMap<>();
+    // The number of values that were replaced by a shared instance.
+    private long mDeduplicatedValueCount;
+
+    @NonNull
+    static MediaRouterInternPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the shared instance of the given control filter, which is the given filter or a copy
+     * of it if there is no shared instance yet.
+     */
+    @NonNull
+    synchronized IntentFilter internControlFilter(@NonNull IntentFilter filter) {
+        String key = getContentKey(filter);
+        IntentFilter sharedFilter = mControlFilters.get(key);
+        if (sharedFilter != null) {
+            if (sharedFilter != filter) {
+                mDeduplicatedValueCount++;
+            }
+            return sharedFilter;
+        }
+        sharedFilter = copyWithInternedStrings(filter);
+        mControlFilters.put(key, sharedFilter);
+        return sharedFilter;
+    }
+
+    /**
+     * Returns the shared unmodifiable instance of the given control filter list, whose filters are
+     * shared instances as well.
+     */
+    @NonNull
+    synchronized List<IntentFilter> internControlFilters(@Nullable List<IntentFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return Collections.emptyList();
+        }
+        StringBuilder keyBuilder = new StringBuilder();
+        for (IntentFilter filter : filters) {
+            if (filter == null) {
+                // Lists with null filters are kept as is, as they can't be compared by contents.
+                return Collections.unmodifiableList(new ArrayList<>(filters));
+            }
+            keyBuilder.append(getContentKey(filter)).append('\n');
+        }
+        String key = keyBuilder.toString();
+        List<IntentFilter> sharedFilters = mControlFilterLists.get(key);
+        if (sharedFilters != null) {
+            mDeduplicatedValueCount++;
+            return sharedFilters;
+        }
+        List<IntentFilter> internedFilters = new ArrayList<>(filters.size());
+        for (IntentFilter filter : filters) {
+            internedFilters.add(internControlFilter(filter));
+        }
+        sharedFilters = Collections.unmodifiableList(internedFilters);
+        mControlFilterLists.put(key, sharedFilters);
+        return sharedFilters;
+    }
+
+    /** Returns the shared instance of the given component name. */
+    @NonNull
+    synchronized ComponentName internComponentName(@NonNull ComponentName componentName) {
+        WeakReference<ComponentName> reference = mComponentNames.get(componentName);
+        ComponentName sharedComponentName = reference != null ? reference.get() : null;
+        if (sharedComponentName != null) {
+            if (sharedComponentName != componentName) {
+                mDeduplicatedValueCount++;
+            }
+            return sharedComponentName;
+        }
+        mComponentNames.put(componentName, new WeakReference<>(componentName));
+        return componentName;
+    }
+
+    /**
+     * Returns the interned instance of the given string, such as a flattened component name held
+     * by many routes.
+     */
+    @NonNull
+    String internString(@NonNull String value) {
+        return value.intern();
+    }
+
+    /** Returns the number of shared instances that are still in use. */
+    synchronized int getInternedValueCount() {
+        return mControlFilters.size() + mControlFilterLists.size() + mComponentNames.size();
+    }
+
+    /** Returns the number of values that were replaced by a shared instance. */
+    synchronized long getDeduplicatedValueCount() {
+        return mDeduplicatedValueCount;
+    }
+
+    @NonNull
+    private static IntentFilter copyWithInternedStrings(@NonNull IntentFilter filter) {
+        if (filter.countDataTypes() > 0
+                || filter.countDataAuthorities() > 0
+                || filter.countDataPaths() > 0
+                || filter.countDataSchemeSpecificParts() > 0) {
+            // These components can't be copied reliably on all API levels.
+            return filter;
+        }
+        // The intent filter interns the actions, categories and schemes that are added to it.
+        IntentFilter copy = new IntentFilter();
+        copy.setPriority(filter.getPriority());
+        for (int i = 0; i < filter.countActions(); i++) {
+            copy.addAction(filter.getAction(i));
+        }
+        for (int i = 0; i < filter.countCategories(); i++) {
+            copy.addCategory(filter.getCategory(i));
+        }
+        for (int i = 0; i < filter.countDataSchemes(); i++) {
+            copy.addDataScheme(filter.getDataScheme(i));
+        }
+        return copy;
+    }
+
+    @NonNull
+    private static String getContentKey(@NonNull IntentFilter filter) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(filter.getPriority());
+        for (int i = 0; i < filter.countActions(); i++) {
+            appendComponent(builder, 'a', filter.getAction(i));
+        }
+        for (int i = 0; i < filter.countCategories(); i++) {
+            appendComponent(builder, 'c', filter.getCategory(i));
+        }
+        for (int i = 0; i < filter.countDataSchemes(); i++) {
+            appendComponent(builder, 's', filter.getDataScheme(i));
+        }
+        for (int i = 0; i < filter.countDataTypes(); i++) {
+            appendComponent(builder, 't', filter.getDataType(i));
+        }
+        for (int i = 0; i < filter.countDataAuthorities(); i++) {
+            IntentFilter.AuthorityEntry authority = filter.getDataAuthority(i);
+            appendComponent(builder, 'h', authority.getHost());
+            builder.append(':').append(authority.getPort());
+        }
+        for (int i = 0; i < filter.countDataPaths(); i++) {
+            appendPattern(builder, 'p', filter.getDataPath(i));
+        }
+        for (int i = 0; i < filter.countDataSchemeSpecificParts(); i++) {
+            appendPattern(builder, 'o', filter.getDataSchemeSpecificPart(i));
+        }
+        return builder.toString();
+    }
+
+    private static void appendPattern(
+            @NonNull StringBuilder builder, char component, @NonNull PatternMatcher pattern) {
+        appendComponent(builder, component, pattern.getPath());
+        builder.append(':').append(pattern.getType());
+    }
+
+    private static void appendComponent(
+            @NonNull StringBuilder builder, char component, @Nullable String value) {
+        // The length prefix keeps values that contain the separators unambiguous.
+        builder.append(' ').append(component);
+        if (value != null) {
+            builder.append(value.length()).append('=').append(value);
+        }
+    }
+
+    /**
+     * Weakly references values by a key that describes their contents, and forgets the keys of
+     * the values that are released.
+     */
+    private static final class ContentPool<T> {
+        private final Map<String, KeyedReference<T>> mReferences = new HashMap<>();
+        private final ReferenceQueue<T> mQueue = new ReferenceQueue<>();
+
+        @Nullable
+        T get(@NonNull String key) {
+            expungeReleasedValues();
+            KeyedReference<T> reference = mReferences.get(key);
+            return reference != null ? reference.get() : null;
+        }
+
+        void put(@NonNull String key, @NonNull T value) {
+            mReferences.put(key, new KeyedReference<>(key, value, mQueue));
+        }
+
+        int size() {
+            expungeReleasedValues();
+            return mReferences.size();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void expungeReleasedValues() {
+            Reference<? extends T> reference;
+            while ((reference = mQueue.poll()) != null) {
+                KeyedReference<T> keyedReference = (KeyedReference<T>) reference;
+                // The key may have been reassigned to a new value in the meantime.
+                if (mReferences.get(keyedReference.mKey) == keyedReference) {
+                    mReferences.remove(keyedReference.mKey);
+                }
+            }
+        }
+    }
+
+    private static final class KeyedReference<T> extends WeakReference<T> {
+        final String mKey;
+
+        KeyedReference(@NonNull String key, @NonNull T value, @NonNull ReferenceQueue<T> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+    }
+}
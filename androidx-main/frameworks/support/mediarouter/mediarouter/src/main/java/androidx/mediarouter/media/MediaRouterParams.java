@@ -77,6 +77,11 @@ public class MediaRouterParams {
     final boolean mOutputSwitcherEnabled;
     final boolean mTransferToLocalEnabled;
     final boolean mMediaTransferRestrictedToSelfProviders;
+    final boolean mBackgroundRouteProcessingEnabled;
+    final long mMinVolumeRequestIntervalMillis;
+    final int mMaxConcurrentProviderStartups;
+    final boolean mRouteCacheEnabled;
+    final boolean mRecentProviderPersistenceEnabled;
     final Bundle mExtras;
 
     MediaRouterParams(@NonNull Builder builder) {
@@ -85,6 +90,11 @@ public class MediaRouterParams {
         mOutputSwitcherEnabled = builder.mOutputSwitcherEnabled;
         mTransferToLocalEnabled = builder.mTransferToLocalEnabled;
         mMediaTransferRestrictedToSelfProviders = builder.mMediaTransferRestrictedToSelfProviders;
+        mBackgroundRouteProcessingEnabled = builder.mBackgroundRouteProcessingEnabled;
+        mMinVolumeRequestIntervalMillis = builder.mMinVolumeRequestIntervalMillis;
+        mMaxConcurrentProviderStartups = builder.mMaxConcurrentProviderStartups;
+        mRouteCacheEnabled = builder.mRouteCacheEnabled;
+        mRecentProviderPersistenceEnabled = builder.mRecentProviderPersistenceEnabled;
 
         Bundle extras = builder.mExtras;
         mExtras = extras == null ? Bundle.EMPTY : new Bundle(extras);
@@ -140,6 +150,56 @@ public class MediaRouterParams {
         return mMediaTransferRestrictedToSelfProviders;
     }
 
+    /**
+     * Returns whether route descriptors published by media route providers are unparcelled and
+     * validated on a background thread.
+     *
+     * @see Builder#setBackgroundRouteProcessingEnabled(boolean)
+     */
+    public boolean isBackgroundRouteProcessingEnabled() {
+        return mBackgroundRouteProcessingEnabled;
+    }
+
+    /**
+     * Gets the minimum time between two volume requests sent to the route provider of a route, in
+     * milliseconds.
+     *
+     * @see Builder#setMinVolumeRequestIntervalMillis(long)
+     */
+    public long getMinVolumeRequestIntervalMillis() {
+        return mMinVolumeRequestIntervalMillis;
+    }
+
+    /**
+     * Gets the maximum number of media route provider services that the media router starts
+     * binding to at once.
+     *
+     * @see Builder#setMaxConcurrentProviderStartups(int)
+     */
+    public int getMaxConcurrentProviderStartups() {
+        return mMaxConcurrentProviderStartups;
+    }
+
+    /**
+     * Returns whether the routes of media route provider services are cached on disk, to be
+     * shown as soon as the media router starts.
+     *
+     * @see Builder#setRouteCacheEnabled(boolean)
+     */
+    public boolean isRouteCacheEnabled() {
+        return mRouteCacheEnabled;
+    }
+
+    /**
+     * Returns whether the media route provider services whose routes were selected recently are
+     * saved, to be bound first after the application restarts.
+     *
+     * @see Builder#setRecentProviderPersistenceEnabled(boolean)
+     */
+    public boolean isRecentProviderPersistenceEnabled() {
+        return mRecentProviderPersistenceEnabled;
+    }
+
     /**
      */
     @NonNull
@@ -157,6 +217,13 @@ public class MediaRouterParams {
         boolean mOutputSwitcherEnabled;
         boolean mTransferToLocalEnabled;
         boolean mMediaTransferRestrictedToSelfProviders;
+        boolean mBackgroundRouteProcessingEnabled;
+        long mMinVolumeRequestIntervalMillis =
+                MediaRouterVolumePipeline.DEFAULT_MIN_SEND_INTERVAL_MILLIS;
+        int mMaxConcurrentProviderStartups =
+                RegisteredMediaRouteProviderStartupScheduler.DEFAULT_MAX_CONCURRENT_STARTUPS;
+        boolean mRouteCacheEnabled;
+        boolean mRecentProviderPersistenceEnabled;
         Bundle mExtras;
 
         /**
@@ -181,6 +248,11 @@ public class MediaRouterParams {
             mMediaTransferEnabled = params.mMediaTransferReceiverEnabled;
             mMediaTransferRestrictedToSelfProviders =
                     params.mMediaTransferRestrictedToSelfProviders;
+            mBackgroundRouteProcessingEnabled = params.mBackgroundRouteProcessingEnabled;
+            mMinVolumeRequestIntervalMillis = params.mMinVolumeRequestIntervalMillis;
+            mMaxConcurrentProviderStartups = params.mMaxConcurrentProviderStartups;
+            mRouteCacheEnabled = params.mRouteCacheEnabled;
+            mRecentProviderPersistenceEnabled = params.mRecentProviderPersistenceEnabled;
             mExtras = params.mExtras == null ? null : new Bundle(params.mExtras);
         }
 
@@ -291,6 +363,106 @@ public class MediaRouterParams {
             return this;
         }
 
+        /**
+         * Sets whether route descriptors published by media route providers are unparcelled and
+         * validated on a background thread. Default value is {@code false}.
+         * <p>
+         * If set to {@code true}, the route descriptors published by {@link MediaRouteProvider
+         * media route providers} are unparcelled, validated and fingerprinted on a background
+         * thread. Comparing them with the current routes, updating the routes and notifying the
+         * callbacks still happen on the main thread afterwards, at the cost of routes being
+         * updated slightly later. This mostly helps with large descriptors received from other
+         * processes. The routes of the system are always updated synchronously.
+         * <p>
+         * Media route providers must not modify a {@link MediaRouteProviderDescriptor} after
+         * publishing it when this is enabled.
+         */
+        @NonNull
+        public Builder setBackgroundRouteProcessingEnabled(boolean enabled) {
+            mBackgroundRouteProcessingEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the minimum time between two volume requests sent to the route provider of a
+         * route, in milliseconds. Default value is {@code 0}, which sends each request at once.
+         * <p>
+         * If positive, volumes requested with {@link MediaRouter.RouteInfo#requestSetVolume(int)}
+         * are reported by the route at once, but only the latest volume requested within this
+         * interval is sent to the route provider. This keeps volume sliders from flooding route
+         * providers with requests.
+         *
+         * @param intervalMillis The minimum interval, which must not be negative.
+         */
+        @NonNull
+        public Builder setMinVolumeRequestIntervalMillis(long intervalMillis) {
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("intervalMillis must not be negative");
+            }
+            mMinVolumeRequestIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of media route provider services that the media router starts
+         * binding to at once. Default value is 3.
+         * <p>
+         * When route discovery starts, the media router binds to the
+         * {@link MediaRouteProviderService media route provider services} one after the other
+         * instead of all at once, so that they don't compete with the startup of the application.
+         * The services of the application's own package are bound first, then the services whose
+         * routes were selected recently. A service is starting until it publishes its routes.
+         *
+         * @param maxConcurrentStartups The maximum number of services, which must be positive.
+         */
+        @NonNull
+        public Builder setMaxConcurrentProviderStartups(int maxConcurrentStartups) {
+            if (maxConcurrentStartups <= 0) {
+                throw new IllegalArgumentException("maxConcurrentStartups must be positive");
+            }
+            mMaxConcurrentProviderStartups = maxConcurrentStartups;
+            return this;
+        }
+
+        /**
+         * Sets whether the routes of media route provider services are cached on disk. Default
+         * value is {@code false}.
+         * <p>
+         * If set to {@code true}, the routes last published by the
+         * {@link MediaRouteProviderService media route provider services} are restored when the
+         * media router starts, so that route choosers can show them before the services are bound
+         * and publish their routes again. Restored routes are
+         * {@link MediaRouter.RouteInfo#isStale() stale} until their service publishes its routes,
+         * which replace them. Restored routes that are not published again within a few seconds
+         * are removed, and routes cached more than a day ago are not restored.
+         * <p>
+         * The extras and settings intents of the routes are not cached. Setting this to
+         * {@code false} deletes the cache.
+         */
+        @NonNull
+        public Builder setRouteCacheEnabled(boolean enabled) {
+            mRouteCacheEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets whether the media route provider services whose routes were selected recently are
+         * saved in the application's shared preferences. Default value is {@code false}.
+         * <p>
+         * The media router binds the recently used services first, right after the services of
+         * the application's own package (see {@link #setMaxConcurrentProviderStartups(int)}). If
+         * set to {@code true}, the recently used services are also bound first after the
+         * application restarts, once they are loaded in the background. They are not loaded while
+         * the user is locked after a reboot.
+         * <p>
+         * Setting this to {@code false} deletes the saved services.
+         */
+        @NonNull
+        public Builder setRecentProviderPersistenceEnabled(boolean enabled) {
+            mRecentProviderPersistenceEnabled = enabled;
+            return this;
+        }
+
         /** Set extras. Default value is {@link Bundle#EMPTY} if not set. */
         @RestrictTo(RestrictTo.Scope.LIBRARY)
         @NonNull
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepares provider descriptors on a worker thread when background route processing is enabled
+ * with {@link MediaRouterParams.Builder#setBackgroundRouteProcessingEnabled}.
+ *
+ * <p>Unparcelling, validating and fingerprinting the route descriptors of a large provider
+ * descriptor can take tens of milliseconds. The processor does this on a worker thread, and posts
+ * an immutable, versioned {@link ProcessedDescriptor} back to the main thread.
+ *
+ * <p>The routes are still merged on the main thread: looking up the existing routes, assigning
+ * the unique ids of new routes, updating changed and group routes and dispatching the callbacks.
+ * Unchanged routes are skipped by comparing their precomputed fingerprints, so the main thread
+ * work grows with the number of changed routes rather than with the size of the descriptor.
+ *
+ * <p>Only the latest descriptor submitted for a provider is delivered. Results of descriptors
+ * that were superseded before their processing completed are dropped.
+ */
+class MediaRouterRouteProcessor {
+    private static final String THREAD_NAME = "MediaRouterRouteProcessor";
+
+    /** Receives the processed descriptors on the main thread. */
+    interface Callback {
+        void onDescriptorProcessed(@NonNull ProcessedDescriptor processedDescriptor);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+    // The version of the latest descriptor submitted for each provider with a pending result.
+    private final Map<MediaRouteProvider, Long> mPendingVersions = new HashMap<>();
+    private long mLastVersion;
+    private HandlerThread mThread;
+    private Handler mWorkerHandler;
+
+    MediaRouterRouteProcessor(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Submits a descriptor of a provider to be processed on the worker thread. Must be called on
+     * the main thread.
+     */
+    public void submit(
+            @NonNull MediaRouteProvider provider,
+            @Nullable MediaRouteProviderDescriptor descriptor) {
+        if (mThread == null) {
+            mThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+            mWorkerHandler = new Handler(mThread.getLooper());
+        }
+        final long version = ++mLastVersion;
+        mPendingVersions.put(provider, version);
+        mWorkerHandler.post(
+                () -> {
+                    ProcessedDescriptor processedDescriptor =
+                            process(provider, descriptor, version);
+                    mMainHandler.post(() -> deliver(processedDescriptor));
+                });
+    }
+
+    /**
+     * Drops the pending result for the given provider, if any. Called when the provider's
+     * contents are updated synchronously, or when the provider is removed.
+     */
+    public void cancel(@NonNull MediaRouteProvider provider) {
+        mPendingVersions.remove(provider);
+    }
+
+    /** Drops all pending results and stops the worker thread. */
+    public void release() {
+        mPendingVersions.clear();
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+            mWorkerHandler = null;
+        }
+    }
+
+    private void deliver(ProcessedDescriptor processedDescriptor) {
+        Long pendingVersion = mPendingVersions.get(processedDescriptor.mProvider);
+        if (pendingVersion == null || pendingVersion != processedDescriptor.mVersion) {
+            // Superseded by a newer descriptor, or cancelled.
+            return;
+        }
+        mPendingVersions.remove(processedDescriptor.mProvider);
+        mCallback.onDescriptorProcessed(processedDescriptor);
+    }
+
+    // Runs on the worker thread. The values that the main thread reads from the descriptors when
+    // merging the routes and dispatching their events are computed here, so that the main thread
+    // only reads them from the caches of the descriptors.
+    static ProcessedDescriptor process(
+            MediaRouteProvider provider,
+            @Nullable MediaRouteProviderDescriptor descriptor,
+            long version) {
+        boolean valid = false;
+        if (descriptor != null) {
+            // Validation unparcels the route descriptors.
+            valid = descriptor.isValid();
+            List<MediaRouteDescriptor> routes = descriptor.getRoutes();
+            for (int i = 0; i < routes.size(); i++) {
+                MediaRouteDescriptor route = routes.get(i);
+                if (route != null) {
+                    route.getContentFingerprint();
+                    route.getGroupMemberIds();
+                    route.getControlFiltersInternal();
+                }
+            }
+        }
+        return new ProcessedDescriptor(provider, descriptor, valid, version);
+    }
+
+    /** The result of processing a provider descriptor. */
+    static final class ProcessedDescriptor {
+        @NonNull final MediaRouteProvider mProvider;
+        @Nullable final MediaRouteProviderDescriptor mDescriptor;
+        // Whether the descriptor and all of its routes are valid.
+        final boolean mValid;
+        final long mVersion;
+
+        ProcessedDescriptor(
+                @NonNull MediaRouteProvider provider,
+                @Nullable MediaRouteProviderDescriptor descriptor,
+                boolean valid,
+                long version) {
+            mProvider = provider;
+            mDescriptor = descriptor;
+            mValid = valid;
+            mVersion = version;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import androidx.annotation.NonNull;
+import androidx.core.os.TraceCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traces the phases of route selections, from the selection request to the notification of the
+ * callbacks. Must only be used on the main thread.
+ *
+ * <p>Each selection is traced as an asynchronous trace section, and the time at which it reached
+ * each {@link MediaRouterDiagnostics.RouteSelectionTrace phase} is kept in a ring buffer of the
+ * latest selections, reported by {@link MediaRouterDiagnostics#getRouteSelectionTraces()}. The
+ * ring buffer is allocated upfront, so that tracing can stay enabled in production.
+ *
+ * <p>Selections are serialized by the media router, so the phases are attributed to the latest
+ * selection that has not notified its callbacks yet. A selection is ended by the cookie returned
+ * by {@link #getActiveCookie()} when its callbacks are notified, so that the notification of an
+ * abandoned selection doesn't end the selection that followed it.
+ */
+final class MediaRouterSelectionTracer {
+    private static final String ASYNC_SECTION_NAME = "MediaRouter.selectRoute";
+    private static final int CAPACITY = 16;
+
+    private final Slot[] mSlots = new Slot[CAPACITY];
+    private int mNextSlot;
+    private int mSlotCount;
+    private int mLastCookie;
+    private Slot mActiveSlot;
+
+    MediaRouterSelectionTracer() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mSlots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Starts tracing a selection of the given route, and marks it as requested. A selection that
+     * is still being traced is abandoned.
+     */
+    public void begin(@NonNull MediaRouter.RouteInfo route) {
+        if (mActiveSlot != null) {
+            finish();
+        }
+        Slot slot = mSlots[mNextSlot];
+        mNextSlot = (mNextSlot + 1) % CAPACITY;
+        mSlotCount = Math.min(mSlotCount + 1, CAPACITY);
+        slot.reset(++mLastCookie, route);
+        mActiveSlot = slot;
+        TraceCompat.beginAsyncSection(ASYNC_SECTION_NAME, slot.mCookie);
+        mark(MediaRouterDiagnostics.RouteSelectionTrace.PHASE_SELECT_REQUESTED);
+    }
+
+    /**
+     * Starts tracing a selection of the given route if no selection is being traced, such as for
+     * selections that are not requested by the application.
+     */
+    public void beginIfIdle(@NonNull MediaRouter.RouteInfo route) {
+        if (mActiveSlot == null) {
+            begin(route);
+        }
+    }
+
+    /** Stops tracing the selection being traced, if any, without marking it as notified. */
+    public void cancel() {
+        if (mActiveSlot != null) {
+            finish();
+        }
+    }
+
+    /** Marks the selection being traced, if any, as having reached the given phase. */
+    public void mark(int phase) {
+        Slot slot = mActiveSlot;
+        if (slot != null && (slot.mReachedPhases & (1 << phase)) == 0) {
+            slot.mReachedPhases |= 1 << phase;
+            slot.mPhaseNanos[phase] = System.nanoTime();
+        }
+    }
+
+    /** Returns the cookie of the selection being traced, or 0 if no selection is being traced. */
+    public int getActiveCookie() {
+        return mActiveSlot != null ? mActiveSlot.mCookie : 0;
+    }
+
+    /**
+     * Marks the selection being traced as notified to the callbacks, and ends it, if it has the
+     * given cookie.
+     */
+    public void end(int cookie) {
+        if (mActiveSlot != null && mActiveSlot.mCookie == cookie) {
+            mark(MediaRouterDiagnostics.RouteSelectionTrace.PHASE_CALLBACKS_NOTIFIED);
+            finish();
+        }
+    }
+
+    /** Returns the traces of the latest selections, from the oldest to the latest. */
+    @NonNull
+    public List<MediaRouterDiagnostics.RouteSelectionTrace> getTraces() {
+        List<MediaRouterDiagnostics.RouteSelectionTrace> traces = new ArrayList<>(mSlotCount);
+        for (int i = 0; i < mSlotCount; i++) {
+            Slot slot = mSlots[(mNextSlot - mSlotCount + i + CAPACITY) % CAPACITY];
+            traces.add(slot.createTrace());
+        }
+        return traces;
+    }
+
+    private void finish() {
+        TraceCompat.endAsyncSection(ASYNC_SECTION_NAME, mActiveSlot.mCookie);
+        mActiveSlot = null;
+    }
+
+    private static final class Slot {
+        final long[] mPhaseNanos =
+                new long[MediaRouterDiagnostics.RouteSelectionTrace.PHASE_COUNT];
+        int mCookie;
+        int mReachedPhases;
+        String mRouteId;
+        String mProviderPackageName;
+
+        void reset(int cookie, MediaRouter.RouteInfo route) {
+            mCookie = cookie;
+            mReachedPhases = 0;
+            mRouteId = route.getId();
+            mProviderPackageName = route.getProviderInstance().getMetadata().getPackageName();
+        }
+
+        MediaRouterDiagnostics.RouteSelectionTrace createTrace() {
+            long startNanos =
+                    mPhaseNanos[MediaRouterDiagnostics.RouteSelectionTrace.PHASE_SELECT_REQUESTED];
+            long[] phaseLatenciesMicros = new long[mPhaseNanos.length];
+            for (int phase = 0; phase < mPhaseNanos.length; phase++) {
+                phaseLatenciesMicros[phase] =
+                        (mReachedPhases & (1 << phase)) != 0
+                                ? (mPhaseNanos[phase] - startNanos) / 1000
+                                : -1;
+            }
+            return new MediaRouterDiagnostics.RouteSelectionTrace(
+                    mRouteId, mProviderPackageName, phaseLatenciesMicros);
+        }
+    }
+}
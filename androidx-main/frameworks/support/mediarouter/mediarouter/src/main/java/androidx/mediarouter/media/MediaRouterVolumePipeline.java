@@ -0,0 +1,236 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Coalesces the volume requests of routes before sending them to their route controllers. Must
+ * only be used on the main thread.
+ *
+ * <p>Only the latest volume requested for a route is sent, at most once per send interval, so that
+ * dragging a volume slider doesn't flood the route provider and the device behind it. The route
+ * reports the requested volume at once. Until the provider reports the volume sent last, or the
+ * echo timeout elapses, the volumes reported by the provider are echoes of earlier requests and
+ * are ignored, so that the volume doesn't jump back.
+ *
+ * <p>Relative volume updates are not coalesced, since they don't replace each other. They are sent
+ * after the pending volume, if any.
+ *
+ * <p>Coalescing is opt-in: while the send interval is zero, the default, each volume is sent to
+ * the route controller at once and the route shows the volumes reported by the provider.
+ */
+final class MediaRouterVolumePipeline {
+    /** The default minimum time between two volume requests sent for a route, which disables it. */
+    static final long DEFAULT_MIN_SEND_INTERVAL_MILLIS = 0;
+    // How long the volumes reported by the provider are ignored after sending a volume, unless
+    // the provider reports the sent volume before.
+    static final long ECHO_TIMEOUT_MILLIS = 1000;
+    private static final int VOLUME_NONE = -1;
+
+    private final GlobalMediaRouter mGlobalRouter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mMinSendIntervalMillis = DEFAULT_MIN_SEND_INTERVAL_MILLIS;
+
+    MediaRouterVolumePipeline(@NonNull GlobalMediaRouter globalRouter) {
+        mGlobalRouter = globalRouter;
+    }
+
+    /** Sets the minimum time between two volume requests sent for a route. */
+    public void setMinSendIntervalMillis(long minSendIntervalMillis) {
+        mMinSendIntervalMillis = Math.max(0, minSendIntervalMillis);
+    }
+
+    /**
+     * Shows the given volume for the route at once, and sends it to the route controller when
+     * the send interval allows it, unless another volume is requested in the meantime.
+     */
+    public void requestSetVolume(
+            @NonNull MediaRouter.RouteInfo route,
+            @NonNull MediaRouteProvider.RouteController controller,
+            int volume) {
+        if (mMinSendIntervalMillis == 0) {
+            cancelRequest(route);
+            controller.onSetVolume(volume);
+            return;
+        }
+        Request request = route.mVolumeRequest;
+        if (request == null || request.mController != controller) {
+            if (request != null) {
+                request.cancel();
+            }
+            request = new Request(route, controller);
+            route.mVolumeRequest = request;
+        }
+        request.mPendingVolume = volume;
+        request.mRequestedVolume = volume;
+        if (route.setVolumeLocally(volume)) {
+            mGlobalRouter.notifyRouteVolumeChangedLocally(route);
+        }
+        request.scheduleSend();
+    }
+
+    /**
+     * Sends the pending volume of the route, if any, before a relative volume update, and stops
+     * ignoring the volumes reported by the provider, since the resulting volume isn't known.
+     */
+    public void onUpdateVolume(@NonNull MediaRouter.RouteInfo route) {
+        Request request = route.mVolumeRequest;
+        if (request != null) {
+            if (request.mPendingVolume != VOLUME_NONE) {
+                request.send();
+            }
+            request.stopIgnoringReportedVolumes();
+        }
+    }
+
+    /**
+     * Drops the pending volume of the route, if any, and shows the volume reported by its
+     * provider, such as when the route is unselected.
+     */
+    static void cancelRequest(@NonNull MediaRouter.RouteInfo route) {
+        Request request = route.mVolumeRequest;
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Returns the volume to show for the route, given the volume reported by its provider.
+     */
+    static int filterReportedVolume(@NonNull MediaRouter.RouteInfo route, int reportedVolume) {
+        Request request = route.mVolumeRequest;
+        return request != null ? request.filterReportedVolume(reportedVolume) : reportedVolume;
+    }
+
+    /** The volume requests of a route, for a given route controller. */
+    final class Request {
+        final MediaRouter.RouteInfo mRoute;
+        final MediaRouteProvider.RouteController mController;
+        private final Runnable mSendRunnable = this::send;
+        private final Runnable mEchoTimeoutRunnable = this::onEchoTimeout;
+        // The volume waiting for the send interval to elapse.
+        int mPendingVolume = VOLUME_NONE;
+        // The volume requested last, which is shown until the provider reports it.
+        int mRequestedVolume = VOLUME_NONE;
+        private int mSentVolume = VOLUME_NONE;
+        private long mLastSendTimeMillis = -1;
+        private boolean mSendScheduled;
+        // Whether a volume was sent and the provider hasn't reported it yet.
+        private boolean mInFlight;
+
+        Request(
+                @NonNull MediaRouter.RouteInfo route,
+                @NonNull MediaRouteProvider.RouteController controller) {
+            mRoute = route;
+            mController = controller;
+        }
+
+        void scheduleSend() {
+            if (mSendScheduled) {
+                return;
+            }
+            long delayMillis =
+                    mLastSendTimeMillis + mMinSendIntervalMillis - SystemClock.uptimeMillis();
+            if (mLastSendTimeMillis < 0 || delayMillis <= 0) {
+                send();
+            } else {
+                mSendScheduled = true;
+                mHandler.postDelayed(mSendRunnable, delayMillis);
+            }
+        }
+
+        void send() {
+            mHandler.removeCallbacks(mSendRunnable);
+            mSendScheduled = false;
+            if (mPendingVolume == VOLUME_NONE) {
+                return;
+            }
+            if (mGlobalRouter.getRouteController(mRoute) != mController) {
+                // The route was unselected or its controller was replaced.
+                cancel();
+                return;
+            }
+            mSentVolume = mPendingVolume;
+            mPendingVolume = VOLUME_NONE;
+            mLastSendTimeMillis = SystemClock.uptimeMillis();
+            mInFlight = true;
+            mController.onSetVolume(mSentVolume);
+            mHandler.removeCallbacks(mEchoTimeoutRunnable);
+            mHandler.postDelayed(mEchoTimeoutRunnable, ECHO_TIMEOUT_MILLIS);
+        }
+
+        int filterReportedVolume(int reportedVolume) {
+            if (mGlobalRouter.getRouteController(mRoute) != mController) {
+                // The route was unselected or its controller was replaced.
+                release();
+                return reportedVolume;
+            }
+            if (mPendingVolume != VOLUME_NONE) {
+                return mRequestedVolume;
+            }
+            if (!mInFlight) {
+                return reportedVolume;
+            }
+            if (reportedVolume == mSentVolume) {
+                stopIgnoringReportedVolumes();
+                return reportedVolume;
+            }
+            return mRequestedVolume;
+        }
+
+        void stopIgnoringReportedVolumes() {
+            mInFlight = false;
+            mHandler.removeCallbacks(mEchoTimeoutRunnable);
+        }
+
+        void cancel() {
+            release();
+            showReportedVolume();
+        }
+
+        // Drops the pending volume, and detaches the request from its route.
+        private void release() {
+            mHandler.removeCallbacks(mSendRunnable);
+            mSendScheduled = false;
+            mPendingVolume = VOLUME_NONE;
+            stopIgnoringReportedVolumes();
+            if (mRoute.mVolumeRequest == this) {
+                mRoute.mVolumeRequest = null;
+            }
+        }
+
+        private void onEchoTimeout() {
+            mInFlight = false;
+            if (mPendingVolume == VOLUME_NONE) {
+                // The provider didn't report the sent volume, such as if it clamped it.
+                showReportedVolume();
+            }
+        }
+
+        private void showReportedVolume() {
+            MediaRouteDescriptor descriptor = mRoute.mDescriptor;
+            if (descriptor != null && mRoute.setVolumeLocally(descriptor.getVolume())) {
+                mGlobalRouter.notifyRouteVolumeChangedLocally(mRoute);
+            }
+        }
+    }
+}
@@ -29,6 +29,8 @@ import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_C
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REGISTER;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_RELEASE_ROUTE_CONTROLLER;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REMOVE_MEMBER_ROUTE;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_REQUEST_DESCRIPTOR;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_ROUTE_CONTROL_REQUEST;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_SELECT_ROUTE;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.CLIENT_MSG_SET_DISCOVERY_REQUEST;
@@ -47,6 +49,8 @@ import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_CONTROL_REQUEST_FAILED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_CONTROL_REQUEST_SUCCEEDED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_CHANGED;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_DELTA;
+import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DESCRIPTOR_PAGE;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DYNAMIC_ROUTE_CREATED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_DYNAMIC_ROUTE_DESCRIPTORS_CHANGED;
 import static androidx.mediarouter.media.MediaRouteProviderProtocol.SERVICE_MSG_GENERIC_FAILURE;
@@ -59,6 +63,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.DeadObjectException;
@@ -68,8 +73,8 @@ import android.os.IBinder.DeathRecipient;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -79,6 +84,7 @@ import androidx.mediarouter.media.MediaRouter.ControlRequestCallback;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Maintains a connection to a particular media route provider service.
@@ -88,6 +94,10 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
     static final String TAG = "MediaRouteProviderProxy";  // max. 23 chars
     static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
 
+    // The time after which the pages received of a descriptor are dropped, if the next page
+    // doesn't arrive.
+    private static final long DESCRIPTOR_PAGE_TIMEOUT_MILLIS = 10_000;
+
     private final ComponentName mComponentName;
     final PrivateHandler mPrivateHandler;
     private final ArrayList<ControllerConnection> mControllerConnections =
@@ -98,6 +108,25 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
     private Connection mActiveConnection;
     private boolean mConnectionReady;
     private ControllerCallback mControllerCallback;
+    // The control categories advertised by the service in its manifest and their bit set, or
+    // null if it doesn't advertise any.
+    @Nullable
+    private List<String> mAdvertisedControlCategories;
+    @Nullable
+    private long[] mAdvertisedControlCategoryBits;
+    // Null if the provider binds for discovery as soon as it needs to.
+    @Nullable
+    private StartupCallback mStartupCallback;
+    private boolean mBindAllowed = true;
+    private boolean mBindRequested;
+    private boolean mAwaitingFirstDescriptor;
+    private final MediaRouteProviderReconnectionPolicy mReconnectionPolicy =
+            new MediaRouteProviderReconnectionPolicy(new Random());
+    private final Runnable mRebindRunnable = this::updateBinding;
+    // The last update time of the package of the service when its connection was last lost.
+    private long mPackageUpdateTimeAtConnectionLoss;
+    @Nullable
+    private MediaRouterDiagnosticsRecorder mDiagnosticsRecorder;
 
     public RegisteredMediaRouteProvider(Context context, ComponentName componentName) {
         super(context, new ProviderMetadata(componentName));
@@ -178,7 +207,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         if (DEBUG) {
             Log.d(TAG, this + ": Service disconnected");
         }
-        disconnect();
+        onConnectionLost();
     }
 
     @NonNull
@@ -187,11 +216,6 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         return "Service connection " + mComponentName.flattenToShortString();
     }
 
-    public boolean hasComponentName(String packageName, String className) {
-        return mComponentName.getPackageName().equals(packageName)
-                && mComponentName.getClassName().equals(className);
-    }
-
     public void start() {
         if (!mStarted) {
             if (DEBUG) {
@@ -214,10 +238,29 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         }
     }
 
+    /**
+     * Forgets the connection losses of the service if its package was updated since, so that a
+     * fixed service is bound at once rather than after its backoff or quarantine.
+     *
+     * @param packageReplaced True if a broadcast reported that the package was replaced.
+     */
+    void onPackageScanned(boolean packageReplaced) {
+        if (!mReconnectionPolicy.hasConnectionLosses(SystemClock.uptimeMillis())) {
+            return;
+        }
+        if (packageReplaced || getPackageUpdateTime() != mPackageUpdateTimeAtConnectionLoss) {
+            if (DEBUG) {
+                Log.d(TAG, this + ": Package updated, forgetting connection losses");
+            }
+            mReconnectionPolicy.reset();
+            mPrivateHandler.removeCallbacks(mRebindRunnable);
+        }
+    }
+
     public void rebindIfDisconnected() {
         if (mActiveConnection == null && shouldBind()) {
             unbind();
-            bind();
+            updateBinding();
         }
     }
 
@@ -225,9 +268,73 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         mControllerCallback = controllerCallback;
     }
 
+    /**
+     * Sets the control categories that the service advertises in its manifest. Unless null,
+     * the service is only bound for discovery requests whose selector has one of them.
+     */
+    public void setAdvertisedControlCategories(@Nullable List<String> controlCategories) {
+        mAdvertisedControlCategories =
+                controlCategories != null ? new ArrayList<>(controlCategories) : null;
+        mAdvertisedControlCategoryBits = controlCategories != null
+                ? MediaControlCategoryRegistry.getCategoryBits(controlCategories) : null;
+        updateBinding();
+    }
+
+    /**
+     * Sets the callback that decides when the provider first binds to its service for discovery.
+     * Must be called before the provider is started.
+     */
+    public void setStartupCallback(@Nullable StartupCallback startupCallback) {
+        mStartupCallback = startupCallback;
+        mBindAllowed = startupCallback == null;
+    }
+
+    /**
+     * Sets the recorder that connection losses and control requests are reported to. Must be
+     * called before the provider is started.
+     */
+    void setDiagnosticsRecorder(@Nullable MediaRouterDiagnosticsRecorder diagnosticsRecorder) {
+        mDiagnosticsRecorder = diagnosticsRecorder;
+    }
+
+    /** Lets the provider bind to its service for discovery, once its startup was scheduled. */
+    void allowBind() {
+        mBindAllowed = true;
+        updateBinding();
+    }
+
+    /**
+     * Returns true if the service lost its connection too many times recently, and isn't bound
+     * until its quarantine ends.
+     */
+    boolean isQuarantined() {
+        return mReconnectionPolicy.isQuarantined(SystemClock.uptimeMillis());
+    }
+
+    /** Returns true if the provider is bound and its service hasn't published a descriptor yet. */
+    boolean isAwaitingFirstDescriptor() {
+        return mAwaitingFirstDescriptor;
+    }
+
+    /**
+     * Returns true if the service may publish routes matching the given discovery request,
+     * according to the control categories it advertises.
+     */
+    boolean isDiscoveryRequestRelevant(@NonNull MediaRouteDiscoveryRequest request) {
+        return mAdvertisedControlCategoryBits == null
+                || request.getSelector().matchesControlCategories(
+                        mAdvertisedControlCategoryBits, mAdvertisedControlCategories);
+    }
+
     private void updateBinding() {
         if (shouldBind()) {
-            bind();
+            // Selected routes don't wait for the startup of the provider to be scheduled.
+            if (mBindAllowed || !mControllerConnections.isEmpty()) {
+                bind();
+            } else if (!mBindRequested) {
+                mBindRequested = true;
+                mStartupCallback.onBindRequested(this);
+            }
         } else {
             unbind();
         }
@@ -235,8 +342,9 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
 
     private boolean shouldBind() {
         if (mStarted) {
-            // Bind whenever there is a discovery request.
-            if (getDiscoveryRequest() != null) {
+            // Bind whenever there is a discovery request the service may publish routes for.
+            MediaRouteDiscoveryRequest request = getDiscoveryRequest();
+            if (request != null && isDiscoveryRequestRelevant(request)) {
                 return true;
             }
 
@@ -251,6 +359,14 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
 
     private void bind() {
         if (!mBound) {
+            long delayMillis =
+                    mReconnectionPolicy.getBindDelayMillis(SystemClock.uptimeMillis());
+            if (delayMillis > 0) {
+                // The connection was lost recently. Bind once the backoff elapses, if needed.
+                mPrivateHandler.removeCallbacks(mRebindRunnable);
+                mPrivateHandler.postDelayed(mRebindRunnable, delayMillis);
+                return;
+            }
             if (DEBUG) {
                 Log.d(TAG, this + ": Binding");
             }
@@ -263,6 +379,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                     flags |= Context.BIND_INCLUDE_CAPABILITIES;
                 }
                 mBound = getContext().bindService(service, this, flags);
+                mAwaitingFirstDescriptor = mBound;
                 if (!mBound && DEBUG) {
                     Log.d(TAG, this + ": Bind failed");
                 }
@@ -281,12 +398,16 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
             }
 
             mBound = false;
+            mAwaitingFirstDescriptor = false;
             disconnect();
             try {
                 getContext().unbindService(this);
             } catch (IllegalArgumentException ex) {
                 Log.e(TAG, this + ": unbindService failed", ex);
             }
+            if (mStartupCallback != null) {
+                mStartupCallback.onUnbound(this);
+            }
         }
     }
 
@@ -308,6 +429,9 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                     if (mConnectionReady) {
                         ((ControllerConnection) controller).attachConnection(mActiveConnection);
                     }
+                    if (mStartupCallback != null) {
+                        mStartupCallback.onRouteControllerCreated(this);
+                    }
                     updateBinding();
                     return controller;
                 }
@@ -333,6 +457,9 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                     if (mConnectionReady) {
                         ((ControllerConnection) controller).attachConnection(mActiveConnection);
                     }
+                    if (mStartupCallback != null) {
+                        mStartupCallback.onRouteControllerCreated(this);
+                    }
                     updateBinding();
                     return controller;
                 }
@@ -358,7 +485,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
             if (DEBUG) {
                 Log.d(TAG, this + ": Service connection died");
             }
-            disconnect();
+            onConnectionLost();
         }
     }
 
@@ -367,10 +494,47 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
             if (DEBUG) {
                 Log.d(TAG, this + ": Service connection error - " + error);
             }
+            // Don't bind again right away if the service keeps failing.
+            recordConnectionLoss(SystemClock.uptimeMillis());
             unbind();
         }
     }
 
+    // Unbinds instead of letting the system restart the service at once, and binds again after
+    // the delay given by the reconnection policy.
+    private void onConnectionLost() {
+        long now = SystemClock.uptimeMillis();
+        long delayMillis = recordConnectionLoss(now);
+        if (mReconnectionPolicy.isQuarantined(now)) {
+            Log.w(TAG, this + ": Connection lost too many times, quarantined for "
+                    + delayMillis + " ms");
+        } else if (DEBUG) {
+            Log.d(TAG, this + ": Connection lost, binding again in " + delayMillis + " ms");
+        }
+        unbind();
+        updateBinding();
+    }
+
+    private long recordConnectionLoss(long now) {
+        mPackageUpdateTimeAtConnectionLoss = getPackageUpdateTime();
+        long delayMillis = mReconnectionPolicy.onConnectionLost(now);
+        if (mDiagnosticsRecorder != null) {
+            mDiagnosticsRecorder.onProviderConnectionLost(mReconnectionPolicy.isQuarantined(now));
+        }
+        return delayMillis;
+    }
+
+    private long getPackageUpdateTime() {
+        try {
+            return getContext()
+                    .getPackageManager()
+                    .getPackageInfo(mComponentName.getPackageName(), 0)
+                    .lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException ex) {
+            return 0;
+        }
+    }
+
     void onConnectionDescriptorChanged(Connection connection,
             MediaRouteProviderDescriptor descriptor) {
         if (mActiveConnection == connection) {
@@ -378,6 +542,10 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                 Log.d(TAG, this + ": Descriptor changed, descriptor=" + descriptor);
             }
             setDescriptor(descriptor);
+            mAwaitingFirstDescriptor = false;
+            if (mStartupCallback != null && descriptor != null) {
+                mStartupCallback.onDescriptorChanged(this, descriptor);
+            }
         }
     }
 
@@ -738,9 +906,23 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         private int mNextControllerId = 1;
         private int mServiceVersion; // non-zero when registration complete
 
+        // The descriptor received last and its sequence number, which descriptor deltas apply to.
+        private MediaRouteProviderDescriptor mDescriptor;
+        private int mDescriptorSequenceNumber;
+        private boolean mDescriptorRequested;
+        private final MediaRouteProviderDescriptorPages.Assembler mDescriptorPages =
+                new MediaRouteProviderDescriptorPages.Assembler();
+        private final Runnable mDescriptorPageTimeoutRunnable = this::onDescriptorPageTimeout;
+
         private int mPendingRegisterRequestId;
-        private final SparseArray<ControlRequestCallback> mPendingCallbacks =
-                new SparseArray<ControlRequestCallback>();
+        // Responses are received on the main thread, where the callbacks are invoked at once.
+        private final MediaRouteControlRequestQueue mPendingRequests =
+                new MediaRouteControlRequestQueue(
+                        mPrivateHandler,
+                        Runnable::run,
+                        MediaRouteControlRequestQueue.DEFAULT_TIMEOUT_MILLIS,
+                        MediaRouteControlRequestQueue.DEFAULT_MAX_IN_FLIGHT_REQUESTS,
+                        mDiagnosticsRecorder);
 
         public Connection(Messenger serviceMessenger) {
             mServiceMessenger = serviceMessenger;
@@ -768,6 +950,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         public void dispose() {
             sendRequest(CLIENT_MSG_UNREGISTER, 0, 0, null, null);
             mReceiveHandler.dispose();
+            mPrivateHandler.removeCallbacks(mDescriptorPageTimeoutRunnable);
             mServiceMessenger.getBinder().unlinkToDeath(this, 0);
 
             mPrivateHandler.post(new Runnable() {
@@ -779,11 +962,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         }
 
         void failPendingCallbacks() {
-            int count = mPendingCallbacks.size();
-            for (int i = 0; i < count; i++) {
-                mPendingCallbacks.valueAt(i).onError(null, null);
-            }
-            mPendingCallbacks.clear();
+            mPendingRequests.failAll();
         }
 
         public void onGenericFailure(int requestId) {
@@ -791,11 +970,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                 mPendingRegisterRequestId = 0;
                 onConnectionError(this, "Registration failed");
             }
-            ControlRequestCallback callback = mPendingCallbacks.get(requestId);
-            if (callback != null) {
-                mPendingCallbacks.remove(requestId);
-                callback.onError(null, null);
-            }
+            mPendingRequests.deliverError(requestId, null, null);
         }
 
         public boolean onRegistered(int requestId, int serviceVersion,
@@ -805,23 +980,100 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                     && serviceVersion >= SERVICE_VERSION_1) {
                 mPendingRegisterRequestId = 0;
                 mServiceVersion = serviceVersion;
-                onConnectionDescriptorChanged(this,
-                        MediaRouteProviderDescriptor.fromBundle(descriptorBundle));
+                if (MediaRouteProviderDescriptorPages.isPagesFollowBundle(descriptorBundle)) {
+                    // Keep the routes known so far until all the pages are received.
+                    mPrivateHandler.postDelayed(
+                            mDescriptorPageTimeoutRunnable, DESCRIPTOR_PAGE_TIMEOUT_MILLIS);
+                } else {
+                    setDescriptor(/* sequenceNumber= */ 0, MediaRouteProviderDescriptor.fromBundle(
+                            MediaRouteProviderDescriptorCodec.decode(descriptorBundle)));
+                }
                 onConnectionReady(this);
                 return true;
             }
             return false;
         }
 
-        public boolean onDescriptorChanged(Bundle descriptorBundle) {
+        public boolean onDescriptorChanged(int sequenceNumber, Bundle descriptorBundle) {
             if (mServiceVersion != 0) {
-                onConnectionDescriptorChanged(this,
-                        MediaRouteProviderDescriptor.fromBundle(descriptorBundle));
+                mDescriptorRequested = false;
+                mDescriptorPages.reset();
+                mPrivateHandler.removeCallbacks(mDescriptorPageTimeoutRunnable);
+                setDescriptor(sequenceNumber, MediaRouteProviderDescriptor.fromBundle(
+                        MediaRouteProviderDescriptorCodec.decode(descriptorBundle)));
                 return true;
             }
             return false;
         }
 
+        public boolean onDescriptorDelta(int sequenceNumber, Bundle deltaBundle) {
+            if (mServiceVersion == 0) {
+                return false;
+            }
+            if (mDescriptorRequested) {
+                // Superseded by the requested full descriptor.
+                return true;
+            }
+            MediaRouteProviderDescriptor descriptor = null;
+            if (mDescriptor != null && sequenceNumber == mDescriptorSequenceNumber + 1) {
+                descriptor = MediaRouteProviderDescriptorDelta.apply(mDescriptor, deltaBundle);
+            }
+            if (descriptor == null) {
+                Log.w(TAG, "Requesting the full descriptor after a gap in descriptor deltas,"
+                        + " sequenceNumber=" + sequenceNumber
+                        + ", lastSequenceNumber=" + mDescriptorSequenceNumber);
+                mDescriptorRequested = sendRequest(CLIENT_MSG_REQUEST_DESCRIPTOR,
+                        mNextRequestId++, 0, null, null);
+                return true;
+            }
+            setDescriptor(sequenceNumber, descriptor);
+            return true;
+        }
+
+        public boolean onDescriptorPage(int sequenceNumber, Bundle pageBundle) {
+            if (mServiceVersion == 0) {
+                return false;
+            }
+            // Lets the service send the next page.
+            sendRequest(CLIENT_MSG_DESCRIPTOR_PAGE_RECEIVED, 0, sequenceNumber, null, null);
+            mPrivateHandler.removeCallbacks(mDescriptorPageTimeoutRunnable);
+            if (!mDescriptorPages.addPage(sequenceNumber, pageBundle)) {
+                Log.w(TAG, "Requesting the full descriptor after a missing descriptor page,"
+                        + " sequenceNumber=" + sequenceNumber);
+                requestDescriptor();
+                return true;
+            }
+            if (mDescriptorPages.isComplete()) {
+                mDescriptorRequested = false;
+                setDescriptor(sequenceNumber, MediaRouteProviderDescriptor.fromBundle(
+                        mDescriptorPages.takeDescriptorBundle()));
+            } else {
+                mPrivateHandler.postDelayed(
+                        mDescriptorPageTimeoutRunnable, DESCRIPTOR_PAGE_TIMEOUT_MILLIS);
+            }
+            return true;
+        }
+
+        void onDescriptorPageTimeout() {
+            Log.w(TAG, "Requesting the full descriptor after the descriptor pages stopped");
+            mDescriptorPages.reset();
+            requestDescriptor();
+        }
+
+        private void requestDescriptor() {
+            if (!mDescriptorRequested) {
+                mDescriptorRequested = sendRequest(CLIENT_MSG_REQUEST_DESCRIPTOR,
+                        mNextRequestId++, 0, null, null);
+            }
+        }
+
+        private void setDescriptor(int sequenceNumber,
+                @Nullable MediaRouteProviderDescriptor descriptor) {
+            mDescriptorSequenceNumber = sequenceNumber;
+            mDescriptor = descriptor;
+            onConnectionDescriptorChanged(this, descriptor);
+        }
+
         public boolean onDynamicRouteDescriptorsChanged(
                 int controllerId, Bundle descriptorsBundle) {
             if (mServiceVersion != 0) {
@@ -845,33 +1097,19 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         }
 
         public boolean onControlRequestSucceeded(int requestId, Bundle data) {
-            ControlRequestCallback callback = mPendingCallbacks.get(requestId);
-            if (callback != null) {
-                mPendingCallbacks.remove(requestId);
-                callback.onResult(data);
-                return true;
-            }
-            return false;
+            return mPendingRequests.deliverResult(requestId, data);
         }
 
         public boolean onControlRequestFailed(int requestId, String error, Bundle data) {
-            ControlRequestCallback callback = mPendingCallbacks.get(requestId);
-            if (callback != null) {
-                mPendingCallbacks.remove(requestId);
-                callback.onError(error, data);
-                return true;
-            }
-            return false;
+            return mPendingRequests.deliverError(requestId, error, data);
         }
 
         public void onDynamicGroupRouteControllerCreated(int requestId, Bundle data) {
-            ControlRequestCallback callback = mPendingCallbacks.get(requestId);
             if (data != null && data.containsKey(CLIENT_DATA_ROUTE_ID)) {
-                mPendingCallbacks.remove(requestId);
-                callback.onResult(data);
+                mPendingRequests.deliverResult(requestId, data);
             } else {
-                callback.onError("DynamicGroupRouteController is created without valid route id.",
-                        data);
+                mPendingRequests.deliverError(requestId,
+                        "DynamicGroupRouteController is created without valid route id.", data);
             }
         }
 
@@ -917,7 +1155,7 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
                     CLIENT_DATA_ROUTE_CONTROLLER_OPTIONS, routeControllerOptions.asBundle());
             sendRequest(CLIENT_MSG_CREATE_DYNAMIC_GROUP_ROUTE_CONTROLLER,
                     requestId, controllerId, null, data);
-            mPendingCallbacks.put(requestId, callback);
+            mPendingRequests.trackRequest(requestId, callback);
             return controllerId;
         }
 
@@ -955,14 +1193,9 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
         public boolean sendControlRequest(int controllerId, Intent intent,
                 ControlRequestCallback callback) {
             int requestId = mNextRequestId++;
-            if (sendRequest(CLIENT_MSG_ROUTE_CONTROL_REQUEST,
-                    requestId, controllerId, intent, null)) {
-                if (callback != null) {
-                    mPendingCallbacks.put(requestId, callback);
-                }
-                return true;
-            }
-            return false;
+            return mPendingRequests.sendControlRequest(requestId, callback,
+                    id -> sendRequest(CLIENT_MSG_ROUTE_CONTROL_REQUEST,
+                            id, controllerId, intent, null));
         }
 
         public void updateMemberRoutes(int controllerId, List<String> memberRouteIds) {
@@ -1073,7 +1306,22 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
 
                 case SERVICE_MSG_DESCRIPTOR_CHANGED:
                     if (obj == null || obj instanceof Bundle) {
-                        return connection.onDescriptorChanged((Bundle) obj);
+                        return connection.onDescriptorChanged(
+                                arg /* sequenceNumber */, (Bundle) obj);
+                    }
+                    break;
+
+                case SERVICE_MSG_DESCRIPTOR_DELTA:
+                    if (obj == null || obj instanceof Bundle) {
+                        return connection.onDescriptorDelta(
+                                arg /* sequenceNumber */, (Bundle) obj);
+                    }
+                    break;
+
+                case SERVICE_MSG_DESCRIPTOR_PAGE:
+                    if (obj == null || obj instanceof Bundle) {
+                        return connection.onDescriptorPage(
+                                arg /* sequenceNumber */, (Bundle) obj);
                     }
                     break;
 
@@ -1120,4 +1368,21 @@ final class RegisteredMediaRouteProvider extends MediaRouteProvider
     interface ControllerCallback {
         void onControllerReleasedByProvider(RouteController controller);
     }
+
+    /** Decides when the provider first binds to its service for discovery. */
+    interface StartupCallback {
+        /** Called when the provider needs to bind for discovery, until {@link #allowBind()}. */
+        void onBindRequested(@NonNull RegisteredMediaRouteProvider provider);
+
+        /** Called when the service published a descriptor. */
+        void onDescriptorChanged(
+                @NonNull RegisteredMediaRouteProvider provider,
+                @NonNull MediaRouteProviderDescriptor descriptor);
+
+        /** Called when the provider unbound from its service. */
+        void onUnbound(@NonNull RegisteredMediaRouteProvider provider);
+
+        /** Called when a route controller was created, such as when a route is selected. */
+        void onRouteControllerCreated(@NonNull RegisteredMediaRouteProvider provider);
+    }
 }
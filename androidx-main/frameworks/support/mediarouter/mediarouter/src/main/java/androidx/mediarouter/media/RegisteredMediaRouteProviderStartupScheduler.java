@@ -0,0 +1,318 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mediarouter.media;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.os.UserManagerCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schedules the first binding of registered media route providers for discovery, so that a cold
+ * start of the media router doesn't bind all the provider services at once. Must only be used on
+ * the thread of the given handler.
+ *
+ * <p>Providers are started in priority order: the providers of the application's own package
+ * first, then the providers whose routes were selected recently, then the others in the order
+ * they requested to bind. Starts are staggered, and at most a given number of providers are
+ * starting at once. A provider is starting from the time it binds until its service publishes a
+ * descriptor, unbinds, or the startup timeout elapses.
+ *
+ * <p>The recently used providers are kept in memory. If persistence is enabled, they are also
+ * saved in shared preferences, which are read on a background thread: until they are loaded, the
+ * providers used before the application started have no priority. The preferences are not used
+ * while the user is locked, since they are in credential encrypted storage.
+ *
+ * <p>The time from the bind request of a provider to its first route is recorded for diagnostics.
+ */
+final class RegisteredMediaRouteProviderStartupScheduler
+        implements RegisteredMediaRouteProvider.StartupCallback {
+    /** The default number of providers that can be starting at once. */
+    static final int DEFAULT_MAX_CONCURRENT_STARTUPS = 3;
+    private static final long STAGGER_DELAY_MILLIS = 50;
+    private static final long STARTUP_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_RECENT_PROVIDERS = 8;
+    private static final String TAG = "MRProviderStartup";
+    private static final String THREAD_NAME = "MediaRouteProviderStartup";
+    static final String PREFERENCES_NAME = "androidx.mediarouter.media.ProviderStartup";
+    static final String KEY_RECENT_PROVIDERS = "recentProviders";
+
+    private final Context mContext;
+    private final String mPackageName;
+    private final Handler mHandler;
+    private final ArrayList<RegisteredMediaRouteProvider> mPendingProviders = new ArrayList<>();
+    private final ArrayList<RegisteredMediaRouteProvider> mStartingProviders = new ArrayList<>();
+    private final Map<RegisteredMediaRouteProvider, Long> mBindRequestTimes = new HashMap<>();
+    private final Map<String, Long> mTimeToFirstRouteMillis = new LinkedHashMap<>();
+    private final Runnable mStartNextProviderRunnable = this::startNextProvider;
+    // The flattened component names of the recently used providers, the latest first.
+    private final List<String> mRecentProviders = new ArrayList<>();
+    // Null unless persistence is enabled and the preferences were loaded.
+    @Nullable
+    private SharedPreferences mPreferences;
+    private boolean mPersistenceEnabled;
+    // Incremented when persistence is enabled or disabled, so that stale loads are ignored.
+    private int mLoadGeneration;
+    private int mMaxConcurrentStartups = DEFAULT_MAX_CONCURRENT_STARTUPS;
+    private long mLastStartUptimeMillis;
+    private boolean mStartScheduled;
+
+    RegisteredMediaRouteProviderStartupScheduler(
+            @NonNull Context context, @NonNull Handler handler) {
+        mContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        mPackageName = context.getPackageName();
+        mHandler = handler;
+    }
+
+    /**
+     * Sets whether the recently used providers are saved in shared preferences, so that they are
+     * started first after the application restarts. Disabling it deletes the saved providers.
+     */
+    public void setRecentProviderPersistenceEnabled(boolean enabled) {
+        if (mPersistenceEnabled == enabled) {
+            return;
+        }
+        mPersistenceEnabled = enabled;
+        int generation = ++mLoadGeneration;
+        if (!enabled) {
+            if (mPreferences != null) {
+                mPreferences.edit().remove(KEY_RECENT_PROVIDERS).apply();
+                mPreferences = null;
+            }
+            return;
+        }
+        Context context = mContext;
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            SharedPreferences preferences = openPreferences(context);
+            List<String> recentProviders = preferences != null
+                    ? parseRecentProviders(preferences.getString(KEY_RECENT_PROVIDERS, null))
+                    : Collections.emptyList();
+            mHandler.post(() -> onRecentProvidersLoaded(generation, preferences, recentProviders));
+        }, THREAD_NAME);
+        thread.start();
+    }
+
+    /** Sets the number of providers that can be starting at once. */
+    public void setMaxConcurrentStartups(int maxConcurrentStartups) {
+        mMaxConcurrentStartups = Math.max(1, maxConcurrentStartups);
+        scheduleStartNextProvider();
+    }
+
+    /** Forgets the given provider, such as when its service was uninstalled. */
+    public void removeProvider(@NonNull RegisteredMediaRouteProvider provider) {
+        mPendingProviders.remove(provider);
+        mBindRequestTimes.remove(provider);
+        finishStartup(provider);
+    }
+
+    /**
+     * Returns the time from the bind request of each provider to its first route, in
+     * milliseconds, keyed by the flattened component name of the provider.
+     */
+    @NonNull
+    public Map<String, Long> getTimeToFirstRouteMillis() {
+        return new LinkedHashMap<>(mTimeToFirstRouteMillis);
+    }
+
+    @VisibleForTesting
+    @NonNull
+    List<RegisteredMediaRouteProvider> getPendingProvidersForTesting() {
+        return new ArrayList<>(mPendingProviders);
+    }
+
+    @VisibleForTesting
+    boolean isRecentProvidersLoadedForTesting() {
+        return mPreferences != null;
+    }
+
+    @Override
+    public void onBindRequested(@NonNull RegisteredMediaRouteProvider provider) {
+        mBindRequestTimes.put(provider, SystemClock.uptimeMillis());
+        int priority = getPriority(provider);
+        int index = 0;
+        while (index < mPendingProviders.size()
+                && getPriority(mPendingProviders.get(index)) <= priority) {
+            index++;
+        }
+        mPendingProviders.add(index, provider);
+        scheduleStartNextProvider();
+    }
+
+    @Override
+    public void onDescriptorChanged(
+            @NonNull RegisteredMediaRouteProvider provider,
+            @NonNull MediaRouteProviderDescriptor descriptor) {
+        finishStartup(provider);
+        Long bindRequestTime = mBindRequestTimes.get(provider);
+        if (bindRequestTime != null && !descriptor.getRoutes().isEmpty()) {
+            mBindRequestTimes.remove(provider);
+            mTimeToFirstRouteMillis.put(
+                    getComponentName(provider), SystemClock.uptimeMillis() - bindRequestTime);
+        }
+    }
+
+    @Override
+    public void onUnbound(@NonNull RegisteredMediaRouteProvider provider) {
+        mBindRequestTimes.remove(provider);
+        finishStartup(provider);
+    }
+
+    @Override
+    public void onRouteControllerCreated(@NonNull RegisteredMediaRouteProvider provider) {
+        String componentName = getComponentName(provider);
+        mRecentProviders.remove(componentName);
+        mRecentProviders.add(0, componentName);
+        trimRecentProviders();
+        saveRecentProviders();
+    }
+
+    private void onRecentProvidersLoaded(
+            int generation,
+            @Nullable SharedPreferences preferences,
+            @NonNull List<String> loadedRecentProviders) {
+        if (generation != mLoadGeneration) {
+            if (!mPersistenceEnabled && preferences != null) {
+                // Persistence was disabled while loading.
+                preferences.edit().remove(KEY_RECENT_PROVIDERS).apply();
+            }
+            return;
+        }
+        mPreferences = preferences;
+        // The providers used since the application started are more recent.
+        boolean usedSinceStart = !mRecentProviders.isEmpty();
+        for (String componentName : loadedRecentProviders) {
+            if (!mRecentProviders.contains(componentName)) {
+                mRecentProviders.add(componentName);
+            }
+        }
+        trimRecentProviders();
+        if (usedSinceStart) {
+            saveRecentProviders();
+        }
+        // Sorting is stable, so providers of the same priority keep their order.
+        Collections.sort(mPendingProviders,
+                (provider1, provider2) ->
+                        Integer.compare(getPriority(provider1), getPriority(provider2)));
+    }
+
+    private void trimRecentProviders() {
+        while (mRecentProviders.size() > MAX_RECENT_PROVIDERS) {
+            mRecentProviders.remove(mRecentProviders.size() - 1);
+        }
+    }
+
+    private void saveRecentProviders() {
+        if (mPreferences != null) {
+            mPreferences
+                    .edit()
+                    .putString(KEY_RECENT_PROVIDERS, TextUtils.join(",", mRecentProviders))
+                    .apply();
+        }
+    }
+
+    // Called on a background thread. Returns null if the preferences can't be used, such as while
+    // the user is locked after a reboot.
+    @Nullable
+    private static SharedPreferences openPreferences(@NonNull Context context) {
+        if (!UserManagerCompat.isUserUnlocked(context)) {
+            return null;
+        }
+        try {
+            return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        } catch (IllegalStateException ex) {
+            Log.w(TAG, "Failed to open the recent providers.", ex);
+            return null;
+        }
+    }
+
+    @NonNull
+    private static List<String> parseRecentProviders(@Nullable String value) {
+        return TextUtils.isEmpty(value)
+                ? Collections.emptyList()
+                : Arrays.asList(TextUtils.split(value, ","));
+    }
+
+    private void scheduleStartNextProvider() {
+        if (mStartScheduled
+                || mPendingProviders.isEmpty()
+                || mStartingProviders.size() >= mMaxConcurrentStartups) {
+            return;
+        }
+        mStartScheduled = true;
+        long delayMillis =
+                mLastStartUptimeMillis + STAGGER_DELAY_MILLIS - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mStartNextProviderRunnable, Math.max(0, delayMillis));
+    }
+
+    private void startNextProvider() {
+        mStartScheduled = false;
+        if (mPendingProviders.isEmpty()
+                || mStartingProviders.size() >= mMaxConcurrentStartups) {
+            return;
+        }
+        RegisteredMediaRouteProvider provider = mPendingProviders.remove(0);
+        mLastStartUptimeMillis = SystemClock.uptimeMillis();
+        provider.allowBind();
+        if (provider.isAwaitingFirstDescriptor()) {
+            mStartingProviders.add(provider);
+            mHandler.postAtTime(
+                    () -> finishStartup(provider),
+                    provider,
+                    mLastStartUptimeMillis + STARTUP_TIMEOUT_MILLIS);
+        }
+        scheduleStartNextProvider();
+    }
+
+    private void finishStartup(@NonNull RegisteredMediaRouteProvider provider) {
+        if (mStartingProviders.remove(provider)) {
+            mHandler.removeCallbacksAndMessages(provider);
+            scheduleStartNextProvider();
+        }
+    }
+
+    // Lower values are started first.
+    private int getPriority(@NonNull RegisteredMediaRouteProvider provider) {
+        if (mPackageName.equals(provider.getMetadata().getPackageName())) {
+            return 0;
+        }
+        int recentIndex = mRecentProviders.indexOf(getComponentName(provider));
+        return recentIndex >= 0 ? 1 + recentIndex : Integer.MAX_VALUE;
+    }
+
+    @NonNull
+    private static String getComponentName(@NonNull RegisteredMediaRouteProvider provider) {
+        return provider.getMetadata().getComponentName().flattenToShortString();
+    }
+}
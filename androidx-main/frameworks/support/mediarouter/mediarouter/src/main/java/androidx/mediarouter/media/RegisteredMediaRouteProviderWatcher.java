@@ -25,31 +25,58 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
 import android.media.MediaRoute2ProviderService;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Watches for media route provider services to be installed.
  * Adds a provider to the media router for each registered service.
  *
+ * <p>All the packages are scanned when the watcher starts. Afterwards, only the packages named by
+ * package broadcasts are scanned again, in one pass for the broadcasts received in a short
+ * window, such as when many applications are updated at once.
+ *
  * @see RegisteredMediaRouteProvider
  */
 final class RegisteredMediaRouteProviderWatcher {
+    // The time during which package broadcasts are batched into one scan.
+    private static final long PACKAGE_SCAN_DELAY_MILLIS = 500;
+
     private final Context mContext;
     final Callback mCallback;
     private final Handler mHandler;
     private final PackageManager mPackageManager;
+    private final RegisteredMediaRouteProviderStartupScheduler mStartupScheduler;
+    @Nullable
+    private MediaRouterDiagnosticsRecorder mDiagnosticsRecorder;
 
-    private final ArrayList<RegisteredMediaRouteProvider> mProviders = new ArrayList<>();
+    private final Map<ComponentName, RegisteredMediaRouteProvider> mProviders =
+            new LinkedHashMap<>();
+    // The class names of the MediaRoute2ProviderService services, keyed by package name.
+    private final Map<String, Set<String>> mMediaRoute2ProviderServices = new HashMap<>();
+    // The packages to scan in the next scan, unless all packages are scanned.
+    private final Set<String> mPendingPackageNames = new HashSet<>();
+    // The packages that broadcasts reported as replaced since they were last scanned.
+    private final Set<String> mReplacedPackageNames = new HashSet<>();
+    private boolean mFullScanPending;
     private boolean mMediaTransferRestrictedToSelfProviders;
     private boolean mRunning;
 
@@ -58,6 +85,7 @@ final class RegisteredMediaRouteProviderWatcher {
         mCallback = callback;
         mHandler = new Handler();
         mPackageManager = context.getPackageManager();
+        mStartupScheduler = new RegisteredMediaRouteProviderStartupScheduler(context, mHandler);
     }
 
     public void start() {
@@ -78,24 +106,38 @@ final class RegisteredMediaRouteProviderWatcher {
 
             // Scan packages.
             // Also has the side-effect of restarting providers if needed.
-            mHandler.post(mScanPackagesRunnable);
+            rescan();
         }
     }
 
+    /** Scans all the packages again. */
     public void rescan() {
+        mFullScanPending = true;
+        mHandler.removeCallbacks(mScanPackagesRunnable);
         mHandler.post(mScanPackagesRunnable);
     }
 
+    /** Scans the given package again, after the broadcasts received shortly after. */
+    private void rescanPackage(@NonNull String packageName) {
+        if (!mFullScanPending && mPendingPackageNames.isEmpty()) {
+            mHandler.postDelayed(mScanPackagesRunnable, PACKAGE_SCAN_DELAY_MILLIS);
+        }
+        mPendingPackageNames.add(packageName);
+    }
+
     public void stop() {
         if (mRunning) {
             mRunning = false;
 
             mContext.unregisterReceiver(mScanPackagesReceiver);
             mHandler.removeCallbacks(mScanPackagesRunnable);
+            mFullScanPending = false;
+            mPendingPackageNames.clear();
+            mReplacedPackageNames.clear();
 
             // Stop all providers.
-            for (int i = mProviders.size() - 1; i >= 0; i--) {
-                mProviders.get(i).stop();
+            for (RegisteredMediaRouteProvider provider : mProviders.values()) {
+                provider.stop();
             }
         }
     }
@@ -106,86 +148,199 @@ final class RegisteredMediaRouteProviderWatcher {
         rescan();
     }
 
+    /* package */ void setMaxConcurrentProviderStartups(int maxConcurrentProviderStartups) {
+        mStartupScheduler.setMaxConcurrentStartups(maxConcurrentProviderStartups);
+    }
+
+    /**
+     * Sets the recorder that the providers report their connection losses and control requests
+     * to. Must be called before the watcher is started.
+     */
+    /* package */ void setDiagnosticsRecorder(
+            @Nullable MediaRouterDiagnosticsRecorder diagnosticsRecorder) {
+        mDiagnosticsRecorder = diagnosticsRecorder;
+    }
+
+    /* package */ void setRecentProviderPersistenceEnabled(boolean enabled) {
+        mStartupScheduler.setRecentProviderPersistenceEnabled(enabled);
+    }
+
+    /**
+     * Returns the time from the first bind request of each provider to its first route, keyed by
+     * the flattened component name of the provider.
+     */
+    @NonNull
+    /* package */ Map<String, Long> getProviderTimeToFirstRouteMillis() {
+        return mStartupScheduler.getTimeToFirstRouteMillis();
+    }
+
+    /**
+     * Returns the flattened component names of the providers that are quarantined because their
+     * service lost its connection too many times recently.
+     */
+    @NonNull
+    /* package */ List<String> getQuarantinedProviders() {
+        List<String> quarantinedProviders = new ArrayList<>();
+        for (RegisteredMediaRouteProvider provider : mProviders.values()) {
+            if (provider.isQuarantined()) {
+                quarantinedProviders.add(
+                        provider.getMetadata().getComponentName().flattenToShortString());
+            }
+        }
+        return quarantinedProviders;
+    }
+
     @VisibleForTesting
     /* package */ boolean isMediaTransferRestrictedToSelfProvidersForTesting() {
         return mMediaTransferRestrictedToSelfProviders;
     }
 
-    void scanPackages() {
+    void scanPendingPackages() {
+        Collection<String> packageNames =
+                mFullScanPending ? null : new ArrayList<>(mPendingPackageNames);
+        mFullScanPending = false;
+        mPendingPackageNames.clear();
+        scanPackages(packageNames);
+    }
+
+    /**
+     * Adds, updates and removes the providers of the services of the given packages.
+     *
+     * @param packageNames The packages to scan, or null to scan all packages.
+     */
+    @VisibleForTesting
+    void scanPackages(@Nullable Collection<String> packageNames) {
         if (!mRunning) {
             return;
         }
 
-        List<ServiceInfo> mediaRoute2ProviderServices = new ArrayList<>();
+        if (packageNames == null) {
+            mMediaRoute2ProviderServices.clear();
+        } else {
+            for (String packageName : packageNames) {
+                mMediaRoute2ProviderServices.remove(packageName);
+            }
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            mediaRoute2ProviderServices = getMediaRoute2ProviderServices();
+            for (ServiceInfo serviceInfo : getMediaRoute2ProviderServices(packageNames)) {
+                Set<String> classNames = mMediaRoute2ProviderServices.get(serviceInfo.packageName);
+                if (classNames == null) {
+                    classNames = new HashSet<>();
+                    mMediaRoute2ProviderServices.put(serviceInfo.packageName, classNames);
+                }
+                classNames.add(serviceInfo.name);
+            }
         }
 
         // Add providers for all new services.
-        // Reorder the list so that providers left at the end will be the ones to remove.
-        int targetIndex = 0;
-        Intent intent = new Intent(MediaRouteProviderService.SERVICE_INTERFACE);
-        for (ResolveInfo resolveInfo : mPackageManager.queryIntentServices(intent, 0)) {
-            ServiceInfo serviceInfo = resolveInfo.serviceInfo;
-            if (serviceInfo == null) {
-                continue;
-            }
-            if (MediaRouter.isMediaTransferEnabled()
-                    && listContainsServiceInfo(mediaRoute2ProviderServices, serviceInfo)) {
+        Set<ComponentName> scannedServices = new HashSet<>();
+        for (ServiceInfo serviceInfo : queryServices(
+                new Intent(MediaRouteProviderService.SERVICE_INTERFACE),
+                PackageManager.GET_META_DATA,
+                packageNames)) {
+            if (MediaRouter.isMediaTransferEnabled() && isMediaRoute2ProviderService(serviceInfo)) {
                 // Do not register services which supports MediaRoute2ProviderService,
                 // since we will communicate with them via MediaRouter2.
                 continue;
             }
-            int sourceIndex = findProvider(serviceInfo.packageName, serviceInfo.name);
-            if (sourceIndex < 0) {
-                RegisteredMediaRouteProvider provider = new RegisteredMediaRouteProvider(
-                        mContext, new ComponentName(serviceInfo.packageName, serviceInfo.name));
-                provider.setControllerCallback(
-                        controller -> mCallback.releaseProviderController(provider, controller));
-                provider.start();
-                mProviders.add(targetIndex++, provider);
-                mCallback.addProvider(provider);
-            } else if (sourceIndex >= targetIndex) {
-                RegisteredMediaRouteProvider provider = mProviders.get(sourceIndex);
+            ComponentName componentName =
+                    new ComponentName(serviceInfo.packageName, serviceInfo.name);
+            if (!scannedServices.add(componentName)) {
+                continue;
+            }
+            RegisteredMediaRouteProvider provider = mProviders.get(componentName);
+            if (provider == null) {
+                RegisteredMediaRouteProvider newProvider =
+                        new RegisteredMediaRouteProvider(mContext, componentName);
+                newProvider.setControllerCallback(
+                        controller -> mCallback.releaseProviderController(newProvider, controller));
+                newProvider.setAdvertisedControlCategories(
+                        getAdvertisedControlCategories(serviceInfo));
+                newProvider.setStartupCallback(mStartupScheduler);
+                newProvider.setDiagnosticsRecorder(mDiagnosticsRecorder);
+                newProvider.start();
+                mProviders.put(componentName, newProvider);
+                mCallback.addProvider(newProvider);
+            } else {
+                // The categories may have changed if the package was updated.
+                provider.setAdvertisedControlCategories(
+                        getAdvertisedControlCategories(serviceInfo));
+                // An updated service may no longer crash, so don't keep it backing off.
+                provider.onPackageScanned(mReplacedPackageNames.contains(serviceInfo.packageName));
                 provider.start(); // restart the provider if needed
                 provider.rebindIfDisconnected();
-                Collections.swap(mProviders, sourceIndex, targetIndex++);
             }
         }
 
-        // Remove providers for missing services.
-        if (targetIndex < mProviders.size()) {
-            for (int i = mProviders.size() - 1; i >= targetIndex; i--) {
-                RegisteredMediaRouteProvider provider = mProviders.get(i);
+        if (packageNames == null) {
+            mReplacedPackageNames.clear();
+        } else {
+            mReplacedPackageNames.removeAll(packageNames);
+        }
+
+        // Remove providers for missing services of the scanned packages.
+        Iterator<Map.Entry<ComponentName, RegisteredMediaRouteProvider>> iterator =
+                mProviders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ComponentName, RegisteredMediaRouteProvider> entry = iterator.next();
+            ComponentName componentName = entry.getKey();
+            if ((packageNames == null || packageNames.contains(componentName.getPackageName()))
+                    && !scannedServices.contains(componentName)) {
+                RegisteredMediaRouteProvider provider = entry.getValue();
+                iterator.remove();
                 mCallback.removeProvider(provider);
-                mProviders.remove(provider);
                 provider.setControllerCallback(null);
                 provider.stop();
+                mStartupScheduler.removeProvider(provider);
             }
         }
     }
 
-    static boolean listContainsServiceInfo(List<ServiceInfo> serviceList, ServiceInfo target) {
-        if (target == null || serviceList == null || serviceList.isEmpty()) {
-            return false;
+    private boolean isMediaRoute2ProviderService(@NonNull ServiceInfo serviceInfo) {
+        Set<String> classNames = mMediaRoute2ProviderServices.get(serviceInfo.packageName);
+        return classNames != null && classNames.contains(serviceInfo.name);
+    }
+
+    /**
+     * Returns the control categories that the service advertises in its manifest, or null if it
+     * doesn't advertise any.
+     *
+     * @see MediaRouteProviderService#SERVICE_META_DATA_CONTROL_CATEGORIES
+     */
+    @Nullable
+    static List<String> getAdvertisedControlCategories(@NonNull ServiceInfo serviceInfo) {
+        Bundle metaData = serviceInfo.metaData;
+        String value = metaData != null
+                ? metaData.getString(MediaRouteProviderService.SERVICE_META_DATA_CONTROL_CATEGORIES)
+                : null;
+        if (value == null) {
+            return null;
         }
-        for (ServiceInfo serviceInfo : serviceList) {
-            if (target.packageName.equals(serviceInfo.packageName)
-                    && target.name.equals(serviceInfo.name)) {
-                return true;
+        List<String> categories = new ArrayList<>();
+        for (String category : TextUtils.split(value, ",")) {
+            category = category.trim();
+            if (!category.isEmpty() && !categories.contains(category)) {
+                categories.add(category);
             }
         }
-        return false;
+        // A value without categories is ignored rather than hiding the service.
+        return categories.isEmpty() ? null : categories;
     }
 
     @RequiresApi(Build.VERSION_CODES.R)
     @NonNull
     List<ServiceInfo> getMediaRoute2ProviderServices() {
+        return getMediaRoute2ProviderServices(/* packageNames= */ null);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.R)
+    @NonNull
+    private List<ServiceInfo> getMediaRoute2ProviderServices(
+            @Nullable Collection<String> packageNames) {
         Intent intent = new Intent(MediaRoute2ProviderService.SERVICE_INTERFACE);
 
         List<ServiceInfo> serviceInfoList = new ArrayList<>();
-        for (ResolveInfo resolveInfo : mPackageManager.queryIntentServices(intent, 0)) {
-            ServiceInfo serviceInfo = resolveInfo.serviceInfo;
+        for (ServiceInfo serviceInfo : queryServices(intent, 0, packageNames)) {
             if (mMediaTransferRestrictedToSelfProviders
                     && !TextUtils.equals(mContext.getPackageName(), serviceInfo.packageName)) {
                 // The app only allows its own Media Router provider to be a MediaRoute2 provider.
@@ -196,28 +351,54 @@ final class RegisteredMediaRouteProviderWatcher {
         return serviceInfoList;
     }
 
-    private int findProvider(String packageName, String className) {
-        int count = mProviders.size();
-        for (int i = 0; i < count; i++) {
-            RegisteredMediaRouteProvider provider = mProviders.get(i);
-            if (provider.hasComponentName(packageName, className)) {
-                return i;
+    /**
+     * Returns the services that handle the given intent, in the given packages or in all packages
+     * if null.
+     */
+    @NonNull
+    private List<ServiceInfo> queryServices(
+            @NonNull Intent intent, int flags, @Nullable Collection<String> packageNames) {
+        List<ResolveInfo> resolveInfos;
+        if (packageNames == null) {
+            resolveInfos = mPackageManager.queryIntentServices(intent, flags);
+        } else {
+            resolveInfos = new ArrayList<>();
+            for (String packageName : packageNames) {
+                resolveInfos.addAll(mPackageManager.queryIntentServices(
+                        new Intent(intent).setPackage(packageName), flags));
+            }
+        }
+        List<ServiceInfo> serviceInfos = new ArrayList<>(resolveInfos.size());
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            if (resolveInfo.serviceInfo != null) {
+                serviceInfos.add(resolveInfo.serviceInfo);
             }
         }
-        return -1;
+        return serviceInfos;
     }
 
     private final BroadcastReceiver mScanPackagesReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            scanPackages();
+            Uri data = intent.getData();
+            String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (TextUtils.isEmpty(packageName)) {
+                rescan();
+                return;
+            }
+            if (Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())
+                    || (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())
+                            && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false))) {
+                mReplacedPackageNames.add(packageName);
+            }
+            rescanPackage(packageName);
         }
     };
 
     private final Runnable mScanPackagesRunnable = new Runnable() {
         @Override
         public void run() {
-            scanPackages();
+            scanPendingPackages();
         }
     };
 